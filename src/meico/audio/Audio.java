@@ -16,11 +16,13 @@ import net.sourceforge.lame.mp3.*;
 import javax.sound.sampled.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * This class represents audio data.
@@ -144,7 +146,7 @@ public class Audio {
     }
 
     /**
-     * convert an AudioInputStream to a byte array
+     * convert an AudioInputStream to a byte array; if the length of the stream is not specified, it is read until its end
      *
      * @param stream
      * @return
@@ -152,6 +154,13 @@ public class Audio {
     public static byte[] convertAudioInputStream2ByteArray(AudioInputStream stream) {
         byte[] array;
         try {
+            if (stream.getFrameLength() == AudioSystem.NOT_SPECIFIED) {                         // e.g. a rendering with trimmed silent tail
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[65536 - (65536 % stream.getFormat().getFrameSize())];    // AudioInputStream reads only integral frames
+                for (int read; (read = stream.read(buffer)) >= 0; )
+                    out.write(buffer, 0, read);
+                return out.toByteArray();
+            }
             array = new byte[(int) (stream.getFrameLength() * stream.getFormat().getFrameSize())];   // initialize the byte array with the length of the stream
             stream.read(array);         // write the stream's bytes into the byte array
         } catch (IOException e) {       // in case of an IOException
@@ -268,14 +277,13 @@ public class Audio {
 
         // write the waveform images into this.waveform
         BufferedImage waveform = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);          // we start with an empty image, all black
+        int[] pixels = ((DataBufferInt) waveform.getRaster().getDataBuffer()).getData();
         for (int waveformNum = 0; waveformNum < waveforms.size(); ++waveformNum) {
             BufferedImage w = waveforms.get(waveformNum);
+            int[] wPixels = ((DataBufferInt) w.getRaster().getDataBuffer()).getData();
             int yOffset = waveformNum * heightSubdivision;                                              // the y pixel offset when writing the waveform into this.waveform
-            for (int y = 0; y < w.getHeight(); ++y) {                                                   // for each pixel row
-                for (int x = 0; x < w.getWidth(); ++x) {                                                // go through each pixel
-                    waveform.setRGB(x, y + yOffset, w.getRGB(x, y));                                    // set the pixel color
-                }
-            }
+            for (int y = 0; y < w.getHeight(); ++y)                                                     // for each pixel row
+                System.arraycopy(wPixels, y * w.getWidth(), pixels, (y + yOffset) * width, w.getWidth());   // copy the row
         }
 
         return waveform;
@@ -309,11 +317,14 @@ public class Audio {
 
         // draw the waveform in a BufferedImage instance
         BufferedImage waveform = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);  // we start with an empty image, all black
+        int[] pixels = ((DataBufferInt) waveform.getRaster().getDataBuffer()).getData();        // we write directly into the image's data buffer, this is much faster than setRGB()
+        int darkGray = Color.DARK_GRAY.getRGB();
+        int white = Color.WHITE.getRGB();
         double yTranslationFactor = -0.5 * waveform.getHeight();                                // this value is needed several times to scale and translate the sample values (in [-1.0, 1.0]) to vertical pixel coordinates (in [waveform.getHeight(), 0])
         int yPositive = (int) Math.round(-yTranslationFactor);                                  // initial value corresponds with amplitude value 0.0
         int yNegative = yPositive;
         for (int x = 0; x < width; ++x) {                                                       // for each pixel column
-            waveform.setRGB(x, yPositive, Color.DARK_GRAY.getRGB());                            // draw a dark gray center line
+            pixels[(yPositive * width) + x] = darkGray;                                         // draw a dark gray center line
 
             // scale and translate the values to vertical pixel coordinates
             if (isSet[x]) {                                                                     // if we have a sample value, otherwise we use the vertical pixel coordinates of the previous column
@@ -323,7 +334,7 @@ public class Audio {
 
             // color the pixels from the lowest to highest value
             for (int y = yPositive; y < yNegative; ++y)
-                waveform.setRGB(x, y, Color.WHITE.getRGB());
+                pixels[(y * width) + x] = white;
         }
 
         return waveform;
@@ -416,13 +427,15 @@ public class Audio {
         if (spectrogram.isEmpty())                                              // make sure we have a non-empty spectrogram
             return new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);         // if we don't, return a one pixel black image
 
-        ArrayList<LogFrequencySpectrum> spectrogramCopy = spectrogram;
+        int width = spectrogram.size();
+        int height = spectrogram.get(0).getData().length;
+        float scale = 1.0f;                                                     // the factor to normalize the values with
 
         if (normalize) {
             // first, normalize the array values (scale it so the highest value is 1.0)
             // find highest value, so we know how the amount to scale up, because that is also the scale ratio (max = 1.0)
             float highest = 0.0f;
-            for (LogFrequencySpectrum spectrum : spectrogramCopy) {
+            for (LogFrequencySpectrum spectrum : spectrogram) {
                 for (float binValue : spectrum.getData()) {
                     if (binValue > highest)
                         highest = binValue;
@@ -430,38 +443,25 @@ public class Audio {
             }
 
             if (highest == 0.0f)                                            // trivial case, just return a black image
-                return new BufferedImage(spectrogramCopy.size(), spectrogramCopy.get(0).getData().length, BufferedImage.TYPE_INT_RGB);
-
-            // we need to change the spectrum values, but we do it in the copy, not the original spectrogram
-            spectrogramCopy = new ArrayList<>();
-            for (LogFrequencySpectrum spectrum : spectrogram) {
-                try {
-                    spectrogramCopy.add((LogFrequencySpectrum) spectrum.clone());
-                } catch (CloneNotSupportedException e) {
-                    e.printStackTrace();
-                }
-            }
+                return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 
-            // normalize the values
-            if (highest != 1.0f) {                                          // only if necessary, just a little optimization
-                for (LogFrequencySpectrum spectrum : spectrogramCopy) {
-                    for (int y = 0; y < spectrum.getData().length; ++y) {
-                        spectrum.getData()[y] /= highest;
-                    }
-                }
-            }
+            scale = 1.0f / highest;                                         // the values are normalized during rasterization, so the spectrogram remains unaltered and we need no copy of it
         }
 
-        // create the pixel array
-        BufferedImage image = new BufferedImage(spectrogramCopy.size(), spectrogramCopy.get(0).getData().length, BufferedImage.TYPE_INT_RGB);
-        for (int x = 0; x < spectrogramCopy.size(); ++x) {
-            for (int y = 0; y < spectrogramCopy.get(x).getData().length; ++y) {
-                float value = (float) Math.pow(spectrogramCopy.get(x).getData()[y], gamma);         // apply gamma correction
-//                Color color = new Color(value, value, value);                                   // create a gray color
-                Color color = colorCoding.getColor(value);                                      // get the color for the value
-                image.setRGB(x, -y + spectrogramCopy.get(x).getData().length - 1, color.getRGB());  // set the pixel's color
+        // the color lookup table with gamma correction, so we do not have to compute it per pixel
+        int[] colorTable = colorCoding.createLookupTable(gamma);
+        final float s = scale;
+
+        // create the pixel array; we write directly into the image's data buffer, the columns are independent and can be processed in parallel
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        IntStream.range(0, width).parallel().forEach(x -> {
+            float[] data = spectrogram.get(x).getData();
+            for (int y = 0; (y < data.length) && (y < height); ++y) {
+                int color = colorTable[ColorCoding.getLookupIndex(data[y] * s)]; // get the color for the value
+                pixels[((height - 1 - y) * width) + x] = color;                                                  // set the pixel's color, low frequencies at the bottom
             }
-        }
+        });
 
         // in case we want to save the image to a file, do this
 //        try {
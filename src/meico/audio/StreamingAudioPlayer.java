@@ -0,0 +1,754 @@
+package meico.audio;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class provides audio playback through a SourceDataLine. Other than AudioPlayer, which copies the whole audio data into a Clip,
+ * it streams the data from its source through a ring buffer into the line. The source can be an AudioInputStream
+ * (e.g. the stream of Midi2AudioRenderer, which renders while it is read), a memory-mapped WAV file or the data of an Audio object.
+ * Playback starts as soon as the first data arrives in the ring buffer.
+ * @author Axel Berndt
+ */
+public class StreamingAudioPlayer {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 18;      // the default size of the ring buffer in bytes, about 1.5 seconds of 44.1 kHz 16 bit stereo audio
+    public static final int DEFAULT_LATENCY = 100;              // the default size of the line's buffer in milliseconds
+
+    private final int bufferSize;                               // the size of the ring buffer in bytes
+    private final int latency;                                  // the size of the line's buffer in milliseconds
+
+    private Source source = null;                               // the audio data
+    private AudioFormat format = null;
+    private long frameLength = AudioSystem.NOT_SPECIFIED;       // the length of the audio data in frames, if known
+    private SourceDataLine line = null;
+
+    private final Object lock = new Object();                   // guards the ring buffer and the session state
+    private byte[] ring = null;                                 // the ring buffer between the prefetching thread and the writing thread
+    private long ringWritten = 0;                               // the number of bytes that the prefetching thread wrote into the ring buffer during the current session
+    private long ringRead = 0;                                  // the number of bytes that the writing thread read from the ring buffer during the current session
+    private boolean sourceEnded = false;                        // set true when the prefetching thread reached the end of the source
+
+    private int session = 0;                                    // identifies the current pair of threads, the threads of earlier sessions terminate
+    private boolean active = false;                             // true while the threads of the current session are running
+    private boolean paused = false;                             // the threads are running, but the line is stopped
+    private Thread prefetcher = null;
+    private Thread writer = null;
+
+    private long startFrame = 0;                                // the frame of the source at which the current session started
+    private long lineStartFrame = 0;                            // the line's frame position at which the current session started
+    private long playbackPositionInFrames = 0;                  // the playback position while no session is active
+
+    private long underrunCount = 0;                             // how often the writing thread found the ring buffer empty before the end of the source
+    private long underrunNanos = 0;                             // how long it waited for data in total
+
+    /**
+     * constructor
+     */
+    public StreamingAudioPlayer() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_LATENCY);
+    }
+
+    /**
+     * constructor
+     * @param bufferSize the size of the ring buffer in bytes; a larger buffer bridges longer stalls of the source, e.g. a renderer that is temporarily slower than real time
+     * @param latency the size of the line's buffer in milliseconds; a smaller buffer reacts faster to seek, pause and stop
+     */
+    public StreamingAudioPlayer(int bufferSize, int latency) {
+        this.bufferSize = bufferSize;
+        this.latency = latency;
+    }
+
+    /**
+     * load audio data without playing it back
+     * @param audio
+     * @return true for success, else false
+     */
+    public synchronized boolean setAudioData(Audio audio) {
+        if (audio == null)
+            return false;
+        return this.setAudioData(audio.getAudio(), audio.getFormat());
+    }
+
+    /**
+     * load audio data without playing it back; the data is not copied
+     * @param pcmAudio
+     * @param format
+     * @return true for success, else false
+     */
+    public synchronized boolean setAudioData(byte[] pcmAudio, AudioFormat format) {
+        if ((pcmAudio == null) || (format == null))
+            return false;
+        return this.setSource(new BufferSource(ByteBuffer.wrap(pcmAudio)), format, pcmAudio.length / format.getFrameSize());
+    }
+
+    /**
+     * load audio data from a file without playing it back;
+     * the sample data of a WAV file is memory-mapped, other files are streamed via an AudioInputStream that is opened again to move the playback position backward
+     * @param file
+     * @return true for success, else false
+     */
+    public synchronized boolean setAudioData(File file) {
+        try {
+            AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+            AudioFormat format = fileFormat.getFormat();
+            if ((fileFormat.getType() == AudioFileFormat.Type.WAVE) && (format.getFrameSize() > 0)) {
+                ByteBuffer data = mapWavData(file);
+                if (data != null)
+                    return this.setSource(new BufferSource(data), format, data.capacity() / format.getFrameSize());
+            }
+            AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+            return this.setSource(new StreamSource(stream, file), stream.getFormat(), stream.getFrameLength());
+        } catch (UnsupportedAudioFileException | IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Load audio data from a stream without playing it back. The stream is read during playback,
+     * so the playback position can only be moved forward (see setFramePosition()).
+     * The stream is closed when other audio data is loaded or on stop().
+     * @param stream
+     * @return true for success, else false
+     */
+    public synchronized boolean setAudioData(AudioInputStream stream) {
+        if (stream == null)
+            return false;
+        return this.setSource(new StreamSource(stream, null), stream.getFormat(), stream.getFrameLength());
+    }
+
+    /**
+     * start playing back the given audio data
+     * @param audio
+     */
+    public synchronized void play(Audio audio) {
+        this.stop();
+        if (this.setAudioData(audio))
+            this.play();
+    }
+
+    /**
+     * start playing back the given stream, e.g. the output of Midi2AudioRenderer, before it is completely rendered
+     * @param stream
+     */
+    public synchronized void play(AudioInputStream stream) {
+        this.stop();
+        if (this.setAudioData(stream))
+            this.play();
+    }
+
+    /**
+     * Given that the player has already loaded audio data, this can be used to start playback.
+     * The playback will start at the beginning or at a specified position (via setFramePosition() or pause()).
+     * @throws UnsupportedOperationException if the source is a stream that can only be read forward and the playback position is behind it, e.g. when the stream was played to its end
+     */
+    public synchronized void play() {
+        if (this.source == null)
+            return;
+
+        synchronized (this.lock) {
+            if (this.active) {
+                if (this.paused) {                                              // resume
+                    this.paused = false;
+                    this.line.start();
+                    this.lock.notifyAll();
+                }
+                return;
+            }
+        }
+        if (!this.source.canSeek(this.playbackPositionInFrames * this.format.getFrameSize()))
+            throw new UnsupportedOperationException("Cannot go back to frame " + this.playbackPositionInFrames + " of this stream, it can only be read forward.");
+        this.startSession(this.playbackPositionInFrames);
+    }
+
+    /**
+     * start playback at a specified position
+     * @param relativePlaybackPosition in [0.0, 1.0)
+     */
+    public synchronized void play(double relativePlaybackPosition) {
+        if ((this.source == null) || (relativePlaybackPosition >= 1.0))
+            return;
+        this.setRelativePlaybackPosition(relativePlaybackPosition);
+        this.play();
+    }
+
+    /**
+     * pause playback, the audio data and the buffered data are kept
+     */
+    public synchronized void pause() {
+        synchronized (this.lock) {
+            if (!this.active || this.paused)
+                return;
+            this.paused = true;
+            this.line.stop();
+        }
+    }
+
+    /**
+     * stop playback and release the audio data and the line
+     */
+    public synchronized void stop() {
+        this.stopSession();
+        if (this.line != null) {
+            this.line.close();
+            this.line = null;
+        }
+        if (this.source != null) {
+            this.source.close();
+            this.source = null;
+        }
+        this.format = null;
+        this.frameLength = AudioSystem.NOT_SPECIFIED;
+        this.ring = null;
+        this.playbackPositionInFrames = 0;
+    }
+
+    /**
+     * is the player playing?
+     * @return
+     */
+    public synchronized boolean isPlaying() {
+        synchronized (this.lock) {
+            return this.active && !this.paused;
+        }
+    }
+
+    /**
+     * @return the format of the loaded audio data or null
+     */
+    public synchronized AudioFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * returns the frame count of the audio data, 0 if none is loaded or AudioSystem.NOT_SPECIFIED if the length of the stream is unknown
+     * @return
+     */
+    public synchronized long getFrameLength() {
+        if (this.source == null)
+            return 0;
+        return this.frameLength;
+    }
+
+    /**
+     * returns the length of the audio data in microseconds, 0 if none is loaded or AudioSystem.NOT_SPECIFIED if the length of the stream is unknown
+     * @return
+     */
+    public synchronized long getMicrosecondLength() {
+        if ((this.source == null) || (this.frameLength == AudioSystem.NOT_SPECIFIED))
+            return this.getFrameLength();
+        return (long) (this.frameLength * 1000000.0 / this.format.getFrameRate());
+    }
+
+    /**
+     * obtains the current playback position in frames
+     * @return
+     */
+    public synchronized long getFramePosition() {
+        synchronized (this.lock) {
+            if (this.active)
+                return this.startFrame + (this.line.getLongFramePosition() - this.lineStartFrame);
+            return this.playbackPositionInFrames;
+        }
+    }
+
+    /**
+     * obtains the current playback position in microseconds
+     * @return
+     */
+    public synchronized long getMicrosecondPosition() {
+        if (this.source == null)
+            return 0;
+        return (long) (this.getFramePosition() * 1000000.0 / this.format.getFrameRate());
+    }
+
+    /**
+     * obtains the current playback position, expressed as relative value between 0.0 (beginning) and 1.0 (end);
+     * if the length of the audio data is unknown, it returns 0.0
+     * @return
+     */
+    public synchronized double getRelativePosition() {
+        if ((this.source == null) || (this.frameLength <= 0))
+            return 0.0;
+        return (double) this.getFramePosition() / (double) this.frameLength;
+    }
+
+    /**
+     * a setter for the playback position
+     * @param microseconds
+     */
+    public synchronized void setMicrosecondPosition(long microseconds) {
+        if (this.source == null)
+            return;
+        this.setFramePosition((long) (microseconds * this.format.getFrameRate() / 1000000.0));
+    }
+
+    /**
+     * a setter for the playback position; if the source is a stream that was not loaded from a file, the position can only be moved forward
+     * @param frames
+     * @throws UnsupportedOperationException if the source cannot go to that position; the playback position is then where the stream is, as the data that was buffered before is dropped
+     */
+    public synchronized void setFramePosition(long frames) {
+        if (this.source == null)
+            return;
+        if ((this.frameLength != AudioSystem.NOT_SPECIFIED) && (frames > this.frameLength))
+            frames = this.frameLength;
+        else if (frames < 0)
+            frames = 0;
+
+        boolean playing = this.isPlaying();
+        this.stopSession();                                                     // the prefetcher terminates, so the position of the source does not change anymore
+        if (!this.source.canSeek(frames * this.format.getFrameSize())) {        // the source cannot go there, continue where it is
+            long sourceFrame = this.source.getPosition() / this.format.getFrameSize();
+            this.playbackPositionInFrames = sourceFrame;
+            if (playing)
+                this.startSession(sourceFrame);
+            throw new UnsupportedOperationException("Cannot move the playback position of this stream backward to frame " + frames + ", it can only be read forward. The playback position is frame " + sourceFrame + ".");
+        }
+        this.playbackPositionInFrames = frames;
+        if (playing)
+            this.startSession(frames);
+    }
+
+    /**
+     * a setter for the playback position
+     * @param relativePosition values in [0.0, 1.0)
+     */
+    public synchronized void setRelativePlaybackPosition(double relativePosition) {
+        if ((this.source == null) || (this.frameLength <= 0))
+            return;
+        if (relativePosition >= 1.0)
+            this.setFramePosition(this.frameLength);
+        else if (relativePosition <= 0.0)
+            this.setFramePosition(0);
+        else
+            this.setFramePosition((long) (this.frameLength * relativePosition));
+    }
+
+    /**
+     * @return the number of buffer underruns, i.e. how often playback had to wait for the source, e.g. because the rendering was slower than real time
+     */
+    public long getUnderrunCount() {
+        synchronized (this.lock) {
+            return this.underrunCount;
+        }
+    }
+
+    /**
+     * @return the total time in microseconds that playback had to wait for the source
+     */
+    public long getUnderrunMicroseconds() {
+        synchronized (this.lock) {
+            return this.underrunNanos / 1000;
+        }
+    }
+
+    /**
+     * @return the number of bytes in the ring buffer that are not yet written to the line
+     */
+    public int getBufferedBytes() {
+        synchronized (this.lock) {
+            return (int) (this.ringWritten - this.ringRead);
+        }
+    }
+
+    /**
+     * set the underrun metrics to 0
+     */
+    public void resetUnderrunMetrics() {
+        synchronized (this.lock) {
+            this.underrunCount = 0;
+            this.underrunNanos = 0;
+        }
+    }
+
+    /**
+     * replace the audio data
+     * @param source
+     * @param format
+     * @param frameLength
+     * @return true for success, else false
+     */
+    private boolean setSource(Source source, AudioFormat format, long frameLength) {
+        this.stop();
+        try {
+            this.line = AudioSystem.getSourceDataLine(format);
+            int lineBufferSize = Math.max(1, (int) (format.getFrameRate() * this.latency / 1000.0)) * format.getFrameSize();
+            this.line.open(format, lineBufferSize);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            e.printStackTrace();
+            source.close();
+            this.line = null;
+            return false;
+        }
+        this.source = source;
+        this.format = format;
+        this.frameLength = frameLength;
+        this.ring = new byte[Math.max(2, this.bufferSize / format.getFrameSize()) * format.getFrameSize()];    // a multiple of the frame size
+        return true;
+    }
+
+    /**
+     * move the source to the specified position and start the threads that stream it into the line
+     * @param frame
+     * @return false if the source cannot be moved to that position
+     */
+    private boolean startSession(long frame) {
+        try {
+            if (!this.source.seek(frame * this.format.getFrameSize()))
+                return false;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        final int id;
+        synchronized (this.lock) {
+            id = ++this.session;
+            this.ringWritten = 0;
+            this.ringRead = 0;
+            this.sourceEnded = false;
+            this.active = true;
+            this.paused = false;
+            this.line.flush();
+            this.startFrame = frame;
+            this.lineStartFrame = this.line.getLongFramePosition();
+        }
+
+        this.prefetcher = new Thread(() -> this.prefetch(id), "meico audio prefetcher");
+        this.writer = new Thread(() -> this.write(id), "meico audio writer");
+        this.prefetcher.setDaemon(true);
+        this.writer.setDaemon(true);
+        this.prefetcher.start();
+        this.writer.start();
+        this.line.start();
+        return true;
+    }
+
+    /**
+     * terminate the threads of the current session and store the playback position
+     */
+    private void stopSession() {
+        Thread prefetcher, writer;
+        synchronized (this.lock) {
+            if (!this.active)
+                return;
+            this.playbackPositionInFrames = this.startFrame + (this.line.getLongFramePosition() - this.lineStartFrame);
+            ++this.session;                                                     // the threads of the current session terminate
+            this.active = false;
+            this.paused = false;
+            this.line.stop();
+            this.line.flush();                                                  // returns from a blocking write()
+            this.lock.notifyAll();
+            prefetcher = this.prefetcher;
+            writer = this.writer;
+        }
+
+        try {
+            prefetcher.join();                                                  // the prefetcher must not read from the source while it is moved to another position
+            if (writer != Thread.currentThread())
+                writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * the prefetching thread's job, it reads the source into the ring buffer
+     * @param id the session of this thread
+     */
+    private void prefetch(int id) {
+        byte[] block = new byte[Math.min(this.ring.length / 2, Math.max(1, 8192 / this.format.getFrameSize()) * this.format.getFrameSize())];
+        int length = 0;                                                         // the number of bytes in block
+        boolean end = false;
+        while (!end) {
+            try {
+                int read = this.source.read(block, 0, block.length);
+                if (read < 0)
+                    end = true;
+                else
+                    length = read;
+            } catch (IOException e) {
+                e.printStackTrace();
+                end = true;
+            }
+
+            synchronized (this.lock) {
+                for (int offset = 0; offset < length; ) {
+                    while ((this.session == id) && (this.ringWritten - this.ringRead == this.ring.length))
+                        this.awaitLock();                                       // the ring buffer is full
+                    if (this.session != id)
+                        return;
+                    int position = (int) (this.ringWritten % this.ring.length);
+                    int n = Math.min(length - offset, Math.min(this.ring.length - (int) (this.ringWritten - this.ringRead), this.ring.length - position));
+                    System.arraycopy(block, offset, this.ring, position, n);
+                    offset += n;
+                    this.ringWritten += n;
+                    this.lock.notifyAll();
+                }
+                length = 0;
+                if (this.session != id)
+                    return;
+                if (end) {
+                    this.sourceEnded = true;
+                    this.lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * the writing thread's job, it writes the ring buffer into the line
+     * @param id the session of this thread
+     */
+    private void write(int id) {
+        int frameSize = this.format.getFrameSize();
+        byte[] block = new byte[Math.max(frameSize, Math.min(this.ring.length / 2, this.line.getBufferSize() / 4) / frameSize * frameSize)];
+        boolean started = false;                                                // the first wait for data is no underrun
+        while (true) {
+            int length;
+            synchronized (this.lock) {
+                long waitStart = 0;
+                while ((this.session == id) && (this.paused || ((this.ringWritten - this.ringRead < frameSize) && !this.sourceEnded))) {
+                    if (started && !this.paused && (waitStart == 0))
+                        waitStart = System.nanoTime();
+                    this.awaitLock();
+                }
+                if (this.session != id)
+                    return;
+                if (waitStart != 0) {
+                    ++this.underrunCount;
+                    this.underrunNanos += System.nanoTime() - waitStart;
+                }
+
+                length = (int) Math.min(block.length, this.ringWritten - this.ringRead) / frameSize * frameSize;
+                if (length == 0)                                                // the source ended and all its data went into the line
+                    break;
+                for (int offset = 0; offset < length; ) {
+                    int position = (int) (this.ringRead % this.ring.length);
+                    int n = Math.min(length - offset, this.ring.length - position);
+                    System.arraycopy(this.ring, position, block, offset, n);
+                    offset += n;
+                    this.ringRead += n;
+                }
+                this.lock.notifyAll();
+                started = true;
+            }
+
+            for (int offset = 0; offset < length; ) {
+                offset += this.line.write(block, offset, length - offset);      // returns early if the line is stopped or flushed
+                synchronized (this.lock) {
+                    while ((this.session == id) && this.paused)
+                        this.awaitLock();
+                    if (this.session != id)
+                        return;
+                }
+            }
+        }
+
+        this.line.drain();                                                      // wait until the line played everything
+        synchronized (this.lock) {                                              // end the session without joining, the prefetcher is already done
+            if (this.session != id)
+                return;
+            ++this.session;
+            this.active = false;
+            this.line.stop();
+            this.playbackPositionInFrames = 0;                                  // the playback reached the end, the next play() starts at the beginning
+        }
+    }
+
+    /**
+     * wait for a notification on the lock, the caller must hold the lock
+     */
+    private void awaitLock() {
+        try {
+            this.lock.wait(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * memory-map the sample data of a WAV file
+     * @param file
+     * @return the sample data or null if the data chunk was not found or is too large
+     * @throws IOException
+     */
+    private static ByteBuffer mapWavData(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            long position = 12;                                                 // skip "RIFF", the file size and "WAVE"
+            while (position + 8 <= channel.size()) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                byte[] id = new byte[4];
+                header.get(id);
+                long size = header.getInt() & 0xffffffffL;
+                position += 8;
+                if (new String(id, "US-ASCII").equals("data")) {
+                    size = Math.min(size, channel.size() - position);
+                    if (size > Integer.MAX_VALUE)
+                        return null;
+                    return channel.map(FileChannel.MapMode.READ_ONLY, position, size);  // the mapping stays valid when the channel is closed
+                }
+                position += size + (size & 1);                                  // chunks are word-aligned
+            }
+        }
+        return null;
+    }
+
+    /**
+     * a source of audio data
+     */
+    private interface Source {
+        /**
+         * read data like InputStream.read()
+         * @param b
+         * @param off
+         * @param len
+         * @return the number of bytes read or -1 at the end of the data
+         * @throws IOException
+         */
+        int read(byte[] b, int off, int len) throws IOException;
+
+        /**
+         * move to a byte position
+         * @param position
+         * @return false if it is not possible
+         * @throws IOException
+         */
+        boolean seek(long position) throws IOException;
+
+        /**
+         * @param position
+         * @return true if seek() can move to this byte position
+         */
+        boolean canSeek(long position);
+
+        /**
+         * @return the byte position of the next read()
+         */
+        long getPosition();
+
+        /**
+         * release the data
+         */
+        void close();
+    }
+
+    /**
+     * a source that reads from a buffer, e.g. a byte array or a memory-mapped file
+     */
+    private static class BufferSource implements Source {
+        private final ByteBuffer buffer;
+
+        private BufferSource(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!this.buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public boolean seek(long position) {
+            this.buffer.position((int) Math.min(position, this.buffer.limit()));
+            return true;
+        }
+
+        @Override
+        public boolean canSeek(long position) {
+            return true;
+        }
+
+        @Override
+        public long getPosition() {
+            return this.buffer.position();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * a source that reads from an AudioInputStream; it can go backward only if the stream comes from a file, which is then opened again
+     */
+    private static class StreamSource implements Source {
+        private final File file;                                                // the file that the stream reads from or null
+        private AudioInputStream stream;
+        private long position = 0;
+
+        /**
+         * constructor
+         * @param stream
+         * @param file the file that the stream reads from, or null if the stream can only be read forward
+         */
+        private StreamSource(AudioInputStream stream, File file) {
+            this.stream = stream;
+            this.file = file;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = this.stream.read(b, off, len);
+            if (n > 0)
+                this.position += n;
+            return n;
+        }
+
+        @Override
+        public boolean seek(long position) throws IOException {
+            if (position < this.position) {
+                if (this.file == null)
+                    return false;
+                AudioInputStream stream;
+                try {
+                    stream = AudioSystem.getAudioInputStream(this.file);
+                } catch (UnsupportedAudioFileException e) {
+                    throw new IOException(e);
+                }
+                this.close();
+                this.stream = stream;
+                this.position = 0;
+            }
+            while (this.position < position) {
+                long n = this.stream.skip(position - this.position);
+                if (n <= 0)
+                    break;
+                this.position += n;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean canSeek(long position) {
+            return (position >= this.position) || (this.file != null);
+        }
+
+        @Override
+        public long getPosition() {
+            return this.position;
+        }
+
+        @Override
+        public void close() {
+            try {
+                this.stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
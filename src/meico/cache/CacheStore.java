@@ -0,0 +1,183 @@
+package meico.cache;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * A two-tier key-value store for binary data. The disk tier keeps one file per entry in a directory,
+ * the memory tier keeps the most recently used entries in RAM. Both tiers are size-bounded and evict
+ * the least recently used entries first.
+ * @author Axel Berndt
+ */
+class CacheStore {
+    private static final String EXTENSION = ".cache";
+
+    private final File directory;                                                   // the disk tier's directory
+    private final long maxDiskSize;                                                 // the maximum number of bytes on disk
+    private final long maxMemorySize;                                               // the maximum number of bytes in memory
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);       // key -> file size, in access order
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);   // key -> data, in access order
+    private long diskSize = 0;
+    private long memorySize = 0;
+
+    /**
+     * constructor; entries that are already in the directory are taken over, their last modification date defines their order
+     * @param directory
+     * @param maxDiskSize the maximum number of bytes on disk
+     * @param maxMemorySize the maximum number of bytes in memory, 0 disables the memory tier
+     * @throws IOException if the directory cannot be created
+     */
+    CacheStore(File directory, long maxDiskSize, long maxMemorySize) throws IOException {
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+        this.maxMemorySize = maxMemorySize;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create cache directory " + directory.getAbsolutePath() + ".");
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null)
+            return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));          // the least recently used come first
+        for (File file : files) {
+            String key = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+            this.disk.put(key, file.length());
+            this.diskSize += file.length();
+        }
+        this.evictDisk();
+    }
+
+    /**
+     * look up an entry, first in memory, then on disk
+     * @param key
+     * @return the data or null if there is no entry with this key
+     */
+    synchronized byte[] get(String key) {
+        byte[] data = this.memory.get(key);
+        if (data != null)
+            return data;
+
+        if (this.disk.get(key) == null)                                             // get() also marks the entry as recently used
+            return null;
+
+        File file = this.getFile(key);
+        try {
+            data = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {                                                   // the file is gone or corrupt
+            e.printStackTrace();
+            this.removeFromDisk(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());                          // keep the order across sessions
+        this.putInMemory(key, data);
+        return data;
+    }
+
+    /**
+     * add an entry to both tiers, an existing entry with the same key is replaced
+     * @param key
+     * @param data
+     */
+    synchronized void put(String key, byte[] data) {
+        this.putInMemory(key, data);
+
+        if (data.length > this.maxDiskSize)
+            return;
+
+        File file = this.getFile(key);
+        try {
+            File tmp = File.createTempFile(key, ".tmp", this.directory);           // write to a temporary file first, so no half-written entry can be read
+            Files.write(tmp.toPath(), data);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        Long previous = this.disk.put(key, (long) data.length);
+        if (previous != null)
+            this.diskSize -= previous;
+        this.diskSize += data.length;
+        this.evictDisk();
+    }
+
+    /**
+     * delete all entries from both tiers
+     */
+    synchronized void clear() {
+        for (String key : new ArrayList<>(this.disk.keySet()))
+            this.removeFromDisk(key);
+        this.memory.clear();
+        this.memorySize = 0;
+    }
+
+    /**
+     * @return the number of bytes on disk
+     */
+    synchronized long getDiskSize() {
+        return this.diskSize;
+    }
+
+    /**
+     * @return the number of bytes in memory
+     */
+    synchronized long getMemorySize() {
+        return this.memorySize;
+    }
+
+    /**
+     * add an entry to the memory tier and evict the least recently used entries if it grows too large
+     * @param key
+     * @param data
+     */
+    private void putInMemory(String key, byte[] data) {
+        if (data.length > this.maxMemorySize)
+            return;
+
+        byte[] previous = this.memory.put(key, data);
+        if (previous != null)
+            this.memorySize -= previous.length;
+        this.memorySize += data.length;
+
+        Iterator<Map.Entry<String, byte[]>> it = this.memory.entrySet().iterator();
+        while ((this.memorySize > this.maxMemorySize) && it.hasNext()) {
+            this.memorySize -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * delete the least recently used files until the disk tier fits into its size limit
+     */
+    private void evictDisk() {
+        Iterator<Map.Entry<String, Long>> it = this.disk.entrySet().iterator();
+        while ((this.diskSize > this.maxDiskSize) && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            this.getFile(entry.getKey()).delete();
+            this.diskSize -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * delete an entry from the disk tier
+     * @param key
+     */
+    private void removeFromDisk(String key) {
+        Long size = this.disk.remove(key);
+        if (size != null)
+            this.diskSize -= size;
+        this.getFile(key).delete();
+    }
+
+    /**
+     * the file of an entry
+     * @param key
+     * @return
+     */
+    private File getFile(String key) {
+        return new File(this.directory, key + EXTENSION);
+    }
+}
@@ -0,0 +1,466 @@
+package meico.cache;
+
+import meico.Meico;
+import meico.audio.Audio;
+import meico.mei.Mei;
+import meico.midi.Midi;
+import meico.mpm.Mpm;
+import meico.mpm.elements.Performance;
+import meico.msm.Msm;
+import meico.musicxml.MusicXml;
+import meico.musicxml.MusicXmlWriter;
+import meico.supplementary.KeyValue;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class wraps meico's conversions with a persistent cache. The results are stored under a key
+ * that is computed from the content of the input data, its filename (as the output filenames and the
+ * MPM metadata are derived from it), all conversion parameters and the meico version. Hence, a repeated
+ * conversion of unchanged data returns the stored result instead of converting again.
+ * Each request returns new instances, so the results can be edited without affecting the cache.
+ * <br>
+ * Usage: <code>ConversionCache cache = new ConversionCache(new File("cache"), 1L &lt;&lt; 30, 64L &lt;&lt; 20);
+ * Midi midi = cache.exportMidi(msm, 120.0, true);</code>
+ * @author Axel Berndt
+ */
+public class ConversionCache {
+    private static final String AUDIO_FORMAT = "PCM_SIGNED 44100 Hz 16 bit stereo";   // the sample format of Midi.exportAudio(File), it is part of the audio keys
+    private static final ConcurrentHashMap<String, String> soundbankHashes = new ConcurrentHashMap<>();    // soundbank path, size and date -> content hash, so the soundbank files are hashed only once
+
+    private final CacheStore store;
+
+    /**
+     * constructor
+     * @param directory the directory of the disk tier; entries from previous sessions are reused
+     * @param maxDiskSize the maximum number of bytes on disk
+     * @param maxMemorySize the maximum number of bytes in memory, 0 disables the memory tier
+     * @throws IOException if the directory cannot be created
+     */
+    public ConversionCache(File directory, long maxDiskSize, long maxMemorySize) throws IOException {
+        this.store = new CacheStore(directory, maxDiskSize, maxMemorySize);
+    }
+
+    /**
+     * a cached version of Mei.exportMsmMpm(ppq, dontUseChannel10, ignoreExpansions, cleanup)
+     * @param mei
+     * @param ppq
+     * @param dontUseChannel10
+     * @param ignoreExpansions
+     * @param cleanup
+     * @return
+     */
+    public KeyValue<List<Msm>, List<Mpm>> exportMsmMpm(Mei mei, int ppq, boolean dontUseChannel10, boolean ignoreExpansions, boolean cleanup) {
+        String key = ConversionCache.createKey("exportMsmMpm", mei.getFile(), mei.toXML().getBytes(StandardCharsets.UTF_8), ppq, dontUseChannel10, ignoreExpansions, cleanup);
+
+        byte[] cached = this.store.get(key);
+        if (cached != null) {
+            try {
+                List<byte[]> entries = ConversionCache.unpack(cached);
+                ArrayList<Msm> msms = new ArrayList<>();
+                for (byte[] entry : ConversionCache.unpack(entries.get(0))) {
+                    KeyValue<File, byte[]> data = ConversionCache.readFileAndData(entry);
+                    Msm msm = new Msm(new ByteArrayInputStream(data.getValue()));
+                    msm.setFile(data.getKey());
+                    msms.add(msm);
+                }
+                ArrayList<Mpm> mpms = new ArrayList<>();
+                for (byte[] entry : ConversionCache.unpack(entries.get(1))) {
+                    KeyValue<File, byte[]> data = ConversionCache.readFileAndData(entry);
+                    Mpm mpm = new Mpm(new ByteArrayInputStream(data.getValue()));
+                    mpm.setFile(data.getKey());
+                    mpms.add(mpm);
+                }
+                return new KeyValue<>(msms, mpms);
+            } catch (Exception e) {                                                     // if the entry cannot be read, convert again
+                e.printStackTrace();
+            }
+        }
+
+        KeyValue<List<Msm>, List<Mpm>> result = mei.exportMsmMpm(ppq, dontUseChannel10, ignoreExpansions, cleanup);
+        if ((result == null) || (result.getKey() == null) || (result.getValue() == null))
+            return result;
+
+        ArrayList<byte[]> msms = new ArrayList<>();
+        for (Msm msm : result.getKey())
+            msms.add(ConversionCache.writeFileAndData(msm.getFile(), msm.toXML().getBytes(StandardCharsets.UTF_8)));
+        ArrayList<byte[]> mpms = new ArrayList<>();
+        for (Mpm mpm : result.getValue())
+            mpms.add(ConversionCache.writeFileAndData(mpm.getFile(), mpm.toXML().getBytes(StandardCharsets.UTF_8)));
+        ArrayList<byte[]> entries = new ArrayList<>();
+        entries.add(ConversionCache.pack(msms));
+        entries.add(ConversionCache.pack(mpms));
+        this.store.put(key, ConversionCache.pack(entries));
+
+        return result;
+    }
+
+    /**
+     * a cached version of Mei.exportMusicXml(ignoreExpansions)
+     * @param mei
+     * @param ignoreExpansions
+     * @return
+     */
+    public List<MusicXml> exportMusicXml(Mei mei, boolean ignoreExpansions) {
+        String key = ConversionCache.createKey("exportMusicXml", mei.getFile(), mei.toXML().getBytes(StandardCharsets.UTF_8), ignoreExpansions);
+
+        byte[] cached = this.store.get(key);
+        if (cached != null) {
+            ArrayList<MusicXml> musicXmls = new ArrayList<>();
+            try {
+                for (byte[] entry : ConversionCache.unpack(cached)) {
+                    List<byte[]> typeAndData = ConversionCache.unpack(entry);
+                    if (typeAndData.size() != 2)
+                        throw new IOException("Cannot read cached MusicXML data.");
+                    KeyValue<File, byte[]> data = ConversionCache.readFileAndData(typeAndData.get(1));
+                    MusicXml musicXml = MusicXml.from(new String(data.getValue(), StandardCharsets.UTF_8));
+                    if (musicXml == null)
+                        throw new IOException("Cannot read cached MusicXML data.");
+                    if (new String(typeAndData.get(0), StandardCharsets.UTF_8).equals(MusicXml.MusicXmlType.scoreTimewise.name()))
+                        musicXml = musicXml.toScoreTimewise();                          // the data was cached as score-partwise, so we convert it back
+                    if (data.getKey() != null)
+                        musicXml.setFile(data.getKey());
+                    musicXmls.add(musicXml);
+                }
+                return musicXmls;
+            } catch (IOException e) {                                                   // if the entry cannot be read, convert again
+                e.printStackTrace();
+            }
+        }
+
+        List<MusicXml> result = mei.exportMusicXml(ignoreExpansions);
+        if (result == null)
+            return null;
+
+        ArrayList<byte[]> entries = new ArrayList<>();
+        MusicXmlWriter writer = new MusicXmlWriter();
+        try {
+            for (MusicXml musicXml : result) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                writer.write(musicXml, outputStream);                                   // score-timewise data is written as score-partwise, so we store the type with it
+                ArrayList<byte[]> typeAndData = new ArrayList<>();
+                typeAndData.add(musicXml.getType().name().getBytes(StandardCharsets.UTF_8));
+                typeAndData.add(ConversionCache.writeFileAndData(musicXml.getFile(), outputStream.toByteArray()));
+                entries.add(ConversionCache.pack(typeAndData));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return result;                                                              // the result is fine, it just cannot be cached
+        }
+        this.store.put(key, ConversionCache.pack(entries));
+
+        return result;
+    }
+
+    /**
+     * a cached version of Msm.exportMidi(bpm, generateProgramChanges)
+     * @param msm
+     * @param bpm
+     * @param generateProgramChanges
+     * @return
+     */
+    public Midi exportMidi(Msm msm, double bpm, boolean generateProgramChanges) {
+        String key = ConversionCache.createKey("exportMidi", msm.getFile(), msm.toXML().getBytes(StandardCharsets.UTF_8), bpm, generateProgramChanges);
+
+        Midi midi = this.getMidi(key);
+        if (midi != null)
+            return midi;
+
+        midi = msm.exportMidi(bpm, generateProgramChanges);
+        this.putMidi(key, midi);
+        return midi;
+    }
+
+    /**
+     * a cached version of Msm.exportExpressiveMidi(performance, generateProgramChanges)
+     * @param msm
+     * @param performance the performance to be rendered or null
+     * @param generateProgramChanges
+     * @return
+     */
+    public Midi exportExpressiveMidi(Msm msm, Performance performance, boolean generateProgramChanges) {
+        String performanceXml = (performance == null) ? "" : performance.getXml().toXML();
+        String key = ConversionCache.createKey("exportExpressiveMidi", msm.getFile(), msm.toXML().getBytes(StandardCharsets.UTF_8), performanceXml, generateProgramChanges);
+
+        Midi midi = this.getMidi(key);
+        if (midi != null)
+            return midi;
+
+        midi = msm.exportExpressiveMidi(performance, generateProgramChanges);
+        this.putMidi(key, midi);
+        return midi;
+    }
+
+    /**
+     * a cached version of Midi.exportAudio(soundbankFile)
+     * @param midi
+     * @param soundbankFile a soundbank file or null to use the default soundbank
+     * @return
+     */
+    public Audio exportAudio(Midi midi, File soundbankFile) {
+        String key;
+        try {
+            key = ConversionCache.createKey("exportAudio", midi.getFile(), ConversionCache.toBytes(midi), ConversionCache.hashSoundbank(soundbankFile), AUDIO_FORMAT);
+        } catch (IOException e) {                                                       // without a key, there is no caching
+            e.printStackTrace();
+            return midi.exportAudio(soundbankFile);
+        }
+
+        byte[] cached = this.store.get(key);
+        if (cached != null) {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(cached))) {
+                String filename = in.readUTF();
+                AudioFormat format = new AudioFormat(new AudioFormat.Encoding(in.readUTF()), in.readFloat(), in.readInt(), in.readInt(), in.readInt(), in.readFloat(), in.readBoolean());
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                if (filename.isEmpty())
+                    return new Audio(new AudioInputStream(new ByteArrayInputStream(data), format, data.length / format.getFrameSize()));
+                return new Audio(data, format, new File(filename));
+            } catch (IOException e) {                                                   // if the entry cannot be read, convert again
+                e.printStackTrace();
+            }
+        }
+
+        Audio audio = midi.exportAudio(soundbankFile);
+        if (audio == null)
+            return null;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            AudioFormat format = audio.getFormat();
+            out.writeUTF((audio.getFile() == null) ? "" : audio.getFile().getPath());
+            out.writeUTF(format.getEncoding().toString());
+            out.writeFloat(format.getSampleRate());
+            out.writeInt(format.getSampleSizeInBits());
+            out.writeInt(format.getChannels());
+            out.writeInt(format.getFrameSize());
+            out.writeFloat(format.getFrameRate());
+            out.writeBoolean(format.isBigEndian());
+            out.writeInt(audio.getAudio().length);
+            out.write(audio.getAudio());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return audio;                                                               // the result is fine, it just cannot be cached
+        }
+        this.store.put(key, bytes.toByteArray());
+
+        return audio;
+    }
+
+    /**
+     * delete all entries from memory and disk
+     */
+    public void clear() {
+        this.store.clear();
+    }
+
+    /**
+     * @return the number of bytes that the cache occupies on disk
+     */
+    public long getDiskSize() {
+        return this.store.getDiskSize();
+    }
+
+    /**
+     * @return the number of bytes that the cache occupies in memory
+     */
+    public long getMemorySize() {
+        return this.store.getMemorySize();
+    }
+
+    /**
+     * read a cached Midi object
+     * @param key
+     * @return the Midi object or null if it is not in the cache
+     */
+    private Midi getMidi(String key) {
+        byte[] cached = this.store.get(key);
+        if (cached == null)
+            return null;
+
+        try {
+            KeyValue<File, byte[]> data = ConversionCache.readFileAndData(cached);
+            return new Midi(MidiSystem.getSequence(new ByteArrayInputStream(data.getValue())), data.getKey());
+        } catch (IOException | InvalidMidiDataException e) {                           // if the entry cannot be read, convert again
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * store a Midi object in the cache
+     * @param key
+     * @param midi
+     */
+    private void putMidi(String key, Midi midi) {
+        if ((midi == null) || midi.isEmpty())
+            return;
+
+        try {
+            this.store.put(key, ConversionCache.writeFileAndData(midi.getFile(), ConversionCache.toBytes(midi)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * compute the cache key, i.e. a SHA-256 hash of the meico version, the conversion, the input filename and content, and the conversion parameters
+     * @param conversion the name of the conversion
+     * @param file the input's file or null
+     * @param content the input's content
+     * @param parameters the conversion parameters
+     * @return the key as hex string
+     */
+    private static String createKey(String conversion, File file, byte[] content, Object... parameters) {
+        MessageDigest digest = ConversionCache.createDigest();
+        StringBuilder header = new StringBuilder();
+        header.append("meico ").append(Meico.version).append('\n');
+        header.append(conversion).append('\n');
+        header.append((file == null) ? "" : file.getPath()).append('\n');
+        for (Object parameter : parameters)
+            header.append(parameter).append('\n');
+        digest.update(header.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(content);
+        return ConversionCache.toHex(digest.digest());
+    }
+
+    /**
+     * compute the content hash of a soundbank file; the hash is kept for the file's path, size and date, so each file is read only once
+     * @param soundbankFile the soundbank file or null for the default soundbank
+     * @return
+     * @throws IOException
+     */
+    private static String hashSoundbank(File soundbankFile) throws IOException {
+        if (soundbankFile == null)
+            return "default soundbank";
+
+        String id = soundbankFile.getAbsolutePath() + "|" + soundbankFile.length() + "|" + soundbankFile.lastModified();
+        String hash = soundbankHashes.get(id);
+        if (hash != null)
+            return hash;
+
+        MessageDigest digest = ConversionCache.createDigest();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(soundbankFile.toPath()))) {
+            byte[] buffer = new byte[65536];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer))
+                digest.update(buffer, 0, read);
+        }
+        hash = ConversionCache.toHex(digest.digest());
+        soundbankHashes.put(id, hash);
+        return hash;
+    }
+
+    /**
+     * @return a SHA-256 message digest
+     */
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {                                          // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * convert a byte array into a hex string
+     * @param bytes
+     * @return
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    /**
+     * write the MIDI sequence into a byte array
+     * @param midi
+     * @return
+     * @throws IOException
+     */
+    private static byte[] toBytes(Midi midi) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MidiSystem.write(midi.getSequence(), 1, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * prepend a filename to the data
+     * @param file the file or null
+     * @param data
+     * @return
+     */
+    private static byte[] writeFileAndData(File file, byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF((file == null) ? "" : file.getPath());
+            out.write(data);
+        } catch (IOException e) {                                                       // cannot happen with a ByteArrayOutputStream
+            e.printStackTrace();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * the counterpart of writeFileAndData()
+     * @param bytes
+     * @return the file (null if none) and the data
+     * @throws IOException
+     */
+    private static KeyValue<File, byte[]> readFileAndData(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String filename = in.readUTF();
+        byte[] data = new byte[in.available()];
+        in.readFully(data);
+        return new KeyValue<>(filename.isEmpty() ? null : new File(filename), data);
+    }
+
+    /**
+     * concatenate several byte arrays into one
+     * @param entries
+     * @return
+     */
+    private static byte[] pack(List<byte[]> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(entries.size());
+            for (byte[] entry : entries) {
+                out.writeInt(entry.length);
+                out.write(entry);
+            }
+        } catch (IOException e) {                                                       // cannot happen with a ByteArrayOutputStream
+            e.printStackTrace();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * the counterpart of pack()
+     * @param bytes
+     * @return
+     * @throws IOException
+     */
+    private static List<byte[]> unpack(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int size = in.readInt();
+        ArrayList<byte[]> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            byte[] entry = new byte[in.readInt()];
+            in.readFully(entry);
+            entries.add(entry);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Contains classes to cache conversion results in memory and on disk.
+ * @author Axel Berndt
+ */
+package meico.cache;
@@ -7,8 +7,9 @@ import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import com.thaiopensource.relaxng.jaxp.XMLSyntaxSchemaFactory;
 import meico.mpm.elements.maps.GenericMap;
+import meico.supplementary.IdGenerator;
+import meico.xml.SchemaValidator;
 import net.sf.saxon.s9api.*;
 import net.sf.saxon.s9api.Serializer;
 import nu.xom.*;
@@ -31,7 +32,7 @@ public class Helper {
      * @throws IOException
      */
     public static void validateAgainstSchema(File file, URL schema) throws SAXException, IOException {
-        (new XMLSyntaxSchemaFactory()).newSchema(schema).newValidator().validate(new StreamSource(file));  // create a new validator with the schema and validate the file, if this fails, it throws an exception
+        SchemaValidator.validate(new StreamSource(file), schema);       // validate the file with the (cached) schema, if this fails, it throws an exception
     }
 
     /**
@@ -42,7 +43,7 @@ public class Helper {
      * @throws IOException
      */
     public static void validateAgainstSchema(String xml, URL schema) throws SAXException, IOException {
-        (new XMLSyntaxSchemaFactory()).newSchema(schema).newValidator().validate(new StreamSource(new StringReader(xml)));  // create a new validator with the schema and validate the file, if this fails, it throws an exception
+        SchemaValidator.validate(new StreamSource(new StringReader(xml)), schema);  // validate the string with the (cached) schema, if this fails, it throws an exception
     }
 
     /**
@@ -127,6 +128,88 @@ public class Helper {
         return children;
     }
 
+    /**
+     * Create a flat list of all descendant elements of ofThis (not including ofThis) in document order;
+     * unlike an XPath query "descendant::*", this is a plain traversal of the tree
+     * @param ofThis
+     * @return
+     */
+    public static ArrayList<Element> getAllDescendants(Element ofThis) {
+        ArrayList<Element> descendants = new ArrayList<>();
+        if (ofThis == null)
+            return descendants;
+
+        ArrayDeque<Element> stack = new ArrayDeque<>();
+        stack.push(ofThis);
+        while (!stack.isEmpty()) {
+            Element e = stack.pop();
+            if (e != ofThis)
+                descendants.add(e);
+            for (int i = e.getChildCount() - 1; i >= 0; --i) {                 // push the children in reverse order, so they are popped in document order
+                Node child = e.getChild(i);
+                if (child instanceof Element)
+                    stack.push((Element) child);
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * Collect the xml:id values of ofThis and all its descendants
+     * @param ofThis
+     * @return
+     */
+    public static HashSet<String> getAllIds(Element ofThis) {
+        HashSet<String> ids = new HashSet<>();
+        if (ofThis == null)
+            return ids;
+
+        ArrayList<Element> elements = Helper.getAllDescendants(ofThis);
+        elements.add(ofThis);
+        for (Element e : elements) {
+            Attribute id = e.getAttribute("id", "http://www.w3.org/XML/1998/namespace");
+            if (id != null)
+                ids.add(id.getValue());
+        }
+        return ids;
+    }
+
+    /**
+     * Collect the attributes (without namespace) with any of the specified names from all descendants of ofThis (not including ofThis) in document order;
+     * this is one traversal of the tree, it replaces XPath unions such as "descendant::*[attribute::date]/attribute::date | descendant::*[attribute::duration]/attribute::duration"
+     * @param ofThis
+     * @param names
+     * @return
+     */
+    public static ArrayList<Attribute> getAllDescendantAttributes(Element ofThis, String... names) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (Element e : Helper.getAllDescendants(ofThis)) {
+            for (String name : names) {
+                Attribute a = e.getAttribute(name);
+                if (a != null)
+                    attributes.add(a);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * the greatest common divisor of two integers
+     * @param a
+     * @param b
+     * @return the greatest common divisor (always non-negative), if one of them is 0 it is the absolute value of the other
+     */
+    public static long gcd(long a, long b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
     /**
      * Create a flat list of all descendants with a certain attribute (beginning with ofThis)
      * @param attrName
@@ -315,7 +398,9 @@ public class Helper {
 
     /**
      * this method adds element addThis to a timely sequenced list, the map, and ensures the timely order of the elements in the map;
-     * therefore, addThis must contain the attribute "date"; if not, addThis is appended at the end
+     * therefore, addThis must contain the attribute "date"; if not, addThis is appended at the end;
+     * the child elements of the map are expected in timely order, so the insertion position is found by binary search and
+     * appending at the end (the most frequent case) costs only one date comparison; children without a date are skipped
      * @param addThis an xml element (should have an attribute date)
      * @param map a timely sequenced list of elements with attribute date
      * @return the index of the element in the map or -1 if insertion failed
@@ -329,26 +414,73 @@ public class Helper {
             return map.getChildCount()-1;                                           // and return the index
         }
 
-        Nodes es = map.query("descendant::*[attribute::date]");                     // get all elements in the map that have an attribute date
-        if (es.size() == 0) {                                                       // if there are no elements in the map with a date attribute
-            map.appendChild(addThis);                                               // simply append addThis to the end of the map
-            return map.getChildCount()-1;                                           // and return the index
-        }
-
         double date = Double.parseDouble(addThis.getAttributeValue("date"));        // get the date of addThis
-        for (int i = es.size()-1; i >= 0; --i) {                                    // go through the elements
-            if (Double.parseDouble(((Element)es.get(i)).getAttributeValue("date")) <= date) {  // if the element directly before date is found
-                int index = map.indexOf(es.get(i));                                 // get the index of the element just found
-                map.insertChild(addThis, ++index);                                  // insert addThis right after the element
-                return index;                                                       // return the index
+
+        // find the last child with a date that is not later than addThis's date
+        int found = -1;
+        int low = 0;
+        int high = map.getChildCount() - 1;
+        int last = Helper.getDatedChildAtOrBefore(map, high, low);                  // first try the last dated child, usually addThis is appended
+        if ((last >= 0) && (Helper.getDate(map.getChild(last)) <= date)) {
+            found = last;
+        } else {
+            high = last - 1;
+            while (low <= high) {                                                   // binary search
+                int mid = (low + high) >>> 1;
+                int i = Helper.getDatedChildAtOrBefore(map, mid, low);              // the dated child at or before mid
+                if (i < 0) {                                                        // no dated children between low and mid
+                    low = mid + 1;
+                    continue;
+                }
+                if (Helper.getDate(map.getChild(i)) <= date) {
+                    found = i;
+                    low = mid + 1;
+                } else {
+                    high = i - 1;
+                }
             }
         }
 
+        if (found >= 0) {                                                           // if the element directly before date is found
+            map.insertChild(addThis, ++found);                                      // insert addThis right after the element
+            return found;                                                           // return the index
+        }
+
+        if (last < 0) {                                                             // if there are no elements in the map with a date attribute
+            map.appendChild(addThis);                                               // simply append addThis to the end of the map
+            return map.getChildCount()-1;                                           // and return the index
+        }
+
         // if all elements in the map had a date later than addThis's date
         map.insertChild(addThis, 0);                                                // insert addThis at the front of the map (as first child)
         return 0;                                                                   // return the index
     }
 
+    /**
+     * a helper method for addToMap(), it searches backward from index from to index to for a child element with a date attribute
+     * @param map
+     * @param from
+     * @param to
+     * @return the index of the child or -1 if there is none
+     */
+    private static int getDatedChildAtOrBefore(Element map, int from, int to) {
+        for (int i = from; i >= to; --i) {
+            Node n = map.getChild(i);
+            if ((n instanceof Element) && (((Element) n).getAttribute("date") != null))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * a helper method for addToMap()
+     * @param datedChild a child element with a date attribute
+     * @return the value of its date attribute
+     */
+    private static double getDate(Node datedChild) {
+        return Double.parseDouble(((Element) datedChild).getAttributeValue("date"));
+    }
+
     /**
      * this method parses an input string, extracts all integer substrings and returns them as a list of integers
      * @param string
@@ -418,16 +550,30 @@ public class Helper {
     }
 
     /**
-     * Add a UUID-based xml:id to the specified element.
+     * Add a UUID-based xml:id to the specified element, the id comes from IdGenerator.
+     * The document's ids are not checked, so this is fast also in loops. Random ids do not collide in practice.
+     * Counter-based ids do not collide if the document's generator is bound via XmlBase.bindIdGenerator(), as this skips the numbers in use.
+     * Otherwise use addUUID(Element, Set) with the ids of the document.
      * Caution: If the element has already an xml:id, it will be overwritten!
      * @param toThis
      * @return
      */
     public static String addUUID(Element toThis) {
-        String uuid = "meico_" + UUID.randomUUID().toString();              // generate new id
-        Attribute a = new Attribute("id", uuid);                            // create an attribute
-        a.setNamespace("xml", "http://www.w3.org/XML/1998/namespace");      // set its namespace to xml
-        toThis.addAttribute(a);                                             // add attribute to the element
+        String uuid = "meico_" + IdGenerator.generateId();                  // generate new id
+        toThis.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", uuid)); // add the attribute in the xml namespace to the element
+        return uuid;
+    }
+
+    /**
+     * Add a UUID-based xml:id to the specified element, the id comes from IdGenerator and does not collide with any of the existing ids.
+     * Caution: If the element has already an xml:id, it will be overwritten!
+     * @param toThis
+     * @param existingIds the ids in the document, the new id is added to this set
+     * @return
+     */
+    public static String addUUID(Element toThis, Set<String> existingIds) {
+        String uuid = IdGenerator.getGenerator().generateUnique("meico_", existingIds); // generate new id
+        toThis.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", uuid)); // add the attribute in the xml namespace to the element
         return uuid;
     }
 
@@ -541,24 +687,32 @@ public class Helper {
      * When articulationMaps are expanded via GenericMap.applySequencingMap() the noteid attribute is not updated.
      * Therefor, we get a HashMap from Msm.resolveRepetitions() and apply it to the already expanded articulationMap via this method.
      * It is used in classes meico.app.gui.DataObject and meico.app.Main. At the moment of invoking this method the maps have been expanded and only the noteids need to be updated.
+     * The map is traversed only once to collect all noteid attributes.
      * @param map
      * @param noteIdMappings
      */
     public static void updateMpmNoteidsAfterResolvingRepetitions(GenericMap map, HashMap<String, String> noteIdMappings) {
-        for (Map.Entry<String, String> mapping : noteIdMappings.entrySet()) {                                   // for all mappings
-            Nodes ns = map.getXml().query("descendant::*[attribute::noteid = '#" + mapping.getKey() + "']");    // get all elements with the noteid attribute and the specific value
-            if (ns.size() < 2)                                                                                  // if there is none or only one
-                continue;                                                                                       // no need to change that value, the first one keeps the original
-
-            String current = mapping.getKey();                                          // this string will be set to the subsequent values: "originalID" -> "meico_repetition_1_originalID" -> "meico_repetition_2_originalID" -> and so on
-//            System.out.println(ns.get(0).toXML());
-            for (int i = 1; i < ns.size(); ++i) {                                       // iterate through the elements that refer to this noteid starting with the second (the first one keeps its original value)
-                current = noteIdMappings.get(current);                                  // get the next value
-                Attribute a = Helper.getAttribute("noteid", ((Element) ns.get(i)));     // get the attribute
-                a.setValue("#" + current);                                              // set the attribute value
-//                System.out.println(ns.get(i).toXML());
+        if (noteIdMappings.isEmpty())
+            return;
+
+        // collect the noteid attributes of all elements in the map in document order, grouped by their values
+        HashMap<String, ArrayList<Attribute>> noteids = new HashMap<>();
+        for (Element e : Helper.getAllDescendants(map.getXml())) {
+            Attribute a = e.getAttribute("noteid");
+            if ((a != null) && a.getValue().startsWith("#"))
+                noteids.computeIfAbsent(a.getValue().substring(1), k -> new ArrayList<>()).add(a);
+        }
+
+        for (Map.Entry<String, ArrayList<Attribute>> entry : noteids.entrySet()) {              // for all referred notes
+            ArrayList<Attribute> as = entry.getValue();
+            if ((as.size() < 2) || !noteIdMappings.containsKey(entry.getKey()))                 // if there is only one reference or the note was not repeated
+                continue;                                                                       // no need to change that value, the first one keeps the original
+
+            String current = entry.getKey();                                                    // this string will be set to the subsequent values: "originalID" -> "meico_repetition_1_originalID" -> "meico_repetition_2_originalID" -> and so on
+            for (int i = 1; i < as.size(); ++i) {                                               // iterate through the elements that refer to this noteid starting with the second (the first one keeps its original value)
+                current = noteIdMappings.get(current);                                          // get the next value
+                as.get(i).setValue("#" + current);                                              // set the attribute value
             }
-//            System.out.println("");
         }
     }
 
@@ -1,8 +1,10 @@
 package meico.mei;
 
+import meico.midi.Midi;
 import meico.mpm.Mpm;
 import meico.msm.Msm;
 import meico.musicxml.MusicXml;
+import meico.supplementary.IdGenerator;
 import meico.supplementary.KeyValue;
 import meico.svg.SvgCollection;
 import nu.xom.*;
@@ -392,7 +394,55 @@ public class Mei extends meico.xml.XmlBase implements Cloneable {
      * @return the list of msm documents (movements) created
      */
     public synchronized KeyValue<List<Msm>, List<Mpm>> exportMsmMpm(int ppq, boolean dontUseChannel10, boolean ignoreExpansions, boolean cleanup) {
-        return (new Mei2MsmMpmConverter(ppq, dontUseChannel10, ignoreExpansions, cleanup)).convert(this);
+        return this.exportMsmMpm(ppq, dontUseChannel10, ignoreExpansions, cleanup, true);
+    }
+
+    /**
+     * converts the mei data into msm and mpm format and returns a tuplet of lists, one with the msms (one per movement/mdiv), the other with the corresponding mpms
+     * @param ppq the ppq resolution for the conversion; this is counterchecked with the minimal required resolution to capture the shortest duration in the mei data; if a higher resolution is necessary, this input parameter is overridden
+     * @param dontUseChannel10 the flag says whether channel 10 (midi drum channel) shall be used or not; it is already done here, at the mei2msm conversion, because the msm should align with the midi file later on
+     * @param ignoreExpansions set this true to have a 1:1 conversion of MEI to MSM without the rearrangement that MEI's expansion elements produce
+     * @param cleanup set true to return a clean msm file or false to keep all the crap from the conversion
+     * @param restoreMei set false if this MEI is not needed after the conversion; this saves a deep copy of the document but leaves it in the state of the conversion
+     * @return the list of msm documents (movements) created
+     */
+    public synchronized KeyValue<List<Msm>, List<Mpm>> exportMsmMpm(int ppq, boolean dontUseChannel10, boolean ignoreExpansions, boolean cleanup, boolean restoreMei) {
+        Mei2MsmMpmConverter converter = new Mei2MsmMpmConverter(ppq, dontUseChannel10, ignoreExpansions, cleanup);
+        converter.setRestoreMei(restoreMei);
+        return converter.convert(this);
+    }
+
+    /**
+     * converts the mei data to midi via MSM (without building MPM), one Midi object per movement/mdiv; the tempo is 120 bpm, program changes are generated and repetitions are not expanded
+     * @return the list of midi objects created
+     */
+    public List<Midi> exportMidi() {
+        return this.exportMidi(120.0, true);
+    }
+
+    /**
+     * converts the mei data to midi via MSM (without building MPM), one Midi object per movement/mdiv; repetitions are not expanded, so the result is the same as with exportMsm() and Msm.exportMidi()
+     * @param bpm the tempo of the midi tracks
+     * @param generateProgramChanges if true, program change events are generated (useful for MIR and as a cheap kind of piano reduction)
+     * @return the list of midi objects created
+     */
+    public List<Midi> exportMidi(double bpm, boolean generateProgramChanges) {
+        return this.exportMidi(720, true, false, bpm, generateProgramChanges, false);
+    }
+
+    /**
+     * converts the mei data to midi via MSM, one Midi object per movement/mdiv; unlike exportMsmMpm() it builds no MPM and skips the MSM cleanup, and the midi is written from typed event lists instead of the MSM DOM
+     * @param ppq the ppq resolution for the conversion; this is counterchecked with the minimal required resolution to capture the shortest duration in the mei data; if a higher resolution is necessary, this input parameter is overridden
+     * @param dontUseChannel10 the flag says whether channel 10 (midi drum channel) shall be used or not
+     * @param ignoreExpansions set this true to have a 1:1 conversion without the rearrangement that MEI's expansion elements produce
+     * @param bpm the tempo of the midi tracks
+     * @param generateProgramChanges if true, program change events are generated (useful for MIR and as a cheap kind of piano reduction)
+     * @param resolveSequencingMaps set true to expand repetitions and endings in the midi, this is the same as Msm.resolveSequencingMaps() before Msm.exportMidi()
+     * @return the list of midi objects created
+     */
+    public synchronized List<Midi> exportMidi(int ppq, boolean dontUseChannel10, boolean ignoreExpansions, double bpm, boolean generateProgramChanges, boolean resolveSequencingMaps) {
+        Mei2MsmMpmConverter converter = new Mei2MsmMpmConverter(ppq, dontUseChannel10, ignoreExpansions, true);
+        return converter.convertToMidi(this, bpm, generateProgramChanges, resolveSequencingMaps);
     }
 
     /**
@@ -422,12 +472,14 @@ public class Mei extends meico.xml.XmlBase implements Cloneable {
         if (e == null) return 0;                                                // none found, no music, return 0
 
         // traverse the mei tree, starting at the music element, and find the shortest duration (greatest value of dur/dur.ges attribute)
-//        Nodes durs = e.query(".//*[@dur]");                                     // get all nodes that have a dur attribute
-        Nodes durs = e.query("descendant::*[attribute::dur]");                  // get all nodes that have a dur attribute
         double dur = 4.0;                                                       // initial value is "long"
-        for (int i = durs.size()-1; i >= 0; --i) {
-            double d = (((Element) durs.get(i)).getAttribute("dur") != null) ? Helper.meiDuration2decimal(((Element) durs.get(i)).getAttributeValue("dur")) : 4.0;  // get the dur value
-            int dots = (((Element)durs.get(i)).getAttribute("dots") != null) ? Integer.parseInt(((Element)durs.get(i)).getAttributeValue("dots")) : 0;          // dotted values require the precision to be doubled
+        for (Element element : Helper.getAllDescendants(e)) {                   // one traversal instead of the XPath query "descendant::*[attribute::dur]"
+            Attribute durAtt = element.getAttribute("dur");
+            if (durAtt == null)
+                continue;
+            double d = Helper.meiDuration2decimal(durAtt.getValue());           // get the dur value
+            Attribute dotsAtt = element.getAttribute("dots");
+            int dots = (dotsAtt != null) ? Integer.parseInt(dotsAtt.getValue()) : 0;    // dotted values require the precision to be doubled
             for (; dots > 0; --dots)                                            // for each dot; variable d holds what has to be added to the dur value
                 d /= 2;                                                         // half d
             if (dur > d) dur = d;
@@ -458,6 +510,20 @@ public class Mei extends meico.xml.XmlBase implements Cloneable {
         Element root = this.getRootElement();                                                           // this also includes the meiHead section, not only the music section, as there might be reference from music into the head
         if (root == null) return null;
 
+        IdGenerator previous = this.bindIdGenerator();                                                  // the new ids come from the generator of this document
+        try {
+            return this.resolveCopyofs(root);
+        } finally {
+            IdGenerator.bind(previous);                                                                 // restore the previous generator
+        }
+    }
+
+    /**
+     * the implementation of resolveCopyofs()
+     * @param root the root element of the document
+     * @return an ArrayList with those ids that could not be resolved, or an empty ArrayList if everything went well
+     */
+    private ArrayList<String> resolveCopyofs(Element root) {
         System.out.print("Resolving elements with @copyof or @sameas:");
 
         ArrayList<String> notResolved = new ArrayList<>();                                             // store those ids that are not resolved
@@ -504,7 +570,7 @@ public class Mei extends meico.xml.XmlBase implements Cloneable {
                 for (Node node : copy.query("descendant-or-self::node()/@xml:id")) {                    // get each xml:id attribute in the subtree just copied
                     Attribute idAtt = (Attribute) node;
                     String originalId = idAtt.getValue();
-                    String newId = originalId + "_meico_" + UUID.randomUUID().toString();               // generate new ids for them
+                    String newId = originalId + "_meico_" + IdGenerator.generateId();               // generate new ids for them
                     idAtt.setValue(newId);                                                              // and write into the attribute
                     idReplacements.put(originalId, newId);
                 }
@@ -547,7 +613,7 @@ public class Mei extends meico.xml.XmlBase implements Cloneable {
                         newElt.addAttribute(newAtt);                                                    // this replaces the original attribute by the new one
                     Attribute newEltId = newElt.getAttribute("id", "http://www.w3.org/XML/1998/namespace");
                     if (newEltId != null)                                                               // if the original element has an ID
-                        newEltId.setValue(newEltId.getValue() + "_meico_" + UUID.randomUUID().toString());  // the new element needs a unique one
+                        newEltId.setValue(newEltId.getValue() + "_meico_" + IdGenerator.generateId());  // the new element needs a unique one
                     origEltNewAtt.getKey().getParent().appendChild(newElt);                             // add hte new element to the XML tree as sibling of the original element
                 }
             }
@@ -602,110 +668,185 @@ public class Mei extends meico.xml.XmlBase implements Cloneable {
      */
     public synchronized void resolveExpansions() {
         System.out.print("Resolving Expansions:");
-        this.getRootElement().replaceChild(this.getMusic(), this.resolveExpansions(this.getMusic()));   // replace the whole music subtree by its regularized version
+        Element music = this.getMusic();
+        if (music != null) {
+            IdGenerator previous = this.bindIdGenerator();                                  // the new ids come from the generator of this document
+            try {
+                this.resolveExpansions(music);                                              // regularize the whole music subtree in place
+            } finally {
+                IdGenerator.bind(previous);                                                 // restore the previous generator
+            }
+        }
         System.out.println(" done");
     }
 
     /**
      * Expansion elements in MEI indicate the sequence in which sibling section and ending elements have to be arranged.
-     * This method creates a regularized, i.e. "through-composed", MEI that renders the expansions.
-     * The MEI tree is scanned recursively and expansions are resolved.
-     * @param root from this element on the whole subtree will be resolved
-     * @return the regularized version root (can be used to replace root)
+     * This method regularizes the subtree, i.e. makes it "through-composed", so that it renders the expansions.
+     * The MEI tree is scanned recursively and expansions are resolved bottom-up, so every subtree is resolved only once
+     * before it is duplicated. The first occurrence of a child in the plist is the child itself, only further occurrences are copies.
+     * @param root from this element on the whole subtree will be resolved in place
      */
-    private synchronized Element resolveExpansions(Element root) {
-        Element regularizedRoot = (Element) root.copy();                                    // create a deep copy of root to be edited and returned
-        Element expansion = Helper.getFirstChildElement("expansion", regularizedRoot);      // this will hold the expansion element to resolve, or null if there is none
+    private void resolveExpansions(Element root) {
+        Element expansion = Helper.getFirstChildElement("expansion", root);                 // this will hold the expansion element to resolve, or null if there is none
         List<String> plist = null;                                                          // this will hold all the xml:id's from the expansion's plist in the order to be played, i.e., the plist says how to rearrange the expansion's siblings
+        HashSet<String> plistIds = null;                                                    // the same ids for fast lookup
 
         // first some cleanup, find and remove stuff so it causes no processing effort later on
         if (expansion != null) {
-            // remove all expansion elements from this regularizedRoot
-            Elements expansions = regularizedRoot.getChildElements("expansion");            // get all expansion elements that are present as direct children of regularizedRoot
-            for (int i = expansions.size() - 1; i >= 0; --i) {                              // delete all expansion elements from the regularizedRoot
-                regularizedRoot.removeChild(expansions.get(i));
-//                expansions.get(i).detach();
+            // remove all expansion elements from this root
+            Elements expansions = root.getChildElements("expansion");                       // get all expansion elements that are present as direct children of root
+            for (int i = expansions.size() - 1; i >= 0; --i) {                              // delete all expansion elements from the root
+                root.removeChild(expansions.get(i));
             }
 
             // parse the plist and write its content to expansionSequence
             if (expansion.getAttribute("plist") != null) {                                  // if the expansion has a plist attribute
                 plist = Arrays.asList(expansion.getAttributeValue("plist").trim().replaceAll("#","").split("\\s+")); // fill plist with the xml:id's from the plist attribute; before this, leading and trailing whitespaces are removed, multiple whitespaces are reduced, # are removed, what remains are the pure xml:id's stored in a List object
+                plistIds = new HashSet<>(plist);
             }
             else                                                                            // an expansion with no plist is not valid (meico does not interpret this as an empty plist which would simply clear the whole subtree)
                 expansion = null;                                                           // set expansion to null so it won't cause further processing effort
         }
 
         // for efficiency reasons we make a depth first recursive resolution, this means bottom-up, first go down, then do the resolution
-        Elements children = regularizedRoot.getChildElements();                             // get all child elements of regularizedRoot
-        for (int i = children.size() - 1; i >= 0; --i) {                                    // go through all children of regularizedRoot
+        Elements children = root.getChildElements();                                        // get all child elements of root
+        for (int i = children.size() - 1; i >= 0; --i) {                                    // go through all children of root
             Element child = children.get(i);                                                // get the current child element
 
             if (expansion != null) {                                                        // if there is an expression element with a plist attribute
                 Attribute childId = Helper.getAttribute("id", child);                       // get the child's id
-                if (childId == null || !plist.contains(childId.getValue())) {               // if it does not have one, it cannot be in the plist and will not be played or the id is not in the plist, again the child will not be played
-                    regularizedRoot.removeChild(child);                                     // hence, delete it
-//                    child.detach();
+                if (childId == null || !plistIds.contains(childId.getValue())) {            // if it does not have one, it cannot be in the plist and will not be played or the id is not in the plist, again the child will not be played
+                    root.removeChild(child);                                                // hence, delete it
                     continue;                                                               // continue with the next child
                 }
             }
 
-            regularizedRoot.replaceChild(child, this.resolveExpansions(child));             // replace this child by its regularization
+            this.resolveExpansions(child);                                                  // regularize this child
         }
 
-        // now do the regularization on the current regularizedRoot's children, i.e. duplicate and rearrange its children as indicated by the plist
+        // now do the regularization on the current root's children, i.e. duplicate and rearrange its children as indicated by the plist
         if (expansion != null) {                                                            // if there is an expansion element
-            HashMap<String, Element> childHash = new HashMap<String, Element>();            // HashMap with (id, element) pairs to be filled with the children of regularizedRoot
+            HashMap<String, Element> childHash = new HashMap<String, Element>();            // HashMap with (id, element) pairs to be filled with the children of root
 
-            // detache all children from regularizedRoot and put them into the HashMap
-            for (Element child = Helper.getFirstChildElement(regularizedRoot); child != null; child = Helper.getFirstChildElement(regularizedRoot)) {
+            // detache all children from root and put them into the HashMap
+            for (Element child = Helper.getFirstChildElement(root); child != null; child = Helper.getFirstChildElement(root)) {
                 child.detach();                                                             // detach the child
                 String id = Helper.getAttributeValue("id", child);                          // get its id
                 childHash.put(id, child);                                                   // fill the HashMap
             }
 
             // now append the former children according to the plist
+            HashMap<Element, ExpansionCopier> copiers = new HashMap<>();                    // the children that are played several times get a copier
             for (String aPlist : plist) {                                                   // for each plist entry
                 Element child = childHash.get(aPlist);                                      // get the child with the id from the HashMap
                 if (child == null)
                     continue;
 
-                try {
-                    regularizedRoot.appendChild(child);                                     // try to append it to regularizedRoot, this will fail if it has already been added
-                } catch (MultipleParentException e) {                                       // when it has already been added
-                    Element copy = (Element) child.copy();                                  // make a deep copy of child
-                    HashMap<String, String> idOldAndNew = new HashMap<>();                  // HashMap with (oldId, newId) pairs, so we can also update references to these IDs
-
-                    Nodes cs = copy.query("descendant-or-self::*[@xml:id or @id]");         // find all elements with an id attribute
-                    for (int i = 0; i < cs.size(); ++i) {                                   // give them all unique ids
-                        Element c = (Element) cs.get(i);
-                        Attribute id = Helper.getAttribute("id", c);
-                        String newId = "meico_expansion_of_" + id.getValue() + "_" + UUID.randomUUID().toString();  // the new IDs are of the following form: "meico_oldID_newUUID"
-                        idOldAndNew.put("#" + id.getValue(), "#" + newId);
-                        id.setValue(newId);                                                 // set the new ID
-                    }
+                if (child.getParent() == null) {                                            // the first occurrence of the child
+                    root.appendChild(child);                                                // append the child itself
+                    continue;
+                }
 
-                    // check the copy's children for references to copies that now have a new ID and update theirs references
-                    Nodes copyDescendants = copy.query(".//*");                             // get all descendant elements of copy
-                    for (Node cd : copyDescendants) {                // get all descendants of copy
-                        Element copyDescendant = (Element) cd;
-                        for (int a=0; a < copyDescendant.getAttributeCount(); ++a) {        // search all attributes if they hold a reference
-                            Attribute attr = copyDescendant.getAttribute(a);                // get the attribute
-                            String oldId = attr.getValue();                                 // get the attribute value
-                            if (!oldId.startsWith("#"))                                     // references start with #; if this attribute value does not, it is no reference
-                                continue;
-                            String newId = idOldAndNew.get(oldId);                          // get the replacement ID
-                            if (newId == null)                                              // if there is no replacement ID
-                                continue;                                                   // we have nothing to replace
-                            attr.setValue(newId);
-                        }
-                    }
+                ExpansionCopier copier = copiers.computeIfAbsent(child, ExpansionCopier::new);  // the ids and references in the child's subtree are analyzed only once
+                root.appendChild(copier.copy());                                            // add a copy with new ids
+            }
+        }
+    }
 
-                    regularizedRoot.appendChild(copy);                                      // add the copy
+    /**
+     * This is a helper class for method resolveExpansions(). It creates copies of a subtree with new unique ids
+     * and updates the references within the subtree to these ids. The elements with ids and the attributes
+     * that refer to them are determined once, so every further copy has only to set the new values.
+     */
+    private static class ExpansionCopier {
+        private final Element original;
+        private final ArrayList<Integer> idElements = new ArrayList<>();          // the pre-order indices of the elements with an id
+        private final ArrayList<Integer> refElements = new ArrayList<>();         // the pre-order indices of the elements with attributes that refer to an id in the subtree
+        private final ArrayList<Integer> refAttributes = new ArrayList<>();       // the indices of these attributes in their elements
+
+        /**
+         * constructor
+         * @param original the subtree to be copied
+         */
+        private ExpansionCopier(Element original) {
+            this.original = original;
+
+            ArrayList<Element> elements = new ArrayList<>();
+            ExpansionCopier.collectElements(original, elements);
+
+            HashSet<String> ids = new HashSet<>();
+            for (int e = 0; e < elements.size(); ++e) {                           // find all elements with an id attribute
+                Attribute id = ExpansionCopier.getId(elements.get(e));
+                if (id != null) {
+                    this.idElements.add(e);
+                    ids.add("#" + id.getValue());
                 }
             }
+
+            for (int e = 1; e < elements.size(); ++e) {                           // search all attributes of the descendants if they hold a reference to one of these ids
+                Element element = elements.get(e);
+                for (int a = 0; a < element.getAttributeCount(); ++a) {
+                    if (ids.contains(element.getAttribute(a).getValue())) {       // references start with #, so do the keys in ids
+                        this.refElements.add(e);
+                        this.refAttributes.add(a);
+                    }
+                }
+            }
+        }
+
+        /**
+         * create a copy of the subtree with new unique ids
+         * @return
+         */
+        private Element copy() {
+            Element copy = this.original.copy();                                  // make a deep copy of the subtree
+            if (this.idElements.isEmpty())
+                return copy;
+
+            ArrayList<Element> elements = new ArrayList<>();
+            ExpansionCopier.collectElements(copy, elements);                      // the copy has the same structure as the original, so the indices apply to it as well
+
+            HashMap<String, String> idOldAndNew = new HashMap<>();                // HashMap with (oldId, newId) pairs, so we can also update references to these IDs
+            for (int e : this.idElements) {                                       // give them all unique ids
+                Attribute id = ExpansionCopier.getId(elements.get(e));
+                String newId = "meico_expansion_of_" + id.getValue() + "_" + IdGenerator.generateId();  // the new IDs are of the following form: "meico_oldID_newUUID"
+                idOldAndNew.put("#" + id.getValue(), "#" + newId);
+                id.setValue(newId);                                               // set the new ID
+            }
+
+            for (int r = 0; r < this.refElements.size(); ++r) {                   // update the references to these ids
+                Attribute attr = elements.get(this.refElements.get(r)).getAttribute(this.refAttributes.get(r));
+                attr.setValue(idOldAndNew.get(attr.getValue()));
+            }
+
+            return copy;
+        }
+
+        /**
+         * get the id attribute of an element, xml:id or id
+         * @param element
+         * @return the attribute or null
+         */
+        private static Attribute getId(Element element) {
+            if ((element.getAttribute("id", "http://www.w3.org/XML/1998/namespace") == null) && (element.getAttribute("id") == null))
+                return null;
+            return Helper.getAttribute("id", element);
         }
 
-        return regularizedRoot;
+        /**
+         * collect all elements of the subtree in pre-order
+         * @param element
+         * @param elements
+         */
+        private static void collectElements(Element element, ArrayList<Element> elements) {
+            elements.add(element);
+            for (int i = 0; i < element.getChildCount(); ++i) {
+                Node child = element.getChild(i);
+                if (child instanceof Element)
+                    ExpansionCopier.collectElements((Element) child, elements);
+            }
+        }
     }
 
     /** this method adds ids to note, rest, ... and chord elements in mei, as far as they do not have an id
@@ -720,17 +861,23 @@ public class Mei extends meico.xml.XmlBase implements Cloneable {
             return 0;
         }
 
-        Nodes e = root.query("descendant::*[(local-name()='measure' or local-name()='note' or local-name()='rest' or local-name()='mRest' or local-name()='multiRest' or local-name()='chord' or local-name()='tuplet' or local-name()='mdiv' or local-name()='reh' or local-name()='section') and not(@xml:id)]");
-        for (int i = 0; i < e.size(); ++i) {                                    // go through all the nodes
-            String uuid = "meico_" + UUID.randomUUID().toString();              // generate new ids for them
+        HashSet<String> names = new HashSet<>(Arrays.asList("measure", "note", "rest", "mRest", "multiRest", "chord", "tuplet", "mdiv", "reh", "section"));
+        IdGenerator generator = this.prepareIdGenerator();                      // the new ids come from the generator of this document
+        HashSet<String> ids = this.getAllIds();                                 // the new ids must not collide with the existing ones
+        int count = 0;
+        for (Element e : Helper.getAllDescendants(root)) {                      // go through all the elements
+            if (!names.contains(e.getLocalName()) || (e.getAttribute("id", "http://www.w3.org/XML/1998/namespace") != null))   // only the above types without an id
+                continue;
+            String uuid = generator.generateUnique("meico_", ids);              // generate new ids for them
             Attribute a = new Attribute("id", uuid);                            // create an attribute
             a.setNamespace("xml", "http://www.w3.org/XML/1998/namespace");      // set its namespace to xml
-            ((Element) e.get(i)).addAttribute(a);                               // add attribute to the node
+            e.addAttribute(a);                                                  // add attribute to the node
+            ++count;
         }
 
         System.out.println(" done");
 
-        return e.size();
+        return count;
     }
 
     /**
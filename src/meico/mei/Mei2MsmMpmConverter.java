@@ -2,6 +2,7 @@ package meico.mei;
 
 import meico.Meico;
 import meico.midi.InstrumentsDictionary;
+import meico.midi.Midi;
 import meico.mpm.Mpm;
 import meico.mpm.elements.Part;
 import meico.mpm.elements.Performance;
@@ -21,7 +22,9 @@ import meico.mpm.elements.styles.defs.DynamicsDef;
 import meico.mpm.elements.styles.defs.OrnamentDef;
 import meico.mpm.elements.styles.defs.TempoDef;
 import meico.msm.Goto;
+import meico.msm.MidiEventBuffer;
 import meico.msm.Msm;
+import meico.supplementary.IdGenerator;
 import meico.supplementary.KeyValue;
 import nu.xom.*;
 
@@ -39,6 +42,8 @@ public class Mei2MsmMpmConverter {
     private Mei mei = null;                         // the MEI to be converted
     private boolean ignoreExpansions = false;       // set this true to have a 1:1 conversion of MEI to MSM without the rearrangement that MEI's expansion elements produce
     private boolean cleanup = true;                 // set true to return a clean msm file or false to keep all the crap from the conversion
+    private boolean restoreMei = true;              // set false if the application does not need the MEI after conversion, this saves a deep copy of the whole MEI document
+    private boolean midiOnly = false;               // set true by convertToMidi(), no MPM is built and the MSMs are only read for MIDI export, so they need no cleanup
 
     protected int ppq = 720;                                            // default value for pulses per quarter
     protected int endingCounter = 0;                                    // a counter of ending elements in the mei source
@@ -51,8 +56,16 @@ public class Mei2MsmMpmConverter {
     protected Element currentMeasure = null;
     protected Element currentChord = null;
     protected ArrayList<Element> accid = new ArrayList<>();             // holds accidentals that appear within measures to be considered during pitch computation
-    protected ArrayList<Element> endids = new ArrayList<>();            // msm and mpm elements that will be terminated at the time position of an mei element with a specified endid
-    protected ArrayList<Element> tstamp2s = new ArrayList<>();          // mpm elements that will be terminated at a position in another measure indicated by attribute tstamp2
+    protected HashMap<String, ArrayList<Element>> endids = new HashMap<>();         // endid -> msm and mpm elements that will be terminated at the time position of the mei element with this id
+    protected TreeMap<Integer, ArrayList<Element>> tstamp2s = new TreeMap<>();      // measure index -> msm and mpm elements that will be terminated at a position in this measure indicated by attribute tstamp2
+    protected int measureIndex = 0;                                     // counts the measures that have been processed, the target measures in tstamp2s refer to it
+    protected HashMap<Element, SlurIndex> slurIndices = new HashMap<>(); // msm miscMap -> the slurs in it, sorted by date, to look up the slurs that are active at a note
+    protected HashMap<Element, PartCursor> cursors = new HashMap<>();   // msm part -> its conversion state (current date, cached time and key signature)
+    protected PartCursor globalCursor = new PartCursor(0.0);            // caches the time signature of the global scope, its date is not used
+    protected double currentMeasureDate = 0.0;                          // the date of the current measure
+    protected HashMap<Element, Double> layerEndDates = new HashMap<>(); // mei layer -> the date where its processing ended, to determine the latest date of all layers of a staff
+    private Element lastCursorPart = null;                              // the part of the last cursor lookup
+    private PartCursor lastCursor = null;                               // and its cursor, most lookups are for the same part in a row
     protected ArrayList<Element> lyrics = new ArrayList<>();            // this is used to collect lyrics converted from mei syl elements to be added to an msm note
     protected HashMap<String, Element> allNotesAndChords = new HashMap<>(); // when converting a new mdiv this hashmap is created first to accelarate lookup for notes and chords via xml:id
     protected ArrayList<KeyValue<Attribute, Boolean>> arpeggiosToSort = new ArrayList<>();  // for some arpeggios the note.order attribute must be sorted to get an up (true) or downwards (false) direction; this is done during postprocessing of mdiv elements when we know the notes' pitch values (also available via allNotesAndChords, attribute pnum); this list holds all attributes note.order to be reordered and the corresponding direction (true=up, false=down)
@@ -83,6 +96,16 @@ public class Mei2MsmMpmConverter {
         this.cleanup = cleanup;
     }
 
+    /**
+     * With cleanup the MEI document is restored to its original state after conversion. For this, the converter keeps a deep copy of it.
+     * If the application does not need the MEI anymore after conversion, it can switch this off to save the time and memory for the copy.
+     * The MEI will then remain in the state that the conversion leaves it in.
+     * @param restoreMei
+     */
+    public void setRestoreMei(boolean restoreMei) {
+        this.restoreMei = restoreMei;
+    }
+
     /**
      * converts the provided MEI data into MSM and MPM format and return a tuplet of lists,
      * one with the MSMs (one per movement/mdiv), the other with the corresponding MPMs
@@ -103,6 +126,20 @@ public class Mei2MsmMpmConverter {
         if (this.mei.isEmpty() || (this.mei.getMusic() == null) || (this.mei.getMusic().getFirstChildElement("body", this.mei.getMusic().getNamespaceURI()) == null))      // if no mei music data available
             return new KeyValue<>(new ArrayList<Msm>(), new ArrayList<Mpm>());  // return empty lists
 
+        IdGenerator previous = this.mei.bindIdGenerator();                      // all ids that are generated during the conversion come from the generator of this mei document
+        try {
+            return this.convert(startTime);
+        } finally {
+            IdGenerator.bind(previous);                                         // restore the previous generator
+        }
+    }
+
+    /**
+     * the implementation of convert(Mei), this.mei is set and not empty
+     * @param startTime the time when the conversion started
+     * @return
+     */
+    private KeyValue<List<Msm>, List<Mpm>> convert(long startTime) {
         // check whether the  shortest duration in the mei (note value can go down to 2048th) is captured by the defined ppq resolution; adjust ppq automatically and output a message
         int minPPQ = this.mei.computeMinimalPPQ();                              // compute the minimal required ppq resolution
         int originalPPQ = this.ppq;                                      // keep the original ppq value, so we can switch back to it after the conversion process
@@ -112,7 +149,7 @@ public class Mei2MsmMpmConverter {
         }
 
         Document orig = null;
-        if (this.cleanup)
+        if (this.cleanup && this.restoreMei)
             orig = (Document) this.mei.getDocument().copy();                         // the document will be altered during conversion, thus we keep the original to restore it after the process
 
         //        long t = System.currentTimeMillis();
@@ -129,14 +166,17 @@ public class Mei2MsmMpmConverter {
         LinkedList<Msm> msms = new LinkedList<>(this.movements);         // get the resulting msms for further processing and returning
         LinkedList<Mpm> mpms = new LinkedList<>(this.performances);      // get the resulting performance
 
-        Mei2MsmMpmConverter.mpmPostprocessing(mpms);                                         // finalize all mpm data
+        if (!this.midiOnly)
+            Mei2MsmMpmConverter.mpmPostprocessing(mpms);                                     // finalize all mpm data
 
         this.ppq = originalPPQ;                                             // as this is a class variable it would remain in memory after this method, so we reinitialize it and the garbage collector handles the remains
 
         // cleanup
         if (this.cleanup){
-            this.mei.setDocument(orig);                                              // restore the unaltered version of the mei data
-            Mei2MsmMpmConverter.msmCleanup(msms);                                            // cleanup of the msm objects to remove all conversion related and no longer needed entries in the msm objects
+            if (orig != null)
+                this.mei.setDocument(orig);                                          // restore the unaltered version of the mei data
+            if (!this.midiOnly)
+                Mei2MsmMpmConverter.msmCleanup(msms);                                        // cleanup of the msm objects to remove all conversion related and no longer needed entries in the msm objects
         }
 
         // generate a dummy file name in the msm objects
@@ -165,6 +205,47 @@ public class Mei2MsmMpmConverter {
         return new KeyValue<>(msms, mpms);
     }
 
+    /**
+     * converts the provided MEI data to MIDI, one Midi object per movement/mdiv; this is for jobs that want only MIDI:
+     * no MPM is built, the MSM is built as usual but not cleaned up, as the conversion keeps its working state in it;
+     * the MIDI relevant content of each MSM is read into a MidiEventBuffer, sequencing is resolved on these typed event lists
+     * and the MIDI sequence is written directly from them; the MSM data is dropped afterwards
+     * @param mei
+     * @param bpm the tempo of the midi tracks
+     * @param generateProgramChanges if true, program change events are generated
+     * @param resolveSequencingMaps set true to expand repetitions and endings (the MSM sequencingMaps) in the MIDI
+     * @return
+     */
+    public List<Midi> convertToMidi(Mei mei, double bpm, boolean generateProgramChanges, boolean resolveSequencingMaps) {
+        ArrayList<Midi> midis = new ArrayList<>();
+
+        this.midiOnly = true;
+        List<Msm> msms;
+        try {
+            msms = this.convert(mei).getKey();
+        } finally {
+            this.midiOnly = false;
+        }
+
+        long startTime = System.currentTimeMillis();                            // we measure the time that the conversion consumes
+        for (int i = 0; i < msms.size(); ++i) {
+            MidiEventBuffer buffer = MidiEventBuffer.createMidiEventBuffer(msms.get(i));
+            msms.set(i, null);                                                  // the msm is not needed anymore, release it for the garbage collector
+            if (buffer == null)
+                continue;
+            if (resolveSequencingMaps)
+                buffer.resolveSequencingMaps();
+            Midi midi = buffer.exportMidi(bpm, generateProgramChanges);
+            if (midi != null)
+                midis.add(midi);
+        }
+        this.movements.clear();
+        this.performances.clear();
+        System.out.println("MSM to MIDI event export finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+
+        return midis;
+    }
+
     /**
      * recursively traverse the mei tree (depth first) starting at the root element and return the list of Msm instances; root indicates the root of the subtree,
      * the resulting Msm objects are stored in this.movements
@@ -616,31 +697,34 @@ public class Mei2MsmMpmConverter {
             movementId = id.getValue();                                             // get its value
         }
         else {                                                                      // otherwise generate a unique id
-            movementId = "meico_" + UUID.randomUUID().toString();                   // generate id string
+            movementId = "meico_" + IdGenerator.generateId();                   // generate id string
             mdiv.addAttribute(new Attribute("id", movementId));                     // add it to the MEI mdiv
         }
 
         Msm msm = Msm.createMsm(titleString, movementId, this.ppq);          // create Msm instance
         this.movements.add(msm);                                             // add it to the movements list
 
-        Mpm mpm = Mpm.createMpm();                                                  // generate an Mpm object
-        if (this.mei.getFile() != null) {
-            ArrayList<RelatedResource> relatedResources = new ArrayList<>();
-            relatedResources.add(RelatedResource.createRelatedResource(this.mei.getFile().getName(), "mei"));
-            Comment comment = Comment.createComment("This MPM has been generated from '" + this.mei.getFile().getName() + "' using the meico MEI converter v" + Meico.version + ".", null);
-            mpm.addMetadata(Author.createAuthor("meico", null, null), comment, relatedResources);
-        } else {
-            Comment comment = Comment.createComment("This MPM has been generated from MEI code using the meico MEI converter v" + Meico.version + ".", null);
-            mpm.addMetadata(Author.createAuthor("meico", null, null), comment, null);
-        }
-        Performance performance = Performance.createPerformance("MEI export performance");  // generate a Performance object
-        if (performance == null) {                                                  // make sure it is not null
-            System.err.println("Failed to generate an instance of Performance. Skipping mdiv " + titleString);
-            return;
+        Performance performance = null;                                             // stays null if no MPM is built
+        if (!this.midiOnly) {                                                       // the MIDI-only conversion does not build an MPM
+            Mpm mpm = Mpm.createMpm();                                                  // generate an Mpm object
+            if (this.mei.getFile() != null) {
+                ArrayList<RelatedResource> relatedResources = new ArrayList<>();
+                relatedResources.add(RelatedResource.createRelatedResource(this.mei.getFile().getName(), "mei"));
+                Comment comment = Comment.createComment("This MPM has been generated from '" + this.mei.getFile().getName() + "' using the meico MEI converter v" + Meico.version + ".", null);
+                mpm.addMetadata(Author.createAuthor("meico", null, null), comment, relatedResources);
+            } else {
+                Comment comment = Comment.createComment("This MPM has been generated from MEI code using the meico MEI converter v" + Meico.version + ".", null);
+                mpm.addMetadata(Author.createAuthor("meico", null, null), comment, null);
+            }
+            performance = Performance.createPerformance("MEI export performance");      // generate a Performance object
+            if (performance == null) {                                                  // make sure it is not null
+                System.err.println("Failed to generate an instance of Performance. Skipping mdiv " + titleString);
+                return;
+            }
+            performance.setPulsesPerQuarter(this.ppq);                           // set its ppq
+            mpm.addPerformance(performance);                                            // add the performance to the mpm
+            this.performances.add(mpm);                                          // add it to the performances list
         }
-        performance.setPulsesPerQuarter(this.ppq);                           // set its ppq
-        mpm.addPerformance(performance);                                            // add the performance to the mpm
-        this.performances.add(mpm);                                          // add it to the performances list
 
         this.reset();                                                        // reset the helper variables
         this.currentMdiv = mdiv;                                             // store current mdiv for later reference
@@ -723,6 +807,8 @@ public class Mei2MsmMpmConverter {
         }
 
         // finalize the tempoMap
+        if (this.currentPerformance == null)                                // no MPM is built (MIDI-only conversion)
+            return;
         GenericMap globalTempoMap = this.currentPerformance.getGlobal().getDated().getMap(Mpm.TEMPO_MAP);
         if (((globalTempoMap == null) || (globalTempoMap.getElementBeforeAt(0.0) == null)) && (this.currentWork != null)) {  // if the global tempoMap has no initial tempo and if we have a work element in meiHead
             Element tempo = Helper.getFirstChildElement("tempo", this.currentWork);
@@ -906,7 +992,7 @@ public class Mei2MsmMpmConverter {
 
         if (s != null) {
 //            s.addAttribute(new Attribute("currentDate", (this.currentMeasure != null) ? this.currentMeasure.getAttributeValue("date") : "0.0"));  // set currentDate of processing
-            s.addAttribute(new Attribute("currentDate", this.getMidiTimeAsString()));    // set currentDate of processing
+            this.getCursor(s).date = this.getMidiTime();                                 // set currentDate of processing
             this.currentPart = s;                                                        // if that part entry was found, return it
         }
         else {            // the part was not found, create one
@@ -989,25 +1075,28 @@ public class Mei2MsmMpmConverter {
         Element parentLayer = this.currentLayer;                                                                 // if we are already in a staff environment, store it, otherwise it is null
         this.currentLayer = layer;                                                                               // keep track of this current layer as long as we process its children
 
-        String oldDate = this.currentPart.getAttribute("currentDate").getValue();                                // store currentDate in oldDate for later use
+        PartCursor cursor = this.getCursor(this.currentPart);
+        double oldDate = cursor.date;                                                                                   // store currentDate in oldDate for later use
 
         this.convert(layer);                                                                                            // process everything within this environment
 
-        layer.addAttribute(new Attribute("currentDate", this.currentPart.getAttribute("currentDate").getValue()));// store the currentDate in the layer element to later determine the latest of these dates as the staff's part's currentDate
+        this.layerEndDates.put(layer, cursor.date);                                                                     // store the currentDate of the layer to later determine the latest of these dates as the staff's part's currentDate
         this.accid.clear();                                                                                      // accidentals are valid only within one layer, so forget them
         this.currentLayer = parentLayer;                                                                         // we are done processing this layer, get back to the parent layer or null
         if (Helper.getNextSiblingElement("layer", layer) != null)                                                       // if there are more layers in this staff environment
-            this.currentPart.getAttribute("currentDate").setValue(oldDate);                                      // set back to the old currentDate, because each layer is a parallel to the other layers
+            cursor.date = oldDate;                                                                                      // set back to the old currentDate, because each layer is a parallel to the other layers
         else {                                                                                                          // no further layers in this staff environment, this was the last layer in this staff
             // take the latest layer-specific currentDate as THE definitive currentDate of this part
-            Nodes layers = layer.getParent().query("child::*[local-name()='layer']");
-            double latestDate = Double.parseDouble(this.currentPart.getAttribute("currentDate").getValue());
+            Elements layers = ((Element) layer.getParent()).getChildElements();
+            double latestDate = cursor.date;
             for (int j = layers.size() - 1; j >= 0; --j) {
-                double date = Double.parseDouble(((Element)layers.get(j)).getAttributeValue("currentDate"));            // get the layer's date
+                if (!layers.get(j).getLocalName().equals("layer"))
+                    continue;
+                double date = this.layerEndDates.remove(layers.get(j));                                                 // get the layer's date
                 if (latestDate < date)                                                                                  // if this layer's date is later than latestDate so far
                     latestDate = date;                                                                                  // set latestDate to date
             }
-            this.currentPart.getAttribute("currentDate").setValue(Double.toString(latestDate));                  // write it to the part for later reference
+            cursor.date = latestDate;                                                                                   // write it to the part for later reference
         }
     }
 
@@ -1112,7 +1201,7 @@ public class Mei2MsmMpmConverter {
 
         // generate an id for the marker that is generated to indicate the start of this ending in the msm sequencingMap
         Attribute endingLabel = ending.getAttribute("id", "http://www.w3.org/XML/1998/namespace");
-        String markerId = "endingMarker_" + ((endingLabel == null) ? UUID.randomUUID().toString() : endingLabel.getValue());        // if the ending has an id, use it, otherwise create a new one
+        String markerId = "endingMarker_" + ((endingLabel == null) ? IdGenerator.generateId() : endingLabel.getValue());        // if the ending has an id, use it, otherwise create a new one
 
         // create an ending marker
         Element marker = new Element("marker");                                                                                     // create the marker
@@ -1229,10 +1318,10 @@ public class Mei2MsmMpmConverter {
                 phraseMapEntry.addAttribute(new Attribute("date.end", endDate.toString()));                     // add the date.end attribute to the element
             } else if (tstamp2 != null) {                                                                       // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                 phraseMapEntry.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));                      // add the tstamp2 attribute to the element (must be deleted later!)
-                this.tstamp2s.add(phraseMapEntry);                                                       // add the element to the helper's tstamp2s list
+                this.addTstamp2(phraseMapEntry);                                                       // add the element to the helper's tstamp2s list
             } else if (endid != null) {                                                                         // if this phrase element has to be terminated with at an endid-referenced element
                 phraseMapEntry.addAttribute(new Attribute("endid", endid.getValue()));                          // add the endid attribute to the element (must be deleted later!)
-                this.endids.add(phraseMapEntry);                                                         // add the element to the helper's endids list
+                this.addEndid(phraseMapEntry);                                                         // add the element to the helper's endids list
             }
 
             Element phraseMap = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("phraseMap"); // find the global phraseMap (there is no local phraseMap as this cannot be encoded in MEI)
@@ -1264,10 +1353,10 @@ public class Mei2MsmMpmConverter {
                         phraseMapEntry.addAttribute(new Attribute("date.end", endDate.toString()));             // add the date.end attribute to the element
                     } else if (tstamp2 != null) {                                                               // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                         phraseMapEntry.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));              // add the tstamp2 attribute to the element (must be deleted later!)
-                        this.tstamp2s.add(phraseMapEntry);                                               // add the element to the helper's tstamp2s list
+                        this.addTstamp2(phraseMapEntry);                                               // add the element to the helper's tstamp2s list
                     } else if (endid != null) {                                                                 // if this phrase element has to be terminated with at an endid-referenced element
                         phraseMapEntry.addAttribute(new Attribute("endid", endid.getValue()));                  // add the endid attribute to the element (must be deleted later!)
-                        this.endids.add(phraseMapEntry);                                                 // add the element to the helper's endids list
+                        this.addEndid(phraseMapEntry);                                                 // add the element to the helper's endids list
                     }
 
                     Element phraseMap = parts.get(p).getFirstChildElement("dated").getFirstChildElement("phraseMap");
@@ -1310,24 +1399,23 @@ public class Mei2MsmMpmConverter {
         double startDate = this.getMidiTime();                                                           // get the date at the beginning of the measure
         measure.addAttribute(new Attribute("date", Double.toString(startDate)));                                // set the measure's date in attribute date
         this.currentMeasure = measure;                                                                   // set the state variable currentMeasure to this measure
-
-        // process pending msm/mpm elements with a tstamp2 attribute
-        for (int i=0; i < this.tstamp2s.size(); ++i) {                                                   // for all tstamp2 containing elements
-            Element e = this.tstamp2s.get(i);                                                            // get the element
-            Attribute att = e.getAttribute("tstamp2");                                                          // get its tstamp2 attribute
-            String[] tstamp2 = att.getValue().split("m\\+");                                                    // separate measures and position part
-            int measures = Integer.parseInt(tstamp2[0]) - 1;                                                    // decrease the measures part of the tstamp2 string
-            if (measures <= 0) {                                                                                // we finally arrived at the measure indicated in tstamp2
-                double endDate = this.tstampToTicks(tstamp2[1], null);                                   // compute the endDate
+        this.currentMeasureDate = startDate;
+
+        // process pending msm/mpm elements with a tstamp2 attribute that end in this measure
+        ++this.measureIndex;
+        while (!this.tstamp2s.isEmpty() && (this.tstamp2s.firstKey() <= this.measureIndex)) {           // for all tstamp2 containing elements that we finally arrived at
+            for (Element e : this.tstamp2s.pollFirstEntry().getValue()) {
+                Attribute att = e.getAttribute("tstamp2");                                                      // get its tstamp2 attribute
+                String[] tstamp2 = att.getValue().split("m\\+");                                                // separate measures and position part
+                double endDate = this.tstampToTicks(tstamp2[1], null);                                          // compute the endDate
                 e.addAttribute(new Attribute("date.end", Double.toString(endDate)));                            // add new attribute date.end, will be resolved during mpmPostprocessing()
                 e.removeAttribute(att);                                                                         // remove the tstamp2 attribute
-                this.tstamp2s.remove(i);                                                                 // remove the element from the tstamp2s list
-                i--;                                                                                            // make sure we do not miss the succeeding element in the list
-            } else {                                                                                            // we have to cross more barlines
-                att.setValue(measures + "m+" + tstamp2[1]);                                                     // update the tstamp2 string
             }
         }
 
+        for (SlurIndex slurIndex : this.slurIndices.values())                                                  // no note will be checked before this measure anymore
+            slurIndex.prune(startDate);                                                                         // so forget all slurs that ended before
+
         Mei2MsmMpmConverter.reorderMeasureContent(measure);                                                                  // shift all control event subtrees to the beginning, all subtrees with staff should come after
 
         // process the contents of the measure
@@ -1363,11 +1451,12 @@ public class Mei2MsmMpmConverter {
 
             double defaultLocalMeasureDuration = (ts == null) ? defaultGlobalMeasureDuration : this.computeMeasureLength(Double.parseDouble(ts.getAttributeValue("numerator")), Double.parseDouble(ts.getAttributeValue("denominator")));  // compute the measure's (preliminary) length from the time signature
             partsDefaultDurations.put(part, defaultLocalMeasureDuration);
-            double actualPartMeasureDuration = Double.parseDouble(part.getAttributeValue("currentDate")) - startDate;   // compute the actual duration it has in this measure
+            PartCursor cursor = this.getCursor(part);
+            double actualPartMeasureDuration = cursor.date - startDate;                                          // compute the actual duration it has in this measure
 
             // if the duration matches the measure's default duration or it is less and has to be extended, in every other case we have to adapt the measure's duration to its actual fill state, so we set the part's measure duration accordingly
             double d = ((actualPartMeasureDuration == defaultLocalMeasureDuration) || ((actualPartMeasureDuration < defaultLocalMeasureDuration) && metcon)) ? defaultLocalMeasureDuration : actualPartMeasureDuration;
-            part.getAttribute("currentDate").setValue(Double.toString(d + startDate));                          // set the currentDate attribute
+            cursor.date = d + startDate;                                                                        // set the currentDate
             if (d > longestDuration)                                                                            // if this is longer than the longest duration so far
                 longestDuration = d;                                                                            // keep it
         }
@@ -1705,7 +1794,7 @@ public class Mei2MsmMpmConverter {
             part.addAttribute(partId);
         }
 
-        part.addAttribute(new Attribute("currentDate", (this.currentMeasure != null) ? this.currentMeasure.getAttributeValue("date") : "0.0"));    // set currentDate of processing
+        this.cursors.put(part, new PartCursor((this.currentMeasure != null) ? this.currentMeasureDate : 0.0));   // set currentDate of processing
 
         Nodes instrDefs = staffDef.query("descendant::*[local-name()='instrDef']");                             // check if this staffDef contains any instrDef elements; these can be used to specify the MIDI instrument declaration and is particularly useful when the staff's label does not indicate the correct instrument
         Element instrDef = (instrDefs.size() == 0) ? null : (Element)instrDefs.get(0);                          // get the first instrDef element found or null; we do not support multiple instruments per stuff as this requires a different handling MIDI-wise of all the information in the staff
@@ -1753,6 +1842,9 @@ public class Mei2MsmMpmConverter {
 
         this.currentMsmMovement.appendChild(part);                                                       // insert it into movement
 
+        if (this.currentPerformance == null)                                                                    // no MPM is built (MIDI-only conversion)
+            return part;
+
         Part performancePart = Part.createPart(label, Integer.parseInt(number), midiChannel, midiPort);         // create MPM part
         if (performancePart != null) {
             this.currentPerformance.addPart(performancePart);                                            // add it to the performance
@@ -1986,7 +2078,7 @@ public class Mei2MsmMpmConverter {
         this.convert(chord);                                                // process everything within this chord
         this.currentChord = f;                                       // foget the pointer to this chord and return to the surrounding environment or nullptr
         if (this.currentChord == null) {                             // we are done with all chord/bTrem/fTrem environments
-            this.currentPart.getAttribute("currentDate").setValue(Double.toString((Double.parseDouble(this.currentPart.getAttributeValue("currentDate")) + dur))); // draw currentDate
+            this.getCursor(this.currentPart).date += dur;                   // draw currentDate
         }
     }
 
@@ -1997,10 +2089,10 @@ public class Mei2MsmMpmConverter {
      */
     private boolean processTuplet(Element tuplet) {
         if (tuplet.getAttribute("dur") != null) {
-            double cd = Double.parseDouble(this.currentPart.getAttributeValue("currentDate"));   // store the current date for use afterwards
+            double cd = this.getCursor(this.currentPart).date;          // store the current date for use afterwards
             this.convert(tuplet);                                        // process the child elements
             double dur = this.computeDuration(tuplet);
-            this.currentPart.getAttribute("currentDate").setValue(Double.toString(cd + dur));    // this compensates for numeric problems with the single note durations within the tuplet
+            this.getCursor(this.currentPart).date = cd + dur;           // this compensates for numeric problems with the single note durations within the tuplet
             return true;
         }
         return false;
@@ -2038,10 +2130,10 @@ public class Mei2MsmMpmConverter {
                 clone.addAttribute(new Attribute("date.end", endDate.toString()));                      // add the date.end attribute to the element
             } else if (tstamp2 != null) {                                                               // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                 clone.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));                       // add the tstamp2 attribute to the element (must be deleted later!)
-                this.tstamp2s.add(clone);                                                        // add the element to the helper's tstamp2s list
+                this.addTstamp2(clone);                                                        // add the element to the helper's tstamp2s list
             } else if (endid != null) {                                                                 // if this element has to be terminated with an endid-referenced element
 //                clone.addAttribute(new Attribute("endid", endid.getValue()));                           // add the endid attribute to the element (must be deleted later!)
-                this.endids.add(clone);                                                          // add the element to the helper's endids list
+                this.addEndid(clone);                                                          // add the element to the helper's endids list
             }
 
             // add element to the local miscMap/tupletSpanMap; during duration computation (helper.computeDuration()) this map is scanned for applicable entries
@@ -2069,10 +2161,10 @@ public class Mei2MsmMpmConverter {
                         clone.addAttribute(new Attribute("date.end", endDate.toString()));              // add the date.end attribute to the element
                     } else if (tstamp2 != null) {                                                       // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                         clone.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));               // add the tstamp2 attribute to the element (must be deleted later!)
-                        this.tstamp2s.add(clone);                                                // add the element to the helper's tstamp2s list
+                        this.addTstamp2(clone);                                                // add the element to the helper's tstamp2s list
                     } else if (endid != null) {                                                         // if this pedal element has to be terminated with at an endid-referenced element
 //                        clone.addAttribute(new Attribute("endid", endid.getValue()));                   // add the endid attribute to the element (must be deleted later!)
-                        this.endids.add(clone);                                                  // add the element to the helper's endids list
+                        this.addEndid(clone);                                                  // add the element to the helper's endids list
                     }
 
                     // add element to the local miscMap/tupletSpanMap; during duration computation (helper.computeDuration()) this map is scanned for applicable entries
@@ -2089,6 +2181,9 @@ public class Mei2MsmMpmConverter {
      * @param arpeg
      */
     private void processArpeg(Element arpeg) {
+        if (this.currentPerformance == null)                                // no MPM is built (MIDI-only conversion), so there is nothing to do
+            return;
+
         // check if this is really an arpeggio
         Attribute order = Helper.getAttribute("order", arpeg);              // get order attribute
         if ((order != null) && order.getValue().trim().equals("nonarp"))    // if no arpeggio
@@ -2135,7 +2230,7 @@ public class Mei2MsmMpmConverter {
                         Element note = (Element) node;                      // process it as an element
                         Attribute noteId = Helper.getAttribute("id", note); // get the note's id
                         if (noteId == null) {                               // if the note has no id, generate one
-                            noteId = new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", "meico_" + UUID.randomUUID().toString());
+                            noteId = new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", "meico_" + IdGenerator.generateId());
                             this.allNotesAndChords.put(noteId.getValue(), note);
                             note.addAttribute(noteId);
                         }
@@ -2193,7 +2288,7 @@ public class Mei2MsmMpmConverter {
 
                 OrnamentData odd = od.clone();
                 if ((od.xmlId != null) && multiIDs)
-                    odd.xmlId = od.xmlId + "_meico_" + UUID.randomUUID().toString();
+                    odd.xmlId = od.xmlId + "_meico_" + IdGenerator.generateId();
 
                 int index = ornamentationMap.addOrnament(odd);                                      // add it to the map
                 if (needsPostprocessing != 0)
@@ -2209,6 +2304,9 @@ public class Mei2MsmMpmConverter {
      * @param dynam
      */
     private void processDynam(Element dynam) {
+        if (this.currentPerformance == null)                                // no MPM is built (MIDI-only conversion), so there is nothing to do
+            return;
+
         DynamicsData dd = new DynamicsData();
 
         // parse the instruction
@@ -2309,7 +2407,7 @@ public class Mei2MsmMpmConverter {
 
                 DynamicsData ddd = dd.clone();
                 if ((dd.xmlId != null) && multiIDs)
-                    ddd.xmlId = dd.xmlId + "_meico_" + UUID.randomUUID().toString();
+                    ddd.xmlId = dd.xmlId + "_meico_" + IdGenerator.generateId();
 
                 this.addDynamicsToMpm(ddd, dynamicsMap, endid, tstamp2);
 
@@ -2360,10 +2458,10 @@ public class Mei2MsmMpmConverter {
             dynamics.addAttribute(new Attribute("date.end", dynamicsData.endDate.toString()));              // add the date.end attribute to the element (will be resolved during mpmPostprocessing())
         } else if (tstamp2 != null) {                                                                       // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
             dynamics.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));                            // add the tstamp2 attribute to the element (must be deleted later!)
-            this.tstamp2s.add(dynamics);                                                             // add the element to the helper's tstamp2s list
+            this.addTstamp2(dynamics);                                                             // add the element to the helper's tstamp2s list
         } else if (endid != null) {                                                                         // if this dynamics element has to be terminated with at an endid-referenced element
             dynamics.addAttribute(new Attribute("endid", endid.getValue()));                                // add the endid attribute to the element (must be deleted later!)
-            this.endids.add(dynamics);                                                               // add the element to the helper's endids list
+            this.addEndid(dynamics);                                                               // add the element to the helper's endids list
         }
 
         return index;
@@ -2374,6 +2472,9 @@ public class Mei2MsmMpmConverter {
      * @param tempo
      */
     private void processTempo(Element tempo) {
+        if (this.currentPerformance == null)                                // no MPM is built (MIDI-only conversion), so there is nothing to do
+            return;
+
         TempoData tempoData = this.parseTempo(tempo, this.currentPart);                               // tempo data to generate an entry in an MPM tempoMap
         if (tempoData == null)
             return;
@@ -2422,7 +2523,7 @@ public class Mei2MsmMpmConverter {
 
                 TempoData td = tempoData.clone();
                 if ((tempoData.xmlId != null) && multiIDs)
-                    td.xmlId = tempoData.xmlId + "_meico_" + UUID.randomUUID().toString();
+                    td.xmlId = tempoData.xmlId + "_meico_" + IdGenerator.generateId();
 
                 // generate and add the new tempo instruction
                 this.addTempoToMpm(td, tempoMap, endid, tstamp2);
@@ -2470,10 +2571,10 @@ public class Mei2MsmMpmConverter {
             tempo.addAttribute(new Attribute("date.end", tempoData.endDate.toString()));            // add the date.end attribute to the element (will be resolved during mpmPostprocessing())
         } else if (tstamp2 != null) {                                                               // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
             tempo.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));                       // add the tstamp2 attribute to the element (must be deleted later!)
-            this.tstamp2s.add(tempo);                                                        // add the element to the helper's tstamp2s list
+            this.addTstamp2(tempo);                                                        // add the element to the helper's tstamp2s list
         } else if (endid != null) {                                                                 // if this tempo element has to be terminated with at an endid-referenced element
             tempo.addAttribute(new Attribute("endid", endid.getValue()));                           // add the endid attribute to the element (must be deleted later!)
-            this.endids.add(tempo);                                                          // add the element to the helper's endids list
+            this.addEndid(tempo);                                                          // add the element to the helper's endids list
         }
 
         return index;
@@ -2485,6 +2586,9 @@ public class Mei2MsmMpmConverter {
      * @param artic
      */
     private void processArtic(Element artic) {
+        if (this.currentPerformance == null)                                // no MPM is built (MIDI-only conversion), so there is nothing to do
+            return;
+
         if (this.currentPart == null)                // if we are not within a part, we don't know where to assign the artic; hence we skip its processing
             return;
 
@@ -2522,7 +2626,7 @@ public class Mei2MsmMpmConverter {
             if (parent.getLocalName().equals("note")) {                                                                         // found a note
                 String noteId = Helper.getAttributeValue("id", parent);                                                         // get its xml:id
                 if (noteId.isEmpty()) {                                                                                         // it has no xml:id
-                    noteId = "meico_" + UUID.randomUUID().toString();                                                           // generate one
+                    noteId = "meico_" + IdGenerator.generateId();                                                           // generate one
                     parent.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", noteId));               // add it to the note
                 }
                 if (att != null)
@@ -2551,14 +2655,14 @@ public class Mei2MsmMpmConverter {
                     if (note.getAttribute("date") != null) {                                                                                // this note has already been processed
                         String noteId = Helper.getAttributeValue("id", note);
                         if (att != null) {
-                            this.addArticulationToMap(date, att.getValue(), ((xmlid == null) ? null : (xmlid + ((multiIDs) ? ("_meico_" + UUID.randomUUID().toString()) : ""))), noteId, map, articulationStyle);   // make articulation entry in the map with an updated the id to avoid duplicates
+                            this.addArticulationToMap(date, att.getValue(), ((xmlid == null) ? null : (xmlid + ((multiIDs) ? ("_meico_" + IdGenerator.generateId()) : ""))), noteId, map, articulationStyle);   // make articulation entry in the map with an updated the id to avoid duplicates
                             multiIDs = true;
                         }
                         if (slur != null) {                                                                                                                                                     // if there is a slur attribute with value i or m
                             String slurid = null;
                             if (artic.getAttribute("slurid") != null) {
                                 slurid = artic.getAttributeValue("slurid");                                                                                                                     // read the xml:id of the slur element that created this slur attribute
-                                note.addAttribute(new Attribute("slurid", (multiSlurIDs) ? slurid + "_meico_" + UUID.randomUUID().toString() : slurid));                                        // add it also to the note
+                                note.addAttribute(new Attribute("slurid", (multiSlurIDs) ? slurid + "_meico_" + IdGenerator.generateId() : slurid));                                        // add it also to the note
                                 multiSlurIDs = true;
                             }
                             if (slur.getValue().contains("t"))                                                                                                                                  // for a terminal legato
@@ -2571,7 +2675,7 @@ public class Mei2MsmMpmConverter {
                             Element newArtic = new Element("artic");                                                                                                                            // create an artic element
                             newArtic.addAttribute(new Attribute(att.getLocalName(), att.getValue()));                                                                                           // the artic element gets the artic.ges or artic attribute of this element
                             if (xmlid != null)                                                                                                                                                  // if it has an xml:id
-                                newArtic.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", xmlid + ((multiIDs) ? ("_meico_" + UUID.randomUUID().toString()) : ""))); // add it also to the the copies but with a slightly updated id to avoid duplicats
+                                newArtic.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", xmlid + ((multiIDs) ? ("_meico_" + IdGenerator.generateId()) : ""))); // add it also to the the copies but with a slightly updated id to avoid duplicats
                             note.appendChild(newArtic);                                                                                                                                         // add it to the note
                             multiIDs = true;
                         }
@@ -2579,7 +2683,7 @@ public class Mei2MsmMpmConverter {
                             note.addAttribute(new Attribute("slur", slur.getValue()));                                                                                                          // add the slur to its note as well
                             if (artic.getAttribute("slurid") != null) {
                                 String slurid = artic.getAttributeValue("slurid");                                                                                                              // read the xml:id of the slur element that created this slur attribute
-                                note.addAttribute(new Attribute("slurid", (multiSlurIDs) ? slurid + "_meico_" + UUID.randomUUID().toString() : slurid));                                        // add it also to the note
+                                note.addAttribute(new Attribute("slurid", (multiSlurIDs) ? slurid + "_meico_" + IdGenerator.generateId() : slurid));                                        // add it also to the note
                                 multiSlurIDs = true;
                             }
                         }
@@ -2624,6 +2728,9 @@ public class Mei2MsmMpmConverter {
      * @param breath
      */
     private void processBreath(Element breath) {
+        if (this.currentPerformance == null)                                // no MPM is built (MIDI-only conversion), so there is nothing to do
+            return;
+
         if (this.currentMeasure == null)                                     // make sure we are in a measure environment
             return;
 
@@ -2701,7 +2808,7 @@ public class Mei2MsmMpmConverter {
                             }
 
                             double date = this.tstampToTicks(tstamp, msmPart);                                   // compute the midi date of the instruction from tstamp
-                            this.addArticulationToMap(date, "breath", (xmlid == null) ? null :  ((multiIds) ? (xmlid + "_meico_" + UUID.randomUUID().toString()) : xmlid), null, articulationMap, articulationStyle); // generate and add the new articulation instruction
+                            this.addArticulationToMap(date, "breath", (xmlid == null) ? null :  ((multiIds) ? (xmlid + "_meico_" + IdGenerator.generateId()) : xmlid), null, articulationMap, articulationStyle); // generate and add the new articulation instruction
                             multiIds = true;
                         }
                     }
@@ -2719,7 +2826,7 @@ public class Mei2MsmMpmConverter {
                 Element artic = new Element("artic");                       // create an artic element
                 artic.addAttribute(new Attribute("artic.ges", "breath"));   // with articulation instruction "breath"
                 if (xmlid != null) {                                        // and xml:id if it has one
-                    artic.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", ((multiIds) ? (xmlid + "_meico_" + UUID.randomUUID().toString()) : xmlid)));    // if multiple articulations are generated, avoid equal ids
+                    artic.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", ((multiIds) ? (xmlid + "_meico_" + IdGenerator.generateId()) : xmlid)));    // if multiple articulations are generated, avoid equal ids
                     multiIds = true;
                 }
                 note.appendChild(artic);                                    // and add it to the note so it will be processed as an articulation later on
@@ -2808,7 +2915,7 @@ public class Mei2MsmMpmConverter {
                 if (note != null) {                                                                     // if there is one
                     note.addAttribute(new Attribute("slur", "im"));                                     // give it a slur attribute
                     if (xmlid != null) {
-                        note.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", ((multiIds) ? xmlid + "_meico_" + UUID.randomUUID().toString() : xmlid)));
+                        note.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", ((multiIds) ? xmlid + "_meico_" + IdGenerator.generateId() : xmlid)));
                         multiIds = true;
                     }
                 }
@@ -2820,7 +2927,7 @@ public class Mei2MsmMpmConverter {
                 if (note != null) {                                                                     // if there is one
                     note.addAttribute(new Attribute("slur", "t"));                                      // give it a terminal slur
                     if (xmlid != null) {
-                        note.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", ((multiIds) ? xmlid + "_meico_" + UUID.randomUUID().toString() : xmlid)));
+                        note.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", ((multiIds) ? xmlid + "_meico_" + IdGenerator.generateId() : xmlid)));
                     }
                 }
             }
@@ -2864,7 +2971,7 @@ public class Mei2MsmMpmConverter {
 
             if (endid != null) {                                                                        // if this element has to be terminated with an endid-referenced element
                 slurMisc.addAttribute(new Attribute("endid", endid.getValue()));                        // add the endid attribute to the element (must be deleted later!)
-                this.endids.add(slurMisc);
+                this.addEndid(slurMisc);
             }
 
             if (endDate != null)                                                                        // if there is an endDate known
@@ -2872,11 +2979,12 @@ public class Mei2MsmMpmConverter {
 
             if (tstamp2 != null) {                                                                      // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                 slurMisc.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));                    // add the tstamp2 attribute to the element (must be deleted later!)
-                this.tstamp2s.add(slurMisc);
+                this.addTstamp2(slurMisc);
             }
 
             Element miscMap = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap"); // find the global miscMap
             Helper.addToMap(slurMisc, miscMap);                                                         // insert in global miscMap
+            this.getSlurIndex(miscMap).add(slurMisc);                                                   // and in the index of its slurs
         }
         else {
             // there are staffs, hence, local slur
@@ -2893,7 +3001,7 @@ public class Mei2MsmMpmConverter {
                     Element slurMisc = new Element("slur");                                             // create a slur element
                     slurMisc.addAttribute(new Attribute("date", date.toString()));                      // give it a date attribute
                     if (xmlid != null) {
-                        slurMisc.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", ((multiIds) ? xmlid + "_meico_" + UUID.randomUUID().toString() : xmlid)));
+                        slurMisc.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", ((multiIds) ? xmlid + "_meico_" + IdGenerator.generateId() : xmlid)));
                         multiIds = true;
                     }
 
@@ -2904,7 +3012,7 @@ public class Mei2MsmMpmConverter {
 
                     if (endid != null) {                                                                // if this element has to be terminated with an endid-referenced element
                         slurMisc.addAttribute(new Attribute("endid", endid.getValue()));                // add the endid attribute to the element (must be deleted later!)
-                        this.endids.add(slurMisc);
+                        this.addEndid(slurMisc);
                     }
 
                     if (endDate != null)
@@ -2912,11 +3020,12 @@ public class Mei2MsmMpmConverter {
 
                     if (tstamp2 != null) {                                                              // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                         slurMisc.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));            // add the tstamp2 attribute to the element (must be deleted later!)
-                        this.tstamp2s.add(slurMisc);
+                        this.addTstamp2(slurMisc);
                     }
 
                     Element miscMap = parts.get(p).getFirstChildElement("dated").getFirstChildElement("miscMap");
                     Helper.addToMap(slurMisc, miscMap);
+                    this.getSlurIndex(miscMap).add(slurMisc);
                 }
             }
         }
@@ -2996,11 +3105,11 @@ public class Mei2MsmMpmConverter {
                 else {                                                              // otherwise
                     first = Helper.cloneElement(es.get(es.size() - 2));             // get the second to last time signature element
                 }
-                first.addAttribute(new Attribute("date", this.currentPart.getAttributeValue("currentDate")));  // draw date of first  to currentDate
+                first.addAttribute(new Attribute("date", Double.toString(this.getCursor(this.currentPart).date)));  // draw date of first  to currentDate
 
                 // set date of the last time signature element to the beginning of currentDate + 1 measure
                 double timeframe2 = (4.0 * this.ppq * Double.parseDouble(first.getAttributeValue("numerator"))) / Double.parseDouble(first.getAttributeValue("denominator"));// compute the length of one measure of time signature element first
-                second.getAttribute("date").setValue(Double.toString(Double.parseDouble(this.currentPart.getAttributeValue("currentDate")) + timeframe2));                   // draw date of second time signature element
+                second.getAttribute("date").setValue(Double.toString(this.getCursor(this.currentPart).date + timeframe2));                   // draw date of second time signature element
 
                 // add both instructions to the timeSignatureMap
                 Helper.addToMap(first, (Element)es.get(0).getParent());
@@ -3070,7 +3179,7 @@ public class Mei2MsmMpmConverter {
             return;                                                                                                                 // nothing to repeat, hence, cancel
         }
 
-        double currentDate = Double.parseDouble(this.currentPart.getAttributeValue("currentDate"));                          // get the current date
+        double currentDate = this.getCursor(this.currentPart).date;                                                                 // get the current date
         double startDate = currentDate - timeframe;                                                                                 // compute the date of the beginning of the timeframe to be repeated
         String layer = Mei.getLayerId(this.currentLayer);                                                                 // get the id of the current layer
         Stack<Element> els = new Stack<Element>();
@@ -3084,7 +3193,7 @@ public class Mei2MsmMpmConverter {
                 copy.getAttribute("date").setValue(Double.toString(date + timeframe));                                              // draw its date attribute
                 Attribute id = Helper.getAttribute("id", copy);                                                                     // get the id attribute
                 if (id != null)                                                                                                     // if the element has an id
-                    id.setValue("meico_repeats_" + id.getValue() + "_" + UUID.randomUUID().toString());                             // give it a new unique one of the following form: "meico_repeats_oldID_newUUID"
+                    id.setValue("meico_repeats_" + id.getValue() + "_" + IdGenerator.generateId());                             // give it a new unique one of the following form: "meico_repeats_oldID_newUUID"
                 els.push(copy);                                                                                                     // push the copy onto the els stack
             }
         }
@@ -3094,7 +3203,7 @@ public class Mei2MsmMpmConverter {
             Helper.addToMap(els.peek(), this.currentPart.getFirstChildElement("dated").getFirstChildElement("score"));       // append element to score and pop from stack
         }
 
-        this.currentPart.getAttribute("currentDate").setValue(Double.toString(currentDate + timeframe));                     // draw currentDate counter
+        this.getCursor(this.currentPart).date = currentDate + timeframe;                                                            // draw currentDate counter
     }
 
 
@@ -3111,7 +3220,7 @@ public class Mei2MsmMpmConverter {
             return;
 
         Helper.addToMap(rest, this.currentPart.getFirstChildElement("dated").getFirstChildElement("score"));                     // insert in movement
-        this.currentPart.getAttribute("currentDate").setValue(Double.toString(Double.parseDouble(this.currentPart.getAttributeValue("currentDate")) + Double.parseDouble(rest.getAttributeValue("duration"))));  // draw currentDate
+        this.getCursor(this.currentPart).date += Double.parseDouble(rest.getAttributeValue("duration"));   // draw currentDate
     }
 
     /**
@@ -3160,7 +3269,7 @@ public class Mei2MsmMpmConverter {
         if (num > 1)                                                                        // if multiple measures (more than 1)
             rest.getAttribute("duration").setValue(Double.toString(Double.parseDouble(rest.getAttributeValue("duration")) * num));    // rest duration of one measure times the number of measures
 
-        this.currentPart.getAttribute("currentDate").setValue(Double.toString(Double.parseDouble(this.currentPart.getAttributeValue("currentDate")) + Double.parseDouble(rest.getAttributeValue("duration")))); // draw currentDate counter
+        this.getCursor(this.currentPart).date += Double.parseDouble(rest.getAttributeValue("duration"));   // draw currentDate counter
     }
 
     /**
@@ -3177,7 +3286,7 @@ public class Mei2MsmMpmConverter {
 
         s.addAttribute(new Attribute("duration", Double.toString(dur)));                                       // else store attribute
         this.addLayerAttribute(s);                                                                           // add an attribute that indicates the layer
-        this.currentPart.getAttribute("currentDate").setValue(Double.toString(Double.parseDouble(this.currentPart.getAttributeValue("currentDate")) + dur));  // draw currentDate counter
+        this.getCursor(this.currentPart).date += dur;                   // draw currentDate counter
         Helper.addToMap(s, this.currentPart.getFirstChildElement("dated").getFirstChildElement("score"));    // insert the new note into the part->dated->score
 
         // this is just for the debugging in mei
@@ -3264,10 +3373,10 @@ public class Mei2MsmMpmConverter {
                 trans.addAttribute(new Attribute("date.end", endDate.toString()));                      // add the date.end attribute to the element
             } else if (tstamp2 != null) {                                                               // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                 trans.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));                       // add the tstamp2 attribute to the element (must be deleted later!)
-                this.tstamp2s.add(trans);                                                        // add the element to the helper's tstamp2s list
+                this.addTstamp2(trans);                                                        // add the element to the helper's tstamp2s list
             } else if (endid != null) {                                                                 // if this element has to be terminated with an endid-referenced element
                 trans.addAttribute(new Attribute("endid", endid.getValue()));                           // add the endid attribute to the element (must be deleted later!)
-                this.endids.add(trans);                                                          // add the element to the helper's endids list
+                this.addEndid(trans);                                                          // add the element to the helper's endids list
             }
 
             Element miscMap = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap"); // find the global miscMap
@@ -3291,16 +3400,16 @@ public class Mei2MsmMpmConverter {
                     Helper.copyId(octave, trans);                                                       // copy the xml:id
                     Attribute id = trans.getAttribute("id", "http://www.w3.org/XML/1998/namespace");    // get the id or null if it has none
                     if (id != null)
-                        id.setValue(id.getValue() + ((multiIDs) ? "_meico_" + UUID.randomUUID().toString() : ""));  // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
+                        id.setValue(id.getValue() + ((multiIDs) ? "_meico_" + IdGenerator.generateId() : ""));  // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
 
                     if (endDate != null) {
                         trans.addAttribute(new Attribute("date.end", endDate.toString()));              // add the date.end attribute to the element
                     } else if (tstamp2 != null) {                                                       // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                         trans.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));               // add the tstamp2 attribute to the element (must be deleted later!)
-                        this.tstamp2s.add(trans);                                                // add the element to the helper's tstamp2s list
+                        this.addTstamp2(trans);                                                // add the element to the helper's tstamp2s list
                     } else if (endid != null) {                                                         // if this pedal element has to be terminated with at an endid-referenced element
                         trans.addAttribute(new Attribute("endid", endid.getValue()));                   // add the endid attribute to the element (must be deleted later!)
-                        this.endids.add(trans);                                                  // add the element to the helper's endids list
+                        this.addEndid(trans);                                                  // add the element to the helper's endids list
                     }
 
                     Element miscMap = parts.get(p).getFirstChildElement("dated").getFirstChildElement("miscMap");
@@ -3349,10 +3458,10 @@ public class Mei2MsmMpmConverter {
                 pedalMapEntry.addAttribute(new Attribute("date.end", endDate.toString()));                      // add the date.end attribute to the element
             } else if (tstamp2 != null) {                                                                       // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                 pedalMapEntry.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));                       // add the tstamp2 attribute to the element (must be deleted later!)
-                this.tstamp2s.add(pedalMapEntry);                                                        // add the element to the helper's tstamp2s list
+                this.addTstamp2(pedalMapEntry);                                                        // add the element to the helper's tstamp2s list
             } else if (endid != null) {                                                                         // if this pedal element has to be terminated with at an endid-referenced element
                 pedalMapEntry.addAttribute(new Attribute("endid", endid.getValue()));                           // add the endid attribute to the element (must be deleted later!)
-                this.endids.add(pedalMapEntry);                                                          // add the element to the helper's endids list
+                this.addEndid(pedalMapEntry);                                                          // add the element to the helper's endids list
             }
 
             Element pedalMap = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("pedalMap"); // find the global pedalMap
@@ -3376,16 +3485,16 @@ public class Mei2MsmMpmConverter {
                     Helper.copyId(pedal, pedalMapEntry);                                                        // copy the xml:id
                     Attribute id = pedalMapEntry.getAttribute("id", "http://www.w3.org/XML/1998/namespace");    // get the id or null if it has none
                     if (id != null)
-                        id.setValue(id.getValue() + ((multiIDs) ? "_meico_" + UUID.randomUUID().toString() : ""));  // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
+                        id.setValue(id.getValue() + ((multiIDs) ? "_meico_" + IdGenerator.generateId() : ""));  // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
 
                     if (endDate != null) {
                         pedalMapEntry.addAttribute(new Attribute("date.end", endDate.toString()));              // add the date.end attribute to the element
                     } else if (tstamp2 != null) {                                                               // if this element must be terminated in another measure via a tstamp2.ges or tstamp2 attribute
                         pedalMapEntry.addAttribute(new Attribute("tstamp2", tstamp2.getValue()));               // add the tstamp2 attribute to the element (must be deleted later!)
-                        this.tstamp2s.add(pedalMapEntry);                                                // add the element to the helper's tstamp2s list
+                        this.addTstamp2(pedalMapEntry);                                                // add the element to the helper's tstamp2s list
                     } else if (endid != null) {                                                                 // if this pedal element has to be terminated with at an endid-referenced element
                         pedalMapEntry.addAttribute(new Attribute("endid", endid.getValue()));                   // add the endid attribute to the element (must be deleted later!)
-                        this.endids.add(pedalMapEntry);                                                  // add the element to the helper's endids list
+                        this.addEndid(pedalMapEntry);                                                  // add the element to the helper's endids list
                     }
 
                     Element pedalMap = parts.get(p).getFirstChildElement("dated").getFirstChildElement("pedalMap");
@@ -3408,7 +3517,7 @@ public class Mei2MsmMpmConverter {
         if ((this.currentChord != null)                                                                                              // if this note is within a chord
                 && (this.currentChord.getAttribute("hasArticulations") != null)                                                      // and if that chord contains articulations (the attribute is generate by meico only in this case), these may potentially be relevant to this note
                 && (Helper.getAttribute("id", note) == null)) {                                                                             // and if the note has no id, yet (mandatory for associating the articulation with it)
-            note.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", "meico_" + UUID.randomUUID().toString()));    // generate one
+            note.addAttribute(new Attribute("xml:id", "http://www.w3.org/XML/1998/namespace", "meico_" + IdGenerator.generateId()));    // generate one
         }
 
         this.convert(note);                                                     // look for and process what is in the note (e.g. accid, dot etc.) before
@@ -3443,7 +3552,7 @@ public class Mei2MsmMpmConverter {
 
         // draw currentDate counter
         if (this.currentChord == null)                                   // the next instruction must be suppressed in the chord environment
-            this.currentPart.getAttribute("currentDate").setValue(Double.toString(date + dur));  // draw currentDate counter
+            this.getCursor(this.currentPart).date = date + dur;         // draw currentDate counter
 
         // adding some attributes to the mei source, this is only for the debugging in mei
         note.addAttribute(new Attribute("pnum", String.valueOf(pitch)));        // this is also needed during mdiv-wise postprocessing of arpeggios
@@ -3514,6 +3623,13 @@ public class Mei2MsmMpmConverter {
         this.accid.clear();
         this.endids.clear();
         this.tstamp2s.clear();
+        this.measureIndex = 0;
+        this.slurIndices.clear();
+        this.cursors.clear();
+        this.globalCursor = new PartCursor(0.0);
+        this.layerEndDates.clear();
+        this.lastCursorPart = null;
+        this.lastCursor = null;
         this.lyrics.clear();
         this.allNotesAndChords.clear();
     }
@@ -3538,10 +3654,10 @@ public class Mei2MsmMpmConverter {
      */
     protected double getMidiTime() {
         if (this.currentPart != null)                                                       // if we are within a staff environment
-            return Double.parseDouble(this.currentPart.getAttributeValue("currentDate"));   // we have a more precise date somewhere within a measure
+            return this.getCursor(this.currentPart).date;                                   // we have a more precise date somewhere within a measure
 
         if (this.currentMeasure != null)                                                    // if we are within a measure
-            return Double.parseDouble(this.currentMeasure.getAttributeValue("date"));       // take it
+            return this.currentMeasureDate;                                                 // take it
 
         if (this.currentMsmMovement == null)                                                // if we are outside of any movement
             return 0.0;                                                                     // return 0.0
@@ -3550,7 +3666,7 @@ public class Mei2MsmMpmConverter {
         Elements parts = this.currentMsmMovement.getChildElements("part");                  // get the list of all parts
         double latestDate = 0.0;                                                            // here comes the result
         for (int i = parts.size()-1; i >= 0; --i) {                                         // go through that list
-            double date = Double.parseDouble(parts.get(i).getAttributeValue("currentDate"));// get the part's date
+            double date = this.getCursor(parts.get(i)).date;                                // get the part's date
             if (latestDate < date)                                                          // if this part's date is later than latestDate so far
                 latestDate = date;                                                          // set latestDate to date
         }
@@ -3562,24 +3678,7 @@ public class Mei2MsmMpmConverter {
      * @return
      */
     protected String getMidiTimeAsString() {
-        if (this.currentPart != null)                                                       // if we are within a staff environment
-            return this.currentPart.getAttributeValue("currentDate");                       // we have a more precise date somewhere within a measure
-
-        if (this.currentMeasure != null)                                                    // if we are within a measure
-            return this.currentMeasure.getAttributeValue("date");                           // take it
-
-        if (this.currentMsmMovement == null)                                                 // if we are outside of any movement
-            return "0.0";                                                                   // return 0.0
-
-        // go through all parts, determine the latest currentDate and return it
-        Elements parts = this.currentMsmMovement.getChildElements("part");                   // get the list of all parts
-        double latestDate = 0.0;                                                            // here comes the result
-        for (int i = parts.size()-1; i >= 0; --i) {                                         // go through that list
-            double date = Double.parseDouble(parts.get(i).getAttributeValue("currentDate"));// get the part's date
-            if (latestDate < date)                                                          // if this part's date is later than latestDate so far
-                latestDate = date;                                                          // set latestDate to date
-        }
-        return Double.toString(latestDate);                                                 // return the latest date of all parts
+        return Double.toString(this.getMidiTime());
     }
 
     /**
@@ -3599,12 +3698,15 @@ public class Mei2MsmMpmConverter {
      */
     protected double[] getCurrentTimeSignature(Element msmPartContext) {
         // get the value of one measure from the local or global timeSignatureMap
-        Elements es = null;
+        double[] ts = null;
         if (msmPartContext != null)                                                                                                                                           // we are within a part
-            es = msmPartContext.getFirstChildElement("dated").getFirstChildElement("timeSignatureMap").getChildElements();                                                    // try to get its timeSignature
-        if ((es == null) || (es.size() == 0))                                                                                                                                   // if we are outside a part or the local map is empty
-            es = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("timeSignatureMap").getChildElements();              // get global entries
-        if ((es.size() == 0) && (this.currentWork != null)) {                                                                                                                   // get the meter element from meiHead
+            ts = this.getCursor(msmPartContext).getTimeSignature(msmPartContext.getFirstChildElement("dated").getFirstChildElement("timeSignatureMap"));                      // try to get its timeSignature
+        if (ts == null)                                                                                                                                                         // if we are outside a part or the local map is empty
+            ts = this.globalCursor.getTimeSignature(this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("timeSignatureMap"));  // get global entries
+        if (ts != null)
+            return ts;
+
+        if (this.currentWork != null) {                                                                                                                                         // get the meter element from meiHead
             Element meter = this.currentWork.getFirstChildElement("meter");
             if (meter != null) {
                 Attribute count = meter.getAttribute("count");
@@ -3613,11 +3715,7 @@ public class Mei2MsmMpmConverter {
             }
         }
 
-        // get length of one measure (4/4 is default if information is insufficient)
-        double denom = (es.size() == 0) ? 4.0 : Double.parseDouble(es.get(es.size()-1).getAttributeValue("denominator"));
-        double num = (es.size() == 0) ? 4.0 : Double.parseDouble(es.get(es.size()-1).getAttributeValue("numerator"));
-
-        return new double[]{num, denom};
+        return new double[]{4.0, 4.0};                                                                                                                                          // 4/4 is default if information is insufficient
     }
 
     /**
@@ -3752,16 +3850,20 @@ public class Mei2MsmMpmConverter {
     }
 
     /**
-     * return the first element in the endids list with an endid attribute value that equals id
-     * @param id
-     * @return the index in the endid list or -1 if not found
+     * add an element with an endid attribute to the pending elements that will be finished when the element with this endid is found
+     * @param e
      */
-    private int getEndid(String id) {
-        for (int i=0; i < this.endids.size(); ++i) {                        // go through the list of pending elements to be ended
-            if (this.endids.get(i).getAttributeValue("endid").equals(id))   // found
-                return i;                                                   // return it
-        }
-        return -1;
+    private void addEndid(Element e) {
+        this.endids.computeIfAbsent(e.getAttributeValue("endid"), k -> new ArrayList<>()).add(e);
+    }
+
+    /**
+     * add an element with a tstamp2 attribute to the pending elements that will be finished when the measure indicated by tstamp2 is processed
+     * @param e
+     */
+    private void addTstamp2(Element e) {
+        int measures = Integer.parseInt(e.getAttributeValue("tstamp2").split("m\\+")[0]);                 // the number of barlines to cross
+        this.tstamp2s.computeIfAbsent(this.measureIndex + Math.max(1, measures), k -> new ArrayList<>()).add(e);  // the element is finished at the beginning of the next measure at the latest
     }
 
     /**
@@ -3770,11 +3872,11 @@ public class Mei2MsmMpmConverter {
      * @param e
      */
     protected void checkEndid(Element e) {
-        String id = "#" + Helper.getAttributeValue("id", e);                                                                            // get id of the current element
-        for (int j = this.getEndid(id); j >= 0; j = this.getEndid(id)) {                                                                // find all pending elements in the endid list to be finished at this element
-            this.endids.get(j).addAttribute(new Attribute("date.end", Double.toString(this.getMidiTime() + ((this.endids.get(j).getLocalName().equals("slur")) ? 0.0 : this.computeDuration(e)))));  // finish corresponding element, only slurs should not include the duration
-            this.endids.remove(j);                                                                                                      // remove element from list, it is finished
-        }
+        ArrayList<Element> pending = this.endids.remove("#" + Helper.getAttributeValue("id", e));                                      // find all pending elements in the endid list to be finished at this element, they are removed from the list
+        if (pending == null)
+            return;
+        for (Element p : pending)
+            p.addAttribute(new Attribute("date.end", Double.toString(this.getMidiTime() + ((p.getLocalName().equals("slur")) ? 0.0 : this.computeDuration(e)))));  // finish corresponding element, only slurs should not include the duration
     }
 
     /**
@@ -3782,55 +3884,64 @@ public class Mei2MsmMpmConverter {
      * @param e
      */
     protected void checkSlurs(Element e) {
-        Elements slurs = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("slur");
+        double date = this.getMidiTime();
 
-        for (int i = slurs.size() - 1; i >= 0; --i) {                                                                                                                   // go through the global slurs
-            if ((slurs.get(i).getAttributeValue("date") != null) && (Double.parseDouble(slurs.get(i).getAttributeValue("date")) > this.getMidiTime())) {                // if this slur element is after e
-                continue;                                                                                                                                               // continue searching
-            }
-            if (slurs.get(i).getAttribute("date.end") != null) {                                                                                                        // if it is before e
-                double endDate = Double.parseDouble(slurs.get(i).getAttributeValue("date.end"));
-                if (endDate < this.getMidiTime()) {                                                                                                                     // if the end date of this slur (if one is specified) is before e
-                    continue;
-                }
-                if (endDate == this.getMidiTime()) {                                                                                                                    // if the end date of this slur (if one is specified) is at e
-                    e.addAttribute(new Attribute("slur", "t"));                                                                                                         // set the slur attribute to terminal
-                    Mei2MsmMpmConverter.addSlurId(slurs.get(i), e);
-                    return;                                                                                                                                             // no need to look for further slurs
+        SlurIndex slurs = this.slurIndices.get(this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("miscMap"));
+        if (slurs != null) {
+            for (KeyValue<Element, Boolean> slur : slurs.getSlursAt(date)) {                                                                                        // go through the global slurs that are active at e, latest first
+                if (slur.getValue()) {                                                                                                                              // if the end date of this slur is at e
+                    e.addAttribute(new Attribute("slur", "t"));                                                                                                     // set the slur attribute to terminal
+                    Mei2MsmMpmConverter.addSlurId(slur.getKey(), e);
+                    return;                                                                                                                                         // no need to look for further slurs
                 }
+                e.addAttribute(new Attribute("slur", "im"));
+                Mei2MsmMpmConverter.addSlurId(slur.getKey(), e);
             }
-            e.addAttribute(new Attribute("slur", "im"));
-            Mei2MsmMpmConverter.addSlurId(slurs.get(i), e);
         }
 
         if (this.currentPart != null) {
-            String layerId = Mei.getLayerId(Mei.getLayer(e));                                                                                                                   // get the current layer's id reference
-            slurs = this.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap").getChildElements("slur");
+            slurs = this.slurIndices.get(this.currentPart.getFirstChildElement("dated").getFirstChildElement("miscMap"));
+            if (slurs == null)
+                return;
 
-            for (int i = slurs.size() - 1; i >= 0; --i) {                                                                                                               // go through the local slurs
-                if (!Mei2MsmMpmConverter.isSameLayer(slurs.get(i), layerId)) {                                                                                                       // check whether this slur is dedicated to a specific layer but not the current layer (layer of ofThis)
-                    continue;
-                }
-                if ((slurs.get(i).getAttributeValue("date") != null) && (Double.parseDouble(slurs.get(i).getAttributeValue("date")) > this.getMidiTime())) {            // if this slur element is after ofThis
+            String layerId = Mei.getLayerId(Mei.getLayer(e));                                                                                                       // get the current layer's id reference
+            for (KeyValue<Element, Boolean> slur : slurs.getSlursAt(date)) {                                                                                        // go through the local slurs that are active at e, latest first
+                if (!Mei2MsmMpmConverter.isSameLayer(slur.getKey(), layerId)) {                                                                                     // check whether this slur is dedicated to a specific layer but not the current layer (layer of ofThis)
                     continue;
                 }
-                if (slurs.get(i).getAttribute("date.end") != null) {                                                                                                    // if it is before e
-                    double endDate = Double.parseDouble(slurs.get(i).getAttributeValue("date.end"));
-                    if (endDate < this.getMidiTime()) {                                                                                                                 // if the end date of this slur (if one is specified) is before e
-                        continue;
-                    }
-                    if (endDate == this.getMidiTime()) {                                                                                                                // if the end date of this slur (if one is specified) is at e
-                        e.addAttribute(new Attribute("slur", "t"));                                                                                                     // set the slur attribute to terminal
-                        Mei2MsmMpmConverter.addSlurId(slurs.get(i), e);
-                        return;                                                                                                                                         // no need to look for further slurs
-                    }
+                if (slur.getValue()) {                                                                                                                              // if the end date of this slur is at e
+                    e.addAttribute(new Attribute("slur", "t"));                                                                                                     // set the slur attribute to terminal
+                    Mei2MsmMpmConverter.addSlurId(slur.getKey(), e);
+                    return;                                                                                                                                         // no need to look for further slurs
                 }
                 e.addAttribute(new Attribute("slur", "im"));
-                Mei2MsmMpmConverter.addSlurId(slurs.get(i), e);
+                Mei2MsmMpmConverter.addSlurId(slur.getKey(), e);
             }
         }
     }
 
+    /**
+     * get the index of the slurs in the specified miscMap, create it if necessary
+     * @param miscMap
+     * @return
+     */
+    private SlurIndex getSlurIndex(Element miscMap) {
+        return this.slurIndices.computeIfAbsent(miscMap, k -> new SlurIndex());
+    }
+
+    /**
+     * get the conversion state of the specified MSM part
+     * @param part
+     * @return
+     */
+    protected PartCursor getCursor(Element part) {
+        if (part != this.lastCursorPart) {
+            this.lastCursor = this.cursors.computeIfAbsent(part, k -> new PartCursor(0.0));
+            this.lastCursorPart = part;
+        }
+        return this.lastCursor;
+    }
+
     /**
      * convert a tstamp value to midi ticks,
      * not suited for tstamp2!
@@ -3848,7 +3959,7 @@ public class Mei2MsmMpmConverter {
         double denom = this.getCurrentTimeSignature(msmPartContext)[1];                 // get the current denominator
         double tstampToTicksConversionFactor = (4.0 * this.ppq) / denom;                // multiply a tstamp with this and you get the midi tick value (don't forget to add the measure date!)
 
-        return (date * tstampToTicksConversionFactor) + Double.parseDouble(this.currentMeasure.getAttributeValue("date"));
+        return (date * tstampToTicksConversionFactor) + this.currentMeasureDate;
     }
 
     /**
@@ -4210,41 +4321,51 @@ public class Mei2MsmMpmConverter {
                     Element keySigMapLocal = (this.currentPart == null) ? null : this.currentPart.getFirstChildElement("dated").getFirstChildElement("keySignatureMap");// get the local key signature map from mpm
                     Element keySigMapGlobal = this.currentMsmMovement.getFirstChildElement("global").getFirstChildElement("dated").getFirstChildElement("keySignatureMap");  // get the global key signature map
 
-                    Element keySigLocal = null;
-                    if (keySigMapLocal != null) {
-                        Elements keySigsLocal = keySigMapLocal.getChildElements("keySignature");                                    // get the local keySignature elements
-                        for (int i = keySigsLocal.size() - 1; i >= 0; --i) {                                                        // search for the last key signature that ...
-                            if ((keySigsLocal.get(i).getAttribute("layer") == null) || keySigsLocal.get(i).getAttributeValue("layer").equals(layerId)) {  // either has no layer dependency or has a matching layer attribute
-                                keySigLocal = keySigsLocal.get(i);                                                                  // take this one
-                                break;                                                                                              // break the for loop
+                    PartCursor cursor = (this.currentPart == null) ? null : this.getCursor(this.currentPart);                        // the key signature is cached in the part's cursor as long as the maps do not change
+                    Element keySig;
+                    if ((cursor != null) && cursor.isKeySignatureValid(keySigMapLocal, keySigMapGlobal, layerId)) {
+                        keySig = cursor.getKeySignature();
+                    }
+                    else {
+                        Element keySigLocal = null;
+                        if (keySigMapLocal != null) {
+                            Elements keySigsLocal = keySigMapLocal.getChildElements("keySignature");                                    // get the local keySignature elements
+                            for (int i = keySigsLocal.size() - 1; i >= 0; --i) {                                                        // search for the last key signature that ...
+                                if ((keySigsLocal.get(i).getAttribute("layer") == null) || keySigsLocal.get(i).getAttributeValue("layer").equals(layerId)) {  // either has no layer dependency or has a matching layer attribute
+                                    keySigLocal = keySigsLocal.get(i);                                                                  // take this one
+                                    break;                                                                                              // break the for loop
+                                }
                             }
                         }
-                    }
 
-                    Element keySigGlobal = null;
-                    if (keySigMapGlobal != null) {
-                        Elements keySigsGlobal = keySigMapGlobal.getChildElements("keySignature");                                  // get the global keySignature elements
-                        for (int i = keySigsGlobal.size() - 1; i >= 0; --i) {                                                       // search for the last key signature that ...
-                            if ((keySigsGlobal.get(i).getAttribute("layer") == null) || keySigsGlobal.get(i).getAttributeValue("layer").equals(layerId)) {  // either has no layer dependency or has a matching layer attribute (yes, a scoreDef can be within a layer in mei!)
-                                keySigGlobal = keySigsGlobal.get(i);                                                                // take this one
-                                break;                                                                                              // break the for loop
+                        Element keySigGlobal = null;
+                        if (keySigMapGlobal != null) {
+                            Elements keySigsGlobal = keySigMapGlobal.getChildElements("keySignature");                                  // get the global keySignature elements
+                            for (int i = keySigsGlobal.size() - 1; i >= 0; --i) {                                                       // search for the last key signature that ...
+                                if ((keySigsGlobal.get(i).getAttribute("layer") == null) || keySigsGlobal.get(i).getAttributeValue("layer").equals(layerId)) {  // either has no layer dependency or has a matching layer attribute (yes, a scoreDef can be within a layer in mei!)
+                                    keySigGlobal = keySigsGlobal.get(i);                                                                // take this one
+                                    break;                                                                                              // break the for loop
+                                }
                             }
                         }
-                    }
 
-                    Element keySig = keySigLocal;                                                                                   // start with the local key signature
-                    if ((keySig == null)                                                                                            // if no local keySignature
-                            || ((keySigGlobal != null)                                                                              // or a global key signature ...
-                            && (Double.parseDouble(keySigLocal.getAttributeValue("date")) < Double.parseDouble(keySigGlobal.getAttributeValue("date"))))) {    // that is later than the local key signature
-                        keySig = keySigGlobal;                                                                                      // take the global
-
-                        // Shall the global keySignature element be added to the local map? Yes, this makes a correct msm representation of might be meant in mei. No, this is not what is encoded in mei.
-                        // Trade-off: Do it only if the local map is not empty. Caution, as long as the local map is empty, global entries aill not be copied and will be missing in the resulting msm.
-                        // Why doing this here and not in method Mei.makeKeySignature()? In mei the first key signature definition may occur before any staffs (parts in msm) are generated.
-                        assert keySigMapLocal != null;                                                                              // there should always be a local key signature map, because it is automatically created when the part is created
-                        if ((keySigGlobal != null) && (keySigMapLocal.getChildCount() > 0)) {                                       // if the global keySignature element was not null and the local map is not empty
-                            Helper.addToMap((Element)keySigGlobal.copy(), keySigMapLocal);                                                 // make a deep copy of the global keySignature element and append it to the local map
+                        keySig = keySigLocal;                                                                                   // start with the local key signature
+                        if ((keySig == null)                                                                                            // if no local keySignature
+                                || ((keySigGlobal != null)                                                                              // or a global key signature ...
+                                && (Double.parseDouble(keySigLocal.getAttributeValue("date")) < Double.parseDouble(keySigGlobal.getAttributeValue("date"))))) {    // that is later than the local key signature
+                            keySig = keySigGlobal;                                                                                      // take the global
+
+                            // Shall the global keySignature element be added to the local map? Yes, this makes a correct msm representation of might be meant in mei. No, this is not what is encoded in mei.
+                            // Trade-off: Do it only if the local map is not empty. Caution, as long as the local map is empty, global entries aill not be copied and will be missing in the resulting msm.
+                            // Why doing this here and not in method Mei.makeKeySignature()? In mei the first key signature definition may occur before any staffs (parts in msm) are generated.
+                            assert keySigMapLocal != null;                                                                              // there should always be a local key signature map, because it is automatically created when the part is created
+                            if ((keySigGlobal != null) && (keySigMapLocal.getChildCount() > 0)) {                                       // if the global keySignature element was not null and the local map is not empty
+                                Helper.addToMap((Element)keySigGlobal.copy(), keySigMapLocal);                                                 // make a deep copy of the global keySignature element and append it to the local map
+                            }
                         }
+
+                        if (cursor != null)
+                            cursor.setKeySignature(keySig, keySigMapLocal, keySigMapGlobal, layerId);
                     }
 
                     if (keySig != null) {                                                                                       // if we have a key signature
@@ -4551,7 +4672,7 @@ public class Mei2MsmMpmConverter {
     protected static void addSlurId(Element fromThis, Element toThis) {
         Attribute slurid = Helper.getAttribute("id", fromThis);
         if (slurid != null) {
-            toThis.addAttribute(new Attribute("slurid", slurid.getValue() + "_meico_" + UUID.randomUUID().toString()));
+            toThis.addAttribute(new Attribute("slurid", slurid.getValue() + "_meico_" + IdGenerator.generateId()));
         }
     }
 
@@ -4608,7 +4729,7 @@ public class Mei2MsmMpmConverter {
             Element marker = new Element("marker");                                 // do so
             marker.addAttribute(new Attribute("date", Double.toString(date))); // give it a date
             marker.addAttribute(new Attribute("message", markerMessage));           // set its message
-            Attribute id = new Attribute("id", "meico_" + UUID.randomUUID().toString());       // give it a UUID
+            Attribute id = new Attribute("id", "meico_" + IdGenerator.generateId());       // give it a UUID
             id.setNamespace("xml", "http://www.w3.org/XML/1998/namespace");         // set its namespace to xml
             marker.addAttribute(id);                                                // add the id attribute to the marker
             Helper.addToMap(marker, sequencingMap);                                 // add the marker to the sequencingMap
@@ -55,7 +55,7 @@ public class Mei2MusicXmlConverter {
     private List<String> partListIds = new ArrayList<>();
     private PartList partList = null;
     private LinkedList<Barline> barlines = new LinkedList<>();
-    private LinkedList<Element> measureListMEI = new LinkedList<>();
+    private HashMap<Element, Integer> measureIndexMEI = new HashMap<>();     // the measures of the current score/part and their index, so the index lookup does not have to search a list
     private LinkedList<Element> tieListMEI = new LinkedList<>();
     private LinkedList<Element> prevMeasureTieListMEI = new LinkedList<>();
     private LinkedList<String> tieBlacklist = new LinkedList<>();
@@ -64,6 +64,7 @@ public class Mei2MusicXmlConverter {
 
     private final String endLine = ", ";
     private int divisions = 0;
+    private BigDecimal smallestDivisions = null;    // the result of findDivisions(), it may be less than 1, so divisions stays 0 and findDivisions() is called again in every attributes element
 
     /**
      * constructor
@@ -93,6 +94,7 @@ public class Mei2MusicXmlConverter {
             System.out.println("\nConverting " + ((mei.getFile() != null) ? mei.getFile().getName() : "MEI data") + " to MusicXML.");
 
             this.mei = mei;
+            this.smallestDivisions = null;
 
             // if meiHead and music are not present at all.
             if (mei.getMeiHead() == null && mei.getMusic() == null) {
@@ -1245,6 +1247,7 @@ public class Mei2MusicXmlConverter {
      *
      */
     private void initHeader() {
+        this.header.setVersion("3.0.1");                    // the MusicXML version that meico generates, without it ProxyMusic reports version 1.0
         this.header.setWork(new Work());
         this.header.setMovementNumber("");
         this.header.setMovementTitle("");
@@ -1945,7 +1948,7 @@ public class Mei2MusicXmlConverter {
                     lastDigitInt += 1;
                     id += "_" + lastDigitInt;
                 } else {
-                    id = String.valueOf(UUID.randomUUID()); // last resort
+                    id = this.mei.getIdGenerator().generate(); // last resort
                 }
             }
             id = "s" + id;
@@ -2013,12 +2016,12 @@ public class Mei2MusicXmlConverter {
         ScorePartwise.Part.Measure m =  new ScorePartwise.Part.Measure();
         List<ScorePartwise.Part.Measure> mList = this.currentPartPW.getMeasure();
 
-        if(this.measureListMEI.isEmpty()) {
+        if(this.measureIndexMEI.isEmpty()) {
             Element closest = Helper.getClosestParent("part", measure);
             if (closest != null) {
                 Nodes ml = closest.query(".//mei:measure", this.xPathContext); //Helper.getAllChildElements("measure", Helper.getParentElement(measure));
                 for (Node node : ml) {
-                    this.measureListMEI.add((Element) node);
+                    this.measureIndexMEI.put((Element) node, this.measureIndexMEI.size());
                 }
             }
         }
@@ -2644,7 +2647,7 @@ public class Mei2MusicXmlConverter {
         // some elements might behave differently with ScoreTimewise and ScorePartwise
         this.nullifyPartwise();
         this.divisions = 0;
-        this.measureListMEI = new LinkedList<>();
+        this.measureIndexMEI = new HashMap<>();
         this.currentScoreTimewise = new ScoreTimewise();
         this.partListIds = new ArrayList<>();
         this.twIsCurrent = true;
@@ -2675,7 +2678,7 @@ public class Mei2MusicXmlConverter {
         // some elements might behave differently with ScoreTimewise and ScorePartwise
         this.nullifyTimewise();
         this.divisions = 0;
-        this.measureListMEI = new LinkedList<>();
+        this.measureIndexMEI = new HashMap<>();
         this.currentScorePartwise = new ScorePartwise(); // give this MusicXML íts own header, since it can change during processing
         this.partListIds = new ArrayList<>();
         this.pwIsCurrent = true;
@@ -2768,13 +2771,13 @@ public class Mei2MusicXmlConverter {
 
         this.createMeasureListTW(measure);
 
-        if(this.measureListMEI.isEmpty()) {
+        if(this.measureIndexMEI.isEmpty()) {
             Element closest = Helper.getClosestParent("score", measure);
             if(closest == null)
                 return;
             Nodes mList = closest.query(".//mei:measure", this.xPathContext);
             for (Node node : mList) {
-                this.measureListMEI.add((Element) node);
+                this.measureIndexMEI.put((Element) node, this.measureIndexMEI.size());
             }
         }
         if(!this.tieListMEI.isEmpty()) {
@@ -2782,7 +2785,7 @@ public class Mei2MusicXmlConverter {
         }
         this.tieListMEI = Helper.getAllChildElements("tie", measure);
 
-        int measureIdx = this.measureListMEI.indexOf(measure);
+        int measureIdx = this.measureIndexMEI.getOrDefault(measure, -1);
         this.currentMeasureTW = this.currentScoreTimewise.getMeasure().get(measureIdx);
         this.barlines = new LinkedList<>();
         this.createRepeatFromMeasure(measure); // create repetitions first. They only can be added later, when staff is known in TimeWise.
@@ -3383,6 +3386,9 @@ public class Mei2MusicXmlConverter {
      * @return division
      */
     private BigDecimal findDivisions(){
+        if (this.smallestDivisions != null)                             // the value does not change during the conversion, so it is computed only once
+            return this.smallestDivisions;
+
         Nodes durationNodes = this.mei.getMusic().query("//*[@dur]");
         double smallestDur = 0.0;
         for(Node d : durationNodes){
@@ -3415,7 +3421,8 @@ public class Mei2MusicXmlConverter {
 
             if(dur > smallestDur) smallestDur = dur;
         }
-        return BigDecimal.valueOf(smallestDur/4);
+        this.smallestDivisions = BigDecimal.valueOf(smallestDur/4);
+        return this.smallestDivisions;
 
         //return BigDecimal.valueOf(this.mei.computeMinimalPPQ());
     }
@@ -0,0 +1,118 @@
+package meico.mei;
+
+import nu.xom.Element;
+import nu.xom.Node;
+
+/**
+ * This is a helper class for class Mei2MsmMpmConverter. It holds the conversion
+ * state of one MSM part, i.e. the date up to which the part has been processed,
+ * and caches the latest time signature and key signature of the part, so they
+ * do not have to be searched and parsed again for each note.
+ * The cached values are dropped as soon as the underlying maps change.
+ * @author Axel Berndt
+ */
+public class PartCursor {
+    public double date = 0.0;                                       // the current date in midi ticks, this replaces the former currentDate attribute of the MSM part
+
+    private Element timeSignatureMap = null;                        // the map that the cached time signature was read from
+    private int timeSignatureMapSize = -1;                          // its number of children at that time
+    private Node timeSignatureMapLast = null;                       // and its last child
+    private double[] timeSignature = null;                          // the cached time signature [numerator, denominator]
+
+    private int localKeySignatureMapSize = -1;                      // the number of children of the local and global keySignatureMap when the key signature was cached
+    private Node localKeySignatureMapLast = null;
+    private int globalKeySignatureMapSize = -1;
+    private Node globalKeySignatureMapLast = null;
+    private String keySignatureLayer = null;                        // the layer that the cached key signature applies to
+    private Element keySignature = null;                            // the cached key signature
+
+    /**
+     * constructor
+     * @param date the date where the processing of the part starts
+     */
+    public PartCursor(double date) {
+        this.date = date;
+    }
+
+    /**
+     * get the latest time signature in the specified map, it is parsed only when the map has changed since the last call
+     * @param timeSignatureMap
+     * @return [numerator, denominator] or null if the map is empty
+     */
+    public double[] getTimeSignature(Element timeSignatureMap) {
+        int size = timeSignatureMap.getChildCount();
+        if (size == 0)
+            return null;
+
+        Node last = timeSignatureMap.getChild(size - 1);
+        if ((timeSignatureMap != this.timeSignatureMap) || (size != this.timeSignatureMapSize) || (last != this.timeSignatureMapLast)) {
+            Element ts = null;
+            for (int i = size - 1; (i >= 0) && (ts == null); --i) {    // find the last element in the map, there may be text nodes
+                Node n = timeSignatureMap.getChild(i);
+                if (n instanceof Element)
+                    ts = (Element) n;
+            }
+            if (ts == null)
+                return null;
+            this.timeSignature = new double[]{Double.parseDouble(ts.getAttributeValue("numerator")), Double.parseDouble(ts.getAttributeValue("denominator"))};
+            this.timeSignatureMap = timeSignatureMap;
+            this.timeSignatureMapSize = size;
+            this.timeSignatureMapLast = last;
+        }
+        return this.timeSignature;
+    }
+
+    /**
+     * @return the cached key signature, check with isKeySignatureValid() whether it is still valid
+     */
+    public Element getKeySignature() {
+        return this.keySignature;
+    }
+
+    /**
+     * check whether the cached key signature is still valid for the specified maps and layer
+     * @param localKeySignatureMap
+     * @param globalKeySignatureMap
+     * @param layerId
+     * @return
+     */
+    public boolean isKeySignatureValid(Element localKeySignatureMap, Element globalKeySignatureMap, String layerId) {
+        return (this.localKeySignatureMapSize == PartCursor.size(localKeySignatureMap))
+                && (this.localKeySignatureMapLast == PartCursor.last(localKeySignatureMap))
+                && (this.globalKeySignatureMapSize == PartCursor.size(globalKeySignatureMap))
+                && (this.globalKeySignatureMapLast == PartCursor.last(globalKeySignatureMap))
+                && (this.keySignatureLayer != null) && this.keySignatureLayer.equals(layerId);
+    }
+
+    /**
+     * cache the key signature for the current state of the maps
+     * @param keySignature
+     * @param localKeySignatureMap
+     * @param globalKeySignatureMap
+     * @param layerId
+     */
+    public void setKeySignature(Element keySignature, Element localKeySignatureMap, Element globalKeySignatureMap, String layerId) {
+        this.keySignature = keySignature;
+        this.localKeySignatureMapSize = PartCursor.size(localKeySignatureMap);
+        this.localKeySignatureMapLast = PartCursor.last(localKeySignatureMap);
+        this.globalKeySignatureMapSize = PartCursor.size(globalKeySignatureMap);
+        this.globalKeySignatureMapLast = PartCursor.last(globalKeySignatureMap);
+        this.keySignatureLayer = layerId;
+    }
+
+    /**
+     * @param map
+     * @return the number of children of the map or -1 if there is no map
+     */
+    private static int size(Element map) {
+        return (map == null) ? -1 : map.getChildCount();
+    }
+
+    /**
+     * @param map
+     * @return the last child of the map or null
+     */
+    private static Node last(Element map) {
+        return ((map == null) || (map.getChildCount() == 0)) ? null : map.getChild(map.getChildCount() - 1);
+    }
+}
@@ -0,0 +1,128 @@
+package meico.mei;
+
+import meico.supplementary.KeyValue;
+import nu.xom.Attribute;
+import nu.xom.Element;
+
+import java.util.ArrayList;
+
+/**
+ * This is a helper class for method Mei2MsmMpmConverter.checkSlurs(). It keeps
+ * the slur elements of one miscMap sorted by date together with their parsed
+ * dates, so each note has to look only at the slurs that are active at its date.
+ * The end date of a slur may still be unknown when the slur is added (endid or
+ * tstamp2), it is read from the element when it is needed.
+ * @author Axel Berndt
+ */
+public class SlurIndex {
+    private final ArrayList<Element> slurs = new ArrayList<>();     // the slur elements, sorted by date, slurs with the same date in the order of their insertion
+    private final ArrayList<Double> dates = new ArrayList<>();      // the dates of the slurs
+    private final ArrayList<String> endStrings = new ArrayList<>(); // the date.end strings of the slurs when they were last parsed
+    private final ArrayList<Double> endDates = new ArrayList<>();   // the parsed end dates, null if not known yet
+
+    /**
+     * constructor
+     */
+    public SlurIndex() {
+    }
+
+    /**
+     * add a slur element, it must have a date attribute, otherwise it counts as starting at the very beginning
+     * @param slur
+     */
+    public void add(Element slur) {
+        String dateString = slur.getAttributeValue("date");
+        double date = (dateString == null) ? Double.NEGATIVE_INFINITY : Double.parseDouble(dateString);
+
+        int index = this.upperBound(date);                          // insert after all slurs with the same or an earlier date
+        this.slurs.add(index, slur);
+        this.dates.add(index, date);
+        this.endStrings.add(index, null);
+        this.endDates.add(index, null);
+    }
+
+    /**
+     * remove all slurs that end before the specified date; call this only if no note will be checked at an earlier date anymore
+     * @param date
+     */
+    public void prune(double date) {
+        int j = 0;
+        for (int i = 0; i < this.slurs.size(); ++i) {
+            Double end = this.getEndDate(i);
+            if ((end != null) && (end < date))                      // this slur is over
+                continue;
+            if (i != j) {                                           // keep the slur and close the gap
+                this.slurs.set(j, this.slurs.get(i));
+                this.dates.set(j, this.dates.get(i));
+                this.endStrings.set(j, this.endStrings.get(i));
+                this.endDates.set(j, this.endDates.get(i));
+            }
+            ++j;
+        }
+        for (int i = this.slurs.size() - 1; i >= j; --i) {
+            this.slurs.remove(i);
+            this.dates.remove(i);
+            this.endStrings.remove(i);
+            this.endDates.remove(i);
+        }
+    }
+
+    /**
+     * get the slurs that are active at the specified date, i.e. they start at or before it and end at or after it or their end is not known yet
+     * @param date
+     * @return the slurs in reverse order, latest first, each with the flag whether it ends exactly at date
+     */
+    public ArrayList<KeyValue<Element, Boolean>> getSlursAt(double date) {
+        ArrayList<KeyValue<Element, Boolean>> result = new ArrayList<>();
+        for (int i = this.upperBound(date) - 1; i >= 0; --i) {     // go through all slurs that start at or before date
+            Double end = this.getEndDate(i);
+            if ((end != null) && (end < date))                      // the slur ended before date
+                continue;
+            result.add(new KeyValue<>(this.slurs.get(i), (end != null) && (end == date)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of slurs in the index
+     */
+    public int size() {
+        return this.slurs.size();
+    }
+
+    /**
+     * get the end date of the slur at the specified index, the date.end attribute is parsed only when it has changed
+     * @param index
+     * @return the end date or null if not known yet
+     */
+    private Double getEndDate(int index) {
+        Attribute endAtt = this.slurs.get(index).getAttribute("date.end");
+        if (endAtt == null)
+            return null;
+
+        String endString = endAtt.getValue();
+        if (!endString.equals(this.endStrings.get(index))) {       // not parsed yet or changed in the meantime
+            this.endStrings.set(index, endString);
+            this.endDates.set(index, Double.parseDouble(endString));
+        }
+        return this.endDates.get(index);
+    }
+
+    /**
+     * binary search for the index of the first slur with a date later than the specified one
+     * @param date
+     * @return
+     */
+    private int upperBound(double date) {
+        int low = 0;
+        int high = this.dates.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.dates.get(mid) <= date)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -246,7 +246,8 @@ public class Midi {
     }
 
     /**
-     * computes the minimal integer timing resolution (in pulses per quarter note) necessary for an accurate representation of the MIDI sequence
+     * computes the minimal integer timing resolution (in pulses per quarter note) necessary for an accurate representation of the MIDI sequence,
+     * see getMinimalPPQ(Sequence, boolean)
      * @param onlyNotes set false to consider all events; set true to consider only noteOn and noteOff events
      * @return
      * @throws Exception
@@ -256,7 +257,10 @@ public class Midi {
     }
 
     /**
-     * computes the minimal integer timing resolution (in pulses per quarter note) necessary for an accurate representation of the specified sequence
+     * computes the minimal integer timing resolution (in pulses per quarter note) necessary for an accurate representation of the specified sequence,
+     * i.e. the resolution of the sequence divided by the greatest common divisor of all event ticks.
+     * The result is a divisor of the sequence's resolution but not necessarily a power of two, e.g. 3 or 6 for a piece in triplets.
+     * Up to meico 0.11.13 this was the smallest power-of-two subdivision of the quarter that fits all events, which fell back to high values for tuplets.
      * @param sequence
      * @param onlyNotes set false to consider all events; set true to consider only noteOn and noteOff events
      * @return
@@ -270,26 +274,21 @@ public class Midi {
             throw new Exception("Error: MIDI sequence is not of division type PPQ.");
 
         int ppq = sequence.getResolution();
-        int maxSubdivisions = 1;
+        long gcd = ppq;                                                 // the minimal ppq is ppq divided by the greatest common divisor of ppq and all ticks
 
         for (Track track : sequence.getTracks()) {
-            for (int e = 0; e < track.size(); ++e) {
+            for (int e = 0; (e < track.size()) && (gcd > 1); ++e) {
                 MidiEvent event = track.get(e);
                 int command = event.getMessage().getStatus() & 0xF0;
 
                 if (onlyNotes && (command != EventMaker.NOTE_ON) && (command != EventMaker.NOTE_OFF))
                     continue;
 
-                for (int subdivs = maxSubdivisions; subdivs <= ppq; subdivs *= 2) {
-                    if ((event.getTick() % (ppq / subdivs)) == 0) {
-                        maxSubdivisions = Math.max(maxSubdivisions, subdivs);
-                        break;
-                    }
-                }
+                gcd = Helper.gcd(gcd, event.getTick());
             }
         }
 
-        return maxSubdivisions;
+        return (int) (ppq / gcd);
     }
 
     /**
@@ -575,41 +574,59 @@ public class Midi {
     public Audio exportAudio(File soundbankFile) {
         long startTime = System.currentTimeMillis();                            // we measure the time that the conversion consumes
         System.out.println("\nConverting " + ((this.file != null) ? this.file.getName() : "MIDI data") + " to audio.");
-        Midi2AudioRenderer renderer;                // an instance of the renderer
+
+        AudioInputStream stream;                    // the stream that the renderer fills
         try {
-            renderer = new Midi2AudioRenderer();    // initialize the renderer
+            stream = (new Midi2AudioRenderer()).renderMidi2Audio(this.sequence, soundbankFile);   // do rendering of midi sequence into audio stream
         } catch (MidiUnavailableException e) {
             e.printStackTrace();
             return null;
         }
 
-        AudioInputStream stream = null;             // the stream that the renerer fills
+        return this.makeAudio(stream, startTime);
+    }
+
+    /**
+     * this is an audio exporter that uses the specified soundbank or, if null, the default soundbank for synthesis;
+     * the MIDI channels are distributed over several synthesizers that render in parallel, their outputs are mixed
+     * @param soundbankFile a valid soundbank file or null to use the default soundbank
+     * @param partitions the number of synthesizers that render in parallel, e.g. the number of processor cores
+     * @return
+     */
+    public Audio exportAudio(File soundbankFile, int partitions) {
+        long startTime = System.currentTimeMillis();                            // we measure the time that the conversion consumes
+        System.out.println("\nConverting " + ((this.file != null) ? this.file.getName() : "MIDI data") + " to audio.");
+
+        AudioInputStream stream;                    // the stream that the renderer fills
         try {
-            stream = renderer.renderMidi2Audio(this.sequence, soundbankFile);   // do rendering of midi sequence into audio stream
+            stream = (new Midi2AudioRenderer()).renderMidi2AudioParallel(this.sequence, soundbankFile, partitions);  // render the midi sequence into an audio stream
         } catch (MidiUnavailableException e) {
             e.printStackTrace();
+            return null;
         }
 
-        if (stream == null)                         // if rendering failed
-            return null;                            // return null
+        return this.makeAudio(stream, startTime);
+    }
 
-        Audio audio;                                // create Audio object
-        if (this.file != null) {
-            audio = new Audio(stream, new File(Helper.getFilenameWithoutExtension(this.getFile().getPath()) + ".wav"));  // set its file name, derived from this name but with different file type extension
-        }
-        else {
-            audio = new Audio(stream);
-        }
+    /**
+     * this is an audio exporter that uses the specified soundbank or, if null, the default soundbank and the specified render profile for synthesis
+     * @param soundbankFile a valid soundbank file or null to use the default soundbank
+     * @param profile the audio format and quality settings, e.g. RenderProfile.createPreviewProfile() for fast renderings
+     * @return
+     */
+    public Audio exportAudio(File soundbankFile, RenderProfile profile) {
+        long startTime = System.currentTimeMillis();                            // we measure the time that the conversion consumes
+        System.out.println("\nConverting " + ((this.file != null) ? this.file.getName() : "MIDI data") + " to audio.");
 
+        AudioInputStream stream;                    // the stream that the renderer fills
         try {
-            stream.close();
-        } catch (IOException e) {
+            stream = (new Midi2AudioRenderer()).renderMidi2Audio(this.sequence, soundbankFile, profile);  // render the midi sequence into an audio stream
+        } catch (MidiUnavailableException e) {
             e.printStackTrace();
+            return null;
         }
 
-        System.out.println("MIDI to audio conversion finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
-
-        return audio;                   // return the Audio object
+        return this.makeAudio(stream, startTime);
     }
 
     /**
@@ -620,31 +637,33 @@ public class Midi {
     public Audio exportAudio(Soundbank soundbank) {
         long startTime = System.currentTimeMillis();                            // we measure the time that the conversion consumes
         System.out.println("\nConverting " + ((this.file != null) ? this.file.getName() : "MIDI data") + " to audio.");
-        Midi2AudioRenderer renderer;                // an instance of the renderer
+
+        AudioInputStream stream;                    // the stream that the renderer fills
         try {
-            renderer = new Midi2AudioRenderer();    // initialize the renderer
+            stream = (new Midi2AudioRenderer()).renderMidi2Audio(this.sequence, soundbank, 44100, 16, 2); // do rendering of midi sequence into audio stream
         } catch (MidiUnavailableException e) {
             e.printStackTrace();
             return null;
         }
 
-        AudioInputStream stream = null;             // the stream that the renerer fills
-        try {
-            stream = renderer.renderMidi2Audio(this.sequence, soundbank, 44100, 16, 2); // do rendering of midi sequence into audio stream
-        } catch (MidiUnavailableException e) {
-            e.printStackTrace();
-        }
+        return this.makeAudio(stream, startTime);
+    }
 
+    /**
+     * a helper method for the exportAudio() methods; it reads the rendered audio stream into an Audio object and closes the stream
+     * @param stream the rendered audio stream or null if rendering failed
+     * @param startTime the time when the conversion started, for the time consumption output
+     * @return the Audio object or null if the stream is null
+     */
+    private Audio makeAudio(AudioInputStream stream, long startTime) {
         if (stream == null)                         // if rendering failed
             return null;                            // return null
 
         Audio audio;                                // create Audio object
-        if (this.file != null) {
+        if (this.file != null)
             audio = new Audio(stream, new File(Helper.getFilenameWithoutExtension(this.getFile().getPath()) + ".wav"));  // set its file name, derived from this name but with different file type extension
-        }
-        else {
+        else
             audio = new Audio(stream);
-        }
 
         try {
             stream.close();
@@ -2,16 +2,22 @@ package meico.midi;
 
 import com.sun.media.sound.AudioSynthesizer;
 
+
 import javax.sound.midi.*;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
-import java.io.File;
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import javax.sound.sampled.AudioSystem;
+import java.io.*;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.*;
 
 
 /**
@@ -46,6 +52,8 @@ import java.util.Map;
  * Created by Axel Berndt on 19.09.2016.
  **/
 public class Midi2AudioRenderer {
+    private static ExecutorService mixExecutor = null;      // reads the partition streams of all parallel renderings, it is created on the first parallel rendering
+
     private Synthesizer synth;       // the Synthesizer object, used for midi to wav conversion
 
     /**
@@ -90,7 +98,7 @@ public class Midi2AudioRenderer {
 
         Soundbank soundbank;
         try {
-            soundbank = MidiSystem.getSoundbank(soundbankFile);
+            soundbank = SoundbankCache.getSoundbank(soundbankFile);    // the soundbank file is parsed only once
         } catch (InvalidMidiDataException | IOException | NullPointerException e) {
             e.printStackTrace();
             return synth.getDefaultSoundbank();
@@ -152,36 +160,353 @@ public class Midi2AudioRenderer {
      * @throws MidiUnavailableException
      */
     public AudioInputStream renderMidi2Audio(Sequence sequence, Soundbank soundbank, float sampleRate, int sampleSizeInBits, int channels) throws MidiUnavailableException {
-//        AudioSynthesizer synth = this.findAudioSynthesizer();
+        RenderProfile profile = RenderProfile.createMasterProfile();
+        profile.setSampleRate(sampleRate);
+        profile.setSampleSizeInBits(sampleSizeInBits);
+        profile.setChannels(channels);
+        return this.renderMidi2Audio(sequence, soundbank, profile);
+    }
+
+    /**
+     * creates an AudioInputStream based on the sequence and uses the given soundbank and render profile for synthesis
+     *
+     * @param sequence
+     * @param soundbankFile
+     * @param profile e.g. RenderProfile.createPreviewProfile()
+     * @return
+     * @throws MidiUnavailableException
+     */
+    public AudioInputStream renderMidi2Audio(Sequence sequence, File soundbankFile, RenderProfile profile) throws MidiUnavailableException {
+        Soundbank soundbank = loadSoundbank(soundbankFile, this.synth);
+        return this.renderMidi2Audio(sequence, soundbank, profile);
+    }
+
+    /**
+     * creates an AudioInputStream based on the sequence and uses the given soundbank and render profile for synthesis
+     *
+     * @param sequence
+     * @param soundbank
+     * @param profile defines the audio format and the synthesizer's quality settings
+     * @return
+     * @throws MidiUnavailableException
+     */
+    public AudioInputStream renderMidi2Audio(Sequence sequence, Soundbank soundbank, RenderProfile profile) throws MidiUnavailableException {
+        AudioInputStream stream = this.render(sequence, soundbank, profile.getAudioFormat(), profile.getSynthesizerProperties());
+
+//        AudioSystem.write(stream, AudioFileFormat.Type.WAVE, new File("temp.wav"));
+
+        this.synth.close();
+
+        if ((stream != null) && profile.isTrimSilentTail())
+            stream = new AudioInputStream(new SilentTailTrimStream(stream, profile.getSilenceThreshold()), stream.getFormat(), AudioSystem.NOT_SPECIFIED);   // the length is known only when the silent tail is reached
+
+        return stream;
+    }
+
+    /**
+     * creates an AudioInputStream based on the sequence and uses the given soundbank for synthesis;
+     * the sequence is split into groups of MIDI channels that are rendered in parallel and mixed afterwards
+     *
+     * @param sequence
+     * @param soundbankFile
+     * @param partitions the number of channel groups that are rendered in parallel
+     * @return
+     * @throws MidiUnavailableException
+     */
+    public AudioInputStream renderMidi2AudioParallel(Sequence sequence, File soundbankFile, int partitions) throws MidiUnavailableException {
+        Soundbank soundbank = loadSoundbank(soundbankFile, this.synth);
+        return this.renderMidi2AudioParallel(sequence, soundbank, 44100, 16, 2, partitions);
+    }
+
+    /**
+     * Creates an AudioInputStream based on the sequence. The MIDI channels are distributed over the specified number of partitions,
+     * each of which gets all meta and system exclusive events, so all partitions have the same tempo and length.
+     * The partitions are rendered on separate synthesizers in parallel into a floating point mixing bus.
+     * A limiter keeps the mix within the sample range before it is quantized to the output format.
+     * This is done in blocks while the returned stream is read, so the mix is never held in memory as a whole.
+     * The synthesizers' own gain control stays on, as it delays the signal; without it, the result would be shifted against the output of renderMidi2Audio().
+     *
+     * @param sequence
+     * @param soundbank
+     * @param sampleRate
+     * @param sampleSizeInBits 8, 16, 24 or 32
+     * @param channels
+     * @param partitions the number of channel groups that are rendered in parallel; it is limited to the number of processors and the number of MIDI channels that have notes
+     * @return
+     * @throws MidiUnavailableException
+     */
+    public AudioInputStream renderMidi2AudioParallel(Sequence sequence, Soundbank soundbank, float sampleRate, int sampleSizeInBits, int channels, int partitions) throws MidiUnavailableException {
+        ArrayList<Sequence> sequences = partitionSequence(sequence, Math.min(partitions, Runtime.getRuntime().availableProcessors()));   // more partitions than processors would only add synthesizers
+        if (sequences.size() < 2)                                                       // nothing to parallelize
+            return this.renderMidi2Audio(sequence, soundbank, sampleRate, sampleSizeInBits, channels);
+
+        // render the partitions in 32 bit float, so the mix is not quantized before it is complete
+        AudioFormat floatFormat = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, 32, channels, 4 * channels, sampleRate, false);
+        Map<String, Object> p = RenderProfile.createMasterProfile().getSynthesizerProperties();
+        ArrayList<AudioInputStream> streams = new ArrayList<>();
+        try {
+            for (Sequence partition : sequences) {
+                AudioInputStream stream = this.render(partition, soundbank, floatFormat, p);
+                if (stream == null) {                                                   // no synthesizer found
+                    closeAll(streams);
+                    return null;
+                }
+                streams.add(stream);
+            }
+        } catch (MidiUnavailableException e) {
+            closeAll(streams);
+            throw e;
+        }
+        this.synth.close();
+
+        // all partitions have the same length, as they have the same meta events; they are mixed, limited and quantized block by block while the result is read
+        long frames = streams.get(0).getFrameLength();
+        AudioFormat format = new AudioFormat(sampleRate, sampleSizeInBits, channels, true, false);
+        return new AudioInputStream(new ParallelMixStream(streams, getMixExecutor(), channels, sampleRate, sampleSizeInBits, frames), format, frames);
+    }
+
+    /**
+     * the thread pool that reads the partition streams of the parallel renderings; it has one thread per processor
+     * and is shared by all ParallelMixStreams, its threads are daemons, so it does not keep the application alive
+     * @return
+     */
+    private static synchronized ExecutorService getMixExecutor() {
+        if (mixExecutor == null) {
+            mixExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "meico audio mixer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return mixExecutor;
+    }
+
+    /**
+     * open a synthesizer stream, load the soundbank and send the sequence into it
+     * @param sequence
+     * @param soundbank
+     * @param format
+     * @param properties the synthesizer properties
+     * @return a stream of the length of the sequence plus RenderProfile.TAIL_LENGTH seconds
+     * @throws MidiUnavailableException
+     */
+    private AudioInputStream render(Sequence sequence, Soundbank soundbank, AudioFormat format, Map<String, Object> properties) throws MidiUnavailableException {
         AudioSynthesizer synth = this.findAudioSynthesizer();
         if (synth == null) {
             System.err.println("No AudioSynthesizer was found!");
             return null;
         }
 
-        AudioFormat format = new AudioFormat(sampleRate, sampleSizeInBits, channels, true, false);
-        Map<String, Object> p = new HashMap<String, Object>();
-        p.put("interpolation", "sinc");
-        p.put("max polyphony", "1024");
-        AudioInputStream stream = synth.openStream(format, p);
+        properties.put("load default soundbank", soundbank == null);                   // if another soundbank is used, loading the default soundbank's instruments would be a waste of time
+        AudioInputStream stream = synth.openStream(format, properties);
 
-        if (soundbank != null) {
-            synth.unloadAllInstruments(synth.getDefaultSoundbank());
-            synth.loadAllInstruments(soundbank);
-        }
+        if (soundbank != null)
+            loadUsedInstruments(synth, soundbank, sequence);
 
         // Play Sequence into AudioSynthesizer Receiver.
         double total = send(sequence, synth.getReceiver());
 
         // Calculate how long the WAVE file needs to be.
-        long len = (long) (stream.getFormat().getFrameRate() * (total + 4));
-        stream = new AudioInputStream(stream, stream.getFormat(), len);
+        long len = (long) (stream.getFormat().getFrameRate() * (total + RenderProfile.TAIL_LENGTH));
+        return new AudioInputStream(new SynthesizerStream(stream, synth), stream.getFormat(), len);  // when the stream is closed, the synthesizer is closed, too
+    }
 
-//        AudioSystem.write(stream, AudioFileFormat.Type.WAVE, new File("temp.wav"));
+    /**
+     * the peak amplitude of signed little-endian PCM data
+     * @param data
+     * @param length the number of bytes to consider
+     * @param bytesPerSample
+     * @return the peak amplitude between 0.0 and 1.0
+     */
+    private static double peak(byte[] data, int length, int bytesPerSample) {
+        int shift = 32 - (8 * bytesPerSample);
+        long max = 0;
+        for (int i = 0; i + bytesPerSample <= length; i += bytesPerSample) {
+            int sample = 0;
+            for (int b = 0; b < bytesPerSample; ++b)
+                sample |= (data[i + b] & 0xff) << (8 * b);
+            sample = (sample << shift) >> shift;                                        // sign extension
+            max = Math.max(max, Math.abs((long) sample));
+        }
+        return max / Math.pow(2.0, (8 * bytesPerSample) - 1);
+    }
 
-        this.synth.close();
+    /**
+     * Distribute the MIDI channels that have notes over at most the specified number of sequences.
+     * The channels are balanced by their number of notes. Each sequence has the same tracks and gets all meta and system exclusive events.
+     * The events are copied, so the sequences do not share events with each other or with the input sequence.
+     * @param sequence
+     * @param partitions
+     * @return
+     */
+    private static ArrayList<Sequence> partitionSequence(Sequence sequence, int partitions) {
+        ArrayList<Sequence> result = new ArrayList<>();
 
-        return stream;
+        // count the notes per channel
+        int[] notes = new int[16];
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); ++i) {
+                MidiMessage message = track.get(i).getMessage();
+                if ((message instanceof ShortMessage) && (((ShortMessage) message).getCommand() == ShortMessage.NOTE_ON))
+                    notes[((ShortMessage) message).getChannel()]++;
+            }
+        }
+        ArrayList<Integer> channels = new ArrayList<>();
+        for (int channel = 0; channel < 16; ++channel)
+            if (notes[channel] > 0)
+                channels.add(channel);
+        partitions = Math.min(partitions, channels.size());
+        if (partitions < 2)
+            return result;
+
+        // assign the channels, the busiest first, each to the partition with the fewest notes so far
+        channels.sort((a, b) -> Integer.compare(notes[b], notes[a]));
+        int[] partitionOfChannel = new int[16];
+        int[] partitionLoad = new int[partitions];
+        for (int channel : channels) {
+            int min = 0;
+            for (int i = 1; i < partitions; ++i)
+                if (partitionLoad[i] < partitionLoad[min])
+                    min = i;
+            partitionOfChannel[channel] = min;
+            partitionLoad[min] += notes[channel];
+        }
+
+        // create the sequences
+        try {
+            for (int i = 0; i < partitions; ++i) {
+                Sequence partition = new Sequence(sequence.getDivisionType(), sequence.getResolution());
+                for (int t = 0; t < sequence.getTracks().length; ++t)
+                    partition.createTrack();
+                result.add(partition);
+            }
+        } catch (InvalidMidiDataException e) {                                          // cannot happen as the division type comes from a valid sequence
+            e.printStackTrace();
+            result.clear();
+            return result;
+        }
+        Track[] tracks = sequence.getTracks();
+        for (int t = 0; t < tracks.length; ++t) {
+            for (int i = 0; i < tracks[t].size(); ++i) {
+                MidiEvent event = tracks[t].get(i);
+                MidiMessage message = event.getMessage();
+                if (message instanceof ShortMessage) {
+                    result.get(partitionOfChannel[((ShortMessage) message).getChannel()]).getTracks()[t].add(new MidiEvent((MidiMessage) message.clone(), event.getTick()));
+                    continue;
+                }
+                for (Sequence partition : result)                                      // meta and sysex events go into all partitions
+                    partition.getTracks()[t].add(new MidiEvent((MidiMessage) message.clone(), event.getTick()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * close all streams
+     * @param streams
+     */
+    private static void closeAll(ArrayList<AudioInputStream> streams) {
+        for (AudioInputStream stream : streams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Load only those instruments from the soundbank that the sequence uses. Each channel starts with bank 0 and program 0,
+     * bank select and program change messages are collected per channel; all combinations of them are loaded, and channel 10 gets all percussion instruments.
+     * If one of these instruments is not in the soundbank, all its instruments are loaded, so the synthesizer's fallback to other instruments works as before.
+     * The public Patch class has no percussion flag. But a percussion instrument is not returned when the soundbank is asked for a Patch with its bank and program,
+     * as this looks for melodic instruments; this is how the percussion instruments are identified.
+     * @param synth
+     * @param soundbank
+     * @param sequence
+     */
+    private static void loadUsedInstruments(Synthesizer synth, Soundbank soundbank, Sequence sequence) {
+        boolean[] hasNotes = new boolean[16];
+        ArrayList<HashSet<Integer>> bankMsbs = new ArrayList<>();
+        ArrayList<HashSet<Integer>> bankLsbs = new ArrayList<>();
+        ArrayList<HashSet<Integer>> programs = new ArrayList<>();
+        for (int channel = 0; channel < 16; ++channel) {
+            bankMsbs.add(new HashSet<>());
+            bankMsbs.get(channel).add(0);
+            bankLsbs.add(new HashSet<>());
+            bankLsbs.get(channel).add(0);
+            programs.add(new HashSet<>());
+            programs.get(channel).add(0);
+        }
+
+        // collect the channels, banks and programs
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); ++i) {
+                MidiMessage message = track.get(i).getMessage();
+                if (!(message instanceof ShortMessage))
+                    continue;
+
+                ShortMessage sm = (ShortMessage) message;
+                int channel = sm.getChannel();
+                switch (sm.getCommand()) {
+                    case ShortMessage.NOTE_ON:
+                        hasNotes[channel] = true;
+                        break;
+                    case ShortMessage.PROGRAM_CHANGE:
+                        programs.get(channel).add(sm.getData1());
+                        break;
+                    case ShortMessage.CONTROL_CHANGE:
+                        if (sm.getData1() == 0)
+                            bankMsbs.get(channel).add(sm.getData2());
+                        else if (sm.getData1() == 32)
+                            bankLsbs.get(channel).add(sm.getData2());
+                        break;
+                }
+            }
+        }
+
+        // find the instruments in the soundbank
+        HashSet<Instrument> instruments = new HashSet<>();
+        for (int channel = 0; channel < 16; ++channel) {
+            if (!hasNotes[channel])
+                continue;
+
+            if (channel == 9) {                                                             // the percussion channel
+                boolean found = false;
+                for (Instrument instrument : soundbank.getInstruments()) {
+                    Patch patch = instrument.getPatch();
+                    if (soundbank.getInstrument(new Patch(patch.getBank(), patch.getProgram())) != instrument) {  // not a melodic instrument
+                        instruments.add(instrument);
+                        found = true;
+                    }
+                }
+                if (!found) {
+                    synth.loadAllInstruments(soundbank);
+                    return;
+                }
+                continue;
+            }
+
+            for (int msb : bankMsbs.get(channel)) {
+                if ((msb == 0x78) || (msb == 0x79)) {                                       // GM2 banks are mapped by the synthesizer in special ways
+                    synth.loadAllInstruments(soundbank);
+                    return;
+                }
+                for (int lsb : bankLsbs.get(channel)) {
+                    for (int program : programs.get(channel)) {
+                        Instrument instrument = soundbank.getInstrument(new Patch((msb << 7) + lsb, program));
+                        if (instrument == null) {
+                            synth.loadAllInstruments(soundbank);
+                            return;
+                        }
+                        instruments.add(instrument);
+                    }
+                }
+            }
+        }
+
+        for (Instrument instrument : instruments)
+            synth.loadInstrument(instrument);
     }
 
     /**
@@ -190,7 +515,7 @@ public class Midi2AudioRenderer {
      * @throws MidiUnavailableException
      */
     private AudioSynthesizer findAudioSynthesizer() throws MidiUnavailableException {
-        // First check if default synthesizer is AudioSynthesizer.
+        // Check if default synthesizer is AudioSynthesizer.
         Synthesizer synth = MidiSystem.getSynthesizer();
         if (synth instanceof AudioSynthesizer) {
             return (AudioSynthesizer)synth;
@@ -259,4 +584,310 @@ public class Midi2AudioRenderer {
         }
         return curtime / 1000000.0;
     }
+
+    /**
+     * The stream of a synthesizer. When it is closed, the synthesizer is closed, too.
+     */
+    private static class SynthesizerStream extends FilterInputStream {
+        private Synthesizer synth;
+
+        /**
+         * constructor
+         * @param stream the synthesizer's stream
+         * @param synth the synthesizer
+         */
+        private SynthesizerStream(InputStream stream, Synthesizer synth) {
+            super(stream);
+            this.synth = synth;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (this.synth == null)                             // already closed
+                return;
+            if (this.synth.isOpen())
+                this.synth.close();
+            this.synth = null;
+        }
+    }
+
+    /**
+     * A stream that passes the rendered audio through until the tail after the last MIDI event drops below the silence threshold.
+     * The audio is read in blocks of 50 milliseconds; the stream ends with the first block after the last MIDI event that is completely silent.
+     * Then the rendering stops and the synthesizer is closed. Only one block is held in memory.
+     */
+    private static class SilentTailTrimStream extends FilterInputStream {
+        private final long tailStart;                           // the byte position of the last MIDI event
+        private final double threshold;                         // the silence threshold as amplitude
+        private final int bytesPerSample;
+        private final byte[] block;                             // the current block of audio data
+        private int blockPosition = 0;                          // the read position in the block
+        private int blockLength = 0;                            // the number of valid bytes in the block
+        private long position = 0;                              // the number of bytes read from the rendering
+        private boolean end = false;                            // true when the silent tail or the end of the rendering is reached
+
+        /**
+         * constructor
+         * @param stream a stream from render()
+         * @param silenceThreshold in dBFS
+         */
+        private SilentTailTrimStream(AudioInputStream stream, double silenceThreshold) {
+            super(stream);
+            AudioFormat format = stream.getFormat();
+            int frameSize = format.getFrameSize();
+            this.bytesPerSample = frameSize / format.getChannels();
+            this.tailStart = (stream.getFrameLength() - (long) (format.getFrameRate() * RenderProfile.TAIL_LENGTH)) * frameSize;
+            this.threshold = Math.pow(10.0, silenceThreshold / 20.0);                  // dBFS to amplitude
+            this.block = new byte[Math.max(1, (int) (format.getFrameRate() * 0.05)) * frameSize];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (this.read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        /**
+         * like the synthesizer streams, this fills the requested length as far as the audio goes, some callers rely on this
+         * @param b
+         * @param off
+         * @param len
+         * @return
+         * @throws IOException
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = 0;
+            while (read < len) {
+                if ((this.blockPosition >= this.blockLength) && !this.readBlock())
+                    break;
+                int length = Math.min(len - read, this.blockLength - this.blockPosition);
+                System.arraycopy(this.block, this.blockPosition, b, off + read, length);
+                this.blockPosition += length;
+                read += length;
+            }
+            return ((read == 0) && (len > 0)) ? -1 : read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n) {
+                if ((this.blockPosition >= this.blockLength) && !this.readBlock())
+                    break;
+                int length = (int) Math.min(n - skipped, this.blockLength - this.blockPosition);
+                this.blockPosition += length;
+                skipped += length;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return this.blockLength - this.blockPosition;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.end)                                      // otherwise the rendering is already closed
+                this.in.close();
+            this.end = true;
+            this.blockLength = 0;
+        }
+
+        /**
+         * read the next block from the rendering
+         * @return false if the end of the audio is reached
+         * @throws IOException
+         */
+        private boolean readBlock() throws IOException {
+            if (this.end)
+                return false;
+
+            int length = 0;
+            for (int read; (length < this.block.length) && ((read = this.in.read(this.block, length, this.block.length - length)) > 0); length += read);
+            this.blockPosition = 0;
+            this.blockLength = length;
+            this.position += length;
+
+            if ((length == 0)                                                                                       // the tail was not silent before the end of the rendering
+                    || ((this.position > this.tailStart) && (peak(this.block, length, this.bytesPerSample) < this.threshold))) {  // the tail is silent, skip rendering the rest
+                this.end = true;
+                this.in.close();                                                        // this also closes the synthesizer
+            }
+            return length > 0;
+        }
+    }
+
+    /**
+     * The mix of the partitions of renderMidi2AudioParallel(). Each block of audio is read from all partition streams in parallel,
+     * the synthesizers render it during the read. The samples are added in a floating point bus, limited and quantized to signed little endian PCM.
+     * Only one block per partition is held in memory. When the mix is complete or the stream is closed, all partition streams are closed, too.
+     */
+    private static class ParallelMixStream extends InputStream {
+        private static final int BLOCK_FRAMES = 8192;           // the number of frames that are mixed at a time
+        private static final float THRESHOLD = 0.98f;           // the limiter threshold
+
+        private final ArrayList<AudioInputStream> streams;      // the 32 bit float streams of the partitions
+        private final ExecutorService executor;                 // reads the partition streams in parallel, it is shared with other streams
+        private final int channels;
+        private final int sampleSizeInBits;
+        private final double release;                           // the limiter release factor per frame, 50 ms
+        private double gain = 1.0;                              // the limiter gain, it is carried over from block to block
+        private long remaining;                                 // the number of frames that have not been mixed yet
+        private final byte[][] inputs;                          // one block of float data per partition
+        private final float[] bus;                              // one block of the mix
+        private final byte[] output;                            // one block of the quantized mix
+        private int outputPosition = 0;                         // the read position in the output block
+        private int outputLength = 0;                           // the number of valid bytes in the output block
+
+        /**
+         * constructor
+         * @param streams the 32 bit float streams of the partitions, they must have the same format
+         * @param executor the thread pool that reads the partition streams
+         * @param channels
+         * @param sampleRate
+         * @param sampleSizeInBits 8, 16, 24 or 32
+         * @param frames the length of the mix
+         */
+        private ParallelMixStream(ArrayList<AudioInputStream> streams, ExecutorService executor, int channels, float sampleRate, int sampleSizeInBits, long frames) {
+            this.streams = streams;
+            this.executor = executor;
+            this.channels = channels;
+            this.sampleSizeInBits = sampleSizeInBits;
+            this.release = Math.exp(-1.0 / (0.05 * sampleRate));
+            this.remaining = frames;
+            this.inputs = new byte[streams.size()][BLOCK_FRAMES * channels * 4];
+            this.bus = new float[BLOCK_FRAMES * channels];
+            this.output = new byte[BLOCK_FRAMES * channels * (sampleSizeInBits / 8)];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (this.read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        /**
+         * like the synthesizer streams, this fills the requested length as far as the mix goes, some callers rely on this
+         * @param b
+         * @param off
+         * @param len
+         * @return
+         * @throws IOException
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = 0;
+            while (read < len) {
+                if ((this.outputPosition >= this.outputLength) && !this.mixBlock())
+                    break;
+                int length = Math.min(len - read, this.outputLength - this.outputPosition);
+                System.arraycopy(this.output, this.outputPosition, b, off + read, length);
+                this.outputPosition += length;
+                read += length;
+            }
+            return ((read == 0) && (len > 0)) ? -1 : read;
+        }
+
+        @Override
+        public int available() {
+            return this.outputLength - this.outputPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeAll(this.streams);                             // this also closes the synthesizers
+            this.remaining = 0;
+        }
+
+        /**
+         * read the next block from all partitions, mix, limit and quantize it into the output block
+         * @return false if the end of the mix is reached
+         * @throws IOException
+         */
+        private boolean mixBlock() throws IOException {
+            int frames = (int) Math.min(BLOCK_FRAMES, this.remaining);
+            if (frames <= 0)
+                return false;
+            int samples = frames * this.channels;
+
+            // read the block from all partitions in parallel
+            ArrayList<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < this.streams.size(); ++i) {
+                AudioInputStream stream = this.streams.get(i);
+                byte[] input = this.inputs[i];
+                futures.add(this.executor.submit(() -> {
+                    int read = 0;
+                    for (int r; (read < samples * 4) && ((r = stream.read(input, read, (samples * 4) - read)) > 0); read += r);
+                    return read / 4;                            // the number of samples read, less at the end of the stream
+                }));
+            }
+
+            // add them to the bus
+            Arrays.fill(this.bus, 0, samples, 0f);
+            try {
+                for (int i = 0; i < futures.size(); ++i) {
+                    int read = futures.get(i).get();
+                    FloatBuffer floats = ByteBuffer.wrap(this.inputs[i]).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                    for (int j = 0; j < read; ++j)
+                        this.bus[j] += floats.get(j);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Mixing was interrupted.");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+
+            this.limit(samples);
+            this.quantize(samples);
+            this.remaining -= frames;
+            if (this.remaining <= 0)
+                this.close();                                   // release the synthesizers as soon as the mix is complete, the output block can still be read
+            return true;
+        }
+
+        /**
+         * a peak limiter with instant attack and 50 ms release; the channels are limited together so the stereo image is kept
+         * @param samples the number of samples in the bus, they are limited in-place
+         */
+        private void limit(int samples) {
+            for (int frame = 0; frame < samples; frame += this.channels) {
+                float peak = 0f;
+                for (int c = 0; c < this.channels; ++c)
+                    peak = Math.max(peak, Math.abs(this.bus[frame + c]));
+
+                double target = (peak > THRESHOLD) ? THRESHOLD / peak : 1.0;
+                this.gain = (target < this.gain) ? target : target + (this.gain - target) * this.release;
+
+                if (this.gain < 1.0)
+                    for (int c = 0; c < this.channels; ++c)
+                        this.bus[frame + c] *= this.gain;
+            }
+        }
+
+        /**
+         * convert the float samples of the bus to signed little endian PCM in the output block
+         * @param samples the number of samples in the bus
+         */
+        private void quantize(int samples) {
+            int bytes = this.sampleSizeInBits / 8;
+            double max = Math.pow(2, this.sampleSizeInBits - 1) - 1;
+            int j = 0;
+            for (int i = 0; i < samples; ++i) {
+                long value = Math.round(Math.max(-1.0, Math.min(1.0, this.bus[i])) * max);
+                for (int b = 0; b < bytes; ++b)
+                    this.output[j++] = (byte) (value >> (8 * b));
+            }
+            this.outputPosition = 0;
+            this.outputLength = j;
+        }
+    }
 }
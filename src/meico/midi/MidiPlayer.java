@@ -114,7 +114,7 @@ public class MidiPlayer {
         this.soundbank = null;
 
         try {
-            this.soundbank = MidiSystem.getSoundbank(soundbankFile);
+            this.soundbank = SoundbankCache.getSoundbank(soundbankFile);       // the soundbank file is parsed only once
         } catch (InvalidMidiDataException | IOException | NullPointerException e) {
             e.printStackTrace();
             return false;
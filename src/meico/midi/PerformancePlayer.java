@@ -0,0 +1,673 @@
+package meico.midi;
+
+import meico.mei.Helper;
+import meico.mpm.Mpm;
+import meico.mpm.elements.Part;
+import meico.mpm.elements.Performance;
+import meico.mpm.elements.maps.DynamicsMap;
+import meico.mpm.elements.maps.RubatoMap;
+import meico.mpm.elements.maps.TempoMap;
+import meico.mpm.elements.maps.data.DynamicsData;
+import meico.mpm.elements.maps.data.RubatoData;
+import meico.mpm.elements.maps.data.TempoData;
+import meico.msm.Msm;
+import nu.xom.Element;
+
+import javax.sound.midi.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class plays an MSM with an MPM performance in real time. Other than the way via Performance.perform(),
+ * Msm.exportExpressiveMidi() and MidiPlayer, the performance is not rendered in advance. The notes are read into arrays,
+ * and the timing and velocity of each note is computed just before it is due, from the tempoMap, rubatoMap and dynamicsMap
+ * that apply to its part. Hence, playback starts without delay, the playback position can be moved and the tempo can be
+ * changed while playing.
+ * Only tempo, rubato and dynamics are rendered. Articulation, ornamentation, asynchrony, imprecision, metrical accentuation
+ * and sub-note dynamics require a full performance rendering.
+ * @author Axel Berndt
+ */
+public class PerformancePlayer {
+    private Synthesizer synthesizer = null;                 // the synthesizer if this player opened one
+    private final Receiver receiver;                        // all MIDI messages go here
+    private final ArrayList<PartData> parts = new ArrayList<>();
+    private PartData timingReference = null;                // the timing of this part is used to convert symbolic dates into milliseconds when the playback position is set via setTickPosition()
+    private final PriorityQueue<ScheduledMessage> queue = new PriorityQueue<>();    // the messages that are computed and waiting for dispatch
+    private long messageCounter = 0;                        // keeps the order of messages with equal dates
+
+    private double lookAhead = 100.0;                       // the messages of the next lookAhead milliseconds are computed in advance
+    private double tempoFactor = 1.0;                       // live tempo change, 2.0 plays twice as fast
+    private double anchorMilliseconds = 0.0;                // the performance time at anchorNanos
+    private long anchorNanos = 0;                           // the system time at which the performance was at anchorMilliseconds
+    private double playbackPositionInMilliseconds = 0.0;    // the playback position while not playing
+    private Double millisecondLength = null;                // the end of the last note, computed on demand
+    private Thread thread = null;                           // the thread that dispatches the messages
+    private boolean playing = false;
+
+    /**
+     * constructor, the music is played on the default synthesizer
+     * @throws MidiUnavailableException
+     */
+    public PerformancePlayer() throws MidiUnavailableException {
+        this.synthesizer = MidiSystem.getSynthesizer();
+        if (!this.synthesizer.isOpen())
+            this.synthesizer.open();
+        this.receiver = this.synthesizer.getReceiver();
+    }
+
+    /**
+     * constructor
+     * @param receiver all MIDI messages are sent to this receiver, e.g. the receiver of a synthesizer or MIDI port
+     */
+    public PerformancePlayer(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * load the music to be played
+     * @param msm
+     * @param performance the performance to be applied to the MSM or null to play it with default tempo and velocity
+     * @return true for success, else false
+     */
+    public synchronized boolean setPerformance(Msm msm, Performance performance) {
+        this.stop();
+        this.parts.clear();
+        this.timingReference = null;
+        this.millisecondLength = null;
+
+        if (msm == null)
+            return false;
+
+        int ppq = (performance == null) ? msm.getPPQ() : performance.getPPQ();
+        double ppqFactor = (double) ppq / msm.getPPQ();                         // the MSM's dates are scaled to the timing resolution of the performance instead of converting the whole MSM
+        TempoMap globalTempoMap = null;
+        RubatoMap globalRubatoMap = null;
+        DynamicsMap globalDynamicsMap = null;
+        if (performance != null) {
+            globalTempoMap = (TempoMap) performance.getGlobal().getDated().getMap(Mpm.TEMPO_MAP);
+            globalRubatoMap = (RubatoMap) performance.getGlobal().getDated().getMap(Mpm.RUBATO_MAP);
+            globalDynamicsMap = (DynamicsMap) performance.getGlobal().getDated().getMap(Mpm.DYNAMICS_MAP);
+        }
+
+        for (Element msmPart : msm.getParts()) {
+            if (msmPart.getAttribute("midi.channel") == null)                   // no channel information, the part cannot be played
+                continue;
+
+            TempoMap tempoMap = null;
+            RubatoMap rubatoMap = null;
+            DynamicsMap dynamicsMap = null;
+            Part mpmPart = (performance == null) ? null : performance.getCorrespondingPart(msmPart);
+            if (mpmPart != null) {
+                tempoMap = (TempoMap) mpmPart.getDated().getMap(Mpm.TEMPO_MAP);
+                rubatoMap = (RubatoMap) mpmPart.getDated().getMap(Mpm.RUBATO_MAP);
+                dynamicsMap = (DynamicsMap) mpmPart.getDated().getMap(Mpm.DYNAMICS_MAP);
+            }
+
+            PartData part = new PartData(msmPart, ppqFactor, ppq, (tempoMap == null) ? globalTempoMap : tempoMap, (rubatoMap == null) ? globalRubatoMap : rubatoMap, (dynamicsMap == null) ? globalDynamicsMap : dynamicsMap);
+            this.parts.add(part);
+            if ((this.timingReference == null) || (tempoMap == null))          // prefer a part that uses the global tempoMap
+                this.timingReference = part;
+        }
+
+        return !this.parts.isEmpty();
+    }
+
+    /**
+     * start or resume playback
+     */
+    public synchronized void play() {
+        if (this.playing || this.parts.isEmpty())
+            return;
+
+        this.seek(this.playbackPositionInMilliseconds);
+        this.anchorMilliseconds = this.playbackPositionInMilliseconds;
+        this.anchorNanos = System.nanoTime();
+        this.playing = true;
+        this.thread = new Thread(this::run, "meico performance player");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MAX_PRIORITY);
+        this.thread.start();
+    }
+
+    /**
+     * start playback at the specified position
+     * @param microseconds
+     */
+    public synchronized void play(long microseconds) {
+        this.setMicrosecondPosition(microseconds);
+        this.play();
+    }
+
+    /**
+     * pause playback, the next play() continues at this position
+     */
+    public synchronized void pause() {
+        if (!this.playing)
+            return;
+        this.playbackPositionInMilliseconds = this.getCurrentMilliseconds();
+        this.halt();
+    }
+
+    /**
+     * stop playback and set the playback position to the beginning
+     */
+    public synchronized void stop() {
+        this.halt();
+        this.playbackPositionInMilliseconds = 0.0;
+    }
+
+    /**
+     * stop playback and close the synthesizer if this player opened it
+     */
+    public synchronized void close() {
+        this.stop();
+        if (this.synthesizer != null)
+            this.synthesizer.close();
+    }
+
+    /**
+     * @return true while playing
+     */
+    public synchronized boolean isPlaying() {
+        return this.playing;
+    }
+
+    /**
+     * @return the performance time of the current playback position in microseconds
+     */
+    public synchronized long getMicrosecondPosition() {
+        return Math.round((this.playing ? this.getCurrentMilliseconds() : this.playbackPositionInMilliseconds) * 1000.0);
+    }
+
+    /**
+     * set the playback position, also while playing
+     * @param microseconds the performance time (at tempo factor 1.0)
+     */
+    public synchronized void setMicrosecondPosition(long microseconds) {
+        double milliseconds = Math.max(0.0, microseconds / 1000.0);
+        if (!this.playing) {
+            this.playbackPositionInMilliseconds = milliseconds;
+            return;
+        }
+        this.seek(milliseconds);
+        this.anchorMilliseconds = milliseconds;
+        this.anchorNanos = System.nanoTime();
+        LockSupport.unpark(this.thread);                                        // the dispatch thread has to recompute its sleep time
+    }
+
+    /**
+     * set the playback position to a symbolic date, also while playing
+     * @param ticks a date in the timing resolution of the performance
+     */
+    public synchronized void setTickPosition(long ticks) {
+        if (this.timingReference == null)
+            return;
+        this.setMicrosecondPosition(Math.round(this.timingReference.getMilliseconds(ticks) * 1000.0));
+    }
+
+    /**
+     * @return the playback position relative to the length of the music, between 0.0 and 1.0
+     */
+    public synchronized double getRelativePosition() {
+        long length = this.getMicrosecondLength();
+        return (length == 0) ? 0.0 : (double) this.getMicrosecondPosition() / length;
+    }
+
+    /**
+     * set the playback position relative to the length of the music
+     * @param relativePosition between 0.0 and 1.0
+     */
+    public synchronized void setRelativePosition(double relativePosition) {
+        this.setMicrosecondPosition(Math.round(this.getMicrosecondLength() * Math.max(0.0, Math.min(1.0, relativePosition))));
+    }
+
+    /**
+     * @return the performance time of the end of the last note in microseconds (at tempo factor 1.0)
+     */
+    public synchronized long getMicrosecondLength() {
+        if (this.millisecondLength == null) {
+            double length = 0.0;
+            for (PartData part : this.parts)
+                length = Math.max(length, part.getMillisecondLength());
+            this.millisecondLength = length;
+        }
+        return Math.round(this.millisecondLength * 1000.0);
+    }
+
+    /**
+     * @return the live tempo factor
+     */
+    public synchronized double getTempoFactor() {
+        return this.tempoFactor;
+    }
+
+    /**
+     * change the tempo while playing; this scales the tempo of the whole performance
+     * @param tempoFactor 1.0 is the tempo of the performance, 2.0 plays twice as fast, 0.5 half as fast
+     */
+    public synchronized void setTempoFactor(double tempoFactor) {
+        if (tempoFactor <= 0.0)
+            return;
+        if (this.playing) {                                                     // the new tempo applies from now on
+            this.anchorMilliseconds = this.getCurrentMilliseconds();
+            this.anchorNanos = System.nanoTime();
+            LockSupport.unpark(this.thread);                                    // the dispatch thread has to recompute its sleep time
+        }
+        this.tempoFactor = tempoFactor;
+    }
+
+    /**
+     * @return the look-ahead window in milliseconds
+     */
+    public synchronized double getLookAhead() {
+        return this.lookAhead;
+    }
+
+    /**
+     * set how many milliseconds of the performance are computed ahead of the playback position
+     * @param lookAhead
+     */
+    public synchronized void setLookAhead(double lookAhead) {
+        this.lookAhead = Math.max(0.0, lookAhead);
+    }
+
+    /**
+     * the current performance time while playing
+     * @return
+     */
+    private double getCurrentMilliseconds() {
+        return this.anchorMilliseconds + (((System.nanoTime() - this.anchorNanos) / 1000000.0) * this.tempoFactor);
+    }
+
+    /**
+     * end the dispatch thread and silence all notes
+     */
+    private void halt() {
+        if (!this.playing)
+            return;
+        this.playing = false;                                                   // the dispatch thread terminates as soon as it gets the monitor
+        LockSupport.unpark(this.thread);
+        this.thread = null;
+        this.queue.clear();
+        this.allNotesOff();
+    }
+
+    /**
+     * move all parts to the specified performance time
+     * @param milliseconds
+     */
+    private void seek(double milliseconds) {
+        this.queue.clear();
+        this.allNotesOff();
+        for (PartData part : this.parts) {
+            part.seek(milliseconds);
+            ShortMessage program = part.getProgramAt(milliseconds);              // the instrument that plays at this position
+            if (program != null)
+                this.receiver.send(program, -1);
+        }
+    }
+
+    /**
+     * send an all notes off message to all channels of the parts
+     */
+    private void allNotesOff() {
+        boolean[] done = new boolean[16];
+        for (PartData part : this.parts) {
+            if (done[part.channel])
+                continue;
+            done[part.channel] = true;
+            try {
+                this.receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, part.channel, 123, 0), -1);
+            } catch (InvalidMidiDataException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * the dispatch thread's job: compute the messages in the look-ahead window and send them when they are due
+     */
+    private void run() {
+        while (true) {
+            long sleep;
+            synchronized (this) {
+                if (!this.playing || (this.thread != Thread.currentThread()))
+                    return;
+
+                double now = this.getCurrentMilliseconds();
+                boolean remaining = false;
+                for (PartData part : this.parts)                                // compute the messages until the end of the look-ahead window
+                    remaining |= part.schedule(now + (this.lookAhead * this.tempoFactor), this);
+
+                while (!this.queue.isEmpty() && (this.queue.peek().milliseconds <= now))
+                    this.receiver.send(this.queue.poll().message, -1);
+
+                if (!remaining && this.queue.isEmpty()) {                       // the end of the music
+                    this.playing = false;
+                    this.thread = null;
+                    this.playbackPositionInMilliseconds = 0.0;
+                    return;
+                }
+
+                double next = this.queue.isEmpty() ? Double.MAX_VALUE : this.queue.peek().milliseconds;
+                sleep = (long) Math.min(5000000.0, ((next - now) / this.tempoFactor) * 1000000.0);   // sleep until the next message is due, but at most 5 ms to keep the look-ahead window filled
+            }
+            if (sleep > 0)
+                LockSupport.parkNanos(this, sleep);
+        }
+    }
+
+    /**
+     * add a message to the queue
+     * @param milliseconds
+     * @param message
+     */
+    private void enqueue(double milliseconds, ShortMessage message) {
+        this.queue.add(new ScheduledMessage(milliseconds, message, this.messageCounter++));
+    }
+
+    /**
+     * a MIDI message with its performance time
+     */
+    private static class ScheduledMessage implements Comparable<ScheduledMessage> {
+        private final double milliseconds;
+        private final ShortMessage message;
+        private final long index;
+
+        private ScheduledMessage(double milliseconds, ShortMessage message, long index) {
+            this.milliseconds = milliseconds;
+            this.message = message;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(ScheduledMessage other) {
+            int c = Double.compare(this.milliseconds, other.milliseconds);
+            if (c != 0)
+                return c;
+            boolean thisOff = this.message.getCommand() == ShortMessage.NOTE_OFF;
+            boolean otherOff = other.message.getCommand() == ShortMessage.NOTE_OFF;
+            if (thisOff != otherOff)
+                return thisOff ? -1 : 1;                                        // note offs first, so a repeated note is not cut off
+            return Long.compare(this.index, other.index);
+        }
+    }
+
+    /**
+     * The notes and program changes of one MSM part in arrays, sorted by date, and the performance information that applies to them.
+     * The dates are in the timing resolution of the performance.
+     */
+    private static class PartData {
+        private final int channel;
+        private final int ppq;
+        private double[] dates;
+        private double[] endDates;
+        private int[] pitches;
+        private final double[] programDates;
+        private final ShortMessage[] programs;
+        private final boolean hasTempoMap;                  // if there is no tempoMap at all, 1 tick is 1 millisecond
+        private final TempoData[] tempi;                    // with startDateMilliseconds
+        private final double[] tempoEndDates;
+        private final RubatoData[] rubati;
+        private final double[] rubatoDates;
+        private final DynamicsData[] dynamics;
+        private final double[] dynamicsDates;
+
+        private int noteIndex = 0;                          // the next note to be scheduled
+        private double noteMilliseconds = Double.NaN;       // its performance time, if already computed
+        private int programIndex = 0;                       // the next program change to be scheduled
+
+        /**
+         * constructor
+         * @param msmPart
+         * @param ppqFactor the factor that converts the MSM dates to the performance's timing resolution
+         * @param ppq the performance's timing resolution
+         * @param tempoMap
+         * @param rubatoMap
+         * @param dynamicsMap
+         */
+        private PartData(Element msmPart, double ppqFactor, int ppq, TempoMap tempoMap, RubatoMap rubatoMap, DynamicsMap dynamicsMap) {
+            this.channel = Integer.parseInt(msmPart.getAttributeValue("midi.channel"));
+            this.ppq = ppq;
+
+            // read the notes
+            Element dated = Helper.getFirstChildElement("dated", msmPart);
+            Element score = (dated == null) ? null : Helper.getFirstChildElement("score", dated);
+            ArrayList<double[]> notes = new ArrayList<>();                      // date, end date, pitch
+            if (score != null) {
+                for (Element n = score.getFirstChildElement("note", score.getNamespaceURI()); n != null; n = Helper.getNextSiblingElement("note", n)) {
+                    double date = Double.parseDouble(Helper.getAttributeValue("date", n)) * ppqFactor;
+                    double duration = Double.parseDouble(Helper.getAttributeValue("duration", n)) * ppqFactor;
+                    notes.add(new double[]{date, date + duration, Math.round(Float.parseFloat(Helper.getAttributeValue("midi.pitch", n)))});
+                }
+            }
+            notes.sort((a, b) -> Double.compare(a[0], b[0]));
+            this.dates = new double[notes.size()];
+            this.endDates = new double[notes.size()];
+            this.pitches = new int[notes.size()];
+            for (int i = 0; i < notes.size(); ++i) {
+                this.dates[i] = notes.get(i)[0];
+                this.endDates[i] = notes.get(i)[1];
+                this.pitches[i] = (int) notes.get(i)[2];
+            }
+
+            // read the program changes; if there is none at the beginning, the instrument is derived from the part name
+            ArrayList<Double> programDates = new ArrayList<>();
+            ArrayList<ShortMessage> programs = new ArrayList<>();
+            Element programChangeMap = (dated == null) ? null : Helper.getFirstChildElement("programChangeMap", dated);
+            if (programChangeMap != null) {
+                for (Element p = programChangeMap.getFirstChildElement("programChange", programChangeMap.getNamespaceURI()); p != null; p = Helper.getNextSiblingElement("programChange", p)) {
+                    try {
+                        programs.add(new ShortMessage(ShortMessage.PROGRAM_CHANGE, this.channel, Integer.parseInt(p.getAttributeValue("value")), 0));
+                        programDates.add(Double.parseDouble(Helper.getAttributeValue("date", p)) * ppqFactor);
+                    } catch (InvalidMidiDataException | NumberFormatException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            if (programDates.isEmpty() || (programDates.get(0) > 0.0)) {
+                String name = msmPart.getAttributeValue("name");
+                MidiEvent program = ((name == null) || name.isEmpty()) ? EventMaker.createProgramChange(this.channel, 0, EventMaker.PC_Acoustic_Grand_Piano) : EventMaker.createProgramChange(this.channel, 0, name);
+                if (program != null) {
+                    programDates.add(0, 0.0);
+                    programs.add(0, (ShortMessage) program.getMessage());
+                }
+            }
+            this.programDates = new double[programDates.size()];
+            for (int i = 0; i < programDates.size(); ++i)
+                this.programDates[i] = programDates.get(i);
+            this.programs = programs.toArray(new ShortMessage[0]);
+
+            // read the tempo instructions and compute their milliseconds dates
+            this.hasTempoMap = tempoMap != null;
+            ArrayList<TempoData> tempi = new ArrayList<>();
+            if (tempoMap != null) {
+                for (int i = 0; i < tempoMap.size(); ++i) {
+                    TempoData td = tempoMap.getTempoDataOf(i);
+                    if (td == null)
+                        continue;
+                    if (tempi.isEmpty())
+                        td.startDateMilliseconds = TempoMap.computeDiffTiming(td.startDate, ppq, null);
+                    else {
+                        TempoData prev = tempi.get(tempi.size() - 1);
+                        td.startDateMilliseconds = TempoMap.computeDiffTiming(td.startDate, ppq, prev) + prev.startDateMilliseconds;
+                    }
+                    tempi.add(td);
+                }
+            }
+            this.tempi = tempi.toArray(new TempoData[0]);
+            this.tempoEndDates = new double[this.tempi.length];
+            for (int i = 0; i < this.tempi.length; ++i)
+                this.tempoEndDates[i] = this.tempi[i].endDate;
+
+            ArrayList<RubatoData> rubati = new ArrayList<>();
+            if (rubatoMap != null) {
+                for (int i = 0; i < rubatoMap.size(); ++i) {
+                    RubatoData rd = rubatoMap.getRubatoDataOf(i);
+                    if (rd != null)
+                        rubati.add(rd);
+                }
+            }
+            this.rubati = rubati.toArray(new RubatoData[0]);
+            this.rubatoDates = new double[this.rubati.length];
+            for (int i = 0; i < this.rubati.length; ++i)
+                this.rubatoDates[i] = this.rubati[i].startDate;
+
+            ArrayList<DynamicsData> dynamics = new ArrayList<>();
+            if (dynamicsMap != null) {
+                for (int i = 0; i < dynamicsMap.size(); ++i) {
+                    DynamicsData dd = dynamicsMap.getDynamicsDataOf(i);
+                    if (dd != null)
+                        dynamics.add(dd);
+                }
+            }
+            this.dynamics = dynamics.toArray(new DynamicsData[0]);
+            this.dynamicsDates = new double[this.dynamics.length];
+            for (int i = 0; i < this.dynamics.length; ++i)
+                this.dynamicsDates[i] = this.dynamics[i].startDate;
+        }
+
+        /**
+         * compute the performance time of a symbolic date, like RubatoMap.renderRubatoToMap() and TempoMap.renderTempoToMap() do
+         * @param date
+         * @return
+         */
+        private double getMilliseconds(double date) {
+            double perfDate = date;
+            int r = lastIndexAtOrBefore(this.rubatoDates, date);
+            if (r >= 0) {
+                RubatoData rd = this.rubati[r];
+                if ((date < rd.endDate) && (rd.loop || (date < (rd.startDate + rd.frameLength))))
+                    perfDate = RubatoMap.computeRubatoTransformation(date, rd);
+            }
+
+            if (!this.hasTempoMap)
+                return perfDate;
+            if (this.tempi.length == 0)
+                return TempoMap.computeDiffTiming(perfDate, this.ppq, null);
+
+            int t = Arrays.binarySearch(this.tempoEndDates, date);              // the first tempo instruction whose scope ends at or after date
+            if (t < 0)
+                t = -t - 1;
+            else
+                while ((t > 0) && (this.tempoEndDates[t - 1] == date))
+                    --t;
+            if (t >= this.tempi.length)
+                t = this.tempi.length - 1;
+            TempoData td = this.tempi[t];
+            if (date <= td.startDate)
+                return TempoMap.computeDiffTiming(perfDate, this.ppq, null);
+            return TempoMap.computeDiffTiming(perfDate, this.ppq, td) + td.startDateMilliseconds;
+        }
+
+        /**
+         * compute the velocity of a note at the specified date, like DynamicsMap.renderDynamicsToMap() does
+         * @param date
+         * @return
+         */
+        private int getVelocity(double date) {
+            int d = lastIndexAtOrBefore(this.dynamicsDates, date);
+            double velocity = (d < 0) ? 100.0 : this.dynamics[d].getDynamicsAt(date);
+            return (int) Math.max(1, Math.min(127, Math.round(velocity)));
+        }
+
+        /**
+         * the last program change at or before the specified performance time
+         * @param milliseconds
+         * @return the program change message or null
+         */
+        private ShortMessage getProgramAt(double milliseconds) {
+            ShortMessage program = null;
+            for (int i = 0; (i < this.programs.length) && (this.getMilliseconds(this.programDates[i]) <= milliseconds); ++i)
+                program = this.programs[i];
+            return program;
+        }
+
+        /**
+         * @return the performance time of the end of the last note
+         */
+        private double getMillisecondLength() {
+            double length = 0.0;
+            for (double endDate : this.endDates)
+                length = Math.max(length, this.getMilliseconds(endDate));
+            return length;
+        }
+
+        /**
+         * move to the first note at or after the specified performance time
+         * @param milliseconds
+         */
+        private void seek(double milliseconds) {
+            int low = 0;
+            int high = this.dates.length;
+            while (low < high) {                                                // the performance time grows with the date, so a binary search finds the note
+                int mid = (low + high) >>> 1;
+                if (this.getMilliseconds(this.dates[mid]) < milliseconds)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            this.noteIndex = low;
+            this.noteMilliseconds = Double.NaN;
+
+            this.programIndex = 0;
+            while ((this.programIndex < this.programs.length) && (this.getMilliseconds(this.programDates[this.programIndex]) < milliseconds))
+                ++this.programIndex;
+        }
+
+        /**
+         * compute the messages of all notes and program changes that start before the end of the look-ahead window and add them to the player's queue
+         * @param windowEnd the end of the look-ahead window in performance time
+         * @param player
+         * @return true if there are more notes after the window
+         */
+        private boolean schedule(double windowEnd, PerformancePlayer player) {
+            while (this.programIndex < this.programs.length) {
+                double milliseconds = this.getMilliseconds(this.programDates[this.programIndex]);
+                if (milliseconds > windowEnd)
+                    break;
+                player.enqueue(milliseconds, this.programs[this.programIndex++]);
+            }
+
+            while (this.noteIndex < this.dates.length) {
+                if (Double.isNaN(this.noteMilliseconds))
+                    this.noteMilliseconds = this.getMilliseconds(this.dates[this.noteIndex]);
+                if (this.noteMilliseconds > windowEnd)
+                    return true;
+
+                double date = this.dates[this.noteIndex];
+                int pitch = this.pitches[this.noteIndex];
+                try {
+                    player.enqueue(this.noteMilliseconds, new ShortMessage(ShortMessage.NOTE_ON, this.channel, pitch, this.getVelocity(date)));
+                    player.enqueue(this.getMilliseconds(this.endDates[this.noteIndex]), new ShortMessage(ShortMessage.NOTE_OFF, this.channel, pitch, 0));
+                } catch (InvalidMidiDataException e) {
+                    e.printStackTrace();
+                }
+                ++this.noteIndex;
+                this.noteMilliseconds = Double.NaN;
+            }
+            return this.programIndex < this.programs.length;
+        }
+
+        /**
+         * binary search in a sorted array
+         * @param array
+         * @param value
+         * @return the index of the last element that is less than or equal to value or -1
+         */
+        private static int lastIndexAtOrBefore(double[] array, double value) {
+            int low = 0;
+            int high = array.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (array[mid] <= value)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low - 1;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package meico.midi;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class holds the quality settings for MIDI to audio rendering with class Midi2AudioRenderer.
+ * There are two predefined profiles: the master profile renders at full quality, the preview profile
+ * trades quality for speed (linear interpolation, fewer voices, lower sample rate, mono, no effects).
+ * @author Axel Berndt
+ */
+public class RenderProfile {
+    private String interpolation = "sinc";          // the synthesizer's sample interpolation: "point", "linear", "cubic" or "sinc"
+    private int maxPolyphony = 1024;                // the maximum number of voices that sound at the same time
+    private boolean effects = true;                 // render the synthesizer's reverb and chorus
+    private float sampleRate = 44100;               // the synthesizer renders directly at this sample rate
+    private int sampleSizeInBits = 16;
+    private int channels = 2;
+    private boolean trimSilentTail = false;         // end the rendering when the audio after the last MIDI event became silent, instead of always rendering a tail of TAIL_LENGTH seconds
+    private double silenceThreshold = -80.0;        // the level in dBFS below which the tail counts as silent
+
+    public static final double TAIL_LENGTH = 4.0;   // the number of seconds that are rendered after the last MIDI event, so that the release phases and reverb can decay
+
+    /**
+     * constructor, creates a master profile
+     */
+    public RenderProfile() {
+    }
+
+    /**
+     * create a profile that renders at full quality, 44.1 kHz, 16 bit stereo
+     * @return
+     */
+    public static RenderProfile createMasterProfile() {
+        return new RenderProfile();
+    }
+
+    /**
+     * create a profile for fast preview renderings, 22.05 kHz, 16 bit mono, linear interpolation, at most 64 voices, no reverb and chorus and a trimmed tail
+     * @return
+     */
+    public static RenderProfile createPreviewProfile() {
+        RenderProfile profile = new RenderProfile();
+        profile.setInterpolation("linear");
+        profile.setMaxPolyphony(64);
+        profile.setEffects(false);
+        profile.setSampleRate(22050);
+        profile.setChannels(1);
+        profile.setTrimSilentTail(true);
+        return profile;
+    }
+
+    /**
+     * @return the sample interpolation
+     */
+    public String getInterpolation() {
+        return this.interpolation;
+    }
+
+    /**
+     * set the sample interpolation
+     * @param interpolation "point", "linear", "cubic" or "sinc"
+     */
+    public void setInterpolation(String interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * @return the maximum number of voices
+     */
+    public int getMaxPolyphony() {
+        return this.maxPolyphony;
+    }
+
+    /**
+     * set the maximum number of voices that sound at the same time
+     * @param maxPolyphony
+     */
+    public void setMaxPolyphony(int maxPolyphony) {
+        this.maxPolyphony = maxPolyphony;
+    }
+
+    /**
+     * @return true if reverb and chorus are rendered
+     */
+    public boolean hasEffects() {
+        return this.effects;
+    }
+
+    /**
+     * switch the synthesizer's reverb and chorus on or off
+     * @param effects
+     */
+    public void setEffects(boolean effects) {
+        this.effects = effects;
+    }
+
+    /**
+     * @return the sample rate
+     */
+    public float getSampleRate() {
+        return this.sampleRate;
+    }
+
+    /**
+     * set the sample rate, the synthesizer renders at this rate, so lower rates render faster
+     * @param sampleRate
+     */
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the sample size in bits
+     */
+    public int getSampleSizeInBits() {
+        return this.sampleSizeInBits;
+    }
+
+    /**
+     * set the sample size
+     * @param sampleSizeInBits 8, 16, 24 or 32
+     */
+    public void setSampleSizeInBits(int sampleSizeInBits) {
+        this.sampleSizeInBits = sampleSizeInBits;
+    }
+
+    /**
+     * @return the number of audio channels
+     */
+    public int getChannels() {
+        return this.channels;
+    }
+
+    /**
+     * set the number of audio channels
+     * @param channels 1 (mono) or 2 (stereo)
+     */
+    public void setChannels(int channels) {
+        this.channels = channels;
+    }
+
+    /**
+     * @return true if the rendering ends as soon as the tail after the last MIDI event is silent
+     */
+    public boolean isTrimSilentTail() {
+        return this.trimSilentTail;
+    }
+
+    /**
+     * If true, the rendering ends as soon as the audio after the last MIDI event drops below the silence threshold.
+     * Otherwise, a tail of TAIL_LENGTH seconds is always rendered.
+     * @param trimSilentTail
+     */
+    public void setTrimSilentTail(boolean trimSilentTail) {
+        this.trimSilentTail = trimSilentTail;
+    }
+
+    /**
+     * @return the silence threshold in dBFS
+     */
+    public double getSilenceThreshold() {
+        return this.silenceThreshold;
+    }
+
+    /**
+     * set the level below which the tail counts as silent
+     * @param silenceThreshold in dBFS, e.g. -80.0
+     */
+    public void setSilenceThreshold(double silenceThreshold) {
+        this.silenceThreshold = silenceThreshold;
+    }
+
+    /**
+     * @return the audio format of the rendering, signed little-endian PCM
+     */
+    public AudioFormat getAudioFormat() {
+        return new AudioFormat(this.sampleRate, this.sampleSizeInBits, this.channels, true, false);
+    }
+
+    /**
+     * @return the properties for AudioSynthesizer.openStream()
+     */
+    public Map<String, Object> getSynthesizerProperties() {
+        Map<String, Object> p = new HashMap<String, Object>();
+        p.put("interpolation", this.interpolation);
+        p.put("max polyphony", String.valueOf(this.maxPolyphony));
+        p.put("reverb", this.effects);
+        p.put("chorus", this.effects);
+        return p;
+    }
+}
@@ -0,0 +1,97 @@
+package meico.midi;
+
+import meico.supplementary.KeyValue;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Soundbank;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps the soundbanks that have been read, so a soundbank file is parsed only once,
+ * no matter how many MIDI sequences are rendered or played back with it. A cached soundbank is
+ * read again when the modification date or size of its file changes.
+ * @author Axel Berndt
+ */
+public class SoundbankCache {
+    private static final ConcurrentHashMap<String, KeyValue<String, Soundbank>> soundbanks = new ConcurrentHashMap<>();   // file path or URL -> (modification date and size, soundbank)
+
+    /**
+     * get the soundbank from a file
+     * @param soundbankFile
+     * @return
+     * @throws InvalidMidiDataException if the file is no supported soundbank
+     * @throws IOException
+     */
+    public static Soundbank getSoundbank(File soundbankFile) throws InvalidMidiDataException, IOException {
+        String key = soundbankFile.getCanonicalPath();
+        String stamp = soundbankFile.lastModified() + "|" + soundbankFile.length();
+
+        KeyValue<String, Soundbank> entry = soundbanks.get(key);
+        if ((entry != null) && entry.getKey().equals(stamp))
+            return entry.getValue();
+
+        Soundbank soundbank = MidiSystem.getSoundbank(soundbankFile);
+        soundbanks.put(key, new KeyValue<>(stamp, soundbank));
+        return soundbank;
+    }
+
+    /**
+     * get the soundbank from a URL; file URLs are handled like files, other URLs are checked via their last-modified header
+     * @param soundbankUrl
+     * @return
+     * @throws InvalidMidiDataException if the data is no supported soundbank
+     * @throws IOException
+     */
+    public static Soundbank getSoundbank(URL soundbankUrl) throws InvalidMidiDataException, IOException {
+        if ("file".equals(soundbankUrl.getProtocol()))
+            return SoundbankCache.getSoundbank(SoundbankCache.toFile(soundbankUrl));
+
+        String key = soundbankUrl.toExternalForm();
+        URLConnection connection = soundbankUrl.openConnection();
+        String stamp = connection.getLastModified() + "|" + connection.getContentLengthLong();
+
+        KeyValue<String, Soundbank> entry = soundbanks.get(key);
+        if ((entry != null) && entry.getKey().equals(stamp))
+            return entry.getValue();
+
+        Soundbank soundbank = MidiSystem.getSoundbank(soundbankUrl);
+        soundbanks.put(key, new KeyValue<>(stamp, soundbank));
+        return soundbank;
+    }
+
+    /**
+     * remove a soundbank from the cache
+     * @param soundbankFile
+     */
+    public static void remove(File soundbankFile) {
+        try {
+            soundbanks.remove(soundbankFile.getCanonicalPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * remove all soundbanks from the cache, so their memory can be freed
+     */
+    public static void clear() {
+        soundbanks.clear();
+    }
+
+    /**
+     * get the file behind a file URL
+     * @param url
+     * @return
+     * @throws UnsupportedEncodingException
+     */
+    private static File toFile(URL url) throws UnsupportedEncodingException {
+        return new File(URLDecoder.decode(url.getFile(), "UTF-8"));
+    }
+}
@@ -7,6 +7,7 @@ import meico.mpm.elements.metadata.Metadata;
 import meico.mpm.elements.Performance;
 import meico.mpm.elements.metadata.RelatedResource;
 import meico.msm.AbstractMsm;
+import meico.msm.Msm;
 import nu.xom.*;
 import org.xml.sax.SAXException;
 
@@ -338,6 +339,17 @@ public class Mpm extends AbstractMsm {
         return this.performances;
     }
 
+    /**
+     * render all performances of this mpm into the specified MSM; the performances are rendered concurrently,
+     * if one of them fails, its exception is thrown here
+     * @param msm the MSM remains unaltered
+     * @return a list of the augmented MSMs in the order of the performances
+     * @throws InterruptedException if the calling thread is interrupted while it waits for the renderings
+     */
+    public ArrayList<Msm> performAll(Msm msm) throws InterruptedException {
+        return Performance.performAll(this.performances, msm);
+    }
+
     /**
      * add a performance to this mpm, but caution: if another performance with the same name exists already in this mpm, accessing it via getPerformance(name) will return only the first in the list
      * @param performance
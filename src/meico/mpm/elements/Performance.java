@@ -10,10 +10,14 @@ import meico.xml.AbstractXmlSubtree;
 import nu.xom.Attribute;
 import nu.xom.Element;
 import nu.xom.Elements;
-import nu.xom.Nodes;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class represents an mpm performance. One mpm document can hold several performances.
@@ -399,12 +403,9 @@ public class Performance extends AbstractXmlSubtree {
 
         this.setPPQ(ppq);
 
-        // find all attributes date, date.end and duration, and convert their values
-        Nodes atts = this.getXml().query("descendant::*[attribute::date]/attribute::date | descendant::*[attribute::duration]/attribute::duration | descendant::*[attribute::absoluteDuration]/attribute::absoluteDuration | descendant::*[attribute::absoluteDurationChange]/attribute::absoluteDurationChange | descendant::*[attribute::absoluteDelay]/attribute::absoluteDelay");
-        for (int i = 0; i < atts.size(); ++i) {
-            Attribute att = (Attribute) atts.get(i);
+        // find all attributes date, duration, absoluteDuration, absoluteDurationChange and absoluteDelay in one traversal, and convert their values
+        for (Attribute att : Helper.getAllDescendantAttributes(this.getXml(), "date", "duration", "absoluteDuration", "absoluteDurationChange", "absoluteDelay"))
             att.setValue(Double.toString(((Double.parseDouble(att.getValue()) * ppq) / ppqOld)));
-        }
 
         // update the data structure
         try {
@@ -430,11 +431,14 @@ public class Performance extends AbstractXmlSubtree {
      */
     public Msm perform(Midi midi) {
         Msm msm = midi.exportMsm(true, true);
-        return this.perform(msm);
+        if (msm.getFile() != null)
+            msm.setFile(Helper.getFilenameWithoutExtension(msm.getFile().getPath()) + "_" + this.getName() + ".msm");
+        return this.performInPlace(msm);                                                                                // the msm is not needed otherwise, so we do not have to copy it
     }
 
     /**
-     * this add expression data (such as millisecond dates, durations, and velocity values) to the specified MSM
+     * this add expression data (such as millisecond dates, durations, and velocity values) to a deep copy of the specified MSM;
+     * if the specified MSM is not needed anymore, performInPlace() saves the copy
      * @param msm
      * @return an augmented MSM with performance related data
      */
@@ -447,24 +451,138 @@ public class Performance extends AbstractXmlSubtree {
 
         clone.convertPPQ(this.getPPQ());  // ppq check and convert if necessary (for all attributes date, date.end and duration)
 
+        this.render(clone);
+
+        System.out.println("Performance rendering finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+
+        return clone;
+    }
+
+    /**
+     * This renders several performances into the specified MSM. The MSM is copied and converted to each required
+     * timing resolution (ppq) only once, the performances are rendered concurrently, each into its own copy.
+     * The maps of these copies are sorted already, so parsing them for the rendering is a linear pass. The copy
+     * itself is needed anyway, as the rendering writes its results into the elements of the maps.
+     * If the rendering of a performance fails, its exception is thrown here and the renderings that did not yet start are dropped.
+     * @param performances
+     * @param msm the MSM remains unaltered
+     * @return a list of the augmented MSMs in the order of the performances
+     * @throws InterruptedException if the calling thread is interrupted while it waits for the renderings
+     */
+    public static ArrayList<Msm> performAll(ArrayList<Performance> performances, Msm msm) throws InterruptedException {
+        long startTime = System.currentTimeMillis();                                                    // we measure the time that the conversion consumes
+        System.out.println("\nRendering " + performances.size() + " performances into \"" + msm.getTitle() + "\".");
+
+        ArrayList<Msm> results = new ArrayList<>();
+        if (performances.isEmpty())
+            return results;
+
+        // prepare one copy of the msm for each timing resolution
+        HashMap<Integer, Msm> templates = new HashMap<>();
+        for (Performance performance : performances) {
+            if (templates.containsKey(performance.getPPQ()))
+                continue;
+            Msm template = msm.clone();
+            template.convertPPQ(performance.getPPQ());                                                  // ppq check and convert if necessary (for all attributes date, date.end and duration)
+            Performance.sortMsmMaps(template);                                                          // sorting the maps here makes their parsing in each rendering a linear pass
+            templates.put(performance.getPPQ(), template);
+        }
+
+        // each performance renders into a copy of the template; the copies are made here, so the templates are not accessed concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(performances.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            ArrayList<Future<Msm>> futures = new ArrayList<>();
+            for (Performance performance : performances) {
+                Msm clone = templates.get(performance.getPPQ()).clone();
+                if (clone.getFile() != null)
+                    clone.setFile(Helper.getFilenameWithoutExtension(clone.getFile().getPath()) + "_" + performance.getName() + ".msm");   // just to make sure that the original file will not be overwritten when the application writes this clone to the file system
+                futures.add(executor.submit(() -> {
+                    performance.render(clone);
+                    return clone;
+                }));
+            }
+
+            for (Future<Msm> future : futures)
+                results.add(future.get());
+        } catch (ExecutionException e) {                                                                // render() throws no checked exceptions, so we pass its exception on as it is
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();                                                                     // after a failure or interrupt, the renderings that did not yet start are dropped
+        }
+
+        System.out.println("Rendering of " + performances.size() + " performances finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+
+        return results;
+    }
+
+    /**
+     * This adds expression data to the specified MSM without copying it first, i.e., the MSM is altered.
+     * Use this instead of perform() if the unaltered MSM is not needed anymore, it saves a deep copy of the whole document.
+     * @param msm
+     * @return the specified MSM, augmented with performance related data
+     */
+    public Msm performInPlace(Msm msm) {
+        long startTime = System.currentTimeMillis();                                                                    // we measure the time that the conversion consumes
+        System.out.println("\nRendering performance \"" + this.getName() + "\" into \"" + msm.getTitle() + "\".");
+
+        msm.convertPPQ(this.getPPQ());  // ppq check and convert if necessary (for all attributes date, date.end and duration)
+        this.render(msm);
+
+        System.out.println("Performance rendering finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+
+        return msm;
+    }
+
+    /**
+     * render this performance into the specified MSM
+     * @param clone the MSM to be rendered, it is edited in-place, its PPQ must already be converted to the performance's PPQ
+     */
+    private void render(Msm clone) {
+        // process global data
+        System.out.println("Processing global data.");
+        GenericMap globalTimeSignatureMap = this.renderGlobalMaps(clone);                                   // render the global MSM maps
+        OrnamentationMap.renderGlobalOrnamentationToParts(this.getAllMsmPartsAffectedByGlobalMap(clone, Mpm.ORNAMENTATION_MAP), (OrnamentationMap) this.getGlobal().getDated().getMap(Mpm.ORNAMENTATION_MAP));  // add global ornamentation attributes to affected parts' notes
+
+        // process the msm parts
+        Elements parts = clone.getParts();                                                                  // get the parts from the msm
+        for (int p = 0; p < parts.size(); ++p)
+            this.renderPart(parts.get(p), globalTimeSignatureMap);
+
+        // cleanup: remove temporary attributes from all elements in the cleanup list
+//        for (KeyValue<Double, Element> e : cleanupList) {
+//            // do something
+//        }
+    }
+
+    /**
+     * create a rendering session for the specified MSM; it renders the performance incrementally,
+     * i.e., after edits of this performance's maps only the affected data is re-rendered
+     * @param msm
+     * @return
+     */
+    public RenderingSession createRenderingSession(Msm msm) {
+        return new RenderingSession(this, msm);
+    }
+
+    /**
+     * render the global MSM maps (keySignatureMap, timeSignatureMap, sectionMap, sequencingMap, markerMap, pedalMap) with the global timing transformations of this performance
+     * @param msm the MSM to be rendered, the maps are edited in-place, its PPQ must already be converted to the performance's PPQ
+     * @return the global timeSignatureMap as GenericMap or null if the MSM has none
+     */
+    GenericMap renderGlobalMaps(Msm msm) {
         // get global mpm maps
         RubatoMap globalRubatoMap = (RubatoMap) this.getGlobal().getDated().getMap(Mpm.RUBATO_MAP);                                         // get the global rubatoMap
         TempoMap globalTempoMap = (TempoMap) this.getGlobal().getDated().getMap(Mpm.TEMPO_MAP);                                             // get the global tempoMap
         AsynchronyMap globalAsynchronyMap = (AsynchronyMap) this.getGlobal().getDated().getMap(Mpm.ASYNCHRONY_MAP);                         // get the global asynchronyMap
         ImprecisionMap globalImprecisionMap_timing = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_TIMING);       // get the global timing imprecisionMap
-        ImprecisionMap globalImprecisionMap_dynamics = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_DYNAMICS);   // get the global dynamics imprecisionMap
-        ImprecisionMap globalImprecisionMap_toneduration = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_TONEDURATION);   // get the global toneduration imprecisionMap
-        ImprecisionMap globalImprecisionMap_tuning = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_TUNING);       // get the global tuning imprecisionMap
-        DynamicsMap globalDynamicsMap = (DynamicsMap) this.getGlobal().getDated().getMap(Mpm.DYNAMICS_MAP);                                 // get the global dynamicsMap
-        MetricalAccentuationMap globalMetricalAccentuationMap = (MetricalAccentuationMap) this.getGlobal().getDated().getMap(Mpm.METRICAL_ACCENTUATION_MAP); // get the global metricalAccentuationMap
-        OrnamentationMap globalOrnamentationMap = (OrnamentationMap) this.getGlobal().getDated().getMap(Mpm.ORNAMENTATION_MAP);             // get the global ornamentationMap
-        ArticulationMap globalArticulationMap = (ArticulationMap) this.getGlobal().getDated().getMap(Mpm.ARTICULATION_MAP);                 // get the global articulationMap
         ArrayList<GenericMap> maps = new ArrayList<>();                                                                                     // maps to be processed
-//        ArrayList<KeyValue<Double, Element>> cleanupList = new ArrayList<>();                                                               // maps that need cleanup at the end
 
-        // process global data
-        System.out.println("Processing global data.");
-        Element globalDated = Helper.getFirstChildElement("dated", clone.getGlobal());
+        Element globalDated = Helper.getFirstChildElement("dated", msm.getGlobal());
         Performance.addMsmMapToList("keySignatureMap", globalDated, maps);
         GenericMap globalTimeSignatureMap = Performance.addMsmMapToList("timeSignatureMap", globalDated, maps);
         Performance.addMsmMapToList("sectionMap", globalDated, maps);
@@ -472,8 +590,6 @@ public class Performance extends AbstractXmlSubtree {
         Performance.addMsmMapToList("markerMap", globalDated, maps);
         GenericMap globalPedalMap = Performance.addMsmMapToList("pedalMap", globalDated, maps);
 
-        OrnamentationMap.renderGlobalOrnamentationToParts(this.getAllMsmPartsAffectedByGlobalMap(clone, Mpm.ORNAMENTATION_MAP), globalOrnamentationMap);  // add global ornamentation attributes to affected parts' notes
-
         for (GenericMap m : maps) {                                                                         // for all maps in the list of maps for timing processing
             RubatoMap.renderRubatoToMap(m, globalRubatoMap);
             TempoMap.renderTempoToMap(m, this.getPPQ(), globalTempoMap);                                    // compute millisecond dates and end dates
@@ -481,128 +597,136 @@ public class Performance extends AbstractXmlSubtree {
         AsynchronyMap.renderAsynchronyToMap(globalPedalMap, globalAsynchronyMap);                           // add asynchrony offsets to the millisecond dates
         ImprecisionMap.renderImprecisionToMap(globalPedalMap, globalImprecisionMap_timing, true);           // add imprecision
 
-        // process the msm parts
-        Elements parts = clone.getParts();                                                                  // get the parts from the msm
-        for (int p = 0; p < parts.size(); ++p) {
-            Element msmPart = parts.get(p);
-            Part mpmPart = this.getCorrespondingPart(msmPart);                                              // find the corresponding mpm part
-            if (mpmPart == null)                                                                            // if no mpm part could be found
-                System.err.println("No MPM part found that corresponds to MSM part " + Helper.getAttributeValue("number", msmPart) + " \"" + Helper.getAttributeValue("name", msmPart) + "\""); // error message
-            else
-                System.out.println("Performing part " + mpmPart.getNumber() + ": " + mpmPart.getName() /*+ ", midi channel " + mpmPart.getMidiChannel() + ", midi port " + mpmPart.getMidiPort()*/);
-
-            // retrieve all msm maps in this part to be processed
-            Element dated = Helper.getFirstChildElement("dated", msmPart);
-            if (dated == null) continue;
-            maps = new ArrayList<>();
-            GenericMap score = Performance.addMsmMapToList("score", dated, maps);
-            Performance.addMsmMapToList("keySignatureMap", dated, maps);
-            GenericMap timeSignatureMap = Performance.addMsmMapToList("timeSignatureMap", dated, maps);
-            Performance.addMsmMapToList("sectionMap", dated, maps);
-            Performance.addMsmMapToList("sequencingMap", dated, maps);
-            Performance.addMsmMapToList("markerMap", dated, maps);
-            Performance.addMsmMapToList("programChangeMap", dated, maps);
-            GenericMap pedalMap = Performance.addMsmMapToList("pedalMap", dated, maps);
-
-            RubatoMap rubatoMap = null;
-            TempoMap tempoMap = null;
-            AsynchronyMap asynchronyMap = null;
-            DynamicsMap dynamicsMap = null;
-            MetricalAccentuationMap metricalAccentuationMap = null;
-            OrnamentationMap ornamentationMap = null;
-            ArticulationMap articulationMap = null;
-            ImprecisionMap imprecisionMap_timing = null;
-            ImprecisionMap imprecisionMap_dynamics = null;
-            ImprecisionMap imprecisionMap_toneduration = null;
-            ImprecisionMap imprecisionMap_tuning = null;
-            if (mpmPart != null) {                                                                                      // if the performance has information for this part, get them, otherwise it applies only the global ones by default
-                rubatoMap = (RubatoMap) mpmPart.getDated().getMap(Mpm.RUBATO_MAP);                                      // get rubatoMap
-                tempoMap = (TempoMap) mpmPart.getDated().getMap(Mpm.TEMPO_MAP);                                         // get tempoMap
-                asynchronyMap = (AsynchronyMap) mpmPart.getDated().getMap(Mpm.ASYNCHRONY_MAP);                          // get asynchronyMap
-                dynamicsMap = (DynamicsMap) mpmPart.getDated().getMap(Mpm.DYNAMICS_MAP);                                // get dynamicsMap
-                metricalAccentuationMap = (MetricalAccentuationMap) mpmPart.getDated().getMap(Mpm.METRICAL_ACCENTUATION_MAP);   // get metricalAccentuationMap
-                ornamentationMap = (OrnamentationMap) mpmPart.getDated().getMap(Mpm.ORNAMENTATION_MAP);                 // get ornamentationMap
-                articulationMap = (ArticulationMap) mpmPart.getDated().getMap(Mpm.ARTICULATION_MAP);                    // get articulationMap
-                imprecisionMap_timing = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TIMING);         // get imprecisionMap.timing
-                imprecisionMap_dynamics = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_DYNAMICS);     // get imprecisionMap.dynamics
-                imprecisionMap_toneduration = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TONEDURATION); // get imprecisionMap.toneduration
-                imprecisionMap_tuning = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TUNING);         // get imprecisionMap.tuning
-            }
-
-            // if no local map choose global
-            if (rubatoMap == null)
-                rubatoMap = globalRubatoMap;
-            if (tempoMap == null)
-                tempoMap = globalTempoMap;
-            if (asynchronyMap == null)
-                asynchronyMap = globalAsynchronyMap;
-            if (dynamicsMap == null)
-                dynamicsMap = globalDynamicsMap;
-            if (metricalAccentuationMap == null)
-                metricalAccentuationMap = globalMetricalAccentuationMap;
-            if (ornamentationMap == null)
-                ornamentationMap = globalOrnamentationMap;
-            if (articulationMap == null)
-                articulationMap = globalArticulationMap;
-            // the global imprecisionMaps have already milliseconds dates (required), the local does not, hence, they must be added to maps and to the cleanup list so the milliseconds attributes get deleted afterwards
-            if (imprecisionMap_timing == null)
-                imprecisionMap_timing = globalImprecisionMap_timing;
-            if (imprecisionMap_dynamics == null)
-                imprecisionMap_dynamics = globalImprecisionMap_dynamics;
-            if (imprecisionMap_toneduration == null)
-                imprecisionMap_toneduration = globalImprecisionMap_toneduration;
-            if (imprecisionMap_tuning == null)
-                imprecisionMap_tuning = globalImprecisionMap_tuning;
-
-            // here comes the performance rendering of the part
-            // some things should be done before the timing transformations
-            GenericMap channelVolumeMap = DynamicsMap.renderDynamicsToMap(score, dynamicsMap);      // add dynamics data, must be done first because the tick timing will be altered by some articulations and rubato
-            if (channelVolumeMap != null) {                                                         // there could be a new map with sub-note dynamics controllers to be added to maps
-                dated.appendChild(channelVolumeMap.getXml());                                       // add it to the MSM
-                Performance.addPerformanceTimingAttributes(channelVolumeMap);                       // add the .perf attributes
-            }
+        return globalTimeSignatureMap;
+    }
 
-            MetricalAccentuationMap.renderMetricalAccentuationToMap(score, metricalAccentuationMap, ((timeSignatureMap != null) ? timeSignatureMap : globalTimeSignatureMap), this.getPPQ());  // add metrical accentuations; we do this before the rubato transformation as this shifts the symbolic dates of the events
-            ArticulationMap.renderArticulationToMap_noMillisecondModifiers(score, articulationMap); // add articulations except for millisecond modifiers
+    /**
+     * render the specified MSM part with the corresponding MPM part's (or, if not present, the global) performance information
+     * @param msmPart the MSM part element, its maps are edited in-place
+     * @param globalTimeSignatureMap the MSM's global timeSignatureMap (as returned by renderGlobalMaps()) or null
+     */
+    void renderPart(Element msmPart, GenericMap globalTimeSignatureMap) {
+        // get global mpm maps
+        RubatoMap globalRubatoMap = (RubatoMap) this.getGlobal().getDated().getMap(Mpm.RUBATO_MAP);                                         // get the global rubatoMap
+        TempoMap globalTempoMap = (TempoMap) this.getGlobal().getDated().getMap(Mpm.TEMPO_MAP);                                             // get the global tempoMap
+        AsynchronyMap globalAsynchronyMap = (AsynchronyMap) this.getGlobal().getDated().getMap(Mpm.ASYNCHRONY_MAP);                         // get the global asynchronyMap
+        ImprecisionMap globalImprecisionMap_timing = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_TIMING);       // get the global timing imprecisionMap
+        ImprecisionMap globalImprecisionMap_dynamics = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_DYNAMICS);   // get the global dynamics imprecisionMap
+        ImprecisionMap globalImprecisionMap_toneduration = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_TONEDURATION);   // get the global toneduration imprecisionMap
+        ImprecisionMap globalImprecisionMap_tuning = (ImprecisionMap) this.getGlobal().getDated().getMap(Mpm.IMPRECISION_MAP_TUNING);       // get the global tuning imprecisionMap
+        DynamicsMap globalDynamicsMap = (DynamicsMap) this.getGlobal().getDated().getMap(Mpm.DYNAMICS_MAP);                                 // get the global dynamicsMap
+        MetricalAccentuationMap globalMetricalAccentuationMap = (MetricalAccentuationMap) this.getGlobal().getDated().getMap(Mpm.METRICAL_ACCENTUATION_MAP); // get the global metricalAccentuationMap
+        OrnamentationMap globalOrnamentationMap = (OrnamentationMap) this.getGlobal().getDated().getMap(Mpm.ORNAMENTATION_MAP);             // get the global ornamentationMap
+        ArticulationMap globalArticulationMap = (ArticulationMap) this.getGlobal().getDated().getMap(Mpm.ARTICULATION_MAP);                 // get the global articulationMap
 
-            for (GenericMap m : maps)                                                               // for all maps in the list of maps for timing processing
-                RubatoMap.renderRubatoToMap(m, rubatoMap);                                          // rubato
+        Part mpmPart = this.getCorrespondingPart(msmPart);                                              // find the corresponding mpm part
+        if (mpmPart == null)                                                                            // if no mpm part could be found
+            System.err.println("No MPM part found that corresponds to MSM part " + Helper.getAttributeValue("number", msmPart) + " \"" + Helper.getAttributeValue("name", msmPart) + "\""); // error message
+        else
+            System.out.println("Performing part " + mpmPart.getNumber() + ": " + mpmPart.getName() /*+ ", midi channel " + mpmPart.getMidiChannel() + ", midi port " + mpmPart.getMidiPort()*/);
+
+        // retrieve all msm maps in this part to be processed
+        Element dated = Helper.getFirstChildElement("dated", msmPart);
+        if (dated == null) return;
+        ArrayList<GenericMap> maps = new ArrayList<>();
+        GenericMap score = Performance.addMsmMapToList("score", dated, maps);
+        Performance.addMsmMapToList("keySignatureMap", dated, maps);
+        GenericMap timeSignatureMap = Performance.addMsmMapToList("timeSignatureMap", dated, maps);
+        Performance.addMsmMapToList("sectionMap", dated, maps);
+        Performance.addMsmMapToList("sequencingMap", dated, maps);
+        Performance.addMsmMapToList("markerMap", dated, maps);
+        Performance.addMsmMapToList("programChangeMap", dated, maps);
+        GenericMap pedalMap = Performance.addMsmMapToList("pedalMap", dated, maps);
+
+        RubatoMap rubatoMap = null;
+        TempoMap tempoMap = null;
+        AsynchronyMap asynchronyMap = null;
+        DynamicsMap dynamicsMap = null;
+        MetricalAccentuationMap metricalAccentuationMap = null;
+        OrnamentationMap ornamentationMap = null;
+        ArticulationMap articulationMap = null;
+        ImprecisionMap imprecisionMap_timing = null;
+        ImprecisionMap imprecisionMap_dynamics = null;
+        ImprecisionMap imprecisionMap_toneduration = null;
+        ImprecisionMap imprecisionMap_tuning = null;
+        if (mpmPart != null) {                                                                                      // if the performance has information for this part, get them, otherwise it applies only the global ones by default
+            rubatoMap = (RubatoMap) mpmPart.getDated().getMap(Mpm.RUBATO_MAP);                                      // get rubatoMap
+            tempoMap = (TempoMap) mpmPart.getDated().getMap(Mpm.TEMPO_MAP);                                         // get tempoMap
+            asynchronyMap = (AsynchronyMap) mpmPart.getDated().getMap(Mpm.ASYNCHRONY_MAP);                          // get asynchronyMap
+            dynamicsMap = (DynamicsMap) mpmPart.getDated().getMap(Mpm.DYNAMICS_MAP);                                // get dynamicsMap
+            metricalAccentuationMap = (MetricalAccentuationMap) mpmPart.getDated().getMap(Mpm.METRICAL_ACCENTUATION_MAP);   // get metricalAccentuationMap
+            ornamentationMap = (OrnamentationMap) mpmPart.getDated().getMap(Mpm.ORNAMENTATION_MAP);                 // get ornamentationMap
+            articulationMap = (ArticulationMap) mpmPart.getDated().getMap(Mpm.ARTICULATION_MAP);                    // get articulationMap
+            imprecisionMap_timing = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TIMING);         // get imprecisionMap.timing
+            imprecisionMap_dynamics = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_DYNAMICS);     // get imprecisionMap.dynamics
+            imprecisionMap_toneduration = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TONEDURATION); // get imprecisionMap.toneduration
+            imprecisionMap_tuning = (ImprecisionMap) mpmPart.getDated().getMap(Mpm.IMPRECISION_MAP_TUNING);         // get imprecisionMap.tuning
+        }
 
-            OrnamentationMap.renderOrnamentationToMap(score, ornamentationMap);                     // apply ornamentation (incl. pending attributes from global ornamentation), except for milliseconds effects, these come later
+        // if no local map choose global
+        if (rubatoMap == null)
+            rubatoMap = globalRubatoMap;
+        if (tempoMap == null)
+            tempoMap = globalTempoMap;
+        if (asynchronyMap == null)
+            asynchronyMap = globalAsynchronyMap;
+        if (dynamicsMap == null)
+            dynamicsMap = globalDynamicsMap;
+        if (metricalAccentuationMap == null)
+            metricalAccentuationMap = globalMetricalAccentuationMap;
+        if (ornamentationMap == null)
+            ornamentationMap = globalOrnamentationMap;
+        if (articulationMap == null)
+            articulationMap = globalArticulationMap;
+        // the global imprecisionMaps have already milliseconds dates (required), the local does not, hence, they must be added to maps and to the cleanup list so the milliseconds attributes get deleted afterwards
+        if (imprecisionMap_timing == null)
+            imprecisionMap_timing = globalImprecisionMap_timing;
+        if (imprecisionMap_dynamics == null)
+            imprecisionMap_dynamics = globalImprecisionMap_dynamics;
+        if (imprecisionMap_toneduration == null)
+            imprecisionMap_toneduration = globalImprecisionMap_toneduration;
+        if (imprecisionMap_tuning == null)
+            imprecisionMap_tuning = globalImprecisionMap_tuning;
+
+        // here comes the performance rendering of the part
+        // some things should be done before the timing transformations
+        GenericMap channelVolumeMap = DynamicsMap.renderDynamicsToMap(score, dynamicsMap);      // add dynamics data, must be done first because the tick timing will be altered by some articulations and rubato
+        if (channelVolumeMap != null) {                                                         // there could be a new map with sub-note dynamics controllers to be added to maps
+            dated.appendChild(channelVolumeMap.getXml());                                       // add it to the MSM
+            Performance.addPerformanceTimingAttributes(channelVolumeMap);                       // add the .perf attributes
+        }
 
-            for (GenericMap m : maps)                                                               // for all maps in the list of maps for timing processing
-                TempoMap.renderTempoToMap(m, this.getPPQ(), tempoMap);                              // compute millisecond dates and end dates
-                // further performance features are applied only to specific maps, thus not processed here
+        MetricalAccentuationMap.renderMetricalAccentuationToMap(score, metricalAccentuationMap, ((timeSignatureMap != null) ? timeSignatureMap : globalTimeSignatureMap), this.getPPQ());  // add metrical accentuations; we do this before the rubato transformation as this shifts the symbolic dates of the events
+        ArticulationMap.renderArticulationToMap_noMillisecondModifiers(score, articulationMap); // add articulations except for millisecond modifiers
 
-            // pedalMap
-            AsynchronyMap.renderAsynchronyToMap(pedalMap, asynchronyMap);                           // add asynchrony offsets to the millisecond dates to the pedalMap
-            ImprecisionMap.renderImprecisionToMap(pedalMap, imprecisionMap_timing, true);           // add imprecision to the pedalMap
+        for (GenericMap m : maps)                                                               // for all maps in the list of maps for timing processing
+            RubatoMap.renderRubatoToMap(m, rubatoMap);                                          // rubato
 
-            // channelVolumeMap
-            TempoMap.renderTempoToMap(channelVolumeMap, this.getPPQ(), tempoMap);                   // channelVolumeMap gets trandformed by the tempoMap but not the rubatoMap as the latter would create higher-frequency variations in the dynamics curve
-            AsynchronyMap.renderAsynchronyToMap(channelVolumeMap, asynchronyMap);                   // add asynchrony offsets to the millisecond dates to the channelVolumeMap
+        OrnamentationMap.renderOrnamentationToMap(score, ornamentationMap);                     // apply ornamentation (incl. pending attributes from global ornamentation), except for milliseconds effects, these come later
 
-            // score
-            if (score == null)      // if this msm part has no score
-                continue;           // continue with the next msm part
-            AsynchronyMap.renderAsynchronyToMap(score, asynchronyMap);                              // add asynchrony offsets to the millisecond dates
-            ArticulationMap.renderArticulationToMap_millisecondModifiers(score, articulationMap);   // apply articulations' millisecond modifiers
-            OrnamentationMap.renderMillisecondsModifiersToMap(score, ornamentationMap);             // apply ornamentation milliseconds transformations
+        for (GenericMap m : maps)                                                               // for all maps in the list of maps for timing processing
+            TempoMap.renderTempoToMap(m, this.getPPQ(), tempoMap);                              // compute millisecond dates and end dates
+            // further performance features are applied only to specific maps, thus not processed here
 
-            ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_timing, true);              // add timing imprecision
-            ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_dynamics, true);            // add dynamics imprecision
-            ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_toneduration, true);        // add toneduration imprecision
-            ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_tuning, true);              // add tuning imprecision
-        }
+        // pedalMap
+        AsynchronyMap.renderAsynchronyToMap(pedalMap, asynchronyMap);                           // add asynchrony offsets to the millisecond dates to the pedalMap
+        ImprecisionMap.renderImprecisionToMap(pedalMap, imprecisionMap_timing, true);           // add imprecision to the pedalMap
 
-        // cleanup: remove temporary attributes from all elements in the cleanup list
-//        for (KeyValue<Double, Element> e : cleanupList) {
-//            // do something
-//        }
+        // channelVolumeMap
+        TempoMap.renderTempoToMap(channelVolumeMap, this.getPPQ(), tempoMap);                   // channelVolumeMap gets trandformed by the tempoMap but not the rubatoMap as the latter would create higher-frequency variations in the dynamics curve
+        AsynchronyMap.renderAsynchronyToMap(channelVolumeMap, asynchronyMap);                   // add asynchrony offsets to the millisecond dates to the channelVolumeMap
 
-        System.out.println("Performance rendering finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+        // score
+        if (score == null)      // if this msm part has no score
+            return;             // done
+        AsynchronyMap.renderAsynchronyToMap(score, asynchronyMap);                              // add asynchrony offsets to the millisecond dates
+        ArticulationMap.renderArticulationToMap_millisecondModifiers(score, articulationMap);   // apply articulations' millisecond modifiers
+        OrnamentationMap.renderMillisecondsModifiersToMap(score, ornamentationMap);             // apply ornamentation milliseconds transformations
 
-        return clone;
+        ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_timing, true);              // add timing imprecision
+        ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_dynamics, true);            // add dynamics imprecision
+        ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_toneduration, true);        // add toneduration imprecision
+        ImprecisionMap.renderImprecisionToMap(score, imprecisionMap_tuning, true);              // add tuning imprecision
     }
 
     /**
@@ -646,6 +770,25 @@ public class Performance extends AbstractXmlSubtree {
         return msmPartsWithoutLocalMap;
     }
 
+    /**
+     * sort all maps in the MSM the same way as the performance rendering does it
+     * @param msm
+     */
+    static void sortMsmMaps(Msm msm) {
+        ArrayList<Element> dateds = new ArrayList<>();
+        dateds.add(Helper.getFirstChildElement("dated", msm.getGlobal()));
+        for (Element part : msm.getParts())
+            dateds.add(Helper.getFirstChildElement("dated", part));
+
+        for (Element dated : dateds) {
+            if (dated == null)
+                continue;
+            for (Element map : dated.getChildElements())
+                if (map.getLocalName().contains("Map") || map.getLocalName().equals("score"))
+                    GenericMap.createGenericMap(map);               // parsing the map into a GenericMap sorts its elements
+        }
+    }
+
     /**
      * a helper method to retrieve a certain map from an msm dated environment, generate a GenericMap object from it and add it to a LinkedList;
      * this simplifies code in method perform()
@@ -0,0 +1,400 @@
+package meico.mpm.elements;
+
+import meico.mei.Helper;
+import meico.mpm.Mpm;
+import meico.mpm.elements.maps.GenericMap;
+import meico.mpm.elements.maps.OrnamentationMap;
+import meico.msm.Msm;
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class implements an incremental performance rendering. It is meant for interactive applications that
+ * edit a performance and need the rendering result after each edit. Other than Performance.perform(), which clones
+ * and renders the whole MSM on every invocation, a rendering session keeps the result of the last rendering.
+ * On subsequent invocations of render() it re-renders only those parts that are affected by the edits and,
+ * within these parts, only the map elements from the first edited date onward.
+ * <br>
+ * The edits are tracked by the MPM maps (see GenericMap.markEdited()). All edits via the maps' add...() and
+ * removeElement() methods are tracked automatically. If the application edits map elements' attributes directly
+ * or changes style definitions in the headers, it should invoke GenericMap.markEdited() or invalidate(), respectively.
+ * Edits of ornamentation and imprecision data always cause a re-rendering of the whole part, as ornaments can add
+ * notes to the score and the imprecision's random series depend on all preceding values.
+ * <br>
+ * The session assumes that it is the only one tracking the edits of the performance's maps.
+ * @author Axel Berndt
+ */
+public class RenderingSession {
+    private static final String[] PART_MAP_TYPES = {            // the types of MPM maps that are involved in the rendering of an MSM part
+            Mpm.RUBATO_MAP,
+            Mpm.TEMPO_MAP,
+            Mpm.ASYNCHRONY_MAP,
+            Mpm.DYNAMICS_MAP,
+            Mpm.METRICAL_ACCENTUATION_MAP,
+            Mpm.ORNAMENTATION_MAP,
+            Mpm.ARTICULATION_MAP,
+            Mpm.IMPRECISION_MAP_TIMING,
+            Mpm.IMPRECISION_MAP_DYNAMICS,
+            Mpm.IMPRECISION_MAP_TONEDURATION,
+            Mpm.IMPRECISION_MAP_TUNING};
+    private static final String[] GLOBAL_MAP_TYPES = {          // the types of MPM maps that are involved in the rendering of the MSM's global maps
+            Mpm.RUBATO_MAP,
+            Mpm.TEMPO_MAP,
+            Mpm.ASYNCHRONY_MAP,
+            Mpm.IMPRECISION_MAP_TIMING};
+    private static final String[] CONTEXT_MSM_MAPS = {          // the MSM maps that the rendering of other maps reads (e.g. metrical accentuation needs the time signatures in force), they go completely into the temporary part of an incremental rendering
+            "timeSignatureMap"};
+
+    private final Performance performance;                      // the performance to be rendered
+    private final Msm msm;                                      // the input MSM, it remains unaltered
+    private Msm source = null;                                  // a copy of the input MSM with the performance's timing resolution, the rendering takes its input data from here
+    private Msm result = null;                                  // the rendering result
+    private int ppq = 0;                                        // the timing resolution of the last rendering
+    private GenericMap globalTimeSignatureMap = null;           // the result's global timeSignatureMap
+    private HashMap<String, GenericMap> globalMaps = new HashMap<>();           // the MPM maps that were used to render the global MSM maps
+    private final ArrayList<PartState> parts = new ArrayList<>();               // the rendering state of each MSM part
+
+    /**
+     * constructor
+     * @param performance the performance to be rendered
+     * @param msm the MSM to be rendered, it will not be altered by the rendering
+     */
+    public RenderingSession(Performance performance, Msm msm) {
+        this.performance = performance;
+        this.msm = msm;
+    }
+
+    /**
+     * access the performance that is rendered in this session
+     * @return
+     */
+    public Performance getPerformance() {
+        return this.performance;
+    }
+
+    /**
+     * access the input MSM
+     * @return
+     */
+    public Msm getMsm() {
+        return this.msm;
+    }
+
+    /**
+     * access the result of the last rendering
+     * @return the rendered MSM or null if render() has not been invoked so far
+     */
+    public Msm getResult() {
+        return this.result;
+    }
+
+    /**
+     * Discard all rendering results, so the next invocation of render() will do a complete rendering.
+     * This should be invoked after edits that are not tracked by the maps, e.g. edits of style definitions or of the MSM.
+     */
+    public synchronized void invalidate() {
+        this.source = null;
+        this.result = null;
+        this.globalTimeSignatureMap = null;
+        this.globalMaps.clear();
+        this.parts.clear();
+    }
+
+    /**
+     * Render the performance into the MSM. The first invocation does a complete rendering, all further invocations
+     * update only the data that is affected by the edits since the previous invocation.
+     * Keep in mind that the returned Msm object is the same on every invocation, it is updated in-place.
+     * @return the MSM with performance related data
+     */
+    public synchronized Msm render() {
+        long startTime = System.currentTimeMillis();                                            // we measure the time that the rendering consumes
+
+        if ((this.result == null) || (this.ppq != this.performance.getPPQ())) {                 // if there is no previous rendering or the timing basis has changed
+            System.out.println("\nRendering performance \"" + this.performance.getName() + "\" into \"" + this.msm.getTitle() + "\".");
+            this.renderAll();
+        } else {
+            System.out.println("\nUpdating performance \"" + this.performance.getName() + "\" in \"" + this.msm.getTitle() + "\".");
+            this.renderEdits();
+        }
+
+        this.clearEdits();
+        System.out.println("Performance rendering finished. Time consumed: " + (System.currentTimeMillis() - startTime) + " milliseconds");
+
+        return this.result;
+    }
+
+    /**
+     * the complete rendering of all data
+     */
+    private void renderAll() {
+        this.invalidate();
+        this.ppq = this.performance.getPPQ();
+
+        this.source = this.msm.clone();                                                         // the original msm should remain unaltered, hence, we create a copy of it to work with
+        this.source.convertPPQ(this.ppq);                                                       // ppq check and convert if necessary (for all attributes date, date.end and duration)
+        Performance.sortMsmMaps(this.source);                                                 // the rendering sorts the maps, so we do it here as well to be able to pair the elements of source and result
+
+        this.result = this.source.clone();
+        if (this.result.getFile() != null)
+            this.result.setFile(Helper.getFilenameWithoutExtension(this.result.getFile().getPath()) + "_" + this.performance.getName() + ".msm");  // just to make sure that the original file will not be overwritten when the application writes the result to the file system
+
+        this.globalMaps = this.getEffectiveMaps(null, GLOBAL_MAP_TYPES);
+        this.globalTimeSignatureMap = this.performance.renderGlobalMaps(this.result);
+
+        Elements sourceParts = this.source.getParts();
+        Elements resultParts = this.result.getParts();
+        for (int i = 0; i < sourceParts.size(); ++i) {
+            PartState state = new PartState(sourceParts.get(i), resultParts.get(i));
+            this.parts.add(state);
+            this.renderPartCompletely(state);
+        }
+    }
+
+    /**
+     * the incremental rendering of the edited data
+     */
+    private void renderEdits() {
+        // the global MSM maps are small, hence, they are re-rendered completely when they are affected by an edit
+        HashMap<String, GenericMap> globalMaps = this.getEffectiveMaps(null, GLOBAL_MAP_TYPES);
+        if (RenderingSession.getEditedFrom(this.globalMaps, globalMaps) != Double.POSITIVE_INFINITY) {
+            System.out.println("Processing global data.");
+            Element global = this.source.getGlobal().copy();
+            this.result.getRootElement().replaceChild(this.result.getGlobal(), global);
+            this.globalMaps = globalMaps;
+            this.globalTimeSignatureMap = this.performance.renderGlobalMaps(this.result);
+        }
+
+        // process the parts
+        for (PartState state : this.parts) {
+            Part mpmPart = this.performance.getCorrespondingPart(state.sourcePart);
+            HashMap<String, GenericMap> maps = this.getEffectiveMaps(mpmPart, PART_MAP_TYPES);
+            double editedFrom = RenderingSession.getEditedFrom(state.maps, maps);
+            if (editedFrom == Double.POSITIVE_INFINITY)                                         // no edits that affect this part
+                continue;                                                                       // keep the previous rendering
+
+            if (!RenderingSession.isEmpty(maps.get(Mpm.ORNAMENTATION_MAP))                      // ornaments can add notes to the score, so the elements of source and result would not be pairable anymore
+                    || !RenderingSession.isEmpty(maps.get(Mpm.IMPRECISION_MAP_TIMING))          // the random series of imprecisions depend on all preceding values
+                    || !RenderingSession.isEmpty(maps.get(Mpm.IMPRECISION_MAP_DYNAMICS))
+                    || !RenderingSession.isEmpty(maps.get(Mpm.IMPRECISION_MAP_TONEDURATION))
+                    || !RenderingSession.isEmpty(maps.get(Mpm.IMPRECISION_MAP_TUNING)))
+                editedFrom = Double.NEGATIVE_INFINITY;
+
+            if ((editedFrom == Double.NEGATIVE_INFINITY) || !this.renderPartFrom(state, editedFrom))   // if a complete rendering is required or the incremental rendering is not possible
+                this.renderPartCompletely(state);                                               // render the whole part
+        }
+    }
+
+    /**
+     * render the whole part
+     * @param state
+     */
+    private void renderPartCompletely(PartState state) {
+        Element part = state.sourcePart.copy();
+        this.result.getRootElement().replaceChild(state.resultPart, part);
+        state.resultPart = part;
+
+        Part mpmPart = this.performance.getCorrespondingPart(part);
+        state.maps = this.getEffectiveMaps(mpmPart, PART_MAP_TYPES);
+
+        // if the part has no local ornamentationMap, the global one applies
+        OrnamentationMap ornamentationMap = (OrnamentationMap) state.maps.get(Mpm.ORNAMENTATION_MAP);
+        if ((ornamentationMap != null) && (ornamentationMap == this.performance.getGlobal().getDated().getMap(Mpm.ORNAMENTATION_MAP))) {
+            ArrayList<Element> parts = new ArrayList<>();
+            parts.add(part);
+            OrnamentationMap.renderGlobalOrnamentationToParts(parts, ornamentationMap);
+        }
+
+        this.performance.renderPart(part, this.globalTimeSignatureMap);
+    }
+
+    /**
+     * Render only those map elements of the part that are affected by edits at or after the specified date.
+     * The elements are taken from the source and replace their counterparts in the result.
+     * @param state
+     * @param date
+     * @return true if successful, false if the source and result elements could not be paired, in this case the result remains unaltered and the part must be rendered completely
+     */
+    private boolean renderPartFrom(PartState state, double date) {
+        Element sourceDated = Helper.getFirstChildElement("dated", state.sourcePart);
+        Element resultDated = Helper.getFirstChildElement("dated", state.resultPart);
+        if ((sourceDated == null) || (resultDated == null))
+            return false;
+
+        // create a temporary part that holds only the affected elements
+        Element part = Helper.cloneElement(state.sourcePart);
+        Element dated = new Element("dated");
+        part.appendChild(dated);
+
+        ArrayList<Element> replace = new ArrayList<>();                             // the result elements to be replaced by the newly rendered ones, in the order of the temporary maps' elements, null for elements that are there only as context
+        for (Element sourceMap : sourceDated.getChildElements()) {
+            boolean context = Arrays.asList(CONTEXT_MSM_MAPS).contains(sourceMap.getLocalName());
+            Element resultMap = Helper.getFirstChildElement(sourceMap.getLocalName(), resultDated);
+            if (resultMap == null)
+                return false;
+
+            Elements sourceElements = sourceMap.getChildElements();
+            Elements resultElements = resultMap.getChildElements();
+            if (sourceElements.size() != resultElements.size())
+                return false;
+
+            Element map = new Element(sourceMap.getLocalName(), sourceMap.getNamespaceURI());
+            for (int i = 0; i < sourceElements.size(); ++i) {
+                Element sourceElement = sourceElements.get(i);
+                Element resultElement = resultElements.get(i);
+                String sourceDate = sourceElement.getAttributeValue("date");
+                if (sourceDate == null) {                                               // elements without date are not rendered
+                    if (context)
+                        map.appendChild(sourceElement.copy());
+                    continue;
+                }
+                if (!sourceDate.equals(resultElement.getAttributeValue("date")))        // the elements are not pairable
+                    return false;
+                boolean affected = RenderingSession.reachesInto(sourceElement, resultElement, date);
+                if (!affected && !context)                                              // if the element is not affected by the edits
+                    continue;                                                           // keep its previous rendering
+                map.appendChild(sourceElement.copy());
+                replace.add(affected ? resultElement : null);                           // unaffected context elements keep their previous rendering
+            }
+            dated.appendChild(map);
+        }
+
+        // render the temporary part
+        this.performance.renderPart(part, this.globalTimeSignatureMap);
+
+        // replace the previous rendering results of the affected elements by the new ones
+        int index = 0;
+        for (Element map : dated.getChildElements()) {
+            if (map.getLocalName().equals("channelVolumeMap"))                          // this map is generated by the rendering, it is handled below
+                continue;
+            for (Element e : map.getChildElements()) {
+                if (e.getAttribute("date") == null)
+                    continue;
+                Element old = replace.get(index++);
+                if (old == null)                                                        // a context element
+                    continue;
+                e.detach();
+                old.getParent().replaceChild(old, e);
+            }
+        }
+
+        // the channelVolumeMap is always generated completely from the dynamicsMap, so we can simply replace it
+        Element channelVolumeMap = Helper.getFirstChildElement("channelVolumeMap", resultDated);
+        if (channelVolumeMap != null)
+            resultDated.removeChild(channelVolumeMap);
+        channelVolumeMap = Helper.getFirstChildElement("channelVolumeMap", dated);
+        if (channelVolumeMap != null) {
+            channelVolumeMap.detach();
+            resultDated.appendChild(channelVolumeMap);
+        }
+
+        state.maps = this.getEffectiveMaps(this.performance.getCorrespondingPart(part), PART_MAP_TYPES);
+        return true;
+    }
+
+    /**
+     * reset the edit tracking of all maps in the performance
+     */
+    private void clearEdits() {
+        for (GenericMap map : this.performance.getGlobal().getDated().getAllMaps().values())
+            map.clearEdits();
+        for (Part part : this.performance.getAllParts())
+            for (GenericMap map : part.getDated().getAllMaps().values())
+                map.clearEdits();
+    }
+
+    /**
+     * collect the maps of the specified types that apply to the specified part; these are its local maps or, if there is none of a type, the global map
+     * @param mpmPart the part or null (then only the global maps are collected)
+     * @param types
+     * @return a hashmap (type, map); types without map are not in the hashmap
+     */
+    private HashMap<String, GenericMap> getEffectiveMaps(Part mpmPart, String[] types) {
+        HashMap<String, GenericMap> maps = new HashMap<>();
+        for (String type : types) {
+            GenericMap map = (mpmPart == null) ? null : mpmPart.getDated().getMap(type);
+            if (map == null)
+                map = this.performance.getGlobal().getDated().getMap(type);
+            if (map != null)
+                maps.put(type, map);
+        }
+        return maps;
+    }
+
+    /**
+     * determine the earliest date from which on the maps have been edited
+     * @param previous the maps that were used in the previous rendering
+     * @param current the maps that apply now
+     * @return the date, Double.NEGATIVE_INFINITY if a map has been added, removed or replaced, Double.POSITIVE_INFINITY if there are no edits
+     */
+    private static double getEditedFrom(HashMap<String, GenericMap> previous, HashMap<String, GenericMap> current) {
+        if (!previous.keySet().equals(current.keySet()))
+            return Double.NEGATIVE_INFINITY;
+
+        double editedFrom = Double.POSITIVE_INFINITY;
+        for (String type : current.keySet()) {
+            GenericMap map = current.get(type);
+            if (map != previous.get(type))
+                return Double.NEGATIVE_INFINITY;
+            editedFrom = Math.min(editedFrom, map.getEditedFrom());
+        }
+        return editedFrom;
+    }
+
+    /**
+     * a null-safe check whether the map is empty
+     * @param map
+     * @return
+     */
+    private static boolean isEmpty(GenericMap map) {
+        return (map == null) || map.isEmpty();
+    }
+
+    /**
+     * check whether the element's scope (its symbolic and performed date and end date) reaches at or after the specified date
+     * @param source the element as it is in the source
+     * @param result the element as it is in the previous rendering result
+     * @param date
+     * @return
+     */
+    private static boolean reachesInto(Element source, Element result, double date) {
+        double d = Double.parseDouble(source.getAttributeValue("date"));
+        if (d >= date)
+            return true;
+
+        Attribute duration = Helper.getAttribute("duration", source);
+        if ((duration != null) && ((d + Double.parseDouble(duration.getValue())) > date))
+            return true;
+
+        for (String name : new String[]{"date.end", "date.perf", "date.end.perf"}) {
+            Attribute att = Helper.getAttribute(name, result);
+            if ((att != null) && (Double.parseDouble(att.getValue()) >= date))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * the rendering state of an MSM part
+     */
+    private static class PartState {
+        private final Element sourcePart;                               // the part in the source MSM
+        private Element resultPart;                                     // the part in the result MSM
+        private HashMap<String, GenericMap> maps = new HashMap<>();     // the MPM maps that were used to render the part
+
+        /**
+         * constructor
+         * @param sourcePart
+         * @param resultPart
+         */
+        private PartState(Element sourcePart, Element resultPart) {
+            this.sourcePart = sourcePart;
+            this.resultPart = resultPart;
+        }
+    }
+}
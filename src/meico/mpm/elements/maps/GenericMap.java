@@ -24,6 +24,7 @@ public class GenericMap extends AbstractXmlSubtree {
     private Header globalHeader = null;                                             // the link to the global header environment for later reference (styleDefs)
     private Header localHeader = null;                                              // the link to this part's header environment for later reference (styleDefs); leave this null if it is a global map
     protected Attribute id = null;                                                  // the id attribute
+    private double editedFrom = Double.POSITIVE_INFINITY;                           // the earliest date from which on the map's contents have been edited since the last invocation of clearEdits(), used for incremental performance rendering
 
     /**
      * constructor
@@ -130,6 +131,13 @@ public class GenericMap extends AbstractXmlSubtree {
      */
     private void sortXml() {
         Element xml = this.getXml();
+
+        int sorted = 0;                                     // check if the xml is sorted already, e.g. a map that has been parsed before; then moving the elements would only cost a linear search for each of them
+        while ((sorted < this.elements.size()) && (sorted < xml.getChildCount()) && (xml.getChild(sorted) == this.elements.get(sorted).getValue()))
+            ++sorted;
+        if (sorted == this.elements.size())
+            return;
+
         for (int i = 0; i < this.elements.size(); ++i) {    // for each element
             Element e = this.elements.get(i).getValue();
             xml.removeChild(e);                             // remove the element wherever it is
@@ -142,10 +150,13 @@ public class GenericMap extends AbstractXmlSubtree {
      * If an element's date is changed, this method can be invoked to make sure that the map is still sorted correctly.
      */
     public void sort() {
+        double editedFrom = Double.POSITIVE_INFINITY;
         for (KeyValue<Double, Element> e : this.elements) {
             double date = Double.parseDouble(Helper.getAttributeValue("date", e.getValue()));
-            if (e.getKey() != date)
+            if (e.getKey() != date) {
+                editedFrom = Math.min(editedFrom, Math.min(e.getKey(), date));  // keep track of the edit for incremental performance rendering
                 e.setKey(date);
+            }
         }
 
         for (int i = 1; i < this.size(); ++i) {
@@ -159,6 +170,9 @@ public class GenericMap extends AbstractXmlSubtree {
                 Collections.swap(this.elements, i, moveToIndex);    // side note i must be >0
         }
 
+        if (editedFrom != Double.POSITIVE_INFINITY)
+            this.markEdited(editedFrom);
+
         this.sortXml();
     }
 
@@ -538,6 +552,8 @@ public class GenericMap extends AbstractXmlSubtree {
      * @return the index at which it has been inserted
      */
     protected int insertElement(KeyValue<Double, Element> element, boolean firstAtDate) {
+        this.markEdited(element.getKey());                                  // keep track of the edit for incremental performance rendering
+
         if (firstAtDate) {
             for (int i = 0; i < this.elements.size(); ++i) {                // go through all elements in the map so far
                 if (this.elements.get(i).getKey() >= element.getKey()) {    // found the one that will be directly after the new element
@@ -597,6 +613,7 @@ public class GenericMap extends AbstractXmlSubtree {
             return;
 
         Element e = this.elements.get(index).getValue();
+        this.markEdited(this.elements.get(index).getKey());                 // keep track of the edit for incremental performance rendering
         this.getXml().removeChild(e);
 //        e.detach();
         this.elements.remove(index);
@@ -609,6 +626,7 @@ public class GenericMap extends AbstractXmlSubtree {
     public void removeElement(Element xml) {
         for (KeyValue<Double, Element> e : this.elements) {
             if (e.getValue() == xml) {
+                this.markEdited(e.getKey());                                // keep track of the edit for incremental performance rendering
                 this.getXml().removeChild(xml);
 //                xml.detach();
                 this.elements.remove(e);
@@ -749,6 +767,7 @@ public class GenericMap extends AbstractXmlSubtree {
 
         parent.removeChild(oldXmlData);                             // remove the old map from the xml tree
 //        oldXmlData.detach();
+        this.editedFrom = Double.NEGATIVE_INFINITY;                 // the whole map has changed
         return true;
     }
 
@@ -778,5 +797,51 @@ public class GenericMap extends AbstractXmlSubtree {
             element.setKey(element.getKey() + offset);
             element.getValue().addAttribute(new Attribute("date", Double.toString(element.getKey())));
         }
+        this.editedFrom = Double.NEGATIVE_INFINITY;                 // the whole map has changed
+    }
+
+    /**
+     * Notify the map that its content at the specified date has been edited. The map entries' methods for adding and
+     * removing elements do this automatically. If an application edits the attributes of a map element directly
+     * (e.g., the bpm value of a tempo instruction), it should invoke this method with the element's date, so that
+     * an incremental performance rendering (see class RenderingSession) knows that it has to update the affected data.
+     * Keep in mind that the edit affects also the map entry before the date, as its scope ends at the edited date.
+     * @param date the date of the edit
+     */
+    public void markEdited(double date) {
+        int index = this.getElementIndexBefore(date);                                                   // the preceding map entry's scope ends at the edited date, so it is affected by the edit as well
+        double from = (index < 0) ? Double.NEGATIVE_INFINITY : this.elements.get(index).getKey();
+        if (from < this.editedFrom)
+            this.editedFrom = from;
+    }
+
+    /**
+     * Notify the map that its content has been edited completely.
+     */
+    public void markEdited() {
+        this.editedFrom = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Has the map been edited since the last invocation of clearEdits()?
+     * @return
+     */
+    public boolean isEdited() {
+        return this.editedFrom != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * get the earliest date from which on the map's contents have been edited since the last invocation of clearEdits()
+     * @return the date, Double.NEGATIVE_INFINITY if the whole map is affected, or Double.POSITIVE_INFINITY if there were no edits
+     */
+    public double getEditedFrom() {
+        return this.editedFrom;
+    }
+
+    /**
+     * Reset the edit tracking. This is invoked by the incremental performance rendering after it has updated its data.
+     */
+    public void clearEdits() {
+        this.editedFrom = Double.POSITIVE_INFINITY;
     }
 }
@@ -327,11 +327,11 @@ public class RubatoMap extends GenericMap {
 
     /**
      * compute the date to which the input date is shifted by the specified rubato
-     * @param date
+     * @param date a date within the scope of the rubato
      * @param rubatoData
      * @return
      */
-    private static double computeRubatoTransformation(double date, RubatoData rubatoData) {
+    public static double computeRubatoTransformation(double date, RubatoData rubatoData) {
         double localDate = (date - rubatoData.startDate) % rubatoData.frameLength;      // compute the position of the map element within the rubato frame
         double d = (Math.pow(localDate / rubatoData.frameLength, rubatoData.intensity) * (rubatoData.earlyEnd - rubatoData.lateStart) + rubatoData.lateStart) * rubatoData.frameLength;
 //        System.out.println("Rubato: date=" + date + ", startDate=" + rubatoData.startDate + ", frameLength=" + rubatoData.frameLength + ", localDate=" + localDate + ", d=" + d);
@@ -5,13 +5,13 @@ import meico.mpm.Mpm;
 import meico.mpm.elements.styles.defs.AbstractDef;
 import meico.mpm.elements.styles.defs.ArticulationDef;
 import meico.mpm.elements.styles.defs.TempoDef;
+import meico.supplementary.IdGenerator;
 import meico.xml.AbstractXmlSubtree;
 import nu.xom.Attribute;
 import nu.xom.Element;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 
 /**
  * This class interfaces MPM styleDef elements.
@@ -280,7 +280,7 @@ public class GenericStyle<E extends AbstractDef> extends AbstractXmlSubtree {
             if (newDef == null)
                 continue;
 
-            String newName = name + "_ duplicate_name_changed_by_meico_" + UUID.randomUUID().toString();
+            String newName = name + "_ duplicate_name_changed_by_meico_" + IdGenerator.generateId();
             newDef.getXml().getAttribute("name").setValue(newName);
             this.addDef(newDef);
         }
@@ -8,7 +8,7 @@ import java.security.InvalidParameterException;
 
 /**
  * This is a helper class for processing MSM sequencingMaps.
- * It is used to represent goto elements from msm sequencingMaps, used in methods Msm.applySequencingMapToMap() and Mei.processEnding().
+ * It is used to represent goto elements from msm sequencingMaps, used in class SequencingPlan and method Mei.processEnding().
  * @author Axel Berndt.
  */
 
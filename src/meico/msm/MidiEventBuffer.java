@@ -0,0 +1,439 @@
+package meico.msm;
+
+import meico.mei.Helper;
+import meico.midi.EventMaker;
+import meico.midi.Midi;
+import nu.xom.Element;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class holds the MIDI relevant content of an MSM in typed arrays, one list per event type and part.
+ * It is filled in one pass over the MSM and does not keep any reference to the XML data. The sequencingMaps
+ * (repetitions, endings) can be resolved on these lists and the MIDI sequence is written directly from them.
+ * The result is the same as that of Msm.exportMidi() (after Msm.resolveSequencingMaps(), if sequencing is resolved).
+ * It is used by Mei.exportMidi() for jobs that want only MIDI from MEI.
+ * @author Axel Berndt
+ */
+public class MidiEventBuffer {
+    private int ppq = 720;                                                  // the time resolution
+    private File file = null;                                               // the file of the MIDI, null if none
+    private Events markers = new Events();                                  // the global markers
+    private Events timeSignatures = new Events();                           // the global time signatures, the texts hold the raw denominator strings
+    private Events keySignatures = new Events();                            // the global key signatures
+    private SequencingPlan sequencingPlan = null;                           // the global sequencingMap, null if it has no gotos
+    private final ArrayList<PartEvents> parts = new ArrayList<>();          // the parts with midi.channel
+
+    /**
+     * constructor, use createMidiEventBuffer() to get an instance
+     */
+    private MidiEventBuffer() {
+    }
+
+    /**
+     * read the MIDI relevant content of the msm into typed event lists
+     * @param msm
+     * @return the event buffer or null if the msm is empty or cannot be read
+     */
+    public static MidiEventBuffer createMidiEventBuffer(Msm msm) {
+        if ((msm == null) || msm.isEmpty())
+            return null;
+
+        MidiEventBuffer buffer = new MidiEventBuffer();
+        try {
+            buffer.ppq = msm.getPPQ();
+            if (msm.getFile() != null)
+                buffer.file = new File(Helper.getFilenameWithoutExtension(msm.getFile().getPath()) + ".mid");
+
+            Element global = msm.getRootElement().getFirstChildElement("global");
+            Element dated = (global == null) ? null : global.getFirstChildElement("dated");
+            if (dated != null) {
+                MidiEventBuffer.readMarkerMap(dated, buffer.markers);
+                MidiEventBuffer.readTimeSignatureMap(dated, buffer.timeSignatures);
+                MidiEventBuffer.readKeySignatureMap(dated, buffer.keySignatures);
+                buffer.sequencingPlan = SequencingPlan.createSequencingPlan(dated.getFirstChildElement("sequencingMap"));
+            }
+
+            for (Element part = msm.getRootElement().getFirstChildElement("part"); part != null; part = Helper.getNextSiblingElement("part", part)) {
+                if (part.getAttribute("midi.channel") == null)                  // no channel information, this part does not become a MIDI track
+                    continue;
+
+                PartEvents p = new PartEvents();
+                p.name = part.getAttributeValue("name");
+                p.channel = Short.parseShort(part.getAttributeValue("midi.channel"));
+                if (part.getAttribute("midi.port") != null)
+                    p.port = Short.parseShort(part.getAttributeValue("midi.port"));
+
+                dated = part.getFirstChildElement("dated");
+                if (dated != null) {
+                    MidiEventBuffer.readProgramChangeMap(dated, p.programChanges);
+                    MidiEventBuffer.readKeySignatureMap(dated, p.keySignatures);
+                    MidiEventBuffer.readTimeSignatureMap(dated, p.timeSignatures);
+                    MidiEventBuffer.readMarkerMap(dated, p.markers);
+                    MidiEventBuffer.readScore(dated, p.notes);
+
+                    Element sequencingMap = dated.getFirstChildElement("sequencingMap");
+                    if ((sequencingMap != null) && (sequencingMap.getChildCount() > 0)) {   // a local sequencingMap overrides the global one, empty maps are ignored as the msm cleanup would delete them
+                        p.hasLocalSequencingMap = true;
+                        p.sequencingPlan = SequencingPlan.createSequencingPlan(sequencingMap);
+                    }
+                }
+                buffer.parts.add(p);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * expand all event lists according to the global and local sequencingMaps, like Msm.resolveSequencingMaps() does with the maps
+     */
+    public void resolveSequencingMaps() {
+        if (this.sequencingPlan != null) {
+            this.markers = this.markers.sequence(this.sequencingPlan);
+            this.timeSignatures = this.timeSignatures.sequence(this.sequencingPlan);
+            this.keySignatures = this.keySignatures.sequence(this.sequencingPlan);
+        }
+
+        for (PartEvents p : this.parts) {
+            SequencingPlan plan = p.hasLocalSequencingMap ? p.sequencingPlan : this.sequencingPlan;
+            if (plan == null)
+                continue;
+            p.programChanges = p.programChanges.sequence(plan);
+            p.keySignatures = p.keySignatures.sequence(plan);
+            p.timeSignatures = p.timeSignatures.sequence(plan);
+            p.markers = p.markers.sequence(plan);
+            p.notes = p.notes.sequence(plan);
+            p.sequencingPlan = null;                                            // the sequencingMaps do not apply anymore
+            p.hasLocalSequencingMap = false;
+        }
+        this.sequencingPlan = null;
+    }
+
+    /**
+     * @return the time resolution in pulses per quarter note
+     */
+    public int getPPQ() {
+        return this.ppq;
+    }
+
+    /**
+     * convert the timing basis of all event lists and sequencingMaps, this is the same conversion as Msm.convertPPQ() does on the attributes
+     * @param ppq
+     */
+    public void convertPPQ(int ppq) {
+        int ppqOld = this.ppq;
+        if (ppqOld == ppq)
+            return;
+
+        this.ppq = ppq;
+        this.markers.convertPPQ(ppqOld, ppq);
+        this.timeSignatures.convertPPQ(ppqOld, ppq);
+        this.keySignatures.convertPPQ(ppqOld, ppq);
+        if (this.sequencingPlan != null)
+            this.sequencingPlan.convertPPQ(ppqOld, ppq);
+
+        for (PartEvents p : this.parts) {
+            p.programChanges.convertPPQ(ppqOld, ppq);
+            p.keySignatures.convertPPQ(ppqOld, ppq);
+            p.timeSignatures.convertPPQ(ppqOld, ppq);
+            p.markers.convertPPQ(ppqOld, ppq);
+            p.notes.convertPPQ(ppqOld, ppq);
+            if (p.sequencingPlan != null)
+                p.sequencingPlan.convertPPQ(ppqOld, ppq);
+        }
+    }
+
+    /**
+     * computes the minimal integer timing resolution necessary for a rhythmically accurate representation of the notes, the same as Msm.getMinimalPPQ()
+     * @return
+     */
+    public int getMinimalPPQ() {
+        long gcd = this.ppq;
+        for (PartEvents p : this.parts) {
+            for (int i = 0; (i < p.notes.size) && (gcd > 1); ++i) {
+                gcd = Helper.gcd(gcd, Math.round(p.notes.durations[i]));       // rounding is necessary for avoiding numeric problems with triplets
+                gcd = Helper.gcd(gcd, Math.round(p.notes.dates[i]));
+            }
+        }
+        return (int) (this.ppq / gcd);
+    }
+
+    /**
+     * write the events to a MIDI sequence, this creates the same events as Msm.exportMidi(bpm, generateProgramChanges)
+     * @param bpm the tempo of the midi track
+     * @param generateProgramChanges if true, program change events are generated
+     * @return the midi object or null if something went wrong
+     */
+    public Midi exportMidi(double bpm, boolean generateProgramChanges) {
+        Sequence seq;
+        try {
+            seq = new Sequence(Sequence.PPQ, this.ppq);                         // create the midi sequence
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        // the first track holds the global meta data (tempo, marker, time signature, key signature)
+        Track track = seq.createTrack();
+        double beatlength;
+        try {                                                                   // the denominator of the first global time signature is the beat length of the initial tempo, default is 1/4
+            beatlength = 1.0 / Integer.parseInt(this.timeSignatures.texts[0]);
+        } catch (NumberFormatException | NullPointerException | ArrayIndexOutOfBoundsException e) {
+            beatlength = 0.25;
+        }
+        track.add(EventMaker.createTempo(0, bpm, beatlength));
+        MidiEventBuffer.writeMarkers(this.markers, track);
+        MidiEventBuffer.writeTimeSignatures(this.timeSignatures, track);
+        MidiEventBuffer.writeKeySignatures(this.keySignatures, track);
+
+        // each part becomes a midi track
+        for (PartEvents p : this.parts) {
+            track = seq.createTrack();
+            track.add(EventMaker.createMidiPortEvent(0, p.port));
+            track.add(EventMaker.createChannelPrefix(0, p.channel));            // all subsequent meta messages go to this channel
+
+            boolean reallyGenerateProgramChanges = generateProgramChanges;
+            if (reallyGenerateProgramChanges) {
+                boolean weHaveAnInitialPrgCh = false;
+                for (int i = 0; i < p.programChanges.size; ++i) {
+                    long date = Math.round(p.programChanges.dates[i]);
+                    if (date == 0)
+                        weHaveAnInitialPrgCh = true;
+                    track.add(EventMaker.createProgramChange(p.channel, date, (short) p.programChanges.values[i]));
+                }
+                reallyGenerateProgramChanges = !weHaveAnInitialPrgCh;
+            }
+
+            if ((p.name == null) || p.name.isEmpty()) {                         // if there is no name
+                if (reallyGenerateProgramChanges)
+                    track.add(EventMaker.createProgramChange(p.channel, 0, EventMaker.PC_Acoustic_Grand_Piano));
+            } else {
+                if (reallyGenerateProgramChanges)
+                    track.add(EventMaker.createProgramChange(p.channel, 0, p.name));
+                track.add(EventMaker.createTrackName(0, p.name));
+            }
+
+            MidiEventBuffer.writeKeySignatures(p.keySignatures, track);
+            MidiEventBuffer.writeTimeSignatures(p.timeSignatures, track);
+            MidiEventBuffer.writeMarkers(p.markers, track);
+
+            for (int i = 0; i < p.notes.size; ++i) {
+                long date = Math.round(p.notes.dates[i]);
+                track.add(EventMaker.createNoteOn(p.channel, date, p.notes.values[i], 100));
+                track.add(EventMaker.createNoteOff(p.channel, date + Math.round(p.notes.durations[i]), p.notes.values[i], 0));
+            }
+        }
+
+        if (this.file != null)
+            return new Midi(seq, this.file);
+        return new Midi(seq);
+    }
+
+    /**
+     * read the markers of a markerMap
+     * @param dated the dated environment that contains the map
+     * @param events
+     */
+    private static void readMarkerMap(Element dated, Events events) {
+        Element map = dated.getFirstChildElement("markerMap");
+        if (map == null)
+            return;
+        for (Element e = map.getFirstChildElement("marker"); e != null; e = Helper.getNextSiblingElement("marker", e))
+            events.add(Double.parseDouble(e.getAttributeValue("date")), 0.0, 0, 0, e.getAttributeValue("message"));
+    }
+
+    /**
+     * read the time signatures of a timeSignatureMap
+     * @param dated the dated environment that contains the map
+     * @param events
+     */
+    private static void readTimeSignatureMap(Element dated, Events events) {
+        Element map = dated.getFirstChildElement("timeSignatureMap");
+        if (map == null)
+            return;
+        for (Element e = map.getFirstChildElement("timeSignature"); e != null; e = Helper.getNextSiblingElement("timeSignature", e)) {
+            int numerator = (e.getAttribute("numerator") == null) ? 4 : (int) Math.round(Double.parseDouble(e.getAttributeValue("numerator")));
+            int denominator = (e.getAttribute("denominator") == null) ? 4 : (int) Math.round(Double.parseDouble(e.getAttributeValue("denominator")));
+            events.add(Double.parseDouble(e.getAttributeValue("date")), 0.0, numerator, denominator, e.getAttributeValue("denominator"));
+        }
+    }
+
+    /**
+     * read the key signatures of a keySignatureMap, the value is the number of accidentals (-=flats +=sharps) as in the MIDI key signature event
+     * @param dated the dated environment that contains the map
+     * @param events
+     */
+    private static void readKeySignatureMap(Element dated, Events events) {
+        Element map = dated.getFirstChildElement("keySignatureMap");
+        if (map == null)
+            return;
+        for (Element e = map.getFirstChildElement("keySignature"); e != null; e = Helper.getNextSiblingElement("keySignature", e)) {
+            int accids = 0;
+            for (Element a = e.getFirstChildElement("accidental"); a != null; a = Helper.getNextSiblingElement("accidental", a)) {  // count the accidentals the same way as Msm.parseKeySignatureMap() does
+                if (a.getAttribute("value") != null) {
+                    double value = Double.parseDouble(a.getAttributeValue("value"));
+                    if (value > 1.0)
+                        accids++;
+                    else if (value < 1.0)
+                        accids--;
+                }
+            }
+            events.add(Double.parseDouble(e.getAttributeValue("date")), 0.0, accids, 0, null);
+        }
+    }
+
+    /**
+     * read the program changes of a programChangeMap
+     * @param dated the dated environment that contains the map
+     * @param events
+     */
+    private static void readProgramChangeMap(Element dated, Events events) {
+        Element map = dated.getFirstChildElement("programChangeMap");
+        if (map == null)
+            return;
+        for (Element e = map.getFirstChildElement("programChange"); e != null; e = Helper.getNextSiblingElement("programChange", e))
+            events.add(Double.parseDouble(Helper.getAttributeValue("date", e)), 0.0, Short.parseShort(e.getAttributeValue("value")), 0, null);
+    }
+
+    /**
+     * read the notes of the score
+     * @param dated the dated environment that contains the score
+     * @param events
+     */
+    private static void readScore(Element dated, Events events) {
+        Element score = dated.getFirstChildElement("score");
+        if (score == null)
+            return;
+        for (Element n = score.getFirstChildElement("note"); n != null; n = Helper.getNextSiblingElement("note", n)) {
+            int pitch = Math.round(Float.parseFloat(Helper.getAttributeValue("midi.pitch", n)));
+            events.add(Double.parseDouble(Helper.getAttributeValue("date", n)), Double.parseDouble(Helper.getAttributeValue("duration", n)), pitch, 0, null);
+        }
+    }
+
+    /**
+     * @param events
+     * @param track
+     */
+    private static void writeMarkers(Events events, Track track) {
+        for (int i = 0; i < events.size; ++i)
+            track.add(EventMaker.createMarker(Math.round(events.dates[i]), events.texts[i]));
+    }
+
+    /**
+     * @param events
+     * @param track
+     */
+    private static void writeTimeSignatures(Events events, Track track) {
+        for (int i = 0; i < events.size; ++i)
+            track.add(EventMaker.createTimeSignature(Math.round(events.dates[i]), events.values[i], events.values2[i]));
+    }
+
+    /**
+     * @param events
+     * @param track
+     */
+    private static void writeKeySignatures(Events events, Track track) {
+        for (int i = 0; i < events.size; ++i)
+            track.add(EventMaker.createKeySignature(Math.round(events.dates[i]), events.values[i]));
+    }
+
+    /**
+     * the events of one MSM part
+     */
+    private static class PartEvents {
+        private String name = null;
+        private short channel = 0;
+        private short port = 0;
+        private Events programChanges = new Events();
+        private Events keySignatures = new Events();
+        private Events timeSignatures = new Events();
+        private Events markers = new Events();
+        private Events notes = new Events();                                    // the values hold the pitches
+        private boolean hasLocalSequencingMap = false;
+        private SequencingPlan sequencingPlan = null;                           // the local sequencingMap, null if it has no gotos
+    }
+
+    /**
+     * a list of events of one type in parallel arrays, in the order of the map they come from
+     */
+    private static class Events {
+        private double[] dates = new double[16];
+        private double[] durations = new double[16];
+        private int[] values = new int[16];
+        private int[] values2 = new int[16];
+        private String[] texts = new String[16];
+        private int size = 0;
+        private boolean sorted = true;                                          // true as long as the dates are in ascending order, then the segments of a sequencingPlan can be found by binary search
+
+        /**
+         * append an event
+         * @param date
+         * @param duration
+         * @param value
+         * @param value2
+         * @param text
+         */
+        private void add(double date, double duration, int value, int value2, String text) {
+            if (this.size == this.dates.length) {                               // grow the arrays
+                int length = this.size * 2;
+                this.dates = Arrays.copyOf(this.dates, length);
+                this.durations = Arrays.copyOf(this.durations, length);
+                this.values = Arrays.copyOf(this.values, length);
+                this.values2 = Arrays.copyOf(this.values2, length);
+                this.texts = Arrays.copyOf(this.texts, length);
+            }
+            if ((this.size > 0) && (date < this.dates[this.size - 1]))
+                this.sorted = false;
+            this.dates[this.size] = date;
+            this.durations[this.size] = duration;
+            this.values[this.size] = value;
+            this.values2[this.size] = value2;
+            this.texts[this.size] = text;
+            ++this.size;
+        }
+
+        /**
+         * convert the dates and durations to another timing basis
+         * @param ppqOld
+         * @param ppq
+         */
+        private void convertPPQ(int ppqOld, int ppq) {
+            for (int i = 0; i < this.size; ++i) {
+                this.dates[i] = (this.dates[i] * ppq) / ppqOld;
+                this.durations[i] = (this.durations[i] * ppq) / ppqOld;
+            }
+        }
+
+        /**
+         * apply a sequencingPlan, the same way as Msm.applySequencingMapToMap() does it with a map
+         * @param plan
+         * @return a new list with the expanded events
+         */
+        private Events sequence(SequencingPlan plan) {
+            Events result = new Events();
+            for (int s = 0; s < plan.size(); ++s) {
+                double start = plan.getStart(s);
+                double end = plan.getEnd(s);
+                double offset = plan.getOffset(s);
+
+                int i;
+                if (this.sorted)
+                    i = SequencingPlan.lowerBound(this.dates, this.size, start);
+                else                                                            // find the first event at or after start in list order
+                    for (i = 0; (i < this.size) && (this.dates[i] < start); ++i);
+
+                for (; (i < this.size) && (this.dates[i] < end); ++i)           // copy everything until the end of the segment
+                    result.add(this.dates[i] + offset, this.durations[i], this.values[i], this.values2[i], this.texts[i]);
+            }
+            return result;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import meico.pitches.Key;
 import meico.pitches.Pitches;
 import meico.mei.Helper;
 import meico.midi.*;
+import meico.supplementary.IdGenerator;
 import meico.supplementary.KeyValue;
 import nu.xom.*;
 import org.xml.sax.SAXException;
@@ -24,7 +25,10 @@ import java.util.*;
  */
 
 public class Msm extends AbstractMsm {
+    private static final String[] TIMING_ATTRIBUTES = {"date", "date.end", "duration", "target.date"};    // the attributes that convertPPQ() converts
     private static final int CONTROL_CHANGE_DENSITY = 10;       // in MPM-to-MIDI export a series of control change events may be generated (e.g. due to sub-note dynamics); this constant limits their density, i.e. how much of them are generated for a timeframe; the value says that at max one is generated every CONTROL_CHANGE_DENSITY milliseconds
+    private MsmPartIndex partIndex = null;                              // in lazy mode this indexes the parts in the file, null if all parts are loaded
+    private volatile HashMap<Element, Integer> unloadedParts = null;    // in lazy mode this maps the parts that are not loaded yet (empty elements with the part's attributes) to their index in partIndex
 
     /**
      * constructor
@@ -65,6 +69,43 @@ public class Msm extends AbstractMsm {
         super(file, validate, schema);
     }
 
+    /**
+     * constructor with optional lazy loading for huge files; in lazy mode a quick index pass records the byte range of each part,
+     * only the global environment and the parts' attributes are parsed right away, the content of a part is parsed when it is
+     * accessed for the first time; getPart(index), getPart(number, name, midiChannel, midiPort), getPartCount() and copyWithParts()
+     * load only what they need, all other access to the document loads all remaining parts;
+     * the file must not change as long as there are unloaded parts
+     * @param file
+     * @param lazy if the file cannot be loaded lazily (UTF-16 encoding, document type declaration), it is loaded completely
+     * @throws IOException
+     * @throws ParsingException
+     */
+    public Msm(File file, boolean lazy) throws IOException, ParsingException, SAXException, ParserConfigurationException {
+        super();
+
+        MsmPartIndex index = lazy ? MsmPartIndex.createMsmPartIndex(file) : null;
+        if (index == null) {                                                // no lazy loading
+            this.readFromFile(file, false, null);
+            return;
+        }
+
+        this.file = file;
+        this.data = index.parseSkeleton();
+        this.unloadedParts = new HashMap<>();
+        int i = 0;
+        for (Element e : this.data.getRootElement().getChildElements()) {  // the index has all root children with qualified name part in document order
+            if (!e.getQualifiedName().equals("part"))
+                continue;
+            if (index.hasContent(i))
+                this.unloadedParts.put(e, i);
+            ++i;
+        }
+        if (!this.unloadedParts.isEmpty())
+            this.partIndex = index;
+        else
+            this.unloadedParts = null;
+    }
+
     /**
      * constructor
      * @param xml xml code as UTF8 String
@@ -120,7 +161,7 @@ public class Msm extends AbstractMsm {
         Element root = new Element("msm");                                          // create the root element of the msm/xml tree
         root.addAttribute(new Attribute("title", title));                           // add a title attribute to it
 
-        Attribute idAttribute = new Attribute("id", (id == null) ? UUID.randomUUID().toString() : id);  // make new id attribute
+        Attribute idAttribute = new Attribute("id", (id == null) ? IdGenerator.generateId() : id);  // make new id attribute
         idAttribute.setNamespace("xml", "http://www.w3.org/XML/1998/namespace");    // set correct namespace
         root.addAttribute(idAttribute);                                             // and it to the MSM movement element
 
@@ -340,10 +381,90 @@ public class Msm extends AbstractMsm {
     public Msm clone() {
         Msm clone = new Msm(this.getDocument().copy());
         clone.isValid = this.isValid();
+        clone.idGenerator = this.idGenerator;
         clone.setFile(this.getFile());
         return clone;
     }
 
+    /**
+     * get the xml document; in lazy mode this loads all remaining parts
+     * @return the data
+     */
+    @Override
+    public Document getDocument() {
+        this.loadAllParts();
+        return super.getDocument();
+    }
+
+    /**
+     * a setter for the document, this ends the lazy mode
+     * @param document
+     */
+    @Override
+    public synchronized void setDocument(Document document) {
+        this.partIndex = null;
+        this.unloadedParts = null;
+        super.setDocument(document);
+    }
+
+    /**
+     * @return true if there are parts in lazy mode that have not been loaded yet
+     */
+    public boolean hasUnloadedParts() {
+        return this.unloadedParts != null;
+    }
+
+    /**
+     * in lazy mode, load all parts that have not been loaded yet
+     */
+    public void loadAllParts() {
+        if (this.unloadedParts == null)                                     // this is checked first without synchronization as it is done on every access to the document
+            return;
+        synchronized (this) {
+            if (this.unloadedParts == null)
+                return;
+            for (Element part : new ArrayList<>(this.unloadedParts.keySet()))
+                this.loadPart(part);
+        }
+    }
+
+    /**
+     * in lazy mode, load the part if it has not been loaded yet
+     * @param part a part element of this MSM
+     * @return the loaded part element that replaces the specified one in the document, or the specified one if it has been loaded already
+     */
+    private synchronized Element loadPart(Element part) {
+        if (this.unloadedParts == null)
+            return part;
+
+        Integer index = this.unloadedParts.remove(part);
+        if (index != null) {
+            try {
+                Element loaded = this.partIndex.parsePart(index);
+                part.getParent().replaceChild(part, loaded);
+                part = loaded;
+            } catch (IOException | ParsingException | NullPointerException e) {
+                e.printStackTrace();                                        // the part remains an empty element with the attributes
+            }
+        }
+
+        if (this.unloadedParts.isEmpty()) {                                 // all parts are loaded, end the lazy mode
+            this.unloadedParts = null;
+            this.partIndex = null;
+        }
+        return part;
+    }
+
+    /**
+     * the root element without loading the remaining parts in lazy mode; use this only where the content of the parts is not accessed
+     * @return
+     */
+    private Element getRootElementWithoutParts() {
+        if (this.isEmpty())
+            return null;
+        return this.data.getRootElement();
+    }
+
     /**
      * This getter method returns the title string from the root element's attribute title. If missing, use the filename without extension or return "".
      * @return
@@ -352,7 +473,7 @@ public class Msm extends AbstractMsm {
         Attribute title;
 
         try {                                               // try to read the title attribute
-            title = Helper.getAttribute("title", this.getRootElement());
+            title = Helper.getAttribute("title", this.getRootElementWithoutParts());
         } catch (NullPointerException ex) {                 // if that does not exist
             return (this.getFile() != null) ? Helper.getFilenameWithoutExtension(this.getFile().getName()) : "";    // return the filename without extension or (if that does not exist either) return empty string
         }
@@ -368,7 +489,7 @@ public class Msm extends AbstractMsm {
         Attribute ppq;
 
         try {
-            ppq = Helper.getAttribute("pulsesPerQuarter", this.getRootElement());
+            ppq = Helper.getAttribute("pulsesPerQuarter", this.getRootElementWithoutParts());
         }
         catch (NullPointerException ex) {
             return 0;
@@ -392,7 +513,7 @@ public class Msm extends AbstractMsm {
      * @param ppq
      */
     public void setPulsesPerQuarter(int ppq) {
-        this.getRootElement().getAttribute("pulsesPerQuarter").setValue(Integer.toString(ppq));
+        this.getRootElementWithoutParts().getAttribute("pulsesPerQuarter").setValue(Integer.toString(ppq));
     }
 
     /**
@@ -406,7 +527,7 @@ public class Msm extends AbstractMsm {
     }
 
     /**
-     * this method converts the timing basis, i.e., it sets the new ppq value and converts all attributes date, date.end and duration in the whole document
+     * this method converts the timing basis, i.e., it sets the new ppq value and converts all attributes date, date.end, duration and target.date in the whole document
      * @param ppq
      */
     public void convertPPQ(int ppq) {
@@ -418,12 +539,9 @@ public class Msm extends AbstractMsm {
 
         this.setPPQ(ppq);
 
-        // find all attributes date, date.end and duration, and convert their values
-        Nodes atts = this.getRootElement().query("descendant::*[attribute::date]/attribute::date | descendant::*[attribute::date.end]/attribute::date.end | descendant::*[attribute::duration]/attribute::duration | descendant::*[attribute::target.date]/attribute::target.date");
-        for (int i = 0; i < atts.size(); ++i) {
-            Attribute att = (Attribute) atts.get(i);
+        // find all attributes date, date.end, duration and target.date in one traversal, and convert their values
+        for (Attribute att : Helper.getAllDescendantAttributes(this.getRootElement(), Msm.TIMING_ATTRIBUTES))
             att.setValue(Double.toString(((Double.parseDouble(att.getValue()) * ppq) / ppqOld)));
-        }
     }
 
     /**
@@ -435,34 +553,55 @@ public class Msm extends AbstractMsm {
     }
 
     /**
-     * computes the minimal integer timing resolution necessary for a rhythmically reasonably accurate representation of the score data in this MSM
+     * computes the minimal integer timing resolution necessary for a rhythmically accurate representation of the score data in this MSM,
+     * i.e. ppq divided by the greatest common divisor of all (rounded) note dates and durations; this is exact also for tuplets.
+     * The result is a divisor of ppq but not necessarily a power of two, e.g. 3 or 6 for a piece in triplets.
+     * Up to meico 0.11.13 this was the smallest power-of-two subdivision of the quarter that fits all notes, which fell back to high values for tuplets.
      * @return
      */
     public int getMinimalPPQ() {
         int ppq = this.getPPQ();
-        int maxSubdivisions = 1;
+        long gcd = ppq;
 
         for (Element part : this.getParts()) {                                                                                  // go through all parts
             for (Element note : part.getFirstChildElement("dated").getFirstChildElement("score").getChildElements("note")) {    // go through all notes
-                int dur = (int) Math.round(Double.parseDouble(note.getAttributeValue("duration")));                             // get the note's duration (rounding is necessary for avoiding numeric problems with tripltes)
-                for (int subdivs = maxSubdivisions; subdivs <= ppq; subdivs *= 2) {
-                    if ((dur % (ppq / subdivs)) == 0) {
-                        maxSubdivisions = Math.max(maxSubdivisions, subdivs);
-                        break;
-                    }
-                }
-
-                int date = (int) Math.round(Double.parseDouble(note.getAttributeValue("date")));                                // get the note's date (rounding is necessary for avoiding numeric problems with tripltes)
-                for (int subdivs = maxSubdivisions; subdivs <= ppq; subdivs *= 2) {
-                    if ((date % (ppq / subdivs)) == 0) {
-                        maxSubdivisions = Math.max(maxSubdivisions, subdivs);
-                        break;
-                    }
-                }
+                if (gcd == 1)                                                                                                   // it cannot get any smaller
+                    return ppq;
+                gcd = Helper.gcd(gcd, Math.round(Double.parseDouble(note.getAttributeValue("duration"))));                      // rounding is necessary for avoiding numeric problems with triplets
+                gcd = Helper.gcd(gcd, Math.round(Double.parseDouble(note.getAttributeValue("date"))));
             }
         }
 
-        return maxSubdivisions;
+        return (int) (ppq / gcd);
+    }
+
+    /**
+     * this converts the timing basis to the minimal integer resolution that represents all timing attributes (date, date.end, duration and target.date) in the whole document;
+     * unlike getMinimalPPQ() followed by convertPPQ(), the document is traversed and the attribute values are parsed only once
+     * @return the new ppq
+     */
+    public int convertToMinimalPPQ() {
+        int ppqOld = this.getPPQ();
+        ArrayList<Attribute> atts = Helper.getAllDescendantAttributes(this.getRootElement(), Msm.TIMING_ATTRIBUTES);
+        double[] values = new double[atts.size()];
+
+        long gcd = ppqOld;
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = Double.parseDouble(atts.get(i).getValue());
+            gcd = Helper.gcd(gcd, Math.round(values[i]));                                       // rounding is necessary for avoiding numeric problems with triplets
+        }
+
+        int ppq = (int) (ppqOld / gcd);
+        if (ppq == ppqOld)
+            return ppq;
+
+        System.out.println("Converting timing basis of \"" + this.getTitle() + "\" from " + ppqOld + " to " + ppq + " pulses per quarter note.");
+
+        this.setPPQ(ppq);
+        for (int i = 0; i < values.length; ++i)
+            atts.get(i).setValue(Double.toString((values[i] * ppq) / ppqOld));
+
+        return ppq;
     }
 
     /**
@@ -525,20 +664,22 @@ public class Msm extends AbstractMsm {
      * @return
      */
     public Element getPart(int number, String name, int midiChannel, int midiPort) {
-        Elements parts = this.getParts();
+        if (this.isEmpty())
+            return null;
+        Elements parts = this.getRootElementWithoutParts().getChildElements("part"); // in lazy mode, the parts that are not loaded yet carry their attributes, so only the part found has to be loaded
 
         // try to find the part by its number
         for (Element part : parts) {
             Attribute numberAtt = Helper.getAttribute("number", part);
             if ((numberAtt != null) && (Integer.parseInt(numberAtt.getValue()) == number))
-                return part;
+                return this.loadPart(part);
         }
 
         // try to find the part by its name
         for (Element part : parts) {
             Attribute nameAtt = Helper.getAttribute("name", part);
             if ((nameAtt != null) && (nameAtt.getValue().equals(name)))
-                return part;
+                return this.loadPart(part);
         }
 
         // try to find the part by its MIDI port and channel
@@ -547,7 +688,7 @@ public class Msm extends AbstractMsm {
             if ((portAtt != null) && (Integer.parseInt(portAtt.getValue()) == midiPort)) {
                 Attribute channelAtt = Helper.getAttribute("midi.channel", part);
                 if ((channelAtt != null) && (Integer.parseInt(channelAtt.getValue()) == midiChannel))
-                    return part;
+                    return this.loadPart(part);
             }
         }
 
@@ -555,7 +696,7 @@ public class Msm extends AbstractMsm {
     }
 
     /**
-     * a getter that returns all part elements in the XML tree
+     * a getter that returns all part elements in the XML tree; in lazy mode this loads all remaining parts
      * @return
      */
     public Elements getParts() {
@@ -563,11 +704,77 @@ public class Msm extends AbstractMsm {
     }
 
     /**
-     * a getter for the global environment
+     * retrieve the part element at the specified index; in lazy mode only this part is loaded
+     * @param index
+     * @return the part or null if there is no part at this index
+     */
+    public Element getPart(int index) {
+        if (this.isEmpty() || (index < 0))
+            return null;
+        Elements parts = this.getRootElementWithoutParts().getChildElements("part");
+        if (index >= parts.size())
+            return null;
+        return this.loadPart(parts.get(index));
+    }
+
+    /**
+     * @return the number of parts; this does not load any parts in lazy mode
+     */
+    public int getPartCount() {
+        if (this.isEmpty())
+            return 0;
+        return this.getRootElementWithoutParts().getChildElements("part").size();
+    }
+
+    /**
+     * create a copy of this MSM with the global environment and only the parts at the specified indices; in lazy mode only these parts are loaded;
+     * this is useful for partial workflows such as rendering a performance of only one part or exporting one instrument's MIDI
+     * @param partIndices
+     * @return the copy or null if this MSM is empty
+     */
+    public Msm copyWithParts(int... partIndices) {
+        if (this.isEmpty())
+            return null;
+
+        HashSet<Integer> indices = new HashSet<>();
+        for (int i : partIndices)
+            indices.add(i);
+
+        Element root = this.getRootElementWithoutParts();
+        Element rootCopy = new Element(root.getQualifiedName(), root.getNamespaceURI());
+        for (int i = 0; i < root.getNamespaceDeclarationCount(); ++i) {
+            String prefix = root.getNamespacePrefix(i);
+            if (!prefix.equals(root.getNamespacePrefix()))
+                rootCopy.addNamespaceDeclaration(prefix, root.getNamespaceURI(prefix));
+        }
+        for (int i = 0; i < root.getAttributeCount(); ++i)
+            rootCopy.addAttribute(root.getAttribute(i).copy());
+
+        int partIndex = 0;
+        for (int i = 0; i < root.getChildCount(); ++i) {
+            Node child = root.getChild(i);
+            if ((child instanceof Element) && ((Element) child).getLocalName().equals("part")) {
+                if (indices.contains(partIndex))
+                    rootCopy.appendChild(this.loadPart((Element) child).copy());
+                ++partIndex;
+                continue;
+            }
+            rootCopy.appendChild(child.copy());
+        }
+
+        Msm copy = new Msm(new Document(rootCopy));
+        copy.isValid = this.isValid();
+        copy.setFile(this.getFile());
+        return copy;
+    }
+
+    /**
+     * a getter for the global environment; in lazy mode this does not load any parts
      * @return
      */
     public Element getGlobal() {
-        return this.getRootElement().getFirstChildElement("global");
+        Element root = this.getRootElementWithoutParts();
+        return (root == null) ? null : root.getFirstChildElement("global");
     }
 
     /**
@@ -619,8 +826,10 @@ public class Msm extends AbstractMsm {
         Elements parts = this.getRootElement().getChildElements("part");                                // get all the parts
         Element part, sequencingMap;                                                                    // these elements are used in the for loop that comes next
 
+        SequencingPlan globalPlan = SequencingPlan.createSequencingPlan(globalSequencingMap);           // play through the gotos of the global sequencingMap only once for all maps
+
         // expand global maps
-        if (globalSequencingMap != null) {
+        if (globalPlan != null) {
             Elements maps = this.getRootElement().getFirstChildElement("global").getFirstChildElement("dated").getChildElements();
             for (int j = 0; j < maps.size(); ++j) {                                                     // go through all maps
                 Element map = maps.get(j);                                                              // one map
@@ -629,7 +838,7 @@ public class Msm extends AbstractMsm {
                         || map.getLocalName().equals("sequencingMap"))                                  // or if the map is empty
                     continue;                                                                           // continue with the next
 
-                Element newMap = Msm.applySequencingMapToMap(globalSequencingMap, map, repetitionIDs);  // apply the global sequencingMap to it
+                Element newMap = Msm.applySequencingMapToMap(globalPlan, map, repetitionIDs);           // apply the global sequencingMap to it
                 if (newMap != null)
                     this.getRootElement().getFirstChildElement("global").getFirstChildElement("dated").replaceChild(map, newMap);   // replace the old map by the new one
             }
@@ -640,12 +849,16 @@ public class Msm extends AbstractMsm {
             part = parts.get(i);                                                                        // get it as element
             sequencingMap = part.getFirstChildElement("dated").getFirstChildElement("sequencingMap");   // get the part's local sequencingMap if there is one
             boolean localMap = true;
+            SequencingPlan plan;
             if (sequencingMap == null) {                                                                // if there is none
                 localMap = false;
                 sequencingMap = globalSequencingMap;                                                    // gegt the global sequencingMap
                 if ((sequencingMap == null) || (sequencingMap.getChildCount() == 0))                    // if there is none or it is empty
                     continue;                                                                           // continue with the next part
+                plan = globalPlan;
             }
+            else
+                plan = SequencingPlan.createSequencingPlan(sequencingMap);
 
             // go through the score and all maps (except the sequencingMap itself) and apply the sequencingMap to them
 //            Nodes maps = part.query("descendant::*[local-name()='score' or (contains(local-name(), 'Map') and not((local-name()='sequencingMap') or (local-name()='miscMap')))]");    // get the score and all maps
@@ -657,7 +870,7 @@ public class Msm extends AbstractMsm {
                         || map.getLocalName().equals("sequencingMap"))                                  // or if the map is empty
                     continue;                                                                           // continue with the next
 
-                Element newMap = Msm.applySequencingMapToMap(sequencingMap, map, repetitionIDs);        // apply the sequencingMap to it
+                Element newMap = Msm.applySequencingMapToMap(plan, map, repetitionIDs);                 // apply the sequencingMap to it
                 if (newMap != null) map.getParent().replaceChild(map, newMap);                          // replace the old map by the new one
             }
 
@@ -685,110 +898,80 @@ public class Msm extends AbstractMsm {
      * @return the expanded map (to replace the old map) or null (to keep the old map)
      */
     public static Element applySequencingMapToMap(Element sequencingMap, Element map, HashMap<String, String> repetitionIDs) {
-        Elements gs = sequencingMap.getChildElements("goto");               // get the gotos
-        if (gs.size() == 0) return null;                                    // if there are no gotos in the sequencingMap, i.e. nothing to expand, return null
+        return Msm.applySequencingMapToMap(SequencingPlan.createSequencingPlan(sequencingMap), map, repetitionIDs);
+    }
 
-        // make an ArrayList of Goto instances
-        ArrayList<Goto> gotos = new ArrayList<>();                          // this is the list
-        for (int i=0; i < gs.size(); ++i) {                                 // fill the goto list, got through all gotos
-            try {
-                gotos.add(new Goto(gs.get(i)));                             // from the goto element create a Goto instance
-            } catch (Exception e) {                                         // if this fails
-                e.printStackTrace();                                        // print the exception and continue with the next
-            }
+    /**
+     * apply the plan of a sequencingMap to the map; this expands the map;
+     * the elements' dates are parsed only once and the start of each segment is found by binary search
+     * @param plan the plan of the sequencingMap, see SequencingPlan.createSequencingPlan()
+     * @param map
+     * @param repetitionIDs this hashmap will be filled with mappings of xml:id's that are extended to avoid double occurrences
+     * @return the expanded map (to replace the old map) or null (to keep the old map)
+     */
+    public static Element applySequencingMapToMap(SequencingPlan plan, Element map, HashMap<String, String> repetitionIDs) {
+        if (plan == null) return null;                                      // if there are no gotos in the sequencingMap, i.e. nothing to expand, return null
+
+        // read the map elements and their dates into arrays
+        Elements es = map.getChildElements();
+        int size = 0;
+        Element[] elements = new Element[es.size()];
+        double[] dates = new double[es.size()];
+        boolean sorted = true;                                              // binary search is only possible if the dates are in ascending order
+        for (int i = 0; i < es.size(); ++i) {
+            Element e = es.get(i);
+            Attribute date = e.getAttribute("date");
+            if (date == null)                                               // elements without a date cannot be placed in the expanded map
+                continue;
+            elements[size] = e;
+            dates[size] = Double.parseDouble(date.getValue());
+            if ((size > 0) && (dates[size] < dates[size - 1]))
+                sorted = false;
+            ++size;
         }
 
-        // create a new map and fill it by traversing the original map as indicated by the goto elements
+        int[] repetitions = new int[size];                                  // counts how often each element has been copied so far
+        String[] lastIds = new String[size];                                // the xml:id of the latest copy of each element, the key of its next entry in repetitionIDs
+
+        // create a new map and fill it by traversing the original map as indicated by the plan
         Element newMap = Helper.cloneElement(map);                          // make a flat copy of the map (no children so far) to refill it according to the sequencingMap
+        for (int s = 0; s < plan.size(); ++s) {
+            double start = plan.getStart(s);
+            double end = plan.getEnd(s);
+            double dateOffset = plan.getOffset(s);
+
+            int i;
+            if (sorted)
+                i = SequencingPlan.lowerBound(dates, size, start);          // the first element at or after the start of the segment
+            else
+                for (i = 0; (i < size) && (dates[i] < start); ++i);
 
-        double currentDate = 0.0;                                           // start at date 0.0
-        double dateOffset = 0.0;                                            // this sums up the offsets that come form from inserting repetitions
-        for (int i=0; i < gotos.size(); ++i) {                              // find the next goto
-            Goto gt = gotos.get(i);                                         // get the next goto
-            if ((gt.date < currentDate) || !gt.isActive()) continue;        // if the goto is before currentDate or it is not active continue with the next
-
-            // copy everything between currentDate and gt.date from the original map into newMap
-            for (Element e = Msm.getElementAtAfter(currentDate, map); e != null; e = Helper.getNextSiblingElement(e)) { // go through the map elements, starting the first element at or after the goto's target.date, and then go on with the next sibling
-                currentDate = Double.parseDouble(e.getAttributeValue("date"));                                          // read its date
-                if (currentDate >= gt.date) break;                                                                      // if the element's date is at or after the goto (keep in mind, the goto is active) don't copy further, break the loop
-                Element eCopy = e.copy();                                                                               // make a deep copy of the element
-                eCopy.getAttribute("date").setValue(Double.toString(currentDate + dateOffset));                         // draw its date
-
-                Attribute endDate = e.getAttribute("date.end");                                                         // get the date.end attribute
-                if (endDate != null) {                                                                                  // if the element has one, update it, too
-                    double dur = Double.parseDouble(endDate.getValue()) - Double.parseDouble(e.getAttributeValue("date"));
+            for (; (i < size) && (dates[i] < end); ++i) {                   // copy everything until the end of the segment
+                Element e = elements[i];
+                double currentDate = dates[i];
+                Element eCopy = e.copy();                                   // make a deep copy of the element
+                eCopy.getAttribute("date").setValue(Double.toString(currentDate + dateOffset));     // draw its date
+
+                Attribute endDate = e.getAttribute("date.end");             // get the date.end attribute
+                if (endDate != null) {                                      // if the element has one, update it, too
+                    double dur = Double.parseDouble(endDate.getValue()) - currentDate;
                     eCopy.getAttribute("date.end").setValue(Double.toString(currentDate + dur + dateOffset));
                 }
 
-                Attribute repetitionCounter = e.getAttribute("repetitionCounter");                                      // get the counter of how often we have already repeated this element
-                if (repetitionCounter != null) {                                                                        // this is not the first time we process this element
-                    int reps = 1 + Integer.parseInt(e.getAttributeValue("repetitionCounter"));                          // increase repetition counter
-                    e.getAttribute("repetitionCounter").setValue(Integer.toString(reps));                               // write it to the attribute
-                    Attribute id = eCopy.getAttribute("id", "http://www.w3.org/XML/1998/namespace");                    // get the id of eCopy or null if it has none
-                    if (id != null) {                                                                                   // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
-                        String prevId = id.getValue();                                                                  // get the base ID
-                        String newId = "meico_repetition_" + reps + "_" + prevId;                                       // generate a new ID including the base ID
-                        id.setValue(newId);                                                                             // set the attribute
-
-                        // the key of the hashmap entry should be the ID of the previous iteration, not the base ID
-                        for (int r = reps-1; r > 0; --r)                                                                // hence, we iterate through the hashmap as often as there were previous iterations
-                            prevId = repetitionIDs.get(prevId);                                                         // and keep the last of them to be used as key
-                        repetitionIDs.put(prevId, newId);                                                               // add the old-to-new-ID mapping to the hashmap, the old ID is the one from the previous iteration
+                if (repetitions[i] > 0) {                                   // this is not the first time we process this element
+                    Attribute id = eCopy.getAttribute("id", "http://www.w3.org/XML/1998/namespace");    // get the id of eCopy or null if it has none
+                    if (id != null) {                                       // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
+                        if (lastIds[i] == null)
+                            lastIds[i] = id.getValue();
+                        String newId = "meico_repetition_" + repetitions[i] + "_" + id.getValue();  // generate a new ID including the base ID
+                        id.setValue(newId);
+                        repetitionIDs.put(lastIds[i], newId);               // add the old-to-new-ID mapping to the hashmap, the old ID is the one from the previous iteration
+                        lastIds[i] = newId;
                     }
                 }
-                else {                                                                                                  // this is the first time we process this element
-                    e.addAttribute(new Attribute("repetitionCounter", "0"));                                            // add an attribute to count the repetitions
-                }
+                ++repetitions[i];
                 newMap.appendChild(eCopy);                                  // append the copy to the new map
             }
-
-            dateOffset += gt.date - gt.targetDate;                          // draw the dateOffset
-            currentDate = gt.targetDate;                                    // draw currentDate
-            i = -1;                                                         // start searching for the next goto
-        }
-
-        // last goto has been processed, now do the rest until the end marker
-        for (Element e = Msm.getElementAtAfter(currentDate, map); e != null; e = Helper.getNextSiblingElement(e)) { // go through the map elements, starting the first element at or after the goto's target.date, and then go on with the next sibling
-            currentDate = Double.parseDouble(e.getAttributeValue("date"));                                          // read its date
-            Element eCopy = e.copy();                                                                               // make a deep copy of the element
-            eCopy.getAttribute("date").setValue(Double.toString(currentDate + dateOffset));                         // draw its date
-
-            Attribute endDate = e.getAttribute("date.end");                                                         // get the date.end attribute
-            if (endDate != null) {                                                                                  // if the element has one, update it, too
-                double dur = Double.parseDouble(endDate.getValue()) - Double.parseDouble(e.getAttributeValue("date"));
-                eCopy.getAttribute("date.end").setValue(Double.toString(currentDate + dur + dateOffset));
-            }
-
-            Attribute repetitionCounter = e.getAttribute("repetitionCounter");                                      // get the counter of how often we have already repeated this element
-            if (repetitionCounter != null) {                                                                        // this is not the first time we process this element
-                int reps = 1 + Integer.parseInt(e.getAttributeValue("repetitionCounter"));                          // increase repetition counter
-                e.getAttribute("repetitionCounter").setValue(Integer.toString(reps));                               // write it to the attribute
-                Attribute id = eCopy.getAttribute("id", "http://www.w3.org/XML/1998/namespace");                    // get the id of eCopy or null if it has none
-                if (id != null) {                                                                                   // if it has an xml:id, it would appear twice now; this is not valid, so we have to make a new id
-                    String prevId = id.getValue();                                                                  // get the base ID
-                    String newId = "meico_repetition_" + reps + "_" + prevId;                                       // generate a new ID including the base ID
-                    id.setValue(newId);                                                                             // set the attribute
-
-                    // the key of the hashmap entry should be the ID of the previous iteration, not the base ID
-                    for (int r = reps-1; r > 0; --r)                                                                // hence, we iterate through the hashmap as often as there were previous iterations
-                        prevId = repetitionIDs.get(prevId);                                                         // and keep the last of them to be used as key
-                    repetitionIDs.put(prevId, newId);                                                               // add the old-to-new-ID mapping to the hashmap, the old ID is the one from the previous iteration
-                }
-            }
-
-            newMap.appendChild(eCopy);                                      // append the copy to the new map
-        }
-
-        // cleanup: delete all repetitionCounter attributes from all map and newMap elements
-        Nodes rs = map.query("descendant::*[@repetitionCounter]");
-        for (int i = rs.size()-1; i >= 0; --i) {
-            Element r = (Element) rs.get(i);
-            r.removeAttribute(r.getAttribute("repetitionCounter"));
-        }
-        rs = newMap.query("descendant::*[@repetitionCounter]");
-        for (int i = rs.size()-1; i >= 0; --i) {
-            Element r = (Element) rs.get(i);
-            r.removeAttribute(r.getAttribute("repetitionCounter"));
         }
 
         return newMap;
@@ -1441,7 +1624,7 @@ public class Msm extends AbstractMsm {
         Pitches pitches = new Pitches(key); // create Pitches object with equal temperament and A = 440 Hz
         pitches.setFile(Helper.getFilenameWithoutExtension(this.getFile().getPath()) + ".json");        // set a filename for the pitches
 
-        int minPPQ = this.getMinimalPPQ();
+        int minPPQ = this.getMinimalPPQ();                                                              // the number of frames per quarter note, this divides ppq
         double timingReductionFactor = (double)this.getPPQ() / minPPQ;                                  // for memory efficiency it is highly required reduce the frame count, this here is the factor for this
         System.out.print("timing is reduced to " + minPPQ + " ppq ... ");
 
@@ -1510,12 +1693,22 @@ public class Msm extends AbstractMsm {
             return 0;
         }
 
-        Nodes e = root.query("descendant::*[(local-name()='note' or local-name()='rest') and not(@xml:id)]");
-        for (int i = 0; i < e.size(); ++i)                                     // go through all the nodes
-            Helper.addUUID((Element) e.get(i));                                // add the xml:id attribute with a UUID
+        IdGenerator generator = IdGenerator.bind(this.prepareIdGenerator());    // the new ids come from the generator of this document
+        HashSet<String> ids = this.getAllIds();                                 // the new ids must not collide with the existing ones
+        int count = 0;
+        try {
+            for (Element e : Helper.getAllDescendants(root)) {                  // go through all the elements
+                if ((e.getLocalName().equals("note") || e.getLocalName().equals("rest")) && (e.getAttribute("id", "http://www.w3.org/XML/1998/namespace") == null)) {
+                    Helper.addUUID(e, ids);                                     // add the xml:id attribute with a UUID
+                    ++count;
+                }
+            }
+        } finally {
+            IdGenerator.bind(generator);                                        // restore the previous generator
+        }
 
         System.out.println(" done");
 
-        return e.size();
+        return count;
     }
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+package meico.msm;
+
+import nu.xom.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * This class is used by class Msm for lazy loading of huge MSM files. An index pass over the raw bytes of the file
+ * records the byte range of each part element (the children of the root element). The rest of the document, i.e. the
+ * global environment and the parts' start tags with their attributes (name, number, midi.channel, midi.port etc.),
+ * forms a skeleton that is small enough to be parsed right away. The content of a part is parsed only when it is needed.
+ * The file must not change as long as there are unloaded parts.
+ * Files in UTF-16 and files with a document type declaration are not supported, createMsmPartIndex() returns null for them.
+ * @author Axel Berndt
+ */
+public class MsmPartIndex {
+    private final File file;                                                // the MSM file
+    private byte[] prolog = null;                                           // everything from the beginning of the file to the end of the root element's start tag, it provides the encoding and the namespace declarations when a part is parsed
+    private String rootName = null;                                         // the qualified name of the root element
+    private final ArrayList<long[]> ranges = new ArrayList<>();             // the byte ranges [start, end) of the parts in document order, null for empty part elements that need no loading
+    private byte[] skeleton = null;                                         // the file content with all parts reduced to empty elements
+
+    /**
+     * constructor, use createMsmPartIndex() to get an instance
+     * @param file
+     */
+    private MsmPartIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * create the index of an MSM file
+     * @param file
+     * @return the index or null if the file does not exist, cannot be read or is not supported
+     */
+    public static MsmPartIndex createMsmPartIndex(File file) {
+        if ((file == null) || !file.exists() || (file.length() > Integer.MAX_VALUE))
+            return null;
+
+        MsmPartIndex index = new MsmPartIndex(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (!index.scan(buffer, (int) channel.size()))
+                return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * the index pass, it finds the parts and builds the skeleton
+     * @param buffer the file content
+     * @param size the file size
+     * @return false if the file is not supported
+     */
+    private boolean scan(ByteBuffer buffer, int size) {
+        if ((size >= 2) && (((buffer.get(0) == (byte) 0xFE) && (buffer.get(1) == (byte) 0xFF)) || ((buffer.get(0) == (byte) 0xFF) && (buffer.get(1) == (byte) 0xFE))))
+            return false;                                                   // UTF-16, the markup cannot be found byte-wise
+
+        ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+        int copied = 0;                                                     // everything before this position is in the skeleton already
+        int depth = 0;                                                      // the element depth, the root element's children are at depth 1
+        int partStart = -1;                                                 // the start of the part that is currently scanned
+        int i = 0;
+
+        while (i < size) {
+            if (buffer.get(i) != '<') {                                     // character data
+                ++i;
+                continue;
+            }
+
+            if (MsmPartIndex.startsWith(buffer, size, i, "<!--")) {         // a comment
+                i = MsmPartIndex.indexOf(buffer, size, i + 4, "-->") + 3;
+                continue;
+            }
+            if (MsmPartIndex.startsWith(buffer, size, i, "<![CDATA[")) {    // a CDATA section
+                i = MsmPartIndex.indexOf(buffer, size, i + 9, "]]>") + 3;
+                continue;
+            }
+            if (MsmPartIndex.startsWith(buffer, size, i, "<?")) {           // a processing instruction or the xml declaration
+                i = MsmPartIndex.indexOf(buffer, size, i + 2, "?>") + 2;
+                continue;
+            }
+            if (MsmPartIndex.startsWith(buffer, size, i, "<!"))             // a document type declaration, its entities may be used in the parts
+                return false;
+
+            int end = MsmPartIndex.endOfTag(buffer, size, i);               // the position of the tag's closing '>'
+            if (end < 0)
+                return false;
+
+            if (buffer.get(i + 1) == '/') {                                 // an end tag
+                --depth;
+                if ((depth == 1) && (partStart >= 0)) {                     // the end of a part
+                    this.ranges.add(new long[]{partStart, end + 1});
+                    copied = end + 1;                                       // the part content is not copied to the skeleton
+                    partStart = -1;
+                }
+                i = end + 1;
+                continue;
+            }
+
+            boolean empty = buffer.get(end - 1) == '/';                     // an empty element
+            String name = MsmPartIndex.readName(buffer, i + 1, end);
+            if (depth == 0) {                                               // the root element
+                this.rootName = name;
+                this.prolog = MsmPartIndex.read(buffer, 0, end + 1);
+                if (empty)
+                    return false;
+            } else if ((depth == 1) && name.equals("part")) {
+                if (empty) {
+                    this.ranges.add(null);
+                } else {
+                    MsmPartIndex.write(buffer, copied, end, skeleton);      // copy everything up to the part's start tag without its '>'
+                    skeleton.write('/');                                    // and make it an empty element
+                    skeleton.write('>');
+                    copied = end + 1;
+                    partStart = i;
+                }
+            }
+            if (!empty)
+                ++depth;
+            i = end + 1;
+        }
+
+        if ((this.rootName == null) || (depth != 0) || (i > size))          // no root element or the document is not well-formed
+            return false;
+
+        MsmPartIndex.write(buffer, copied, size, skeleton);                 // the rest of the document after the last part
+        this.skeleton = skeleton.toByteArray();
+        return true;
+    }
+
+    /**
+     * parse the skeleton, i.e. the document with all parts reduced to empty elements that carry the attributes;
+     * the skeleton bytes are released afterwards
+     * @return
+     * @throws IOException
+     * @throws ParsingException
+     */
+    public Document parseSkeleton() throws IOException, ParsingException {
+        Document document;
+        Builder builder = new Builder(false);
+        try {
+            document = builder.build(new ByteArrayInputStream(this.skeleton));
+        } catch (ValidityException e) {                                     // in case of a ValidityException (no valid data code)
+            document = e.getDocument();                                     // make the XOM Document anyway, we may nonetheless be able to work with it
+        }
+        this.skeleton = null;
+        return document;
+    }
+
+    /**
+     * @return the number of parts, including empty part elements
+     */
+    public int size() {
+        return this.ranges.size();
+    }
+
+    /**
+     * check whether the part at the specified index has content to be loaded
+     * @param index
+     * @return
+     */
+    public boolean hasContent(int index) {
+        return this.ranges.get(index) != null;
+    }
+
+    /**
+     * read and parse the part at the specified index
+     * @param index
+     * @return the part element, detached from any document, or null if it is an empty part element that is complete in the skeleton
+     * @throws IOException
+     * @throws ParsingException
+     */
+    public Element parsePart(int index) throws IOException, ParsingException {
+        long[] range = this.ranges.get(index);
+        if (range == null)
+            return null;
+
+        byte[] part = new byte[(int) (range[1] - range[0])];
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+            raf.seek(range[0]);
+            raf.readFully(part);
+        }
+
+        // the part is parsed within the prolog and the root element, so the encoding and the namespace declarations apply
+        ByteArrayOutputStream xml = new ByteArrayOutputStream(this.prolog.length + part.length + this.rootName.length() + 3);
+        xml.write(this.prolog);
+        xml.write(part);
+        xml.write(("</" + this.rootName + ">").getBytes(StandardCharsets.UTF_8));
+
+        Document document;
+        Builder builder = new Builder(false);
+        try {
+            document = builder.build(new ByteArrayInputStream(xml.toByteArray()));
+        } catch (ValidityException e) {
+            document = e.getDocument();
+        }
+
+        Element element = document.getRootElement().getFirstChildElement("part");
+        if (element != null)
+            element.detach();
+        return element;
+    }
+
+    /**
+     * check whether the bytes at position i start with the specified ASCII string
+     * @param buffer
+     * @param size
+     * @param i
+     * @param string
+     * @return
+     */
+    private static boolean startsWith(ByteBuffer buffer, int size, int i, String string) {
+        if (i + string.length() > size)
+            return false;
+        for (int j = 0; j < string.length(); ++j)
+            if (buffer.get(i + j) != string.charAt(j))
+                return false;
+        return true;
+    }
+
+    /**
+     * find the next occurrence of the specified ASCII string
+     * @param buffer
+     * @param size
+     * @param from
+     * @param string
+     * @return the position or size if not found
+     */
+    private static int indexOf(ByteBuffer buffer, int size, int from, String string) {
+        for (int i = from; i < size; ++i)
+            if (MsmPartIndex.startsWith(buffer, size, i, string))
+                return i;
+        return size;
+    }
+
+    /**
+     * find the '>' that closes the tag starting at position i, '>' in attribute values is skipped
+     * @param buffer
+     * @param size
+     * @param i
+     * @return the position or -1 if not found
+     */
+    private static int endOfTag(ByteBuffer buffer, int size, int i) {
+        byte quote = 0;                                                     // the quote character of the attribute value that is currently read, 0 if none
+        for (int j = i + 1; j < size; ++j) {
+            byte b = buffer.get(j);
+            if (quote != 0) {
+                if (b == quote)
+                    quote = 0;
+            } else if ((b == '"') || (b == '\'')) {
+                quote = b;
+            } else if (b == '>') {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * read the element name of a start tag
+     * @param buffer
+     * @param from the position after the '<'
+     * @param end the position of the '>'
+     * @return
+     */
+    private static String readName(ByteBuffer buffer, int from, int end) {
+        int to = from;
+        while (to < end) {
+            byte b = buffer.get(to);
+            if ((b == ' ') || (b == '\t') || (b == '\n') || (b == '\r') || (b == '/'))
+                break;
+            ++to;
+        }
+        return new String(MsmPartIndex.read(buffer, from, to), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * read the bytes [from, to)
+     * @param buffer
+     * @param from
+     * @param to
+     * @return
+     */
+    private static byte[] read(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * copy the bytes [from, to) to the output stream
+     * @param buffer
+     * @param from
+     * @param to
+     * @param out
+     */
+    private static void write(ByteBuffer buffer, int from, int to, ByteArrayOutputStream out) {
+        byte[] chunk = new byte[65536];
+        ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        while (from < to) {
+            int length = Math.min(chunk.length, to - from);
+            view.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+            from += length;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package meico.msm;
+
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import java.util.ArrayList;
+
+/**
+ * This class represents the result of playing through the gotos of an MSM sequencingMap.
+ * It is a list of segments; each segment copies all map elements with date &ge; start and date &lt; end
+ * and shifts their dates by an offset. The last segment is open, its end is Double.POSITIVE_INFINITY.
+ * The segments do not depend on the map that the sequencingMap is applied to, so they are computed only once
+ * and can be applied to any number of maps and typed event lists.
+ * @author Axel Berndt
+ */
+public class SequencingPlan {
+    private final ArrayList<Double> starts = new ArrayList<>();     // the start dates of the segments (inclusive)
+    private final ArrayList<Double> ends = new ArrayList<>();       // the end dates of the segments (exclusive)
+    private final ArrayList<Double> offsets = new ArrayList<>();    // the date offsets of the segments
+
+    /**
+     * constructor, use createSequencingPlan() to get an instance
+     */
+    private SequencingPlan() {
+    }
+
+    /**
+     * create the plan of a sequencingMap; the gotos are processed exactly as in Msm.applySequencingMapToMap()
+     * @param sequencingMap
+     * @return the plan or null if the sequencingMap has no gotos, i.e. there is nothing to expand
+     */
+    public static SequencingPlan createSequencingPlan(Element sequencingMap) {
+        if (sequencingMap == null)
+            return null;
+
+        Elements gs = sequencingMap.getChildElements("goto");               // get the gotos
+        if (gs.size() == 0) return null;                                    // if there are no gotos in the sequencingMap, i.e. nothing to expand, return null
+
+        ArrayList<Goto> gotos = new ArrayList<>();
+        for (int i = 0; i < gs.size(); ++i) {                               // make a Goto instance from each goto element
+            try {
+                gotos.add(new Goto(gs.get(i)));
+            } catch (Exception e) {                                         // if this fails
+                e.printStackTrace();                                        // print the exception and continue with the next
+            }
+        }
+
+        SequencingPlan plan = new SequencingPlan();
+        double currentDate = 0.0;                                           // start at date 0.0
+        double dateOffset = 0.0;                                            // this sums up the offsets that come from inserting repetitions
+        for (int i = 0; i < gotos.size(); ++i) {                            // find the next goto
+            Goto gt = gotos.get(i);
+            if ((gt.date < currentDate) || !gt.isActive()) continue;        // if the goto is before currentDate or it is not active continue with the next
+
+            plan.add(currentDate, gt.date, dateOffset);                     // everything between currentDate and the goto is played
+            dateOffset += gt.date - gt.targetDate;                          // draw the dateOffset
+            currentDate = gt.targetDate;                                    // jump to the target
+            i = -1;                                                         // start searching for the next goto
+        }
+        plan.add(currentDate, Double.POSITIVE_INFINITY, dateOffset);        // last goto has been processed, now do the rest until the end
+
+        return plan;
+    }
+
+    /**
+     * add a segment
+     * @param start
+     * @param end
+     * @param offset
+     */
+    private void add(double start, double end, double offset) {
+        this.starts.add(start);
+        this.ends.add(end);
+        this.offsets.add(offset);
+    }
+
+    /**
+     * @return the number of segments
+     */
+    public int size() {
+        return this.starts.size();
+    }
+
+    /**
+     * @param segment
+     * @return the date where the segment starts (inclusive)
+     */
+    public double getStart(int segment) {
+        return this.starts.get(segment);
+    }
+
+    /**
+     * @param segment
+     * @return the date where the segment ends (exclusive)
+     */
+    public double getEnd(int segment) {
+        return this.ends.get(segment);
+    }
+
+    /**
+     * @param segment
+     * @return the offset that is added to the dates in the segment
+     */
+    public double getOffset(int segment) {
+        return this.offsets.get(segment);
+    }
+
+    /**
+     * convert the dates of the segments to another timing basis
+     * @param ppqOld
+     * @param ppq
+     */
+    void convertPPQ(int ppqOld, int ppq) {
+        for (int i = 0; i < this.size(); ++i) {
+            this.starts.set(i, (this.starts.get(i) * ppq) / ppqOld);
+            this.ends.set(i, (this.ends.get(i) * ppq) / ppqOld);            // the open end stays infinite
+            this.offsets.set(i, (this.offsets.get(i) * ppq) / ppqOld);
+        }
+    }
+
+    /**
+     * binary search in a date-sorted array for the index of the first date at or after the specified date
+     * @param dates
+     * @param size the number of valid entries in the array
+     * @param date
+     * @return
+     */
+    public static int lowerBound(double[] dates, int size, double date) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] < date)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
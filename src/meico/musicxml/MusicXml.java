@@ -6,6 +6,7 @@ import meico.mpm.Mpm;
 import meico.msm.Msm;
 import meico.supplementary.KeyValue;
 import meico.xml.XmlBase;
+import meico.xml.XomContentHandler;
 import net.sf.saxon.s9api.Xslt30Transformer;
 import nu.xom.*;
 import org.audiveris.proxymusic.*;
@@ -17,9 +18,16 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
 import java.io.*;
 import java.lang.String;
 import java.net.URL;
@@ -27,6 +35,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 
 /**
@@ -37,6 +46,7 @@ import java.util.zip.ZipEntry;
 public class MusicXml extends XmlBase {
     private static final boolean INJECT_SIGNATURE = false;  // if true, ProxyMusic signs the marshalled MusicXML files
     protected Object data;                                  // this replaces the data Document from XmlBase, its datatype is either ScorePartwise, ScoreTimewise or Opus, depending on the input data
+    private Document document = null;                       // a cached XOM representation of the data, it is created on demand by getCachedDocument() and never handed out
 
     /**
      * constructor
@@ -119,49 +129,113 @@ public class MusicXml extends XmlBase {
      * @return the MusicXml object or null
      */
     public static MusicXml from(File file) {
-        String content;
         String filename = file.getPath();
         String extension = file.getName().substring(file.getName().lastIndexOf('.') + 1);
-        if (extension.equals("mxl")) {                                          // if it is a compressed MusicXML
-            StringBuilder stringBuilder = new StringBuilder();
-            try {
+        MusicXml out;
+        try {
+            if (extension.equals("mxl")) {                                      // if it is a compressed MusicXML
                 Mxl.Input mxlInput = new Mxl.Input(file);
                 RootFile musicXmlRootFile = mxlInput.getRootFiles().get(0);     // the first rootfile entry should be the MusicXML root, according to https://www.w3.org/2021/06/musicxml40/tutorial/compressed-mxl-files/
                 ZipEntry zipEntry = mxlInput.getEntry(musicXmlRootFile.fullPath);
-                InputStream inputStream = mxlInput.getInputStream(zipEntry);
-
-//                MusicXml out = new MusicXml(inputStream);
-                // we do not instantiate the MusicXml from the file directly; we read the file into a String, so we can react if it is a score-timewise that has to be converted into a score-partwise
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    stringBuilder.append(line);
-                    stringBuilder.append("\n");
+
+                String rootName;
+                try (InputStream inputStream = mxlInput.getInputStream(zipEntry)) {
+                    rootName = MusicXml.getRootElementName(inputStream);        // we peek at the root element, so we can react if it is a score-timewise that has to be converted into a score-partwise
                 }
-                bufferedReader.close();
-            } catch (IOException | Mxl.MxlException | JAXBException e) {
-                e.printStackTrace();
-                return null;
-            }
-            content = stringBuilder.toString();
-            filename = Helper.getFilenameWithoutExtension(file.getPath()) + ".musicxml";
-        } else {                                                                // if it is a raw/uncompressed MuxicXml file
-            try {
-//                return new MusicXml(file);
-                // we do not instantiate the MusicXml from the file directly; we read the file into a String, so we can react if it is a score-timewise that has to be converted into a score-partwise
-                content = new String(Files.readAllBytes(file.toPath()));
-            } catch (IOException e) {
-                e.printStackTrace();
-                return null;
+                out = MusicXml.from(mxlInput.getInputStream(zipEntry), rootName);
+                filename = Helper.getFilenameWithoutExtension(file.getPath()) + ".musicxml";
+            } else {                                                            // if it is a raw/uncompressed MuxicXml file
+                String rootName;
+                try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+                    rootName = MusicXml.getRootElementName(inputStream);        // we peek at the root element, so we can react if it is a score-timewise that has to be converted into a score-partwise
+                }
+                out = MusicXml.from(new BufferedInputStream(Files.newInputStream(file.toPath())), rootName);
             }
+        } catch (IOException | XMLStreamException | Mxl.MxlException | JAXBException e) {
+            e.printStackTrace();
+            return null;
         }
 
-        MusicXml out = MusicXml.from(content);
         if (out != null)
             out.setFile(filename);
         return out;
     }
 
+    /**
+     * A helper method for the file-based factory. It reads the MusicXML data from the input stream.
+     * Score-partwise and opus data is unmarshalled by ProxyMusic, score-timewise data, which ProxyMusic's
+     * unmarshalling does not support, is unmarshalled by meico (see unmarshalScoreTimewise()).
+     * @param inputStream this method will also close the inputStream
+     * @param rootName the local name of the root element
+     * @return the MusicXml instance or null
+     */
+    private static MusicXml from(InputStream inputStream, String rootName) {
+        try {
+            switch (rootName) {
+                case "score-partwise":
+                case "opus":
+                    return new MusicXml(inputStream);
+                case "score-timewise":
+                    try {
+                        return new MusicXml(MusicXml.unmarshalScoreTimewise(inputStream));
+                    } finally {
+                        inputStream.close();
+                    }
+                default:
+                    System.err.println("Cannot read MusicXML data with root element \"" + rootName + "\".");
+                    inputStream.close();
+                    return null;
+            }
+        } catch (IOException | Marshalling.UnmarshallingException | JAXBException | XMLStreamException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * unmarshal score-timewise data directly from the input stream, without a Document or string in between;
+     * like ProxyMusic's unmarshalling for score-partwise, the DTD is not read and the XML namespaces are not evaluated,
+     * so xlink attributes are recognized by their prefix (see XlinkStreamReader)
+     * @param inputStream the stream is not closed
+     * @return
+     * @throws JAXBException
+     * @throws XMLStreamException
+     */
+    private static ScoreTimewise unmarshalScoreTimewise(InputStream inputStream) throws JAXBException, XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        XMLStreamReader reader = new XlinkStreamReader(factory.createXMLStreamReader(inputStream));
+        try {
+            Unmarshaller unmarshaller = Marshalling.getContext(ScoreTimewise.class).createUnmarshaller();
+            return unmarshaller.unmarshal(reader, ScoreTimewise.class).getValue();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * read the local name of the root element from the input stream; the stream is read only as far as necessary
+     * @param inputStream
+     * @return the local name of the root element or an empty string if there is none
+     * @throws XMLStreamException
+     */
+    private static String getRootElementName(InputStream inputStream) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);                       // MusicXML files usually declare a DTD, we do not want to fetch it
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT)
+                    return reader.getLocalName();
+            }
+        } finally {
+            reader.close();
+        }
+        return "";
+    }
+
     /**
      * Use this constructor to create a MusicXml instance from a XOM Document.
      * @param document
@@ -284,8 +358,6 @@ public class MusicXml extends XmlBase {
             }
         }
 
-        System.out.println(scorePartwise.toXML());
-
         return scorePartwise;
     }
 
@@ -456,18 +528,74 @@ public class MusicXml extends XmlBase {
             return;
         }
 
-        if (o != null)
+        if (o != null) {
             this.data = o;
-        else
+            this.document = null;                                           // the document will be created anew from the unmarshalled data on the next invocation of getDocument()
+        } else
             System.err.println("Input stream cannot be unmarshalled into an instance of ScorePartwise, ScoreTimewise or Opus.");
     }
 
     /**
-     * from the MusicXML data in this object construct a Document
-     * @return
+     * Discard the cached Document representation of the MusicXML data, so it will be recreated on the next access.
+     * getData() and getPartList() do this already. Invoke it after editing the data structure via a reference that was
+     * obtained otherwise, e.g. the ScorePartwise object that was passed to the constructor.
+     */
+    public synchronized void invalidateDocument() {
+        this.document = null;
+    }
+
+    /**
+     * From the MusicXML data in this object construct a Document. Each invocation returns a new Document that can be
+     * edited freely; edits are not written back into the data, use setDocument() for this.
+     * @return the Document or null if there is no data
      */
     @Override
-    public Document getDocument() {
+    public synchronized Document getDocument() {
+        Document document = this.getCachedDocument();
+        return (document == null) ? null : document.copy();     // copying the cached tree is much cheaper than marshalling the data again
+    }
+
+    /**
+     * The Document representation of the MusicXML data is created only once and cached until the data is edited via
+     * the methods of this class. The cached instance must not leave this class and must not be edited.
+     * @return the cached Document or null if there is no data
+     */
+    private synchronized Document getCachedDocument() {
+        if (this.document != null)
+            return this.document;
+
+        switch (this.getType()) {
+            case scorePartwise:
+            case scoreTimewise:                         // score-timewise is not yet supported by ProxyMusic's marshalling, so we have to convert to ScorePartwise
+                try {
+                    ScorePartwise scorePartwise = (ScorePartwise) this.toScorePartwise().data;
+                    XomContentHandler handler = new XomContentHandler();
+                    Marshalling.getContext(ScorePartwise.class).createMarshaller().marshal(scorePartwise, handler);    // the SAX events go directly into the XOM tree, there is no string serialization or DOM
+                    Document document = handler.getDocument();
+                    Element root = document.getRootElement();
+                    if (root.getAttribute("version") == null)
+                        root.addAttribute(new Attribute("version", "3.0.1"));   // the same default as in MusicXmlWriter
+                    document.insertChild(new DocType("score-partwise", "-//Recordare//DTD MusicXML " + root.getAttributeValue("version") + " Partwise//EN", "http://www.musicxml.org/dtds/partwise.dtd"), 0);  // the same document type declaration as MusicXmlWriter writes to files
+                    this.document = document;
+                } catch (JAXBException e) {
+                    e.printStackTrace();
+                }
+                break;
+            case opus:                                  // ProxyMusic can marshal opus data only into an output stream
+                this.document = this.parseXml();
+                break;
+            case unknown:
+            default:
+                break;
+        }
+        return this.document;
+    }
+
+    /**
+     * a helper method to parse the output of toXML() into a Document
+     * @return
+     */
+    private Document parseXml() {
         Document document = null;
 
         SAXParserFactory parserFactory = SAXParserFactory.newInstance();    // create a SAX parser (see https://stackoverflow.com/questions/51072419/how-use-xmlreaderfactory-now-because-this-is-deprecated)
@@ -495,10 +623,20 @@ public class MusicXml extends XmlBase {
     }
 
     /**
-     * access the MusicXML data structure in this object
+     * access the MusicXML data structure in this object; as it may be edited via the returned object, the cached Document representation is discarded
      * @return
      */
     public Object getData() {
+        this.invalidateDocument();
+        return this.data;
+    }
+
+    /**
+     * access the MusicXML data structure in this object without discarding the cached Document representation;
+     * this is for callers that only read the data, e.g. MusicXmlWriter
+     * @return
+     */
+    Object peekData() {
         return this.data;
     }
 
@@ -573,10 +711,11 @@ public class MusicXml extends XmlBase {
     }
 
     /**
-     * get the part-list of the MusicXML
+     * get the part-list of the MusicXML; as it may be edited via the returned object, the cached Document representation is discarded
      * @return the PartList object or null if none exists
      */
     public PartList getPartList() {
+        this.invalidateDocument();
         switch (this.getType()) {
             case scorePartwise:
                 return ((ScorePartwise) this.data).getPartList();
@@ -809,61 +948,34 @@ public class MusicXml extends XmlBase {
      * @param filename the filename string; it should include the path and the extension
      * @return true if success, false if an error occured
      */
-    public synchronized boolean writeCompressedMusicXml(String filename) {
+    public boolean writeCompressedMusicXml(String filename) {
+        return this.writeCompressedMusicXml(filename, Deflater.DEFAULT_COMPRESSION, MusicXmlWriter.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * writes the MusicXML to an .mxl file (filename should include the path and the extension);
+     * the data is streamed part by part into the compressed file, score-timewise data is written as score-partwise like in writeMusicXml(), see class MusicXmlWriter
+     * @param filename the filename string; it should include the path and the extension
+     * @param compressionLevel the deflater level, from Deflater.NO_COMPRESSION (0) to Deflater.BEST_COMPRESSION (9) or Deflater.DEFAULT_COMPRESSION (-1)
+     * @param bufferSize the size of the output buffers in bytes
+     * @return true if success, false if an error occured
+     */
+    public synchronized boolean writeCompressedMusicXml(String filename, int compressionLevel, int bufferSize) {
         if (this.isEmpty()) {
             System.err.println("Empty document, cannot write file.");
             return false;
         }
 
-        // create the file in the file system
         File file = new File(filename);
-        file.getParentFile().mkdirs();                              // ensure that the directory exists
-        try {
-            file.createNewFile();                                   // create the file if it does not already exist
-        } catch (IOException | SecurityException e) {
-            e.printStackTrace();
-            return false;
-        }
-
-        Mxl.Output mof;
-        try {
-            mof = new Mxl.Output(file);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return false;
-        }
-
-        boolean success = true;
-        OutputStream zos = mof.getOutputStream();
         String rootfilename = Helper.getFilenameWithoutExtension(file.getName()) + ".musicxml";
+        boolean success = true;
         try {
-            mof.addEntry(new RootFile(rootfilename, RootFile.MUSICXML_MEDIA_TYPE));
-            switch (this.getType()) {
-                case scorePartwise:
-                    Marshalling.marshal((ScorePartwise) this.data, zos, INJECT_SIGNATURE, 4);
-                    break;
-                case scoreTimewise:
-//                    Marshalling.marshal((ScoreTimewise) this.data, zos, INJECT_SIGNATURE, 4);
-                    Marshalling.marshal((ScorePartwise) this.toScorePartwise().data, zos, INJECT_SIGNATURE, 4);
-                    break;
-                case opus:
-                    Marshalling.marshal((Opus) this.data, zos);
-                    break;
-                case unknown:
-                default:
-                    throw new Marshalling.MarshallingException(new Throwable("Unknown data format for MusicXML, unable to marshal."));
-            }
-        } catch (Marshalling.MarshallingException | Mxl.MxlException e) {
+            (new MusicXmlWriter(compressionLevel, bufferSize)).writeMxl(this, file, rootfilename);
+        } catch (IOException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
             success = false;
         }
 
-        try {
-            zos.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
         if (this.file == null)
             this.file = new File(rootfilename);
 
@@ -871,35 +983,66 @@ public class MusicXml extends XmlBase {
     }
 
     /**
-     * this method is inactive; invoke MusicXml.getDocument().getRootElement() instead
+     * access the root element of a new Document representation of the MusicXML data (see getDocument());
+     * edits of the element are not written back into the MusicXML data, use setDocument() for this
      * @return
      */
     @Override
     public Element getRootElement() {
-        System.err.println("MusicXml.getRootElement() is not supported.");
-        return null;
+        Document document = this.getDocument();
+        return (document == null) ? null : document.getRootElement();
     }
 
     /**
-     * this method is inactive for MusicXml instances
+     * remove all elements with the specified local name from the MusicXML data
      * @param localName the elements to be removed
-     * @return
+     * @return the number of elements removed
      */
     @Override
-    public int removeAllElements(String localName) {
-        System.err.println("MusicXml.removeAllElements() is not supported.");
-        return 0;
+    public synchronized int removeAllElements(String localName) {
+        Document document = this.getDocument();       // the edits are made on a copy, so the cache stays intact if they cannot be written back
+        if (document == null)
+            return 0;
+
+        Nodes nodes = document.getRootElement().query("descendant::*[local-name()='" + localName + "']");
+        for (int i = 0; i < nodes.size(); ++i)
+            nodes.get(i).detach();
+
+        if (nodes.size() > 0)
+            this.writeBack(document);
+        return nodes.size();
     }
 
     /**
-     * this method is inactive for MusicXml instances
+     * remove all attributes with the specified name from the MusicXML data
      * @param attributeName the attribute name
-     * @return
+     * @return the number of attributes removed
      */
     @Override
-    public int removeAllAttributes(String attributeName) {
-        System.err.println("MusicXml.removeAllAttributes() is not supported.");
-        return 0;
+    public synchronized int removeAllAttributes(String attributeName) {
+        Document document = this.getDocument();       // the edits are made on a copy, so the cache stays intact if they cannot be written back
+        if (document == null)
+            return 0;
+
+        Nodes nodes = document.getRootElement().query("descendant-or-self::*/@*[local-name()='" + attributeName + "']");
+        for (int i = 0; i < nodes.size(); ++i)
+            nodes.get(i).detach();
+
+        if (nodes.size() > 0)
+            this.writeBack(document);
+        return nodes.size();
+    }
+
+    /**
+     * write the edits of the Document representation back into the data;
+     * if successful, the edited Document remains cached as it represents the new data
+     * @param document
+     */
+    private void writeBack(Document document) {
+        Object previous = this.data;
+        this.setDocument(document);
+        if (this.data != previous)
+            this.document = document;
     }
 
     /**
@@ -909,7 +1052,7 @@ public class MusicXml extends XmlBase {
      */
     @Override
     public Document xslTransformToDocument(File xslt) {
-        return Helper.xslTransformToDocument(this.getDocument(), xslt);
+        return Helper.xslTransformToDocument(this.getCachedDocument(), xslt);
     }
 
     /**
@@ -919,7 +1062,7 @@ public class MusicXml extends XmlBase {
      */
     @Override
     public Document xslTransformToDocument(Xslt30Transformer transform) {
-        return Helper.xslTransformToDocument(this.getDocument(), transform);
+        return Helper.xslTransformToDocument(this.getCachedDocument(), transform);
     }
 
     /**
@@ -951,4 +1094,35 @@ public class MusicXml extends XmlBase {
         opus,
         unknown
     }
+
+    /**
+     * An XMLStreamReader for XML code that is read without evaluating the namespaces. MusicXML files usually
+     * do not declare the xlink namespace, as the DTD does it. This reader puts attributes with prefix xlink into the
+     * xlink namespace, so JAXB can assign them. It does the same as ProxyMusic's reader for score-partwise, which is not public.
+     */
+    private static class XlinkStreamReader extends StreamReaderDelegate {
+        private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+        /**
+         * constructor
+         * @param reader
+         */
+        private XlinkStreamReader(XMLStreamReader reader) {
+            super(reader);
+        }
+
+        @Override
+        public QName getAttributeName(int index) {
+            if ("xlink".equals(this.getAttributePrefix(index)))
+                return new QName(XLINK_NAMESPACE, this.getAttributeLocalName(index), "xlink");
+            return super.getAttributeName(index);
+        }
+
+        @Override
+        public String getAttributeNamespace(int index) {
+            if ("xlink".equals(this.getAttributePrefix(index)))
+                return XLINK_NAMESPACE;
+            return super.getAttributeNamespace(index);
+        }
+    }
 }
@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.lang.String;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.UUID;
 
 /**
  * This class does the conversion from MusicXML to MSM and MPM
@@ -77,7 +76,7 @@ public class MusicXml2MsmMpmConverter {
 
         // initialize the Msm and Mpm instances
         String title = this.musicXml.getTitle();
-        String id = "meico_" + UUID.randomUUID().toString();
+        String id = "meico_" + this.musicXml.getIdGenerator().generate();      // the id comes from the generator of the MusicXML document
         this.msm = Msm.createMsm(title, id, this.ppq);
         if (this.msm.isEmpty()) {                                                                   // if something went wrong stop the process
             System.err.println("Failed to initialize and instance of Msm.");
@@ -126,6 +125,7 @@ public class MusicXml2MsmMpmConverter {
             return;
 
         HashMap<Integer, PartGroup> groups = new HashMap<>();                       // group number, part-group element
+        InstrumentsDictionary dictionary = null;                                    // loaded on demand, shared by all parts
         int number = 0;                                                             // default initial value
         int midiChannel = 0;                                                        // default initial value
         int midiPort = 0;                                                           // default initial value
@@ -202,7 +202,9 @@ public class MusicXml2MsmMpmConverter {
             if ((!foundProgramChange) && (!scorePart.getScoreInstrument().isEmpty())) {
                 ScoreInstrument scoreInstrument = scorePart.getScoreInstrument().get(0);
                 try {
-                    midiInstrNum = (new InstrumentsDictionary()).getProgramChange(scoreInstrument.getInstrumentName());
+                    if (dictionary == null)
+                        dictionary = new InstrumentsDictionary();                  // the dictionary is loaded only once and only if it is needed
+                    midiInstrNum = dictionary.getProgramChange(scoreInstrument.getInstrumentName());
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
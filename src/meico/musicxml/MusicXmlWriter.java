@@ -0,0 +1,302 @@
+package meico.musicxml;
+
+import org.audiveris.proxymusic.*;
+import org.audiveris.proxymusic.mxl.RootFile;
+import org.audiveris.proxymusic.opus.Opus;
+import org.audiveris.proxymusic.util.Marshalling;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.lang.String;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class writes MusicXML data to a stream or a compressed MusicXML (.mxl) file.
+ * Score-partwise and score-timewise data is written as score-partwise, opus data as opus.
+ * The score header is marshalled first, then the data part by part, so the XML code is never held in memory as a whole.
+ * @author Axel Berndt
+ */
+public class MusicXmlWriter {
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    private static final String PARTWISE_DOCTYPE = "<!DOCTYPE score-partwise PUBLIC \"-//Recordare//DTD MusicXML %s Partwise//EN\" \"http://www.musicxml.org/dtds/partwise.dtd\">";    // %s is the MusicXML version
+    private static final String VERSION = "3.0.1";                     // the MusicXML version that is written if the score does not specify one
+
+    private final int compressionLevel;     // the deflater level for the MusicXML entry of .mxl files, from Deflater.NO_COMPRESSION (0) to Deflater.BEST_COMPRESSION (9) or Deflater.DEFAULT_COMPRESSION (-1)
+    private final int bufferSize;           // the size of the output buffers in bytes
+
+    /**
+     * constructor with default compression level and buffer size
+     */
+    public MusicXmlWriter() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * constructor
+     * @param compressionLevel the deflater level for .mxl files, from Deflater.NO_COMPRESSION (0) to Deflater.BEST_COMPRESSION (9) or Deflater.DEFAULT_COMPRESSION (-1)
+     * @param bufferSize the size of the output buffers in bytes
+     */
+    public MusicXmlWriter(int compressionLevel, int bufferSize) {
+        if ((compressionLevel < Deflater.DEFAULT_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel + ".");
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be > 0.");
+
+        this.compressionLevel = compressionLevel;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * getter for the compression level
+     * @return
+     */
+    public int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * getter for the buffer size
+     * @return
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * write the MusicXML data as compressed MusicXML (.mxl) file
+     * @param musicXml
+     * @param file the .mxl file; if it exists, it is replaced
+     * @param rootFileName the name of the MusicXML file within the .mxl container, e.g. "score.musicxml"
+     * @throws IOException
+     */
+    public void writeMxl(MusicXml musicXml, File file, String rootFileName) throws IOException {
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();                                                      // ensure that the directory exists
+
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), this.bufferSize))) {
+            // the mimetype entry comes first and uncompressed
+            byte[] mimetype = RootFile.COMPRESSED_MUSICXML_MEDIA_TYPE.getBytes(StandardCharsets.US_ASCII);
+            CRC32 crc = new CRC32();
+            crc.update(mimetype);
+            ZipEntry mimetypeEntry = new ZipEntry("mimetype");
+            mimetypeEntry.setMethod(ZipEntry.STORED);
+            mimetypeEntry.setSize(mimetype.length);
+            mimetypeEntry.setCompressedSize(mimetype.length);
+            mimetypeEntry.setCrc(crc.getValue());
+            zip.putNextEntry(mimetypeEntry);
+            zip.write(mimetype);
+            zip.closeEntry();
+
+            // the container that points to the MusicXML entry
+            zip.setLevel(this.compressionLevel);
+            zip.putNextEntry(new ZipEntry("META-INF/container.xml"));
+            this.writeContainer(zip, rootFileName);
+            zip.closeEntry();
+
+            // the MusicXML entry
+            zip.putNextEntry(new ZipEntry(rootFileName));
+            OutputStream entry = new BufferedOutputStream(new NonClosingOutputStream(zip), this.bufferSize);  // the deflater gets the data in large chunks
+            this.write(musicXml, entry);
+            entry.flush();
+            zip.closeEntry();
+        }
+    }
+
+    /**
+     * write the MusicXML data to an output stream; the stream is flushed but not closed
+     * @param musicXml
+     * @param outputStream
+     * @throws IOException
+     */
+    public void write(MusicXml musicXml, OutputStream outputStream) throws IOException {
+        try {
+            switch (musicXml.getType()) {
+                case scorePartwise:
+                    this.writeScorePartwise((ScorePartwise) musicXml.peekData(), outputStream);
+                    break;
+                case scoreTimewise:
+                    this.writeScorePartwise((ScorePartwise) musicXml.toScorePartwise().peekData(), outputStream);    // the conversion reuses the measure contents, it does not copy them
+                    break;
+                case opus:
+                    Marshalling.marshal((Opus) musicXml.peekData(), new NonClosingOutputStream(outputStream));   // opus files hold only references to other files, so they are small
+                    break;
+                case unknown:
+                default:
+                    throw new IOException("Unknown data format for MusicXML, unable to marshal.");
+            }
+        } catch (Marshalling.MarshallingException | JAXBException | XMLStreamException e) {
+            throw new IOException(e);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * marshal the score header and then one part after the other
+     * @param score
+     * @param outputStream
+     * @throws JAXBException
+     * @throws XMLStreamException
+     */
+    private void writeScorePartwise(ScorePartwise score, OutputStream outputStream) throws JAXBException, XMLStreamException {
+        Marshaller marshaller = MusicXmlWriter.createMarshaller(ScorePartwise.class);
+        XMLStreamWriter writer = this.startScore(outputStream, PARTWISE_DOCTYPE, "score-partwise", score.getVersion());
+        this.writeHeader(marshaller, writer, score.getWork(), score.getMovementNumber(), score.getMovementTitle(), score.getIdentification(), score.getDefaults(), score.getCredit(), score.getPartList());
+
+        for (ScorePartwise.Part part : score.getPart())
+            this.writeFragment(marshaller, writer, "part", ScorePartwise.Part.class, part);
+
+        this.endScore(writer);
+    }
+
+    /**
+     * write the XML declaration, doctype and the start tag of the root element
+     * @param outputStream
+     * @param doctype
+     * @param rootName
+     * @param version the MusicXML version of the score, if null, version 3.0.1 is written
+     * @return
+     * @throws XMLStreamException
+     */
+    private XMLStreamWriter startScore(OutputStream outputStream, String doctype, String rootName, String version) throws XMLStreamException {
+        if ((version == null) || version.isEmpty())
+            version = VERSION;
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeCharacters("\n");
+        writer.writeDTD(String.format(doctype, version));
+        writer.writeCharacters("\n");
+        writer.writeStartElement(rootName);
+        writer.writeAttribute("version", version);
+        return writer;
+    }
+
+    /**
+     * write the end tag of the root element and flush the writer; the underlying stream is not closed
+     * @param writer
+     * @throws XMLStreamException
+     */
+    private void endScore(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeCharacters("\n");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+    }
+
+    /**
+     * marshal the score header elements in the order required by the MusicXML schema
+     * @param marshaller
+     * @param writer
+     * @param work
+     * @param movementNumber
+     * @param movementTitle
+     * @param identification
+     * @param defaults
+     * @param credits
+     * @param partList
+     * @throws JAXBException
+     * @throws XMLStreamException
+     */
+    private void writeHeader(Marshaller marshaller, XMLStreamWriter writer, Work work, String movementNumber, String movementTitle, Identification identification, Defaults defaults, List<Credit> credits, PartList partList) throws JAXBException, XMLStreamException {
+        this.writeFragment(marshaller, writer, "work", Work.class, work);
+        this.writeFragment(marshaller, writer, "movement-number", String.class, movementNumber);
+        this.writeFragment(marshaller, writer, "movement-title", String.class, movementTitle);
+        this.writeFragment(marshaller, writer, "identification", Identification.class, identification);
+        this.writeFragment(marshaller, writer, "defaults", Defaults.class, defaults);
+        for (Credit credit : credits)
+            this.writeFragment(marshaller, writer, "credit", Credit.class, credit);
+        this.writeFragment(marshaller, writer, "part-list", PartList.class, partList);
+    }
+
+    /**
+     * marshal an object as XML element into the writer; nothing is written if the object is null
+     * @param marshaller
+     * @param writer
+     * @param name the element name
+     * @param type the class of the object
+     * @param value the object
+     * @param <T>
+     * @throws JAXBException
+     * @throws XMLStreamException
+     */
+    private <T> void writeFragment(Marshaller marshaller, XMLStreamWriter writer, String name, Class<T> type, T value) throws JAXBException, XMLStreamException {
+        if (value == null)
+            return;
+        writer.writeCharacters("\n");
+        marshaller.marshal(new JAXBElement<>(new QName(name), type, value), writer);
+    }
+
+    /**
+     * write the META-INF/container.xml of an .mxl file
+     * @param outputStream
+     * @param rootFileName
+     * @throws IOException
+     */
+    private void writeContainer(OutputStream outputStream, String rootFileName) throws IOException {
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("container");
+            writer.writeStartElement("rootfiles");
+            writer.writeEmptyElement("rootfile");
+            writer.writeAttribute("full-path", rootFileName);
+            writer.writeAttribute("media-type", RootFile.MUSICXML_MEDIA_TYPE);
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * create a marshaller for XML fragments; the JAXBContext is cached by ProxyMusic
+     * @param type
+     * @return
+     * @throws JAXBException
+     */
+    private static Marshaller createMarshaller(Class<?> type) throws JAXBException {
+        Marshaller marshaller = Marshalling.getContext(type).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+        marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+        return marshaller;
+    }
+
+    /**
+     * An output stream wrapper that does not close the underlying stream. Some writers close their
+     * stream when they are done, but the zip stream has to stay open for the next entry.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        /**
+         * constructor
+         * @param out
+         */
+        private NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);            // FilterOutputStream would write byte by byte
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.flush();
+        }
+    }
+}
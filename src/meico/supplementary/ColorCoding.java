@@ -2061,6 +2061,9 @@ public class ColorCoding {
             {0.49321f, 0.01963f, 0.00955f},
             {0.47960f, 0.01583f, 0.01055f}};
 
+    private static final int LOOKUP_SHIFT = 16;                                                             // lookup tables are indexed by the upper bits of the values' float representation (exponent and 7 bits of mantissa)
+    private static final int LOOKUP_TABLE_SIZE = (Float.floatToRawIntBits(1.0f) >>> LOOKUP_SHIFT) + 1;       // the number of entries of a lookup table covering the values [0.0f, 1.0f]
+
     private float[][] colorScheme;  // the actual color coding set for this instance
 
     /**
@@ -2089,4 +2092,56 @@ public class ColorCoding {
 
         return new Color(r, g, b);
     }
+
+    /**
+     * This method determines the color like getColor() but returns it as packed RGB integer
+     * (as used by BufferedImage.TYPE_INT_RGB) without instantiating a Color object.
+     * @param value values in the interval [0.0f, 1.0f]
+     * @return
+     */
+    public int getRGB(float value) {
+        float colorIndex = value * (this.colorScheme.length - 1);
+        int floor = (int) Math.floor(colorIndex);
+        int ceil = (int) Math.ceil(colorIndex);
+        float fraction = colorIndex - floor;
+
+        int r = (int) (((this.colorScheme[floor][0] + ((this.colorScheme[ceil][0] - this.colorScheme[floor][0]) * fraction)) * 255) + 0.5);
+        int g = (int) (((this.colorScheme[floor][1] + ((this.colorScheme[ceil][1] - this.colorScheme[floor][1]) * fraction)) * 255) + 0.5);
+        int b = (int) (((this.colorScheme[floor][2] + ((this.colorScheme[ceil][2] - this.colorScheme[floor][2]) * fraction)) * 255) + 0.5);
+
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * This creates a lookup table of packed RGB integers with the gamma correction baked in.
+     * Use getLookupIndex() to find the entry for a value. This is much faster than invoking getColor() and Math.pow() for each pixel of a large image.
+     * The table is indexed by the upper bits of the values' float representation, i.e., its resolution is relative (about 0.4%), not absolute.
+     * This keeps small values distinguishable even with a strong gamma correction.
+     * @param gamma 1.0f means no gamma correction
+     * @return
+     */
+    public int[] createLookupTable(float gamma) {
+        int[] table = new int[LOOKUP_TABLE_SIZE];
+        table[0] = this.getRGB(0.0f);
+        for (int i = 1; i < LOOKUP_TABLE_SIZE - 1; ++i) {
+            float value = Float.intBitsToFloat((i << LOOKUP_SHIFT) | (1 << (LOOKUP_SHIFT - 1)));    // the value in the middle of the interval that the index covers
+            table[i] = this.getRGB((float) Math.pow(value, gamma));
+        }
+        table[LOOKUP_TABLE_SIZE - 1] = this.getRGB(1.0f);
+        return table;
+    }
+
+    /**
+     * This computes the index of a value in a lookup table as created by createLookupTable().
+     * Values outside of the interval [0.0f, 1.0f] are clipped.
+     * @param value
+     * @return
+     */
+    public static int getLookupIndex(float value) {
+        if (!(value > 0.0f))                                    // this includes NaN
+            return 0;
+        if (value >= 1.0f)
+            return LOOKUP_TABLE_SIZE - 1;
+        return Float.floatToRawIntBits(value) >>> LOOKUP_SHIFT;
+    }
 }
@@ -0,0 +1,173 @@
+package meico.supplementary;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class generates the ids that meico adds to the documents (xml:id values and id suffixes).
+ * By default, the ids are random 128 bit values in the format of UUIDs (version 4). Unlike UUID.randomUUID(),
+ * they come from a fast non-cryptographic generator that never blocks for entropy. Alternatively, a generator
+ * can produce deterministic ids from a counter and a prefix, so that the same input always gives the same output.
+ * A generator belongs to a document (see XmlBase.setIdGenerator()); during a conversion or edit the document binds it
+ * to the current thread, so concurrent conversions of different documents do not interfere.
+ * Custom subclasses can override generate().
+ * @author Axel Berndt
+ */
+public class IdGenerator {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final IdGenerator RANDOM = new IdGenerator();           // the generator of random ids that is used when no other is bound, it has no state
+    private static final ThreadLocal<IdGenerator> bound = new ThreadLocal<>();  // the generator that is bound to the current thread
+
+    private final String prefix;                                            // the prefix of counter-based ids, null for random ids
+    private final AtomicLong counter = new AtomicLong(0);                   // the number of the next counter-based id
+
+    /**
+     * constructor, creates a generator of random ids
+     */
+    public IdGenerator() {
+        this.prefix = null;
+    }
+
+    /**
+     * constructor
+     * @param prefix the prefix of counter-based ids or null for random ids
+     */
+    private IdGenerator(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * create a generator of deterministic ids of the form prefix + "_" + number, the numbers start at 0;
+     * use one generator with its own prefix for each document
+     * @param prefix this should be a valid start of an xml:id, i.e. a letter or underscore followed by letters, digits, underscores, hyphens or periods
+     * @return the generator or null if the prefix is null or empty
+     */
+    public static IdGenerator createCounterIdGenerator(String prefix) {
+        if ((prefix == null) || prefix.isEmpty()) {
+            System.err.println("Cannot create a counter-based id generator without a prefix.");
+            return null;
+        }
+        return new IdGenerator(prefix);
+    }
+
+    /**
+     * @return the generator that is bound to the current thread or, if none, the generator of random ids
+     */
+    public static IdGenerator getGenerator() {
+        IdGenerator generator = IdGenerator.bound.get();
+        return (generator == null) ? IdGenerator.RANDOM : generator;
+    }
+
+    /**
+     * bind a generator to the current thread, generateId() uses it until another one is bound;
+     * restore the previous binding when done, preferably in a finally block
+     * @param generator the generator or null to switch back to random ids
+     * @return the generator that was bound before, may be null
+     */
+    public static IdGenerator bind(IdGenerator generator) {
+        IdGenerator previous = IdGenerator.bound.get();
+        if (generator == null)
+            IdGenerator.bound.remove();
+        else
+            IdGenerator.bound.set(generator);
+        return previous;
+    }
+
+    /**
+     * generate an id with the generator that is bound to the current thread; this replaces UUID.randomUUID().toString()
+     * @return
+     */
+    public static String generateId() {
+        return IdGenerator.getGenerator().generate();
+    }
+
+    /**
+     * generate the next id of this generator, subclasses may override this
+     * @return
+     */
+    public String generate() {
+        if (this.prefix != null)
+            return this.prefix + "_" + this.counter.getAndIncrement();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long msb = (random.nextLong() & 0xffffffffffff0fffL) | 0x0000000000004000L;    // set the version to 4
+        long lsb = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;    // set the variant to IETF
+        return IdGenerator.toUuidString(msb, lsb);
+    }
+
+    /**
+     * generate an id of the form start + generate() that is not in the set of existing ids, on a collision a new one is generated;
+     * the id is added to the set
+     * @param start the beginning of the id, e.g. "meico_"
+     * @param existingIds
+     * @return
+     */
+    public String generateUnique(String start, Set<String> existingIds) {
+        String id = start + this.generate();
+        while (!existingIds.add(id))
+            id = start + this.generate();
+        return id;
+    }
+
+    /**
+     * make a counter-based generator skip all numbers that occur in the specified ids already, i.e. the counter continues after
+     * the greatest number that follows prefix + "_" in them; so ids that end with a newly generated id cannot collide with them,
+     * e.g. when a document that got its ids from this prefix before is processed again; this has no effect on random ids
+     * @param existingIds
+     */
+    public void reserve(Collection<String> existingIds) {
+        if (this.prefix == null)
+            return;
+
+        String token = this.prefix + "_";
+        long max = -1;
+        for (String id : existingIds) {
+            for (int i = id.indexOf(token); i >= 0; i = id.indexOf(token, i + 1)) {
+                int from = i + token.length();
+                int to = from;
+                while ((to < id.length()) && (id.charAt(to) >= '0') && (id.charAt(to) <= '9'))
+                    ++to;
+                if ((to > from) && ((to - from) < 19))                      // longer numbers cannot be reached by the counter
+                    max = Math.max(max, Long.parseLong(id.substring(from, to)));
+            }
+        }
+
+        final long next = max + 1;
+        this.counter.updateAndGet(c -> Math.max(c, next));
+    }
+
+    /**
+     * @return true if this generator produces counter-based ids
+     */
+    public boolean isCounterBased() {
+        return this.prefix != null;
+    }
+
+    /**
+     * reset the counter of counter-based ids to 0, this has no effect on random ids
+     */
+    public void reset() {
+        this.counter.set(0);
+    }
+
+    /**
+     * format a 128 bit value as UUID string, e.g. 123e4567-e89b-42d3-a456-556642440000
+     * @param msb the most significant 64 bits
+     * @param lsb the least significant 64 bits
+     * @return
+     */
+    private static String toUuidString(long msb, long lsb) {
+        char[] chars = new char[36];
+        int c = 0;
+        for (int i = 0; i < 32; ++i) {
+            if ((i == 8) || (i == 12) || (i == 16) || (i == 20))
+                chars[c++] = '-';
+            long bits = (i < 16) ? msb : lsb;
+            int shift = 60 - ((i % 16) * 4);
+            chars[c++] = HEX[(int) ((bits >>> shift) & 0xf)];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,107 @@
+package meico.xml;
+
+import com.thaiopensource.relaxng.jaxp.XMLSyntaxSchemaFactory;
+import nu.xom.Document;
+import nu.xom.converters.SAXConverter;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.Source;
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * This class validates XML data against RELAX NG (.rng) schemas, which are compiled by Jing.
+ * Each schema is compiled only once and kept in a cache. The compiled schemas are thread-safe,
+ * so several documents can be validated in parallel against the same schema.
+ * @author Axel Berndt
+ */
+public class SchemaValidator {
+    private static final ConcurrentHashMap<String, Schema> schemas = new ConcurrentHashMap<>();    // the compiled schemas, the key is the schema URL
+
+    /**
+     * get the compiled schema; if it is not in the cache, yet, it is compiled and added to the cache
+     * @param schema the URL of an .rng file
+     * @return
+     * @throws SAXException if the schema cannot be compiled
+     */
+    public static Schema getSchema(URL schema) throws SAXException {
+        String key = schema.toExternalForm();
+        Schema compiled = schemas.get(key);
+        if (compiled != null)
+            return compiled;
+
+        compiled = (new XMLSyntaxSchemaFactory()).newSchema(schema);
+        Schema previous = schemas.putIfAbsent(key, compiled);   // another thread might have been faster
+        return (previous != null) ? previous : compiled;
+    }
+
+    /**
+     * remove all compiled schemas from the cache, e.g. if a schema file has changed
+     */
+    public static void clearCache() {
+        schemas.clear();
+    }
+
+    /**
+     * validate a XOM document against a schema; the document's SAX events are fed directly into the validator, so there is no need to serialize it first
+     * @param document
+     * @param schema
+     * @throws SAXException if the document is invalid
+     * @throws IOException if the schema cannot be read
+     */
+    public static void validate(Document document, URL schema) throws SAXException, IOException {
+        Schema compiled = SchemaValidator.compile(schema);
+        ValidatorHandler validator = compiled.newValidatorHandler();    // validators are not thread-safe, but cheap to create
+        new SAXConverter(validator).convert(document);
+    }
+
+    /**
+     * validate an XML source (e.g. a StreamSource of a file) against a schema
+     * @param source
+     * @param schema
+     * @throws SAXException if the data is invalid
+     * @throws IOException if the source or the schema cannot be read
+     */
+    public static void validate(Source source, URL schema) throws SAXException, IOException {
+        SchemaValidator.compile(schema).newValidator().validate(source);
+    }
+
+    /**
+     * Validate several XML objects against the same schema. The validations are done in parallel.
+     * Each object's isValid flag is set according to the result.
+     * @param xmls
+     * @param schema
+     * @return the validation reports in the order of the input list
+     */
+    public static ArrayList<String> validateAll(List<? extends XmlBase> xmls, URL schema) {
+        try {
+            SchemaValidator.getSchema(schema);                          // compile the schema once before the parallel validations start
+        } catch (SAXException e) {
+            e.printStackTrace();                                        // the individual validations will report the problem
+        }
+        return xmls.parallelStream().map(xml -> xml.validate(schema)).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * a helper method that gets the compiled schema, a compilation failure due to a missing schema file is reported as IOException
+     * @param schema
+     * @return
+     * @throws SAXException
+     * @throws IOException
+     */
+    private static Schema compile(URL schema) throws SAXException, IOException {
+        try {
+            return SchemaValidator.getSchema(schema);
+        } catch (SAXException e) {
+            if (e.getException() instanceof IOException)
+                throw (IOException) e.getException();
+            throw e;
+        }
+    }
+}
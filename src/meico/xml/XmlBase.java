@@ -1,6 +1,7 @@
 package meico.xml;
 
 import meico.mei.Helper;
+import meico.supplementary.IdGenerator;
 import net.sf.saxon.s9api.Xslt30Transformer;
 import nu.xom.*;
 import org.xml.sax.SAXException;
@@ -12,8 +13,8 @@ import javax.xml.parsers.SAXParserFactory;
 import java.io.*;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.TreeSet;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * This class is a primitive for all XML-based classes in meico.
@@ -25,6 +26,7 @@ public class XmlBase implements Cloneable {
     protected File file = null;             // the data file
     protected Document data = null;         // the xom Document representation of the XML data
     protected boolean isValid = false;      // indicates whether the input file contained valid data code (true) or not (false); it is also false if no validation has been performed
+    protected IdGenerator idGenerator = null;   // the generator of the ids that meico adds to this document, null means the generator that is bound to the current thread (by default random ids)
 
     /**
      * constructor
@@ -193,7 +195,7 @@ public class XmlBase implements Cloneable {
         String report = "Passed.";              // the validation report string, it will be overwritten if validation fails
 
         try {
-            Helper.validateAgainstSchema(this.data.toXML(), schema);
+            SchemaValidator.validate(this.getDocument(), schema);       // validate the document directly, without serializing it to a string first
 //            Helper.validateAgainstSchema(this.file, new URL("http://www.music-encoding.org/schema/current/mei-CMN.rng"));     // this variant takes the schema from the web, the user has to be online for this!
         } catch (SAXException e) {              // invalid data
             this.isValid = false;
@@ -294,7 +296,7 @@ public class XmlBase implements Cloneable {
         try {
             serializer = new Serializer(fileOutputStream, "UTF-8"); // connect serializer with FileOutputStream and specify encoding
             serializer.setIndent(4);                                // specify indents in xml code
-            serializer.write(this.data);                             // write data to file
+            serializer.write(this.getDocument());                   // write data to file
         } catch (NullPointerException | IOException e) {
             e.printStackTrace();
             returnValue = false;
@@ -329,7 +331,7 @@ public class XmlBase implements Cloneable {
     public synchronized String toXML() {
         if (this.isEmpty())
             return "";
-        return this.data.toXML();
+        return this.getDocument().toXML();
     }
 
     /**
@@ -357,7 +359,7 @@ public class XmlBase implements Cloneable {
     public Element getRootElement() {
         if (this.isEmpty())
             return null;
-        return this.data.getRootElement();
+        return this.getDocument().getRootElement();                 // subclasses may complete the document on access
     }
 
     /**
@@ -405,7 +407,7 @@ public class XmlBase implements Cloneable {
     public Document xslTransformToDocument(File xslt) {
         if (this.isEmpty())
             return null;
-        return Helper.xslTransformToDocument(this.data, xslt);
+        return Helper.xslTransformToDocument(this.getDocument(), xslt);
     }
 
     /**
@@ -416,7 +418,7 @@ public class XmlBase implements Cloneable {
     public Document xslTransformToDocument(Xslt30Transformer transform) {
         if (this.isEmpty())
             return null;
-        return Helper.xslTransformToDocument(this.data, transform);
+        return Helper.xslTransformToDocument(this.getDocument(), transform);
     }
 
     /**
@@ -427,7 +429,7 @@ public class XmlBase implements Cloneable {
     public String xslTransformToString(File xslt) {
         if (this.isEmpty())
             return null;
-        return Helper.xslTransformToString(this.data, xslt);
+        return Helper.xslTransformToString(this.getDocument(), xslt);
     }
 
     /**
@@ -438,7 +440,7 @@ public class XmlBase implements Cloneable {
     public String xslTransformToString(Xslt30Transformer transform) {
         if (this.isEmpty())
             return null;
-        return Helper.xslTransformToString(this.data, transform);
+        return Helper.xslTransformToString(this.getDocument(), transform);
     }
 
     /**
@@ -447,18 +449,22 @@ public class XmlBase implements Cloneable {
      */
     public int fixDuplicateIds() {
         int duplicates = 0;
-        TreeSet<String> uniqueIds = new TreeSet<String>();          // a set of IDs in the document
-
-        Nodes attributes = this.getRootElement().query("descendant-or-self::node()/attribute::xml:id");   // get all xml:id attribute
-        for (int i = 0; i < attributes.size(); ++i) {               // check all attributes
-            Attribute attribute = (Attribute)attributes.get(i);     // get the attribute
-            boolean duplicate = false;
-            while (uniqueIds.contains(attribute.getValue())) {
-                duplicate = true;
-                attribute.setValue("meico_" + UUID.randomUUID().toString());
-            }
-            uniqueIds.add(attribute.getValue());
-            duplicates += (duplicate ? 1 : 0);
+
+        ArrayList<Element> elements = Helper.getAllDescendants(this.getRootElement());
+        elements.add(0, this.getRootElement());
+        HashSet<String> allIds = this.getAllIds();                  // all IDs in the document, new IDs must not collide with any of them
+        HashSet<String> uniqueIds = new HashSet<>();                // the IDs that occurred so far
+        IdGenerator generator = this.prepareIdGenerator();
+        for (Element element : elements) {                          // check all elements in document order
+            Attribute attribute = element.getAttribute("id", "http://www.w3.org/XML/1998/namespace");  // get the xml:id attribute
+            if (attribute == null)
+                continue;
+            if (uniqueIds.add(attribute.getValue()))                // the first occurrence of the ID
+                continue;
+            String id = generator.generateUnique("meico_", allIds); // a duplicate gets a new ID
+            attribute.setValue(id);
+            uniqueIds.add(id);
+            ++duplicates;
         }
 
         System.out.println("Duplicate IDs found and fixed: " + duplicates);
@@ -466,6 +472,48 @@ public class XmlBase implements Cloneable {
         return duplicates;
     }
 
+    /**
+     * @return the xml:id values of all elements in the document
+     */
+    public HashSet<String> getAllIds() {
+        return Helper.getAllIds(this.getRootElement());
+    }
+
+    /**
+     * @return the generator of the ids that meico adds to this document
+     */
+    public IdGenerator getIdGenerator() {
+        return (this.idGenerator == null) ? IdGenerator.getGenerator() : this.idGenerator;
+    }
+
+    /**
+     * set the generator of the ids that meico adds to this document, e.g. IdGenerator.createCounterIdGenerator() for deterministic ids
+     * @param idGenerator null means the generator that is bound to the current thread (by default random ids)
+     */
+    public void setIdGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * get the id generator of this document, a counter-based generator skips the numbers that occur in the document's ids already
+     * @return
+     */
+    protected IdGenerator prepareIdGenerator() {
+        IdGenerator generator = this.getIdGenerator();
+        if (generator.isCounterBased())
+            generator.reserve(this.getAllIds());
+        return generator;
+    }
+
+    /**
+     * bind the id generator of this document to the current thread, so that IdGenerator.generateId() uses it, e.g. during a conversion;
+     * restore the previous generator afterwards via IdGenerator.bind()
+     * @return the generator that was bound before, may be null
+     */
+    public IdGenerator bindIdGenerator() {
+        return IdGenerator.bind(this.prepareIdGenerator());
+    }
+
     /**
      * create a clone of this object
      * @return
@@ -473,9 +521,10 @@ public class XmlBase implements Cloneable {
     @Override
     public XmlBase clone() {
         XmlBase clone = new XmlBase();
-        clone.data = this.data.copy();
+        clone.data = this.getDocument().copy();
         clone.file = this.file;
         clone.isValid = this.isValid;
+        clone.idGenerator = this.idGenerator;
         return clone;
     }
 }
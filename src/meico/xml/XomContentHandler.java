@@ -0,0 +1,148 @@
+package meico.xml;
+
+import nu.xom.*;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * This class builds a XOM Document from SAX events, e.g. from a JAXB marshaller or a SAX parser.
+ * The nodes are created via a XOM NodeFactory, so the data goes directly into the XOM tree without
+ * an intermediate serialization or DOM. This is the reverse of XOM's SAXConverter.
+ * Comments, processing instructions and document type declarations are not reported by ContentHandler and, hence, not part of the result.
+ * @author Axel Berndt
+ */
+public class XomContentHandler extends DefaultHandler {
+    private final NodeFactory factory;
+    private Document document = null;                                   // the document that is being built
+    private final ArrayDeque<Element> elements = new ArrayDeque<>();    // the open elements, the innermost first
+    private final ArrayList<String[]> prefixMappings = new ArrayList<>();   // the namespace declarations of the next element, each is {prefix, uri}
+    private final StringBuilder text = new StringBuilder();             // character data that is not yet added to the tree, SAX may split it into several events
+
+    /**
+     * constructor
+     */
+    public XomContentHandler() {
+        this(new NodeFactory());
+    }
+
+    /**
+     * constructor
+     * @param factory the factory that creates the nodes
+     */
+    public XomContentHandler(NodeFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return the document that was built or null if no document was completed
+     */
+    public Document getDocument() {
+        return this.elements.isEmpty() ? this.document : null;
+    }
+
+    @Override
+    public void startDocument() {
+        this.document = this.factory.startMakingDocument();
+        this.elements.clear();
+        this.prefixMappings.clear();
+        this.text.setLength(0);
+    }
+
+    @Override
+    public void endDocument() {
+        if (this.document != null)
+            this.factory.finishMakingDocument(this.document);
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        this.prefixMappings.add(new String[]{prefix, uri});
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        this.flushText();
+
+        if (qName.isEmpty())                                            // the qualified name is optional in SAX
+            qName = localName;
+
+        Element element;
+        if (this.elements.isEmpty()) {                                  // the root element
+            if (this.document == null)                                  // some producers do not start the document
+                this.startDocument();
+            element = this.factory.makeRootElement(qName, uri);
+            this.document.setRootElement(element);
+        }
+        else
+            element = this.factory.startMakingElement(qName, uri);
+
+        for (String[] mapping : this.prefixMappings) {
+            if (mapping[0].equals(element.getNamespacePrefix()) && mapping[1].equals(element.getNamespaceURI()))   // this is already declared by the element's name
+                continue;
+            element.addNamespaceDeclaration(mapping[0], mapping[1]);
+        }
+        this.prefixMappings.clear();
+
+        for (int i = 0; i < attributes.getLength(); ++i) {
+            String name = attributes.getQName(i);
+            if (name.isEmpty())
+                name = attributes.getLocalName(i);
+            if (name.equals("xmlns") || name.startsWith("xmlns:"))      // namespace declarations are reported via startPrefixMapping()
+                continue;
+            Nodes nodes = this.factory.makeAttribute(name, attributes.getURI(i), attributes.getValue(i), Attribute.Type.UNDECLARED);
+            this.addNodes(element, nodes);
+        }
+
+        this.elements.push(element);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        this.flushText();
+
+        Element element = this.elements.pop();
+        Nodes nodes = this.factory.finishMakingElement(element);
+        if (this.elements.isEmpty())                                    // the root element stays in the document
+            return;
+        this.addNodes(this.elements.peek(), nodes);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        this.text.append(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        this.text.append(ch, start, length);
+    }
+
+    /**
+     * add the pending character data as text node to the current element
+     */
+    private void flushText() {
+        if (this.text.length() == 0)
+            return;
+        if (!this.elements.isEmpty())                                   // text outside the root element is dropped, as XOM's Builder does
+            this.addNodes(this.elements.peek(), this.factory.makeText(this.text.toString()));
+        this.text.setLength(0);
+    }
+
+    /**
+     * add the nodes that the factory made to the parent
+     * @param parent
+     * @param nodes
+     */
+    private void addNodes(Element parent, Nodes nodes) {
+        for (int i = 0; i < nodes.size(); ++i) {
+            Node node = nodes.get(i);
+            if (node instanceof Attribute)
+                parent.addAttribute((Attribute) node);
+            else
+                parent.appendChild(node);
+        }
+    }
+}